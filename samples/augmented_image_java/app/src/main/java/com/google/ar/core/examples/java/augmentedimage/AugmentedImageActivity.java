@@ -41,7 +41,9 @@ import com.google.ar.core.Session;
 import com.google.ar.core.examples.java.augmentedimage.rendering.AugmentedImageRenderer;
 import com.google.ar.core.examples.java.common.helpers.CameraPermissionHelper;
 import com.google.ar.core.examples.java.common.helpers.DisplayRotationHelper;
+import com.google.ar.core.examples.java.common.helpers.FrameTracer;
 import com.google.ar.core.examples.java.common.helpers.FullScreenHelper;
+import com.google.ar.core.examples.java.common.helpers.LatencyRecorder;
 import com.google.ar.core.examples.java.common.helpers.SnackbarHelper;
 import com.google.ar.core.examples.java.common.rendering.BackgroundRenderer;
 import com.google.ar.core.exceptions.CameraNotAvailableException;
@@ -70,6 +72,17 @@ import javax.microedition.khronos.opengles.GL10;
 public class AugmentedImageActivity extends AppCompatActivity implements GLSurfaceView.Renderer {
   private static final String TAG = AugmentedImageActivity.class.getSimpleName();
 
+  // Set to true to trace the time spent in each part of onDrawFrame(). The trace is written to the
+  // app's external files directory whenever the app is paused, and can be opened in
+  // chrome://tracing or ui.perfetto.dev.
+  private static final boolean TRACE_FRAMES = false;
+
+  // Latency of session.update() and time between rendered frames, logged once per second.
+  private static final int RENDER_FRAME_STAGE = 0;
+  private static final int SESSION_UPDATE_STAGE = 1;
+  private final LatencyRecorder latencyRecorder =
+      new LatencyRecorder(/*windowMillis=*/ 1000, "Render frame", "session.update");
+
   // Rendering. The Renderers are created here, and initialized when the GL surface is created.
   private GLSurfaceView surfaceView;
   private ImageView fitToScanView;
@@ -103,11 +116,13 @@ public class AugmentedImageActivity extends AppCompatActivity implements GLSurfa
 
     // Set up renderer.
     surfaceView.setPreserveEGLContextOnPause(true);
-    surfaceView.setEGLContextClientVersion(2);
+    surfaceView.setEGLContextClientVersion(3);
     surfaceView.setEGLConfigChooser(8, 8, 8, 8, 16, 0); // Alpha used for plane blending.
     surfaceView.setRenderer(this);
     surfaceView.setRenderMode(GLSurfaceView.RENDERMODE_CONTINUOUSLY);
     surfaceView.setWillNotDraw(false);
+    FrameTracer.setEnabled(TRACE_FRAMES);
+    getLifecycle().addObserver(latencyRecorder);
 
     fitToScanView = findViewById(R.id.image_view_fit_to_scan);
     glideRequestManager = Glide.with(this);
@@ -197,6 +212,7 @@ public class AugmentedImageActivity extends AppCompatActivity implements GLSurfa
       // still call session.update() and get a SessionPausedException.
       displayRotationHelper.onPause();
       surfaceView.onPause();
+      FrameTracer.writeTraceIfEnabled(getExternalFilesDir(/*type=*/ null));
       session.pause();
     }
   }
@@ -253,13 +269,28 @@ public class AugmentedImageActivity extends AppCompatActivity implements GLSurfa
     // the video background can be properly adjusted.
     displayRotationHelper.updateSessionIfNeeded(session);
 
+    FrameTracer.beginSection("onDrawFrame");
     try {
       session.setCameraTextureName(backgroundRenderer.getTextureId());
 
       // Obtain the current frame from ARSession. When the configuration is set to
       // UpdateMode.BLOCKING (it is by default), this will throttle the rendering to the
       // camera framerate.
-      Frame frame = session.update();
+      long updateStart = latencyRecorder.start();
+      FrameTracer.beginSection("session.update");
+      Frame frame;
+      try {
+        frame = session.update();
+      } finally {
+        FrameTracer.endSection();
+      }
+      latencyRecorder.record(SESSION_UPDATE_STAGE, updateStart);
+
+      latencyRecorder.recordInterval(RENDER_FRAME_STAGE);
+      if (latencyRecorder.updateWindow()) {
+        latencyRecorder.logWindows(TAG);
+      }
+
       Camera camera = frame.getCamera();
 
       // If frame is ready, render camera preview image to the GL surface.
@@ -282,6 +313,8 @@ public class AugmentedImageActivity extends AppCompatActivity implements GLSurfa
     } catch (Throwable t) {
       // Avoid crashing the application due to unhandled exceptions.
       Log.e(TAG, "Exception on the OpenGL thread", t);
+    } finally {
+      FrameTracer.endSection();
     }
   }
 
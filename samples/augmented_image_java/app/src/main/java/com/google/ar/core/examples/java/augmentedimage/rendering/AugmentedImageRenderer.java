@@ -42,22 +42,22 @@ public class AugmentedImageRenderer {
   public void createOnGlThread(Context context) throws IOException {
 
     imageFrameUpperLeft.createOnGlThread(
-        context, "models/frame_upper_left.obj", "models/frame_base.png");
+        context, "models/frame_upper_left.mesh", "models/frame_base.png");
     imageFrameUpperLeft.setMaterialProperties(0.0f, 3.5f, 1.0f, 6.0f);
     imageFrameUpperLeft.setBlendMode(BlendMode.SourceAlpha);
 
     imageFrameUpperRight.createOnGlThread(
-        context, "models/frame_upper_right.obj", "models/frame_base.png");
+        context, "models/frame_upper_right.mesh", "models/frame_base.png");
     imageFrameUpperRight.setMaterialProperties(0.0f, 3.5f, 1.0f, 6.0f);
     imageFrameUpperRight.setBlendMode(BlendMode.SourceAlpha);
 
     imageFrameLowerLeft.createOnGlThread(
-        context, "models/frame_lower_left.obj", "models/frame_base.png");
+        context, "models/frame_lower_left.mesh", "models/frame_base.png");
     imageFrameLowerLeft.setMaterialProperties(0.0f, 3.5f, 1.0f, 6.0f);
     imageFrameLowerLeft.setBlendMode(BlendMode.SourceAlpha);
 
     imageFrameLowerRight.createOnGlThread(
-        context, "models/frame_lower_right.obj", "models/frame_base.png");
+        context, "models/frame_lower_right.mesh", "models/frame_base.png");
     imageFrameLowerRight.setMaterialProperties(0.0f, 3.5f, 1.0f, 6.0f);
     imageFrameLowerRight.setBlendMode(BlendMode.SourceAlpha);
   }
@@ -18,22 +18,20 @@ import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.opengl.GLES20;
+import android.opengl.GLES30;
 import android.opengl.GLUtils;
 import android.opengl.Matrix;
+import com.google.ar.core.examples.java.common.rendering.MeshFile;
+import com.google.ar.core.examples.java.common.rendering.MeshLoader;
 import com.google.ar.core.examples.java.common.rendering.ShaderUtil;
-import de.javagl.obj.Obj;
-import de.javagl.obj.ObjData;
-import de.javagl.obj.ObjReader;
-import de.javagl.obj.ObjUtils;
 import java.io.IOException;
-import java.io.InputStream;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
-import java.nio.IntBuffer;
-import java.nio.ShortBuffer;
-
-/** Renders an object loaded from an OBJ file in OpenGL. */
+
+/**
+ * Renders an object loaded from a mesh or OBJ file in OpenGL.
+ *
+ * <p>The vertex attributes are bound into a vertex array object when the model is loaded, so this
+ * renderer needs an OpenGL ES 3.0 context.
+ */
 public class ObjectRenderer {
   private static final String TAG = ObjectRenderer.class.getSimpleName();
 
@@ -60,12 +58,11 @@ public class ObjectRenderer {
   private final float[] viewLightDirection = new float[4];
 
   // Object vertex buffer variables.
+  private int vertexArrayId;
   private int vertexBufferId;
-  private int verticesBaseAddress;
-  private int texCoordsBaseAddress;
-  private int normalsBaseAddress;
   private int indexBufferId;
   private int indexCount;
+  private int indexType;
 
   private int program;
   private final int[] textures = new int[1];
@@ -113,11 +110,12 @@ public class ObjectRenderer {
    * Creates and initializes OpenGL resources needed for rendering the model.
    *
    * @param context Context for loading the shader and below-named model and texture assets.
-   * @param objAssetName Name of the OBJ file containing the model geometry.
+   * @param meshAssetName Name of the file containing the model geometry, either a mesh file
+   *     converted from an OBJ file at build time, see {@link MeshFile}, or an OBJ file.
    * @param diffuseTextureAssetName Name of the PNG file containing the diffuse texture map.
    */
-  public void createOnGlThread(Context context, String objAssetName, String diffuseTextureAssetName)
-      throws IOException {
+  public void createOnGlThread(
+      Context context, String meshAssetName, String diffuseTextureAssetName) throws IOException {
     // Read the texture.
     Bitmap textureBitmap =
         BitmapFactory.decodeStream(context.getAssets().open(diffuseTextureAssetName));
@@ -137,67 +135,6 @@ public class ObjectRenderer {
 
     ShaderUtil.checkGLError(TAG, "Texture loading");
 
-    // Read the obj file.
-    InputStream objInputStream = context.getAssets().open(objAssetName);
-    Obj obj = ObjReader.read(objInputStream);
-
-    // Prepare the Obj so that its structure is suitable for
-    // rendering with OpenGL:
-    // 1. Triangulate it
-    // 2. Make sure that texture coordinates are not ambiguous
-    // 3. Make sure that normals are not ambiguous
-    // 4. Convert it to single-indexed data
-    obj = ObjUtils.convertToRenderable(obj);
-
-    // OpenGL does not use Java arrays. ByteBuffers are used instead to provide data in a format
-    // that OpenGL understands.
-
-    // Obtain the data from the OBJ, as direct buffers:
-    IntBuffer wideIndices = ObjData.getFaceVertexIndices(obj, 3);
-    FloatBuffer vertices = ObjData.getVertices(obj);
-    FloatBuffer texCoords = ObjData.getTexCoords(obj, 2);
-    FloatBuffer normals = ObjData.getNormals(obj);
-
-    // Convert int indices to shorts for GL ES 2.0 compatibility
-    ShortBuffer indices =
-        ByteBuffer.allocateDirect(2 * wideIndices.limit())
-            .order(ByteOrder.nativeOrder())
-            .asShortBuffer();
-    while (wideIndices.hasRemaining()) {
-      indices.put((short) wideIndices.get());
-    }
-    indices.rewind();
-
-    int[] buffers = new int[2];
-    GLES20.glGenBuffers(2, buffers, 0);
-    vertexBufferId = buffers[0];
-    indexBufferId = buffers[1];
-
-    // Load vertex buffer
-    verticesBaseAddress = 0;
-    texCoordsBaseAddress = verticesBaseAddress + 4 * vertices.limit();
-    normalsBaseAddress = texCoordsBaseAddress + 4 * texCoords.limit();
-    final int totalBytes = normalsBaseAddress + 4 * normals.limit();
-
-    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vertexBufferId);
-    GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, totalBytes, null, GLES20.GL_STATIC_DRAW);
-    GLES20.glBufferSubData(
-        GLES20.GL_ARRAY_BUFFER, verticesBaseAddress, 4 * vertices.limit(), vertices);
-    GLES20.glBufferSubData(
-        GLES20.GL_ARRAY_BUFFER, texCoordsBaseAddress, 4 * texCoords.limit(), texCoords);
-    GLES20.glBufferSubData(
-        GLES20.GL_ARRAY_BUFFER, normalsBaseAddress, 4 * normals.limit(), normals);
-    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
-
-    // Load index buffer
-    GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, indexBufferId);
-    indexCount = indices.limit();
-    GLES20.glBufferData(
-        GLES20.GL_ELEMENT_ARRAY_BUFFER, 2 * indexCount, indices, GLES20.GL_STATIC_DRAW);
-    GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
-
-    ShaderUtil.checkGLError(TAG, "OBJ buffer load");
-
     final int vertexShader =
         ShaderUtil.loadGLShader(TAG, context, GLES20.GL_VERTEX_SHADER, "shaders/object.vert");
     final int fragmentShader =
@@ -228,6 +165,77 @@ public class ObjectRenderer {
 
     ShaderUtil.checkGLError(TAG, "Program parameters");
 
+    // Read the mesh. The frame is drawn close to the tracked image, so only the full level of
+    // detail is loaded.
+    MeshFile mesh = MeshLoader.load(context, meshAssetName).getLevel(0);
+
+    int[] buffers = new int[2];
+    GLES20.glGenBuffers(2, buffers, 0);
+    vertexBufferId = buffers[0];
+    indexBufferId = buffers[1];
+
+    // The vertex array object records the attribute layout and the index buffer binding below.
+    int[] vertexArrays = new int[1];
+    GLES30.glGenVertexArrays(1, vertexArrays, 0);
+    vertexArrayId = vertexArrays[0];
+    GLES30.glBindVertexArray(vertexArrayId);
+
+    // Load vertex buffer
+    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vertexBufferId);
+    GLES20.glBufferData(
+        GLES20.GL_ARRAY_BUFFER, mesh.vertices.remaining(), mesh.vertices, GLES20.GL_STATIC_DRAW);
+
+    // Set the vertex attributes.
+    GLES20.glVertexAttribPointer(
+        positionAttribute,
+        COORDS_PER_VERTEX,
+        GLES20.GL_FLOAT,
+        false,
+        mesh.vertexStride,
+        MeshFile.POSITION_OFFSET);
+    if (mesh.vertexFormat == MeshFile.VERTEX_FORMAT_QUANTIZED) {
+      // Packed normals always have 4 components, the shader ignores the unused fourth one.
+      GLES20.glVertexAttribPointer(
+          normalAttribute,
+          4,
+          GLES30.GL_INT_2_10_10_10_REV,
+          true,
+          mesh.vertexStride,
+          MeshFile.NORMAL_OFFSET);
+      GLES20.glVertexAttribPointer(
+          texCoordAttribute,
+          2,
+          GLES30.GL_HALF_FLOAT,
+          false,
+          mesh.vertexStride,
+          mesh.texCoordOffset);
+    } else {
+      GLES20.glVertexAttribPointer(
+          normalAttribute, 3, GLES20.GL_FLOAT, false, mesh.vertexStride, MeshFile.NORMAL_OFFSET);
+      GLES20.glVertexAttribPointer(
+          texCoordAttribute, 2, GLES20.GL_FLOAT, false, mesh.vertexStride, mesh.texCoordOffset);
+    }
+    GLES20.glEnableVertexAttribArray(positionAttribute);
+    GLES20.glEnableVertexAttribArray(normalAttribute);
+    GLES20.glEnableVertexAttribArray(texCoordAttribute);
+
+    // Load index buffer
+    GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, indexBufferId);
+    indexCount = mesh.indexCount;
+    indexType = mesh.indexSize == 2 ? GLES20.GL_UNSIGNED_SHORT : GLES20.GL_UNSIGNED_INT;
+    GLES20.glBufferData(
+        GLES20.GL_ELEMENT_ARRAY_BUFFER,
+        mesh.indices.remaining(),
+        mesh.indices,
+        GLES20.GL_STATIC_DRAW);
+
+    // Unbind the vertex array object first, so that it keeps the index buffer binding.
+    GLES30.glBindVertexArray(0);
+    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+    GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+
+    ShaderUtil.checkGLError(TAG, "Mesh buffer load");
+
     Matrix.setIdentityM(modelMatrix, 0);
   }
 
@@ -332,26 +340,10 @@ public class ObjectRenderer {
     GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textures[0]);
     GLES20.glUniform1i(textureUniform, 0);
 
-    // Set the vertex attributes.
-    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vertexBufferId);
-
-    GLES20.glVertexAttribPointer(
-        positionAttribute, COORDS_PER_VERTEX, GLES20.GL_FLOAT, false, 0, verticesBaseAddress);
-    GLES20.glVertexAttribPointer(normalAttribute, 3, GLES20.GL_FLOAT, false, 0, normalsBaseAddress);
-    GLES20.glVertexAttribPointer(
-        texCoordAttribute, 2, GLES20.GL_FLOAT, false, 0, texCoordsBaseAddress);
-
-    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
-
     // Set the ModelViewProjection matrix in the shader.
     GLES20.glUniformMatrix4fv(modelViewUniform, 1, false, modelViewMatrix, 0);
     GLES20.glUniformMatrix4fv(modelViewProjectionUniform, 1, false, modelViewProjectionMatrix, 0);
 
-    // Enable vertex arrays
-    GLES20.glEnableVertexAttribArray(positionAttribute);
-    GLES20.glEnableVertexAttribArray(normalAttribute);
-    GLES20.glEnableVertexAttribArray(texCoordAttribute);
-
     if (blendMode != null) {
       GLES20.glDepthMask(false);
       GLES20.glEnable(GLES20.GL_BLEND);
@@ -367,20 +359,16 @@ public class ObjectRenderer {
       }
     }
 
-    GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, indexBufferId);
-    GLES20.glDrawElements(GLES20.GL_TRIANGLES, indexCount, GLES20.GL_UNSIGNED_SHORT, 0);
-    GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+    // The vertex array object holds the vertex attributes and the index buffer.
+    GLES30.glBindVertexArray(vertexArrayId);
+    GLES20.glDrawElements(GLES20.GL_TRIANGLES, indexCount, indexType, 0);
+    GLES30.glBindVertexArray(0);
 
     if (blendMode != null) {
       GLES20.glDisable(GLES20.GL_BLEND);
       GLES20.glDepthMask(true);
     }
 
-    // Disable vertex arrays
-    GLES20.glDisableVertexAttribArray(positionAttribute);
-    GLES20.glDisableVertexAttribArray(normalAttribute);
-    GLES20.glDisableVertexAttribArray(texCoordAttribute);
-
     GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
 
     ShaderUtil.checkGLError(TAG, "After draw");
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2019 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.rendering;
+
+import de.javagl.obj.Obj;
+import de.javagl.obj.ObjData;
+import de.javagl.obj.ObjReader;
+import de.javagl.obj.ObjUtils;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Converts OBJ models to the binary {@link MeshFile} format.
+ *
+ * <p>The conversion runs at build time, see meshes.gradle, so that apps load their models without
+ * parsing OBJ text. It can also be run by hand:
+ *
+ * <pre>
+ * java MeshConverter [--quantize] [--levels &lt;count&gt;] &lt;output directory&gt;
+ *     &lt;OBJ file&gt;...
+ * </pre>
+ *
+ * <p>With --quantize, the mesh files store their vertices in the smaller {@link
+ * MeshFile#VERTEX_FORMAT_QUANTIZED} format. With --levels, the mesh files store up to the given
+ * number of levels of detail, each with about half the triangles of the previous one, built with
+ * {@link MeshSimplifier}.
+ *
+ * <p>This class only depends on the Java standard library and the OBJ library.
+ */
+public class MeshConverter {
+  private static final String OBJ_EXTENSION = ".obj";
+  private static final String QUANTIZE_OPTION = "--quantize";
+  private static final String LEVELS_OPTION = "--levels";
+  private static final String USAGE =
+      "Usage: MeshConverter [--quantize] [--levels <count>] <output directory> <OBJ file>...";
+
+  // A level of detail is only added if it has at most this fraction of the triangles of the
+  // previous level, since levels that barely simplify the mesh are not worth their index data.
+  private static final float MAX_LEVEL_TRIANGLE_RATIO = 0.75f;
+
+  private MeshConverter() {}
+
+  /**
+   * Converts OBJ files to mesh files with the same name in an output directory.
+   *
+   * @param args optionally --quantize and --levels followed by the maximum number of levels of
+   *     detail, then the output directory, followed by the OBJ files to convert.
+   */
+  public static void main(String[] args) throws IOException {
+    int arg = 0;
+    int vertexFormat = MeshFile.VERTEX_FORMAT_FLOAT;
+    int maxLevelCount = 1;
+    if (arg < args.length && args[arg].equals(QUANTIZE_OPTION)) {
+      vertexFormat = MeshFile.VERTEX_FORMAT_QUANTIZED;
+      arg++;
+    }
+    if (arg < args.length && args[arg].equals(LEVELS_OPTION)) {
+      if (arg + 1 >= args.length) {
+        throw new IllegalArgumentException(USAGE);
+      }
+      maxLevelCount = Integer.parseInt(args[arg + 1]);
+      if (maxLevelCount < 1) {
+        throw new IllegalArgumentException("Invalid number of levels: " + maxLevelCount);
+      }
+      arg += 2;
+    }
+    if (arg >= args.length) {
+      throw new IllegalArgumentException(USAGE);
+    }
+    File outputDirectory = new File(args[arg++]);
+    if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+      throw new IOException("Failed to create " + outputDirectory);
+    }
+    for (int i = arg; i < args.length; i++) {
+      File objFile = new File(args[i]);
+      String name = objFile.getName();
+      if (name.endsWith(OBJ_EXTENSION)) {
+        name = name.substring(0, name.length() - OBJ_EXTENSION.length());
+      }
+      File meshFile = new File(outputDirectory, name + MeshFile.FILE_EXTENSION);
+
+      ByteBuffer mesh;
+      try (InputStream objInputStream = new FileInputStream(objFile)) {
+        mesh = convert(objInputStream, vertexFormat, maxLevelCount);
+      }
+      try (FileChannel channel = new FileOutputStream(meshFile).getChannel()) {
+        while (mesh.hasRemaining()) {
+          channel.write(mesh);
+        }
+      }
+    }
+  }
+
+  /**
+   * Reads an OBJ model and converts it to the contents of a mesh file with a single level of
+   * detail.
+   *
+   * @param objInputStream the OBJ model. Not closed by this method.
+   * @param vertexFormat the vertex format of the mesh file, see {@link MeshFile}.
+   * @return the contents of the mesh file, which can be passed to {@link MeshFile#read}.
+   */
+  public static ByteBuffer convert(InputStream objInputStream, int vertexFormat)
+      throws IOException {
+    return convert(objInputStream, vertexFormat, 1);
+  }
+
+  /**
+   * Reads an OBJ model and converts it to the contents of a mesh file.
+   *
+   * @param objInputStream the OBJ model. Not closed by this method.
+   * @param vertexFormat the vertex format of the mesh file, see {@link MeshFile}.
+   * @param maxLevelCount the maximum number of levels of detail, including the full mesh. Fewer
+   *     levels are stored if the mesh cannot be simplified further.
+   * @return the contents of the mesh file, which can be passed to {@link MeshFile#read}.
+   */
+  public static ByteBuffer convert(InputStream objInputStream, int vertexFormat, int maxLevelCount)
+      throws IOException {
+    Obj obj = ObjReader.read(objInputStream);
+
+    // Prepare the Obj so that its structure is suitable for
+    // rendering with OpenGL:
+    // 1. Triangulate it
+    // 2. Make sure that texture coordinates are not ambiguous
+    // 3. Make sure that normals are not ambiguous
+    // 4. Convert it to single-indexed data
+    obj = ObjUtils.convertToRenderable(obj);
+
+    IntBuffer indices = ObjData.getFaceVertexIndices(obj, 3);
+    FloatBuffer positions = ObjData.getVertices(obj);
+    FloatBuffer normals = ObjData.getNormals(obj);
+    FloatBuffer texCoords = ObjData.getTexCoords(obj, 2);
+
+    // Interleave the attributes. Missing normals and texture coordinates are left zero.
+    int vertexCount = positions.limit() / 3;
+    int floatsPerVertex = MeshFile.FLOAT_VERTEX_STRIDE / 4;
+    float[] vertexData = new float[vertexCount * floatsPerVertex];
+    for (int i = 0; i < vertexCount; i++) {
+      int vertex = i * floatsPerVertex;
+      for (int j = 0; j < 3; j++) {
+        vertexData[vertex + MeshFile.POSITION_OFFSET / 4 + j] = positions.get(i * 3 + j);
+        if (normals.limit() == positions.limit()) {
+          vertexData[vertex + MeshFile.NORMAL_OFFSET / 4 + j] = normals.get(i * 3 + j);
+        }
+      }
+      if (texCoords.limit() == vertexCount * 2) {
+        for (int j = 0; j < 2; j++) {
+          vertexData[vertex + MeshFile.FLOAT_TEX_COORD_OFFSET / 4 + j] = texCoords.get(i * 2 + j);
+        }
+      }
+    }
+
+    int[] indexData = new int[indices.limit()];
+    indices.get(indexData);
+    if (maxLevelCount == 1) {
+      return MeshFile.write(vertexData, indexData, vertexFormat);
+    }
+
+    float[] positionData = new float[vertexCount * 3];
+    positions.get(positionData);
+    List<int[]> levelIndexData = new ArrayList<>();
+    List<Float> levelErrors = new ArrayList<>();
+    levelIndexData.add(indexData);
+    levelErrors.add(0f);
+    MeshSimplifier simplifier = new MeshSimplifier(positionData, indexData);
+    while (levelIndexData.size() < maxLevelCount) {
+      int previousIndexCount = levelIndexData.get(levelIndexData.size() - 1).length;
+      int[] levelIndices = simplifier.simplify(previousIndexCount / 6 * 3);
+      if (levelIndices.length > previousIndexCount * MAX_LEVEL_TRIANGLE_RATIO) {
+        break;
+      }
+      levelIndexData.add(levelIndices);
+      levelErrors.add(simplifier.getError());
+    }
+
+    float[] errors = new float[levelErrors.size()];
+    for (int level = 0; level < errors.length; level++) {
+      errors[level] = levelErrors.get(level);
+    }
+    return MeshFile.write(vertexData, levelIndexData.toArray(new int[0][]), errors, vertexFormat);
+  }
+}
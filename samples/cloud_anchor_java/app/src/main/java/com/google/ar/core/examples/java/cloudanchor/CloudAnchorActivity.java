@@ -44,7 +44,9 @@ import com.google.ar.core.Trackable;
 import com.google.ar.core.TrackingState;
 import com.google.ar.core.examples.java.common.helpers.CameraPermissionHelper;
 import com.google.ar.core.examples.java.common.helpers.DisplayRotationHelper;
+import com.google.ar.core.examples.java.common.helpers.FrameTracer;
 import com.google.ar.core.examples.java.common.helpers.FullScreenHelper;
+import com.google.ar.core.examples.java.common.helpers.LatencyRecorder;
 import com.google.ar.core.examples.java.common.helpers.SnackbarHelper;
 import com.google.ar.core.examples.java.common.rendering.BackgroundRenderer;
 import com.google.ar.core.examples.java.common.rendering.ObjectRenderer;
@@ -70,6 +72,18 @@ import javax.microedition.khronos.opengles.GL10;
  */
 public class CloudAnchorActivity extends AppCompatActivity implements GLSurfaceView.Renderer {
   private static final String TAG = CloudAnchorActivity.class.getSimpleName();
+
+  // Set to true to trace the time spent in each part of onDrawFrame(). The trace is written to the
+  // app's external files directory whenever the app is paused, and can be opened in
+  // chrome://tracing or ui.perfetto.dev.
+  private static final boolean TRACE_FRAMES = false;
+
+  // Latency of session.update() and time between rendered frames, logged once per second.
+  private static final int RENDER_FRAME_STAGE = 0;
+  private static final int SESSION_UPDATE_STAGE = 1;
+  private final LatencyRecorder latencyRecorder =
+      new LatencyRecorder(/*windowMillis=*/ 1000, "Render frame", "session.update");
+
   private static final float[] OBJECT_COLOR = new float[] {139.0f, 195.0f, 74.0f, 255.0f};
 
   private enum HostResolveMode {
@@ -150,12 +164,14 @@ public class CloudAnchorActivity extends AppCompatActivity implements GLSurfaceV
 
     // Set up renderer.
     surfaceView.setPreserveEGLContextOnPause(true);
-    surfaceView.setEGLContextClientVersion(2);
+    surfaceView.setEGLContextClientVersion(3);
     surfaceView.setEGLConfigChooser(8, 8, 8, 8, 16, 0); // Alpha used for plane blending.
     surfaceView.setRenderer(this);
     surfaceView.setRenderMode(GLSurfaceView.RENDERMODE_CONTINUOUSLY);
     surfaceView.setWillNotDraw(false);
     installRequested = false;
+    FrameTracer.setEnabled(TRACE_FRAMES);
+    getLifecycle().addObserver(latencyRecorder);
 
     // Initialize UI components.
     hostButton = findViewById(R.id.host_button);
@@ -247,6 +263,7 @@ public class CloudAnchorActivity extends AppCompatActivity implements GLSurfaceV
       // still call session.update() and get a SessionPausedException.
       displayRotationHelper.onPause();
       surfaceView.onPause();
+      FrameTracer.writeTraceIfEnabled(getExternalFilesDir(/*type=*/ null));
       session.pause();
     }
   }
@@ -331,11 +348,11 @@ public class CloudAnchorActivity extends AppCompatActivity implements GLSurfaceV
       planeRenderer.createOnGlThread(this, "models/trigrid.png");
       pointCloudRenderer.createOnGlThread(this);
 
-      virtualObject.createOnGlThread(this, "models/andy.obj", "models/andy.png");
+      virtualObject.createOnGlThread(this, "models/andy.mesh", "models/andy.png");
       virtualObject.setMaterialProperties(0.0f, 2.0f, 0.5f, 6.0f);
 
       virtualObjectShadow.createOnGlThread(
-          this, "models/andy_shadow.obj", "models/andy_shadow.png");
+          this, "models/andy_shadow.mesh", "models/andy_shadow.png");
       virtualObjectShadow.setBlendMode(BlendMode.Shadow);
       virtualObjectShadow.setMaterialProperties(1.0f, 0.0f, 0.0f, 1.0f);
     } catch (IOException ex) {
@@ -361,13 +378,28 @@ public class CloudAnchorActivity extends AppCompatActivity implements GLSurfaceV
     // the video background can be properly adjusted.
     displayRotationHelper.updateSessionIfNeeded(session);
 
+    FrameTracer.beginSection("onDrawFrame");
     try {
       session.setCameraTextureName(backgroundRenderer.getTextureId());
 
       // Obtain the current frame from ARSession. When the configuration is set to
       // UpdateMode.BLOCKING (it is by default), this will throttle the rendering to the
       // camera framerate.
-      Frame frame = session.update();
+      long updateStart = latencyRecorder.start();
+      FrameTracer.beginSection("session.update");
+      Frame frame;
+      try {
+        frame = session.update();
+      } finally {
+        FrameTracer.endSection();
+      }
+      latencyRecorder.record(SESSION_UPDATE_STAGE, updateStart);
+
+      latencyRecorder.recordInterval(RENDER_FRAME_STAGE);
+      if (latencyRecorder.updateWindow()) {
+        latencyRecorder.logWindows(TAG);
+      }
+
       Camera camera = frame.getCamera();
       TrackingState cameraTrackingState = camera.getTrackingState();
 
@@ -426,6 +458,8 @@ public class CloudAnchorActivity extends AppCompatActivity implements GLSurfaceV
     } catch (Throwable t) {
       // Avoid crashing the application due to unhandled exceptions.
       Log.e(TAG, "Exception on the OpenGL thread", t);
+    } finally {
+      FrameTracer.endSection();
     }
   }
 
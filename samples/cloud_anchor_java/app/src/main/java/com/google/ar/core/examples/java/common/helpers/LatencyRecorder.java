@@ -0,0 +1,294 @@
+/*
+ * Copyright 2019 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.helpers;
+
+import android.arch.lifecycle.DefaultLifecycleObserver;
+import android.arch.lifecycle.LifecycleOwner;
+import android.support.annotation.NonNull;
+import android.util.Log;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records the latency of named stages of an app, e.g. session.update() or drawing, and reports
+ * their percentiles over consecutive time windows.
+ *
+ * <p>Durations are measured with System.nanoTime() and counted in histogram buckets on a log scale,
+ * 16 buckets per power of two, so percentiles are accurate to about 6%. Recording is lock-free and
+ * does not allocate, so stages can be recorded on any thread, e.g. on the OpenGL thread and on an
+ * image processing thread at the same time. Windows are completed by {@link #updateWindow()},
+ * which must always be called on the same thread, typically once per frame on the OpenGL thread.
+ *
+ * <pre>
+ * long start = latencyRecorder.start();
+ * Frame frame = session.update();
+ * latencyRecorder.record(SESSION_UPDATE_STAGE, start);
+ * </pre>
+ *
+ * <p>Stages are identified by their index in the names passed to the constructor. Recorded data is
+ * cleared when the observed lifecycle resumes.
+ */
+public class LatencyRecorder implements DefaultLifecycleObserver {
+  // Each power of two is split into 2^SUB_BUCKET_BITS buckets. Durations below
+  // SUB_BUCKET_COUNT nanoseconds have a bucket each.
+  private static final int SUB_BUCKET_BITS = 4;
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+  // Longer durations, about 18 minutes, are counted in the last bucket.
+  private static final int MAX_EXPONENT = 39;
+  private static final int BUCKET_COUNT =
+      (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKET_COUNT;
+
+  /** Latency statistics of a stage over the last completed window. Durations are in nanoseconds. */
+  public static class Window {
+    /** Number of durations recorded. */
+    public long count;
+
+    /** Length of the window. */
+    public long durationNanos;
+
+    /** Median duration. */
+    public long p50;
+
+    /** 95th percentile duration. */
+    public long p95;
+
+    /** 99th percentile duration. */
+    public long p99;
+
+    /** Longest duration. */
+    public long max;
+
+    /** Returns the number of durations recorded per second, or zero for an empty window. */
+    public float getRate() {
+      return durationNanos == 0 ? 0f : count * (float) TimeUnit.SECONDS.toNanos(1) / durationNanos;
+    }
+  }
+
+  private final String[] stageNames;
+  private final long windowNanos;
+
+  // Bucket counts of all stages, BUCKET_COUNT per stage, and the longest duration of each stage,
+  // since the start of the current window.
+  private final AtomicLongArray buckets;
+  private final AtomicLongArray maxima;
+
+  // Time of the previous call to recordInterval() for each stage, or zero.
+  private final AtomicLongArray previousIntervalTimes;
+
+  // Only accessed by the thread calling updateWindow(), except when resetting.
+  private final Window[] windows;
+  private final long[] windowBuckets = new long[BUCKET_COUNT];
+  private final StringBuilder logText = new StringBuilder();
+  private volatile long windowStart;
+
+  /**
+   * Creates a recorder.
+   *
+   * @param windowMillis length of the windows percentiles are reported for, in milliseconds.
+   * @param stageNames names of the stages. Each stage is identified by its index in this list.
+   */
+  public LatencyRecorder(long windowMillis, String... stageNames) {
+    if (windowMillis <= 0) {
+      throw new IllegalArgumentException("Invalid window length: " + windowMillis);
+    }
+    this.stageNames = stageNames.clone();
+    this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+    buckets = new AtomicLongArray(stageNames.length * BUCKET_COUNT);
+    maxima = new AtomicLongArray(stageNames.length);
+    previousIntervalTimes = new AtomicLongArray(stageNames.length);
+    windows = new Window[stageNames.length];
+    for (int i = 0; i < windows.length; i++) {
+      windows[i] = new Window();
+    }
+    windowStart = System.nanoTime();
+  }
+
+  @Override
+  public void onResume(@NonNull LifecycleOwner owner) {
+    // Reset latency data during initialization and after app pause.
+    for (int i = 0; i < buckets.length(); i++) {
+      buckets.set(i, 0);
+    }
+    for (int stage = 0; stage < stageNames.length; stage++) {
+      maxima.set(stage, 0);
+      previousIntervalTimes.set(stage, 0);
+    }
+    windowStart = System.nanoTime();
+  }
+
+  /** Returns the number of stages. */
+  public int getStageCount() {
+    return stageNames.length;
+  }
+
+  /** Returns the name of a stage. */
+  public String getStageName(int stage) {
+    return stageNames[stage];
+  }
+
+  /** Returns the start time of a stage, to be passed to {@link #record(int, long)}. */
+  public long start() {
+    return System.nanoTime();
+  }
+
+  /**
+   * Records the duration of a stage which ends now.
+   *
+   * @param stage the index of the stage.
+   * @param startNanos the start time returned by {@link #start()}.
+   */
+  public void record(int stage, long startNanos) {
+    recordDuration(stage, System.nanoTime() - startNanos);
+  }
+
+  /**
+   * Records the time since the previous call for the same stage, e.g. the frame-to-frame time when
+   * called once per frame. The first call after resuming only records the current time.
+   *
+   * @param stage the index of the stage.
+   */
+  public void recordInterval(int stage) {
+    long now = System.nanoTime();
+    long previous = previousIntervalTimes.getAndSet(stage, now);
+    if (previous != 0) {
+      recordDuration(stage, now - previous);
+    }
+  }
+
+  /**
+   * Records a duration of a stage.
+   *
+   * @param stage the index of the stage.
+   * @param durationNanos the duration, in nanoseconds.
+   */
+  public void recordDuration(int stage, long durationNanos) {
+    long duration = Math.max(0, durationNanos);
+    buckets.incrementAndGet((stage * BUCKET_COUNT) + getBucket(duration));
+    long max;
+    do {
+      max = maxima.get(stage);
+    } while (duration > max && !maxima.compareAndSet(stage, max, duration));
+  }
+
+  /**
+   * Completes the current window if it has lasted long enough, and starts the next one.
+   *
+   * @return whether a window was completed, in which case {@link #getWindow(int)} returns new
+   *     statistics.
+   */
+  public boolean updateWindow() {
+    long now = System.nanoTime();
+    long duration = now - windowStart;
+    if (duration < windowNanos) {
+      return false;
+    }
+    windowStart = now;
+    for (int stage = 0; stage < stageNames.length; stage++) {
+      completeWindow(stage, duration);
+    }
+    return true;
+  }
+
+  /**
+   * Returns the statistics of a stage over the last completed window. The returned object is
+   * updated in place by {@link #updateWindow()}, and must only be read on the same thread.
+   */
+  public Window getWindow(int stage) {
+    return windows[stage];
+  }
+
+  /**
+   * Logs the statistics of all stages over the last completed window as a single line, in
+   * milliseconds. Must be called on the thread calling {@link #updateWindow()}, typically when it
+   * returns true.
+   *
+   * @param tag the tag of the log message.
+   */
+  public void logWindows(String tag) {
+    logText.setLength(0);
+    logText.append("Latency p50/p95/p99/max ms:");
+    for (int stage = 0; stage < stageNames.length; stage++) {
+      Window window = windows[stage];
+      logText.append(stage == 0 ? " " : ", ").append(stageNames[stage]).append(' ');
+      appendMillis(window.p50).append('/');
+      appendMillis(window.p95).append('/');
+      appendMillis(window.p99).append('/');
+      appendMillis(window.max).append(" (").append(window.count).append(')');
+    }
+    Log.d(tag, logText.toString());
+  }
+
+  /** Appends a duration to logText in milliseconds, with one decimal. */
+  private StringBuilder appendMillis(long nanos) {
+    long tenthsOfMillis = (nanos + 50_000) / 100_000;
+    return logText.append(tenthsOfMillis / 10).append('.').append(tenthsOfMillis % 10);
+  }
+
+  private void completeWindow(int stage, long duration) {
+    // Take the counts of the window. Durations recorded meanwhile are counted in the next one.
+    long count = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      windowBuckets[i] = buckets.getAndSet((stage * BUCKET_COUNT) + i, 0);
+      count += windowBuckets[i];
+    }
+
+    Window window = windows[stage];
+    window.count = count;
+    window.durationNanos = duration;
+    window.max = maxima.getAndSet(stage, 0);
+    window.p50 = getPercentile(count, 0.50, window.max);
+    window.p95 = getPercentile(count, 0.95, window.max);
+    window.p99 = getPercentile(count, 0.99, window.max);
+  }
+
+  /** Returns a percentile of the durations in windowBuckets, never above the longest duration. */
+  private long getPercentile(long count, double fraction, long max) {
+    if (count == 0) {
+      return 0;
+    }
+    long rank = (long) Math.ceil(fraction * count);
+    long seen = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      seen += windowBuckets[i];
+      if (seen >= rank) {
+        return Math.min(getBucketUpperBound(i), max);
+      }
+    }
+    return max;
+  }
+
+  private static int getBucket(long duration) {
+    if (duration < SUB_BUCKET_COUNT) {
+      return (int) duration;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(duration);
+    if (exponent > MAX_EXPONENT) {
+      return BUCKET_COUNT - 1;
+    }
+    int subBucket = (int) (duration >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+    return ((exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT) + subBucket;
+  }
+
+  /** Returns the longest duration counted in a bucket. */
+  private static long getBucketUpperBound(int bucket) {
+    if (bucket < SUB_BUCKET_COUNT) {
+      return bucket;
+    }
+    int exponent = (bucket / SUB_BUCKET_COUNT) + SUB_BUCKET_BITS - 1;
+    long subBucket = bucket % SUB_BUCKET_COUNT;
+    return ((SUB_BUCKET_COUNT + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+  }
+}
@@ -0,0 +1,552 @@
+/*
+ * Copyright 2019 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.rendering;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A triangle mesh in the binary format produced by {@link MeshConverter}, ready to be uploaded to
+ * OpenGL buffers without any parsing or conversion.
+ *
+ * <p>A mesh file is little-endian and consists of:
+ *
+ * <ul>
+ *   <li>A header of {@link #HEADER_SIZE} bytes: the magic number, the format version, the vertex
+ *       format, the vertex count, the vertex stride, the total index count, the index size in
+ *       bytes, the number of levels of detail, the minimum and maximum corners of the bounding
+ *       box, the radius of the bounding sphere centered on the box, and the offsets of the level
+ *       table, the vertex data and the index data.
+ *   <li>The level table, {@link #LEVEL_ENTRY_SIZE} bytes per level of detail: the first index and
+ *       the index count of the level, and its error as a distance in model units. Level 0 is the
+ *       full mesh with no error, the following levels are simplified versions of it with
+ *       increasing errors, see {@link MeshSimplifier}.
+ *   <li>The interleaved vertices, in one of two formats:
+ *       <ul>
+ *         <li>{@link #VERTEX_FORMAT_FLOAT}, {@link #FLOAT_VERTEX_STRIDE} bytes each: the position
+ *             as 3 floats, the normal as 3 floats and the texture coordinates as 2 floats.
+ *         <li>{@link #VERTEX_FORMAT_QUANTIZED}, {@link #QUANTIZED_VERTEX_STRIDE} bytes each: the
+ *             position as 3 floats, the normal as signed normalized 10-bit components packed into
+ *             a 32-bit value like GL_INT_2_10_10_10_REV, and the texture coordinates as 2
+ *             half-floats.
+ *       </ul>
+ *   <li>The triangle indices of all levels, one level after the other, as unsigned 16-bit values
+ *       if there are at most 65536 vertices, and 32-bit values otherwise. All levels index the same
+ *       vertices.
+ * </ul>
+ *
+ * <p>This class only depends on the Java standard library, so that it can be used by the build
+ * step that converts OBJ models.
+ */
+public class MeshFile {
+  /** File name extension of mesh files. */
+  public static final String FILE_EXTENSION = ".mesh";
+
+  /** Size of the header, in bytes. */
+  public static final int HEADER_SIZE = 72;
+
+  /** Size of each entry of the level table, in bytes. */
+  public static final int LEVEL_ENTRY_SIZE = 12;
+
+  /** Vertex format storing all attributes as floats. */
+  public static final int VERTEX_FORMAT_FLOAT = 0;
+
+  /** Vertex format storing packed normals and half-float texture coordinates. */
+  public static final int VERTEX_FORMAT_QUANTIZED = 1;
+
+  /** Size of each vertex in the float format, in bytes. */
+  public static final int FLOAT_VERTEX_STRIDE = 32;
+
+  /** Size of each vertex in the quantized format, in bytes. */
+  public static final int QUANTIZED_VERTEX_STRIDE = 20;
+
+  /** Offset of the position in each vertex, in bytes. */
+  public static final int POSITION_OFFSET = 0;
+
+  /** Offset of the normal in each vertex, in bytes. */
+  public static final int NORMAL_OFFSET = 12;
+
+  /** Offset of the texture coordinates in each vertex in the float format, in bytes. */
+  public static final int FLOAT_TEX_COORD_OFFSET = 24;
+
+  /** Offset of the texture coordinates in each vertex in the quantized format, in bytes. */
+  public static final int QUANTIZED_TEX_COORD_OFFSET = 16;
+
+  private static final int FLOATS_PER_VERTEX = FLOAT_VERTEX_STRIDE / 4;
+
+  // "MESH" in little-endian byte order.
+  private static final int MAGIC = 0x4853454D;
+  private static final int VERSION = 3;
+
+  // Largest vertex count that can be addressed by 16-bit indices.
+  private static final int MAX_SHORT_INDEXED_VERTICES = 1 << 16;
+
+  /** Format of the vertices, {@link #VERTEX_FORMAT_FLOAT} or {@link #VERTEX_FORMAT_QUANTIZED}. */
+  public final int vertexFormat;
+
+  /** Size of each vertex, in bytes. */
+  public final int vertexStride;
+
+  /** Offset of the texture coordinates in each vertex, in bytes. */
+  public final int texCoordOffset;
+
+  /** Number of vertices. */
+  public final int vertexCount;
+
+  /** Number of indices of all levels, three per triangle. */
+  public final int indexCount;
+
+  /** Size of each index, 2 or 4 bytes. */
+  public final int indexSize;
+
+  /** Number of levels of detail, at least 1. */
+  public final int levelCount;
+
+  /** Index of the first index of each level. */
+  public final int[] levelFirstIndices;
+
+  /** Number of indices of each level. */
+  public final int[] levelIndexCounts;
+
+  /**
+   * Error of each level, as the distance from the full mesh in model units. Increases with the
+   * level, and is zero for level 0.
+   */
+  public final float[] levelErrors;
+
+  /** Minimum corner of the axis-aligned bounding box. */
+  public final float[] boundsMin;
+
+  /** Maximum corner of the axis-aligned bounding box. */
+  public final float[] boundsMax;
+
+  /** Radius of the bounding sphere centered on the bounding box. */
+  public final float boundingRadius;
+
+  /** The interleaved vertex data, {@link #vertexStride} bytes per vertex. */
+  public final ByteBuffer vertices;
+
+  /** The index data of all levels, {@link #indexSize} bytes per index. */
+  public final ByteBuffer indices;
+
+  private MeshFile(
+      int vertexFormat,
+      int vertexCount,
+      int indexCount,
+      int indexSize,
+      int[] levelFirstIndices,
+      int[] levelIndexCounts,
+      float[] levelErrors,
+      float[] boundsMin,
+      float[] boundsMax,
+      float boundingRadius,
+      ByteBuffer vertices,
+      ByteBuffer indices) {
+    this.vertexFormat = vertexFormat;
+    this.vertexStride = getVertexStride(vertexFormat);
+    this.texCoordOffset =
+        vertexFormat == VERTEX_FORMAT_QUANTIZED
+            ? QUANTIZED_TEX_COORD_OFFSET
+            : FLOAT_TEX_COORD_OFFSET;
+    this.vertexCount = vertexCount;
+    this.indexCount = indexCount;
+    this.indexSize = indexSize;
+    this.levelCount = levelFirstIndices.length;
+    this.levelFirstIndices = levelFirstIndices;
+    this.levelIndexCounts = levelIndexCounts;
+    this.levelErrors = levelErrors;
+    this.boundsMin = boundsMin;
+    this.boundsMax = boundsMax;
+    this.boundingRadius = boundingRadius;
+    this.vertices = vertices;
+    this.indices = indices;
+  }
+
+  /**
+   * Reads a mesh from the contents of a mesh file. The vertex and index data are not copied, the
+   * returned buffers are slices of the given buffer.
+   *
+   * @param file the contents of the file, e.g. a memory-mapped asset.
+   */
+  public static MeshFile read(ByteBuffer file) throws IOException {
+    ByteBuffer header = file.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC) {
+      throw new IOException("Not a mesh file.");
+    }
+    int version = header.getInt();
+    if (version != VERSION) {
+      throw new IOException("Unsupported mesh file version: " + version);
+    }
+    int vertexFormat = header.getInt();
+    int vertexCount = header.getInt();
+    int vertexStride = header.getInt();
+    int indexCount = header.getInt();
+    int indexSize = header.getInt();
+    int levelCount = header.getInt();
+    if (vertexFormat != VERTEX_FORMAT_FLOAT && vertexFormat != VERTEX_FORMAT_QUANTIZED) {
+      throw new IOException("Unsupported vertex format: " + vertexFormat);
+    }
+    if (vertexStride != getVertexStride(vertexFormat) || (indexSize != 2 && indexSize != 4)) {
+      throw new IOException("Unsupported vertex stride or index size.");
+    }
+    float[] boundsMin = {header.getFloat(), header.getFloat(), header.getFloat()};
+    float[] boundsMax = {header.getFloat(), header.getFloat(), header.getFloat()};
+    float boundingRadius = header.getFloat();
+    int levelTableOffset = header.getInt();
+    int vertexOffset = header.getInt();
+    int indexOffset = header.getInt();
+
+    int start = file.position();
+    if (levelCount < 1
+        || levelTableOffset < HEADER_SIZE
+        || vertexOffset < levelTableOffset + levelCount * LEVEL_ENTRY_SIZE
+        || indexOffset < vertexOffset + vertexCount * vertexStride
+        || indexOffset + indexCount * indexSize > file.remaining()) {
+      throw new IOException("Truncated mesh file.");
+    }
+    int[] levelFirstIndices = new int[levelCount];
+    int[] levelIndexCounts = new int[levelCount];
+    float[] levelErrors = new float[levelCount];
+    header.position(start + levelTableOffset);
+    for (int level = 0; level < levelCount; level++) {
+      levelFirstIndices[level] = header.getInt();
+      levelIndexCounts[level] = header.getInt();
+      levelErrors[level] = header.getFloat();
+      if (levelFirstIndices[level] < 0
+          || levelIndexCounts[level] < 0
+          || levelFirstIndices[level] + levelIndexCounts[level] > indexCount) {
+        throw new IOException("Invalid level of detail: " + level);
+      }
+    }
+    return new MeshFile(
+        vertexFormat,
+        vertexCount,
+        indexCount,
+        indexSize,
+        levelFirstIndices,
+        levelIndexCounts,
+        levelErrors,
+        boundsMin,
+        boundsMax,
+        boundingRadius,
+        slice(file, start + vertexOffset, vertexCount * vertexStride),
+        slice(file, start + indexOffset, indexCount * indexSize));
+  }
+
+  /**
+   * Writes a mesh file with a single level of detail.
+   *
+   * @param vertexData the interleaved vertices in the float format, {@link #FLOAT_VERTEX_STRIDE} /
+   *     4 floats per vertex.
+   * @param indexData the triangle indices.
+   * @param vertexFormat the format to store the vertices in. Normals and texture coordinates lose
+   *     precision in {@link #VERTEX_FORMAT_QUANTIZED}, positions are always stored as floats.
+   * @return the contents of the file, positioned at its start.
+   */
+  public static ByteBuffer write(float[] vertexData, int[] indexData, int vertexFormat) {
+    return write(vertexData, new int[][] {indexData}, new float[] {0}, vertexFormat);
+  }
+
+  /**
+   * Writes a mesh file with several levels of detail.
+   *
+   * @param vertexData the interleaved vertices in the float format, {@link #FLOAT_VERTEX_STRIDE} /
+   *     4 floats per vertex.
+   * @param levelIndexData the triangle indices of each level, starting with the full mesh.
+   * @param levelErrors the error of each level, see {@link #levelErrors}.
+   * @param vertexFormat the format to store the vertices in. Normals and texture coordinates lose
+   *     precision in {@link #VERTEX_FORMAT_QUANTIZED}, positions are always stored as floats.
+   * @return the contents of the file, positioned at its start.
+   */
+  public static ByteBuffer write(
+      float[] vertexData, int[][] levelIndexData, float[] levelErrors, int vertexFormat) {
+    if (levelIndexData.length == 0 || levelIndexData.length != levelErrors.length) {
+      throw new IllegalArgumentException("Missing levels or level errors.");
+    }
+    int indexCount = 0;
+    for (int[] indexData : levelIndexData) {
+      if (indexData.length % 3 != 0) {
+        throw new IllegalArgumentException("Incomplete triangle.");
+      }
+      indexCount += indexData.length;
+    }
+    if (vertexData.length % FLOATS_PER_VERTEX != 0) {
+      throw new IllegalArgumentException("Incomplete vertex.");
+    }
+    if (vertexFormat != VERTEX_FORMAT_FLOAT && vertexFormat != VERTEX_FORMAT_QUANTIZED) {
+      throw new IllegalArgumentException("Unsupported vertex format: " + vertexFormat);
+    }
+    int vertexStride = getVertexStride(vertexFormat);
+    int vertexCount = vertexData.length / FLOATS_PER_VERTEX;
+    int indexSize = vertexCount <= MAX_SHORT_INDEXED_VERTICES ? 2 : 4;
+
+    // Bounding box, and the bounding sphere around its center.
+    float[] boundsMin = new float[3];
+    float[] boundsMax = new float[3];
+    for (int axis = 0; axis < 3; axis++) {
+      boundsMin[axis] = vertexCount > 0 ? Float.MAX_VALUE : 0;
+      boundsMax[axis] = vertexCount > 0 ? -Float.MAX_VALUE : 0;
+    }
+    for (int i = 0; i < vertexData.length; i += FLOATS_PER_VERTEX) {
+      for (int axis = 0; axis < 3; axis++) {
+        boundsMin[axis] = Math.min(boundsMin[axis], vertexData[i + axis]);
+        boundsMax[axis] = Math.max(boundsMax[axis], vertexData[i + axis]);
+      }
+    }
+    float maxDistanceSquared = 0;
+    for (int i = 0; i < vertexData.length; i += FLOATS_PER_VERTEX) {
+      float distanceSquared = 0;
+      for (int axis = 0; axis < 3; axis++) {
+        float delta = vertexData[i + axis] - (boundsMin[axis] + boundsMax[axis]) / 2;
+        distanceSquared += delta * delta;
+      }
+      maxDistanceSquared = Math.max(maxDistanceSquared, distanceSquared);
+    }
+
+    int levelTableOffset = HEADER_SIZE;
+    int vertexOffset = levelTableOffset + levelIndexData.length * LEVEL_ENTRY_SIZE;
+    // Keep the index data 4-byte aligned.
+    int indexOffset = (vertexOffset + vertexCount * vertexStride + 3) & ~3;
+    int size = indexOffset + ((indexCount * indexSize + 3) & ~3);
+
+    ByteBuffer file = ByteBuffer.allocateDirect(size).order(ByteOrder.LITTLE_ENDIAN);
+    file.putInt(MAGIC)
+        .putInt(VERSION)
+        .putInt(vertexFormat)
+        .putInt(vertexCount)
+        .putInt(vertexStride)
+        .putInt(indexCount)
+        .putInt(indexSize)
+        .putInt(levelIndexData.length);
+    for (float value : boundsMin) {
+      file.putFloat(value);
+    }
+    for (float value : boundsMax) {
+      file.putFloat(value);
+    }
+    file.putFloat((float) Math.sqrt(maxDistanceSquared))
+        .putInt(levelTableOffset)
+        .putInt(vertexOffset)
+        .putInt(indexOffset);
+
+    int firstIndex = 0;
+    for (int level = 0; level < levelIndexData.length; level++) {
+      file.putInt(firstIndex).putInt(levelIndexData[level].length).putFloat(levelErrors[level]);
+      firstIndex += levelIndexData[level].length;
+    }
+
+    file.position(vertexOffset);
+    if (vertexFormat == VERTEX_FORMAT_FLOAT) {
+      file.asFloatBuffer().put(vertexData);
+    } else {
+      for (int i = 0; i < vertexData.length; i += FLOATS_PER_VERTEX) {
+        int normal = i + NORMAL_OFFSET / 4;
+        int texCoord = i + FLOAT_TEX_COORD_OFFSET / 4;
+        file.putFloat(vertexData[i])
+            .putFloat(vertexData[i + 1])
+            .putFloat(vertexData[i + 2])
+            .putInt(
+                packSnorm10(vertexData[normal])
+                    | packSnorm10(vertexData[normal + 1]) << 10
+                    | packSnorm10(vertexData[normal + 2]) << 20)
+            .putShort(toHalfFloat(vertexData[texCoord]))
+            .putShort(toHalfFloat(vertexData[texCoord + 1]));
+      }
+    }
+    file.position(indexOffset);
+    for (int[] indexData : levelIndexData) {
+      for (int index : indexData) {
+        if (index < 0 || index >= vertexCount) {
+          throw new IllegalArgumentException("Index out of range: " + index);
+        }
+        if (indexSize == 2) {
+          file.putShort((short) index);
+        } else {
+          file.putInt(index);
+        }
+      }
+    }
+    file.position(0);
+    return file;
+  }
+
+  /**
+   * Returns a single level of detail of this mesh. The vertex and index data are not copied.
+   *
+   * @param level the level, from 0 to {@link #levelCount} - 1.
+   */
+  public MeshFile getLevel(int level) {
+    if (levelCount == 1) {
+      return this;
+    }
+    return new MeshFile(
+        vertexFormat,
+        vertexCount,
+        levelIndexCounts[level],
+        indexSize,
+        new int[] {0},
+        new int[] {levelIndexCounts[level]},
+        new float[] {levelErrors[level]},
+        boundsMin,
+        boundsMax,
+        boundingRadius,
+        vertices,
+        slice(indices, levelFirstIndices[level] * indexSize, levelIndexCounts[level] * indexSize));
+  }
+
+  /**
+   * Splits a mesh with 32-bit indices into meshes with at most 65536 vertices each, which use
+   * 16-bit indices. The triangles are kept in order, and vertices used by triangles in several
+   * parts are duplicated. The parts keep the bounds of the whole mesh.
+   *
+   * <p>Only meshes with a single level of detail can be split, see {@link #getLevel(int)}.
+   *
+   * @return the parts, or only this mesh if it already uses 16-bit indices.
+   */
+  public MeshFile[] splitForShortIndices() {
+    if (levelCount != 1) {
+      throw new IllegalStateException("Cannot split a mesh with several levels of detail.");
+    }
+    if (indexSize == 2) {
+      return new MeshFile[] {this};
+    }
+    IntBuffer sourceIndices = indices.duplicate().order(indices.order()).asIntBuffer();
+    ByteBuffer sourceVertices = vertices.duplicate();
+    List<MeshFile> parts = new ArrayList<>();
+
+    // The part each vertex was last added to, and its index in that part.
+    int[] vertexPart = new int[vertexCount];
+    int[] partIndexOfVertex = new int[vertexCount];
+    Arrays.fill(vertexPart, -1);
+
+    int[] partVertices = new int[MAX_SHORT_INDEXED_VERTICES];
+    short[] partIndices = new short[indexCount];
+    int partVertexCount = 0;
+    int partIndexCount = 0;
+    for (int triangle = 0; triangle < indexCount; triangle += 3) {
+      int newVertexCount = 0;
+      for (int i = triangle; i < triangle + 3; i++) {
+        if (vertexPart[sourceIndices.get(i)] != parts.size()) {
+          newVertexCount++;
+        }
+      }
+      if (partVertexCount + newVertexCount > MAX_SHORT_INDEXED_VERTICES) {
+        parts.add(
+            createPart(sourceVertices, partVertices, partVertexCount, partIndices, partIndexCount));
+        partVertexCount = 0;
+        partIndexCount = 0;
+      }
+      for (int i = triangle; i < triangle + 3; i++) {
+        int vertex = sourceIndices.get(i);
+        if (vertexPart[vertex] != parts.size()) {
+          vertexPart[vertex] = parts.size();
+          partIndexOfVertex[vertex] = partVertexCount;
+          partVertices[partVertexCount++] = vertex;
+        }
+        partIndices[partIndexCount++] = (short) partIndexOfVertex[vertex];
+      }
+    }
+    if (partIndexCount > 0 || parts.isEmpty()) {
+      parts.add(
+          createPart(sourceVertices, partVertices, partVertexCount, partIndices, partIndexCount));
+    }
+    return parts.toArray(new MeshFile[0]);
+  }
+
+  private MeshFile createPart(
+      ByteBuffer sourceVertices,
+      int[] partVertices,
+      int partVertexCount,
+      short[] partIndices,
+      int partIndexCount) {
+    ByteBuffer partVertexData =
+        ByteBuffer.allocateDirect(partVertexCount * vertexStride).order(ByteOrder.nativeOrder());
+    for (int i = 0; i < partVertexCount; i++) {
+      int start = partVertices[i] * vertexStride;
+      sourceVertices.limit(start + vertexStride).position(start);
+      partVertexData.put(sourceVertices);
+    }
+    partVertexData.flip();
+    ByteBuffer partIndexData =
+        ByteBuffer.allocateDirect(partIndexCount * 2).order(ByteOrder.nativeOrder());
+    partIndexData.asShortBuffer().put(partIndices, 0, partIndexCount);
+    return new MeshFile(
+        vertexFormat,
+        partVertexCount,
+        partIndexCount,
+        2,
+        new int[] {0},
+        new int[] {partIndexCount},
+        levelErrors,
+        boundsMin,
+        boundsMax,
+        boundingRadius,
+        partVertexData,
+        partIndexData);
+  }
+
+  private static int getVertexStride(int vertexFormat) {
+    return vertexFormat == VERTEX_FORMAT_QUANTIZED ? QUANTIZED_VERTEX_STRIDE : FLOAT_VERTEX_STRIDE;
+  }
+
+  /** Converts a value in [-1, 1] to a signed normalized 10-bit integer, in the lowest 10 bits. */
+  private static int packSnorm10(float value) {
+    return Math.round(Math.max(-1f, Math.min(1f, value)) * 511f) & 0x3FF;
+  }
+
+  /** Converts a float to the bits of the nearest half-float, rounding ties to even. */
+  static short toHalfFloat(float value) {
+    int bits = Float.floatToIntBits(value);
+    int sign = (bits >>> 16) & 0x8000;
+    int floatExponent = (bits >>> 23) & 0xFF;
+    int mantissa = bits & 0x7FFFFF;
+    if (floatExponent == 0xFF) {
+      // Infinity or NaN.
+      return (short) (sign | 0x7C00 | (mantissa != 0 ? 0x200 : 0));
+    }
+    int exponent = floatExponent - 127 + 15;
+    int half;
+    int shift;
+    if (exponent > 0) {
+      half = exponent << 10 | mantissa >> 13;
+      shift = 13;
+    } else if (exponent >= -10) {
+      // Subnormal half-float, the implicit leading bit becomes explicit.
+      mantissa |= 0x800000;
+      shift = 14 - exponent;
+      half = mantissa >> shift;
+    } else {
+      return (short) sign;
+    }
+    int remainder = mantissa & ((1 << shift) - 1);
+    int halfway = 1 << (shift - 1);
+    if (remainder > halfway || (remainder == halfway && (half & 1) != 0)) {
+      // May carry into the exponent, which also rounds too large values to infinity.
+      half++;
+    }
+    return (short) (sign | Math.min(half, 0x7C00));
+  }
+
+  private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+    ByteBuffer slice = buffer.duplicate();
+    slice.limit(offset + length).position(offset);
+    return slice.slice().order(ByteOrder.nativeOrder());
+  }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2019 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.rendering;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/** Loads model geometry from the app assets. */
+public final class MeshLoader {
+  private MeshLoader() {}
+
+  /**
+   * Loads a model. Mesh files are mapped into memory, so that their vertex and index data can be
+   * passed to glBufferData() as they are. Any other asset is parsed as an OBJ file, and keeps its
+   * vertices in the float format.
+   *
+   * @param context Context for loading the asset.
+   * @param assetName Name of the mesh or OBJ file.
+   */
+  public static MeshFile load(Context context, String assetName) throws IOException {
+    if (assetName.endsWith(MeshFile.FILE_EXTENSION)) {
+      return MeshFile.read(mapAsset(context.getAssets(), assetName));
+    }
+    try (InputStream objInputStream = context.getAssets().open(assetName)) {
+      return MeshFile.read(MeshConverter.convert(objInputStream, MeshFile.VERTEX_FORMAT_FLOAT));
+    }
+  }
+
+  /**
+   * Maps an asset into memory. Assets can only be mapped if they are stored uncompressed, see
+   * aaptOptions.noCompress in meshes.gradle. Compressed assets are read into a direct buffer.
+   */
+  private static ByteBuffer mapAsset(AssetManager assets, String assetName) throws IOException {
+    try (AssetFileDescriptor descriptor = assets.openFd(assetName);
+        FileInputStream inputStream = descriptor.createInputStream()) {
+      return inputStream
+          .getChannel()
+          .map(FileChannel.MapMode.READ_ONLY, descriptor.getStartOffset(), descriptor.getLength());
+    } catch (FileNotFoundException e) {
+      // openFd() fails for compressed assets.
+      try (InputStream inputStream = assets.open(assetName)) {
+        ByteArrayOutputStream contents = new ByteArrayOutputStream();
+        byte[] chunk = new byte[16 * 1024];
+        for (int length; (length = inputStream.read(chunk)) != -1; ) {
+          contents.write(chunk, 0, length);
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(contents.size());
+        buffer.put(contents.toByteArray()).flip();
+        return buffer;
+      }
+    }
+  }
+}
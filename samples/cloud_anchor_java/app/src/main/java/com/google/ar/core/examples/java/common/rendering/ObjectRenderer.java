@@ -18,21 +18,30 @@ import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.opengl.GLES20;
+import android.opengl.GLES30;
 import android.opengl.GLUtils;
 import android.opengl.Matrix;
-import de.javagl.obj.Obj;
-import de.javagl.obj.ObjData;
-import de.javagl.obj.ObjReader;
-import de.javagl.obj.ObjUtils;
+import android.util.Log;
+import com.google.ar.core.examples.java.common.helpers.FrameTracer;
 import java.io.IOException;
-import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
-import java.nio.IntBuffer;
-import java.nio.ShortBuffer;
+import java.util.Arrays;
 
-/** Renders an object loaded from an OBJ file in OpenGL. */
+/**
+ * Renders an object loaded from a mesh or OBJ file in OpenGL.
+ *
+ * <p>The vertex attributes are bound into a vertex array object when the model is loaded, so this
+ * renderer needs an OpenGL ES 3.0 context.
+ *
+ * <p>A renderer either draws one object at a time with {@link #draw}, or, when it is created with a
+ * maximum number of instances, many objects at once with {@link #drawInstances}.
+ *
+ * <p>If the mesh file has several levels of detail, each object is drawn with the simplest level
+ * whose error stays below {@link #setMaxScreenError(float) a fraction of the screen} at the
+ * distance of the object, so that far away objects cost fewer triangles.
+ */
 public class ObjectRenderer {
   private static final String TAG = ObjectRenderer.class.getSimpleName();
 
@@ -48,24 +57,91 @@ public class ObjectRenderer {
     Grid
   }
 
+  /**
+   * How to draw meshes with more than 65536 vertices, which cannot be addressed by 16-bit indices.
+   *
+   * @see #setLargeMeshMode(LargeMeshMode)
+   */
+  public enum LargeMeshMode {
+    /** Draws the mesh with 32-bit indices, in one draw call. */
+    UnsignedIntIndices,
+    /**
+     * Splits the mesh into parts with 16-bit indices, drawn with one draw call each. Halves the
+     * size of the indices, but duplicates the vertices shared by several parts.
+     */
+    Split,
+    /**
+     * Times a draw of the mesh in each of the other modes when it is loaded, and keeps the faster
+     * one. Uses {@link #UnsignedIntIndices} if the GPU cannot time draws.
+     */
+    Automatic
+  }
+
   // Shader names.
   private static final String VERTEX_SHADER_NAME = "shaders/object.vert";
   private static final String FRAGMENT_SHADER_NAME = "shaders/object.frag";
+  private static final String INSTANCED_VERTEX_SHADER_NAME = "shaders/object_instanced.vert";
+  private static final String INSTANCED_FRAGMENT_SHADER_NAME = "shaders/object_instanced.frag";
 
   private static final int COORDS_PER_VERTEX = 3;
+
+  // Constants of the GL_EXT_disjoint_timer_query extension, used to time the large mesh modes.
+  private static final String TIMER_QUERY_EXTENSION = "GL_EXT_disjoint_timer_query";
+  private static final int GL_TIME_ELAPSED_EXT = 0x88BF;
+  private static final int GL_GPU_DISJOINT_EXT = 0x8FBB;
+
+  // Number of timed draws of each large mesh mode. The fastest draw of each mode is compared, so
+  // that the first draws, which may include driver setup, do not count.
+  private static final int LARGE_MESH_MODE_TIMED_DRAWS = 5;
+
+  // Per-instance data: the model matrix followed by the object color.
+  private static final int BYTES_PER_FLOAT = Float.SIZE / 8;
+  private static final int FLOATS_PER_MATRIX = 16;
+  private static final int FLOATS_PER_COLOR = 4;
+  private static final int INSTANCE_STRIDE =
+      (FLOATS_PER_MATRIX + FLOATS_PER_COLOR) * BYTES_PER_FLOAT;
   private static final float[] DEFAULT_COLOR = new float[] {0f, 0f, 0f, 0f};
 
+  // About one pixel on a phone screen.
+  private static final float DEFAULT_MAX_SCREEN_ERROR = 0.001f;
+
   // Note: the last component must be zero to avoid applying the translational part of the matrix.
   private static final float[] LIGHT_DIRECTION = new float[] {0.250f, 0.866f, 0.433f, 0.0f};
   private final float[] viewLightDirection = new float[4];
 
-  // Object vertex buffer variables.
-  private int vertexBufferId;
-  private int verticesBaseAddress;
-  private int texCoordsBaseAddress;
-  private int normalsBaseAddress;
-  private int indexBufferId;
-  private int indexCount;
+  /**
+   * Object vertex buffer variables, one per mesh part of each level of detail. There is only one
+   * part per level unless the mesh is split, see LargeMeshMode.
+   */
+  private static class MeshParts {
+    // The parts of level i are levelFirstParts[i] to levelFirstParts[i + 1] - 1.
+    int[] levelFirstParts;
+    int[] vertexArrayIds;
+    int[] indexCounts;
+    int[] indexTypes;
+    int[] indexOffsets;
+
+    // Vertex and index buffers of all parts.
+    int[] bufferIds;
+  }
+
+  private MeshParts meshParts;
+
+  // Level of detail selection variables.
+  private float[] levelErrors;
+  private final float[] boundsCenter = new float[4];
+  private final float[] viewBoundsCenter = new float[4];
+  private float boundingRadius;
+  private float maxScreenError = DEFAULT_MAX_SCREEN_ERROR;
+
+  // Number of instances to draw with each level of detail.
+  private int[] levelInstanceCounts;
+
+  // Instance buffer variables. maxInstances is zero if objects are drawn one at a time. The
+  // instances drawn with level of detail i start at instance i * maxInstances in the buffer.
+  private int maxInstances;
+  private int instanceBufferId;
+  private FloatBuffer instanceData;
 
   private int program;
   private final int[] textures = new int[1];
@@ -74,16 +150,25 @@ public class ObjectRenderer {
   private int modelViewUniform;
   private int modelViewProjectionUniform;
 
+  // Shader location: view and view projection matrices, used instead of the above when instancing.
+  private int viewUniform;
+  private int viewProjectionUniform;
+
   // Shader location: object attributes.
   private int positionAttribute;
   private int normalAttribute;
   private int texCoordAttribute;
 
+  // Shader location: per-instance attributes.
+  private int modelMatrixAttribute;
+  private int colorAttribute;
+
   // Shader location: texture sampler.
   private int textureUniform;
 
   // Shader location: environment properties.
   private int lightingParametersUniform;
+  private int lightDirectionUniform;
 
   // Shader location: material properties.
   private int materialParametersUniform;
@@ -95,11 +180,13 @@ public class ObjectRenderer {
   private int colorUniform;
 
   private BlendMode blendMode = null;
+  private LargeMeshMode largeMeshMode = LargeMeshMode.Automatic;
 
   // Temporary matrices allocated here to reduce number of allocations for each frame.
   private final float[] modelMatrix = new float[16];
   private final float[] modelViewMatrix = new float[16];
   private final float[] modelViewProjectionMatrix = new float[16];
+  private final float[] viewProjectionMatrix = new float[16];
 
   // Set some default material properties to use for lighting.
   private float ambient = 0.3f;
@@ -113,15 +200,45 @@ public class ObjectRenderer {
    * Creates and initializes OpenGL resources needed for rendering the model.
    *
    * @param context Context for loading the shader and below-named model and texture assets.
-   * @param objAssetName Name of the OBJ file containing the model geometry.
+   * @param meshAssetName Name of the file containing the model geometry, either a mesh file
+   *     converted from an OBJ file at build time, see {@link MeshFile}, or an OBJ file.
    * @param diffuseTextureAssetName Name of the PNG file containing the diffuse texture map.
    */
-  public void createOnGlThread(Context context, String objAssetName, String diffuseTextureAssetName)
+  public void createOnGlThread(
+      Context context, String meshAssetName, String diffuseTextureAssetName) throws IOException {
+    createOnGlThread(context, meshAssetName, diffuseTextureAssetName, 0);
+  }
+
+  /**
+   * Creates and initializes OpenGL resources needed for rendering the model.
+   *
+   * @param context Context for loading the shader and below-named model and texture assets.
+   * @param meshAssetName Name of the file containing the model geometry, either a mesh file
+   *     converted from an OBJ file at build time, see {@link MeshFile}, or an OBJ file.
+   * @param diffuseTextureAssetName Name of the PNG file containing the diffuse texture map.
+   * @param maxInstances Maximum number of instances drawn at once by {@link #drawInstances}, or
+   *     zero to draw one object at a time with {@link #draw}.
+   */
+  public void createOnGlThread(
+      Context context, String meshAssetName, String diffuseTextureAssetName, int maxInstances)
       throws IOException {
+    if (maxInstances < 0) {
+      throw new IllegalArgumentException("Invalid maximum number of instances: " + maxInstances);
+    }
+    this.maxInstances = maxInstances;
+
     final int vertexShader =
-        ShaderUtil.loadGLShader(TAG, context, GLES20.GL_VERTEX_SHADER, VERTEX_SHADER_NAME);
+        ShaderUtil.loadGLShader(
+            TAG,
+            context,
+            GLES20.GL_VERTEX_SHADER,
+            maxInstances > 0 ? INSTANCED_VERTEX_SHADER_NAME : VERTEX_SHADER_NAME);
     final int fragmentShader =
-        ShaderUtil.loadGLShader(TAG, context, GLES20.GL_FRAGMENT_SHADER, FRAGMENT_SHADER_NAME);
+        ShaderUtil.loadGLShader(
+            TAG,
+            context,
+            GLES20.GL_FRAGMENT_SHADER,
+            maxInstances > 0 ? INSTANCED_FRAGMENT_SHADER_NAME : FRAGMENT_SHADER_NAME);
 
     program = GLES20.glCreateProgram();
     GLES20.glAttachShader(program, vertexShader);
@@ -131,16 +248,24 @@ public class ObjectRenderer {
 
     ShaderUtil.checkGLError(TAG, "Program creation");
 
+    // Locations of uniforms that the shaders of the other mode do not have are -1, and ignored.
     modelViewUniform = GLES20.glGetUniformLocation(program, "u_ModelView");
     modelViewProjectionUniform = GLES20.glGetUniformLocation(program, "u_ModelViewProjection");
+    viewUniform = GLES20.glGetUniformLocation(program, "u_View");
+    viewProjectionUniform = GLES20.glGetUniformLocation(program, "u_ViewProjection");
 
     positionAttribute = GLES20.glGetAttribLocation(program, "a_Position");
     normalAttribute = GLES20.glGetAttribLocation(program, "a_Normal");
     texCoordAttribute = GLES20.glGetAttribLocation(program, "a_TexCoord");
+    if (maxInstances > 0) {
+      modelMatrixAttribute = GLES20.glGetAttribLocation(program, "a_ModelMatrix");
+      colorAttribute = GLES20.glGetAttribLocation(program, "a_ObjColor");
+    }
 
     textureUniform = GLES20.glGetUniformLocation(program, "u_Texture");
 
     lightingParametersUniform = GLES20.glGetUniformLocation(program, "u_LightingParameters");
+    lightDirectionUniform = GLES20.glGetUniformLocation(program, "u_LightDirection");
     materialParametersUniform = GLES20.glGetUniformLocation(program, "u_MaterialParameters");
     colorCorrectionParameterUniform =
         GLES20.glGetUniformLocation(program, "u_ColorCorrectionParameters");
@@ -167,68 +292,293 @@ public class ObjectRenderer {
 
     ShaderUtil.checkGLError(TAG, "Texture loading");
 
-    // Read the obj file.
-    InputStream objInputStream = context.getAssets().open(objAssetName);
-    Obj obj = ObjReader.read(objInputStream);
-
-    // Prepare the Obj so that its structure is suitable for
-    // rendering with OpenGL:
-    // 1. Triangulate it
-    // 2. Make sure that texture coordinates are not ambiguous
-    // 3. Make sure that normals are not ambiguous
-    // 4. Convert it to single-indexed data
-    obj = ObjUtils.convertToRenderable(obj);
-
-    // OpenGL does not use Java arrays. ByteBuffers are used instead to provide data in a format
-    // that OpenGL understands.
-
-    // Obtain the data from the OBJ, as direct buffers:
-    IntBuffer wideIndices = ObjData.getFaceVertexIndices(obj, 3);
-    FloatBuffer vertices = ObjData.getVertices(obj);
-    FloatBuffer texCoords = ObjData.getTexCoords(obj, 2);
-    FloatBuffer normals = ObjData.getNormals(obj);
-
-    // Convert int indices to shorts for GL ES 2.0 compatibility
-    ShortBuffer indices =
-        ByteBuffer.allocateDirect(2 * wideIndices.limit())
-            .order(ByteOrder.nativeOrder())
-            .asShortBuffer();
-    while (wideIndices.hasRemaining()) {
-      indices.put((short) wideIndices.get());
+    // Read the mesh.
+    MeshFile mesh = MeshLoader.load(context, meshAssetName);
+    int levelCount = mesh.levelCount;
+    levelErrors = mesh.levelErrors;
+    levelInstanceCounts = new int[levelCount];
+    for (int i = 0; i < 3; i++) {
+      boundsCenter[i] = (mesh.boundsMin[i] + mesh.boundsMax[i]) * 0.5f;
     }
-    indices.rewind();
+    boundsCenter[3] = 1f;
+    boundingRadius = mesh.boundingRadius;
+
+    if (maxInstances > 0) {
+      // The per-instance attributes are shared by all mesh parts, and filled by drawInstances().
+      int[] buffers = new int[1];
+      GLES20.glGenBuffers(1, buffers, 0);
+      instanceBufferId = buffers[0];
+      instanceData =
+          ByteBuffer.allocateDirect(levelCount * maxInstances * INSTANCE_STRIDE)
+              .order(ByteOrder.nativeOrder())
+              .asFloatBuffer();
+      GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, instanceBufferId);
+      GLES20.glBufferData(
+          GLES20.GL_ARRAY_BUFFER,
+          levelCount * maxInstances * INSTANCE_STRIDE,
+          null,
+          GLES20.GL_STREAM_DRAW);
+      GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+    }
+
+    if (mesh.indexSize == 4 && largeMeshMode == LargeMeshMode.Automatic) {
+      meshParts = loadFasterMeshParts(mesh, meshAssetName);
+    } else {
+      meshParts = loadMeshParts(mesh, mesh.indexSize == 4 && largeMeshMode == LargeMeshMode.Split);
+    }
+
+    ShaderUtil.checkGLError(TAG, "Mesh buffer load");
+
+    Matrix.setIdentityM(modelMatrix, 0);
+  }
 
+  /**
+   * Loads a mesh into new vertex array objects, as a single part per level of detail or split into
+   * parts with 16-bit indices.
+   */
+  private MeshParts loadMeshParts(MeshFile mesh, boolean split) {
+    int levelCount = mesh.levelCount;
+    MeshParts parts = new MeshParts();
+    MeshFile[][] levelParts = new MeshFile[levelCount][];
+    parts.levelFirstParts = new int[levelCount + 1];
+    for (int level = 0; level < levelCount; level++) {
+      levelParts[level] =
+          split ? mesh.getLevel(level).splitForShortIndices() : new MeshFile[] {mesh};
+      parts.levelFirstParts[level + 1] = parts.levelFirstParts[level] + levelParts[level].length;
+    }
+
+    // Unless the mesh is split, all levels share its vertex and index buffers, and only differ by
+    // the range of indices they draw.
+    int partCount = parts.levelFirstParts[levelCount];
+    parts.vertexArrayIds = new int[partCount];
+    parts.indexCounts = new int[partCount];
+    parts.indexTypes = new int[partCount];
+    parts.indexOffsets = new int[partCount];
+    parts.bufferIds = split ? new int[2 * partCount] : loadMeshBuffers(mesh);
+    GLES30.glGenVertexArrays(partCount, parts.vertexArrayIds, 0);
+    for (int level = 0; level < levelCount; level++) {
+      for (int i = 0; i < levelParts[level].length; i++) {
+        MeshFile part = levelParts[level][i];
+        int index = parts.levelFirstParts[level] + i;
+        int[] bufferIds = parts.bufferIds;
+        if (split) {
+          bufferIds = loadMeshBuffers(part);
+          System.arraycopy(bufferIds, 0, parts.bufferIds, 2 * index, 2);
+        }
+        setUpVertexArray(parts.vertexArrayIds[index], part, bufferIds[0], bufferIds[1], level);
+        parts.indexCounts[index] = split ? part.indexCount : mesh.levelIndexCounts[level];
+        parts.indexTypes[index] =
+            part.indexSize == 2 ? GLES20.GL_UNSIGNED_SHORT : GLES20.GL_UNSIGNED_INT;
+        parts.indexOffsets[index] = split ? 0 : mesh.levelFirstIndices[level] * mesh.indexSize;
+      }
+    }
+    return parts;
+  }
+
+  /**
+   * Loads a mesh with 32-bit indices both as is and split, times a draw of the full mesh in each
+   * mode with GPU timer queries, and keeps the faster mode.
+   */
+  private MeshParts loadFasterMeshParts(MeshFile mesh, String meshAssetName) {
+    MeshParts unsignedIntParts = loadMeshParts(mesh, /*split=*/ false);
+    String extensions = GLES20.glGetString(GLES20.GL_EXTENSIONS);
+    if (extensions == null || !extensions.contains(TIMER_QUERY_EXTENSION)) {
+      Log.i(TAG, "No GPU timer queries, drawing " + meshAssetName + " with 32-bit indices.");
+      return unsignedIntParts;
+    }
+
+    MeshParts splitParts = loadMeshParts(mesh, /*split=*/ true);
+    long unsignedIntNanos = timeFullMeshDraw(unsignedIntParts);
+    long splitNanos = timeFullMeshDraw(splitParts);
+    Log.i(
+        TAG,
+        "Drawing "
+            + meshAssetName
+            + " takes "
+            + unsignedIntNanos
+            + " ns with 32-bit indices and "
+            + splitNanos
+            + " ns split.");
+    if (unsignedIntNanos < 0 || splitNanos < 0 || unsignedIntNanos <= splitNanos) {
+      deleteMeshParts(splitParts);
+      return unsignedIntParts;
+    }
+    deleteMeshParts(unsignedIntParts);
+    return splitParts;
+  }
+
+  /**
+   * Returns the GPU time of the fastest of several draws of the full mesh, in nanoseconds, or -1 if
+   * the timer was disturbed, e.g. by a change of the GPU frequency. Nothing is rendered.
+   */
+  private long timeFullMeshDraw(MeshParts parts) {
+    int[] queries = new int[LARGE_MESH_MODE_TIMED_DRAWS];
+    int[] value = new int[1];
+    GLES30.glGenQueries(queries.length, queries, 0);
+
+    // Reading the disjoint flag clears it.
+    GLES20.glGetIntegerv(GL_GPU_DISJOINT_EXT, value, 0);
+
+    // Both modes shade the same fragments, only the vertex processing differs.
+    GLES20.glEnable(GLES30.GL_RASTERIZER_DISCARD);
+    GLES20.glUseProgram(program);
+    for (int query : queries) {
+      GLES30.glBeginQuery(GL_TIME_ELAPSED_EXT, query);
+      drawLevel(parts, /*level=*/ 0, /*instanceCount=*/ 1);
+      GLES30.glEndQuery(GL_TIME_ELAPSED_EXT);
+    }
+    GLES30.glBindVertexArray(0);
+    GLES20.glDisable(GLES30.GL_RASTERIZER_DISCARD);
+
+    // Waits for the draws to complete.
+    long fastestNanos = Long.MAX_VALUE;
+    for (int query : queries) {
+      GLES30.glGetQueryObjectuiv(query, GLES30.GL_QUERY_RESULT, value, 0);
+      fastestNanos = Math.min(fastestNanos, value[0] & 0xFFFFFFFFL);
+    }
+    GLES30.glDeleteQueries(queries.length, queries, 0);
+    ShaderUtil.checkGLError(TAG, "Large mesh mode timing");
+
+    GLES20.glGetIntegerv(GL_GPU_DISJOINT_EXT, value, 0);
+    return value[0] != 0 ? -1 : fastestNanos;
+  }
+
+  private static void deleteMeshParts(MeshParts parts) {
+    GLES30.glDeleteVertexArrays(parts.vertexArrayIds.length, parts.vertexArrayIds, 0);
+    GLES20.glDeleteBuffers(parts.bufferIds.length, parts.bufferIds, 0);
+  }
+
+  /**
+   * Loads the vertices and indices of a mesh part into new buffers.
+   *
+   * @return the names of the vertex buffer and of the index buffer.
+   */
+  private static int[] loadMeshBuffers(MeshFile mesh) {
     int[] buffers = new int[2];
     GLES20.glGenBuffers(2, buffers, 0);
-    vertexBufferId = buffers[0];
-    indexBufferId = buffers[1];
 
     // Load vertex buffer
-    verticesBaseAddress = 0;
-    texCoordsBaseAddress = verticesBaseAddress + 4 * vertices.limit();
-    normalsBaseAddress = texCoordsBaseAddress + 4 * texCoords.limit();
-    final int totalBytes = normalsBaseAddress + 4 * normals.limit();
+    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffers[0]);
+    GLES20.glBufferData(
+        GLES20.GL_ARRAY_BUFFER, mesh.vertices.remaining(), mesh.vertices, GLES20.GL_STATIC_DRAW);
+
+    // Load index buffer
+    GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, buffers[1]);
+    GLES20.glBufferData(
+        GLES20.GL_ELEMENT_ARRAY_BUFFER,
+        mesh.indices.remaining(),
+        mesh.indices,
+        GLES20.GL_STATIC_DRAW);
 
-    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vertexBufferId);
-    GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, totalBytes, null, GLES20.GL_STATIC_DRAW);
-    GLES20.glBufferSubData(
-        GLES20.GL_ARRAY_BUFFER, verticesBaseAddress, 4 * vertices.limit(), vertices);
-    GLES20.glBufferSubData(
-        GLES20.GL_ARRAY_BUFFER, texCoordsBaseAddress, 4 * texCoords.limit(), texCoords);
-    GLES20.glBufferSubData(
-        GLES20.GL_ARRAY_BUFFER, normalsBaseAddress, 4 * normals.limit(), normals);
     GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+    GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+    return buffers;
+  }
+
+  /**
+   * Records the buffers and the attribute layout of a mesh part in a vertex array object. The
+   * per-instance attributes start at the instances of the given level of detail.
+   */
+  private void setUpVertexArray(
+      int vertexArrayId, MeshFile mesh, int vertexBufferId, int indexBufferId, int level) {
+    GLES30.glBindVertexArray(vertexArrayId);
+
+    // Set the vertex attributes.
+    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vertexBufferId);
+    GLES20.glVertexAttribPointer(
+        positionAttribute,
+        COORDS_PER_VERTEX,
+        GLES20.GL_FLOAT,
+        false,
+        mesh.vertexStride,
+        MeshFile.POSITION_OFFSET);
+    if (mesh.vertexFormat == MeshFile.VERTEX_FORMAT_QUANTIZED) {
+      // Packed normals always have 4 components, the shader ignores the unused fourth one.
+      GLES20.glVertexAttribPointer(
+          normalAttribute,
+          4,
+          GLES30.GL_INT_2_10_10_10_REV,
+          true,
+          mesh.vertexStride,
+          MeshFile.NORMAL_OFFSET);
+      GLES20.glVertexAttribPointer(
+          texCoordAttribute,
+          2,
+          GLES30.GL_HALF_FLOAT,
+          false,
+          mesh.vertexStride,
+          mesh.texCoordOffset);
+    } else {
+      GLES20.glVertexAttribPointer(
+          normalAttribute, 3, GLES20.GL_FLOAT, false, mesh.vertexStride, MeshFile.NORMAL_OFFSET);
+      GLES20.glVertexAttribPointer(
+          texCoordAttribute, 2, GLES20.GL_FLOAT, false, mesh.vertexStride, mesh.texCoordOffset);
+    }
+    GLES20.glEnableVertexAttribArray(positionAttribute);
+    GLES20.glEnableVertexAttribArray(normalAttribute);
+    GLES20.glEnableVertexAttribArray(texCoordAttribute);
+
+    if (maxInstances > 0) {
+      // The per-instance attributes advance once per instance instead of once per vertex.
+      GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, instanceBufferId);
+      int instanceOffset = level * maxInstances * INSTANCE_STRIDE;
+
+      // A matrix attribute takes one location per column.
+      for (int column = 0; column < 4; column++) {
+        GLES20.glVertexAttribPointer(
+            modelMatrixAttribute + column,
+            4,
+            GLES20.GL_FLOAT,
+            false,
+            INSTANCE_STRIDE,
+            instanceOffset + column * 4 * BYTES_PER_FLOAT);
+        GLES20.glEnableVertexAttribArray(modelMatrixAttribute + column);
+        GLES30.glVertexAttribDivisor(modelMatrixAttribute + column, 1);
+      }
+      GLES20.glVertexAttribPointer(
+          colorAttribute,
+          FLOATS_PER_COLOR,
+          GLES20.GL_FLOAT,
+          false,
+          INSTANCE_STRIDE,
+          instanceOffset + FLOATS_PER_MATRIX * BYTES_PER_FLOAT);
+      GLES20.glEnableVertexAttribArray(colorAttribute);
+      GLES30.glVertexAttribDivisor(colorAttribute, 1);
+    }
 
-    // Load index buffer
     GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, indexBufferId);
-    indexCount = indices.limit();
-    GLES20.glBufferData(
-        GLES20.GL_ELEMENT_ARRAY_BUFFER, 2 * indexCount, indices, GLES20.GL_STATIC_DRAW);
+
+    // Unbind the vertex array object first, so that it keeps the index buffer binding.
+    GLES30.glBindVertexArray(0);
+    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
     GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+  }
 
-    ShaderUtil.checkGLError(TAG, "OBJ buffer load");
+  /**
+   * Selects how meshes too large for 16-bit indices are drawn. Must be called before {@link
+   * #createOnGlThread}. By default, the faster mode is selected when the mesh is loaded, see
+   * {@link LargeMeshMode#Automatic}.
+   *
+   * <p>Which mode is faster depends on the GPU and on the mesh: 32-bit indices double the index
+   * memory and bandwidth, splitting adds draw calls and duplicates the vertices on the borders of
+   * the parts.
+   *
+   * @param largeMeshMode The mode to use for meshes with more than 65536 vertices.
+   */
+  public void setLargeMeshMode(LargeMeshMode largeMeshMode) {
+    this.largeMeshMode = largeMeshMode;
+  }
 
-    Matrix.setIdentityM(modelMatrix, 0);
+  /**
+   * Sets how far the simplified levels of detail of the mesh may deviate from the full mesh on
+   * screen. Larger values draw distant objects with fewer triangles, zero always draws the full
+   * mesh.
+   *
+   * @param maxScreenError The maximum error, as a fraction of the viewport height. The default is
+   *     0.001, about one pixel on a phone screen.
+   */
+  public void setMaxScreenError(float maxScreenError) {
+    this.maxScreenError = maxScreenError;
   }
 
   /**
@@ -294,29 +644,174 @@ public class ObjectRenderer {
       float[] cameraPerspective,
       float[] colorCorrectionRgba,
       float[] objColor) {
+    if (maxInstances > 0) {
+      throw new IllegalStateException("Instanced renderers only draw with drawInstances().");
+    }
+    FrameTracer.beginSection("ObjectRenderer.draw");
+    try {
+      ShaderUtil.checkGLError(TAG, "Before draw");
+
+      // Build the ModelView and ModelViewProjection matrices
+      // for calculating object position and light.
+      Matrix.multiplyMM(modelViewMatrix, 0, cameraView, 0, modelMatrix, 0);
+      Matrix.multiplyMM(modelViewProjectionMatrix, 0, cameraPerspective, 0, modelViewMatrix, 0);
+
+      GLES20.glUseProgram(program);
+
+      // Set the lighting environment properties.
+      Matrix.multiplyMV(viewLightDirection, 0, modelViewMatrix, 0, LIGHT_DIRECTION, 0);
+      normalizeVec3(viewLightDirection);
+      GLES20.glUniform4f(
+          lightingParametersUniform,
+          viewLightDirection[0],
+          viewLightDirection[1],
+          viewLightDirection[2],
+          1.f);
+
+      // Set the object color property.
+      GLES20.glUniform4fv(colorUniform, 1, objColor, 0);
+
+      // Set the ModelViewProjection matrix in the shader.
+      GLES20.glUniformMatrix4fv(modelViewUniform, 1, false, modelViewMatrix, 0);
+      GLES20.glUniformMatrix4fv(modelViewProjectionUniform, 1, false, modelViewProjectionMatrix, 0);
+
+      Arrays.fill(levelInstanceCounts, 0);
+      levelInstanceCounts[selectLevel(modelViewMatrix, 0, cameraPerspective)] = 1;
+      drawMesh(colorCorrectionRgba);
+
+      ShaderUtil.checkGLError(TAG, "After draw");
+    } finally {
+      FrameTracer.endSection();
+    }
+  }
 
-    ShaderUtil.checkGLError(TAG, "Before draw");
+  /**
+   * Draws many instances of the model with a single draw call per level of detail. The renderer
+   * must have been created with a maximum number of instances. The model matrix set by {@link
+   * #updateModelMatrix} is not used.
+   *
+   * @param cameraView A 4x4 view matrix, in column-major order.
+   * @param cameraPerspective A 4x4 projection matrix, in column-major order.
+   * @param colorCorrectionRgba Illumination intensity. Combined with diffuse and specular material
+   *     properties.
+   * @param modelMatrices The 4x4 model-to-world transformation matrices of the instances, stored
+   *     one after another in column-major order.
+   * @param objColors The colors of the instances, stored one after another as 4 floats, like the
+   *     color passed to {@link #draw(float[], float[], float[], float[])}.
+   * @param instanceCount Number of instances to draw.
+   * @see #createOnGlThread(Context, String, String, int)
+   */
+  public void drawInstances(
+      float[] cameraView,
+      float[] cameraPerspective,
+      float[] colorCorrectionRgba,
+      float[] modelMatrices,
+      float[] objColors,
+      int instanceCount) {
+    if (maxInstances == 0) {
+      throw new IllegalStateException("The renderer was not created for instanced drawing.");
+    }
+    if (instanceCount > maxInstances) {
+      throw new IllegalArgumentException(
+          "Cannot draw " + instanceCount + " instances, the maximum is " + maxInstances);
+    }
+    if (instanceCount <= 0) {
+      return;
+    }
+    FrameTracer.beginSection("ObjectRenderer.drawInstances");
+    try {
+      ShaderUtil.checkGLError(TAG, "Before draw");
+
+      // Interleave the per-instance data, grouped by level of detail. Respecifying the buffer
+      // when uploading it lets the driver allocate new storage, instead of waiting for the
+      // previous frame to stop reading it.
+      Arrays.fill(levelInstanceCounts, 0);
+      int lastLevel = 0;
+      for (int i = 0; i < instanceCount; i++) {
+        Matrix.multiplyMM(modelViewMatrix, 0, cameraView, 0, modelMatrices, i * FLOATS_PER_MATRIX);
+        int level = selectLevel(modelViewMatrix, 0, cameraPerspective);
+        lastLevel = Math.max(lastLevel, level);
+        int instance = level * maxInstances + levelInstanceCounts[level]++;
+        instanceData.position(instance * INSTANCE_STRIDE / BYTES_PER_FLOAT);
+        instanceData.put(modelMatrices, i * FLOATS_PER_MATRIX, FLOATS_PER_MATRIX);
+        instanceData.put(objColors, i * FLOATS_PER_COLOR, FLOATS_PER_COLOR);
+      }
+      int uploadedInstanceCount = lastLevel * maxInstances + levelInstanceCounts[lastLevel];
+      instanceData.position(0);
+      GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, instanceBufferId);
+      GLES20.glBufferData(
+          GLES20.GL_ARRAY_BUFFER,
+          uploadedInstanceCount * INSTANCE_STRIDE,
+          instanceData,
+          GLES20.GL_STREAM_DRAW);
+      GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
 
-    // Build the ModelView and ModelViewProjection matrices
-    // for calculating object position and light.
-    Matrix.multiplyMM(modelViewMatrix, 0, cameraView, 0, modelMatrix, 0);
-    Matrix.multiplyMM(modelViewProjectionMatrix, 0, cameraPerspective, 0, modelViewMatrix, 0);
+      Matrix.multiplyMM(viewProjectionMatrix, 0, cameraPerspective, 0, cameraView, 0);
 
-    GLES20.glUseProgram(program);
+      GLES20.glUseProgram(program);
 
-    // Set the lighting environment properties.
-    Matrix.multiplyMV(viewLightDirection, 0, modelViewMatrix, 0, LIGHT_DIRECTION, 0);
-    normalizeVec3(viewLightDirection);
-    GLES20.glUniform4f(
-        lightingParametersUniform,
-        viewLightDirection[0],
-        viewLightDirection[1],
-        viewLightDirection[2],
-        1.f);
-    GLES20.glUniform4fv(colorCorrectionParameterUniform, 1, colorCorrectionRgba, 0);
+      // The light direction is transformed to view space by the vertex shader, for each instance.
+      GLES20.glUniform4fv(lightDirectionUniform, 1, LIGHT_DIRECTION, 0);
 
-    // Set the object color property.
-    GLES20.glUniform4fv(colorUniform, 1, objColor, 0);
+      GLES20.glUniformMatrix4fv(viewUniform, 1, false, cameraView, 0);
+      GLES20.glUniformMatrix4fv(viewProjectionUniform, 1, false, viewProjectionMatrix, 0);
+
+      drawMesh(colorCorrectionRgba);
+
+      ShaderUtil.checkGLError(TAG, "After draw");
+    } finally {
+      FrameTracer.endSection();
+    }
+  }
+
+  /**
+   * Returns the simplest level of detail whose error, projected on the screen at the distance of
+   * the object, is at most {@link #maxScreenError}.
+   *
+   * @param modelViewMatrix The model view matrix of the object, in column-major order.
+   * @param offset Index of the first element of the matrix.
+   * @param cameraPerspective A 4x4 projection matrix, in column-major order.
+   */
+  private int selectLevel(float[] modelViewMatrix, int offset, float[] cameraPerspective) {
+    int level = levelErrors.length - 1;
+    if (level == 0) {
+      return 0;
+    }
+
+    // The largest scale of the matrix, so that the error is not underestimated if the object is
+    // scaled differently along its axes.
+    float maxScaleSquared = 0f;
+    for (int column = 0; column < 3; column++) {
+      float x = modelViewMatrix[offset + column * 4];
+      float y = modelViewMatrix[offset + column * 4 + 1];
+      float z = modelViewMatrix[offset + column * 4 + 2];
+      maxScaleSquared = Math.max(maxScaleSquared, x * x + y * y + z * z);
+    }
+    float scale = (float) Math.sqrt(maxScaleSquared);
+
+    // Errors are measured at the point of the bounding sphere closest to the camera. Objects the
+    // camera is inside of, or too close to, are always drawn in full.
+    Matrix.multiplyMV(viewBoundsCenter, 0, modelViewMatrix, offset, boundsCenter, 0);
+    float distance = -viewBoundsCenter[2] - boundingRadius * scale;
+    if (distance <= 0f) {
+      return 0;
+    }
+
+    // The projection maps view space lengths at this distance to normalized device coordinates,
+    // which are 2 units across the viewport.
+    float viewportHeightsPerUnit = 0.5f * Math.abs(cameraPerspective[5]) * scale / distance;
+    for (; level > 0; level--) {
+      if (levelErrors[level] * viewportHeightsPerUnit <= maxScreenError) {
+        return level;
+      }
+    }
+    return 0;
+  }
+
+  // Sets the properties shared by all instances, and draws each level of detail with the number
+  // of instances in levelInstanceCounts, using the bound program.
+  private void drawMesh(float[] colorCorrectionRgba) {
+    GLES20.glUniform4fv(colorCorrectionParameterUniform, 1, colorCorrectionRgba, 0);
 
     // Set the object material properties.
     GLES20.glUniform4f(materialParametersUniform, ambient, diffuse, specular, specularPower);
@@ -326,26 +821,6 @@ public class ObjectRenderer {
     GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textures[0]);
     GLES20.glUniform1i(textureUniform, 0);
 
-    // Set the vertex attributes.
-    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vertexBufferId);
-
-    GLES20.glVertexAttribPointer(
-        positionAttribute, COORDS_PER_VERTEX, GLES20.GL_FLOAT, false, 0, verticesBaseAddress);
-    GLES20.glVertexAttribPointer(normalAttribute, 3, GLES20.GL_FLOAT, false, 0, normalsBaseAddress);
-    GLES20.glVertexAttribPointer(
-        texCoordAttribute, 2, GLES20.GL_FLOAT, false, 0, texCoordsBaseAddress);
-
-    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
-
-    // Set the ModelViewProjection matrix in the shader.
-    GLES20.glUniformMatrix4fv(modelViewUniform, 1, false, modelViewMatrix, 0);
-    GLES20.glUniformMatrix4fv(modelViewProjectionUniform, 1, false, modelViewProjectionMatrix, 0);
-
-    // Enable vertex arrays
-    GLES20.glEnableVertexAttribArray(positionAttribute);
-    GLES20.glEnableVertexAttribArray(normalAttribute);
-    GLES20.glEnableVertexAttribArray(texCoordAttribute);
-
     if (blendMode != null) {
       GLES20.glDepthMask(false);
       GLES20.glEnable(GLES20.GL_BLEND);
@@ -361,23 +836,38 @@ public class ObjectRenderer {
       }
     }
 
-    GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, indexBufferId);
-    GLES20.glDrawElements(GLES20.GL_TRIANGLES, indexCount, GLES20.GL_UNSIGNED_SHORT, 0);
-    GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+    for (int level = 0; level < levelInstanceCounts.length; level++) {
+      if (levelInstanceCounts[level] > 0) {
+        drawLevel(meshParts, level, levelInstanceCounts[level]);
+      }
+    }
+    GLES30.glBindVertexArray(0);
 
     if (blendMode != null) {
       GLES20.glDisable(GLES20.GL_BLEND);
       GLES20.glDepthMask(true);
     }
 
-    // Disable vertex arrays
-    GLES20.glDisableVertexAttribArray(positionAttribute);
-    GLES20.glDisableVertexAttribArray(normalAttribute);
-    GLES20.glDisableVertexAttribArray(texCoordAttribute);
-
     GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+  }
 
-    ShaderUtil.checkGLError(TAG, "After draw");
+  // Draws the parts of a level of detail, leaving the vertex array object of the last one bound.
+  private void drawLevel(MeshParts parts, int level, int instanceCount) {
+    // Each vertex array object holds the vertex attributes and the index buffer of a mesh part.
+    for (int i = parts.levelFirstParts[level]; i < parts.levelFirstParts[level + 1]; i++) {
+      GLES30.glBindVertexArray(parts.vertexArrayIds[i]);
+      if (maxInstances > 0) {
+        GLES30.glDrawElementsInstanced(
+            GLES20.GL_TRIANGLES,
+            parts.indexCounts[i],
+            parts.indexTypes[i],
+            parts.indexOffsets[i],
+            instanceCount);
+      } else {
+        GLES20.glDrawElements(
+            GLES20.GL_TRIANGLES, parts.indexCounts[i], parts.indexTypes[i], parts.indexOffsets[i]);
+      }
+    }
   }
 
   private static void normalizeVec3(float[] v) {
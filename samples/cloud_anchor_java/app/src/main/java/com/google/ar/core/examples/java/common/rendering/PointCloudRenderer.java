@@ -19,6 +19,7 @@ import android.opengl.GLES20;
 import android.opengl.GLSurfaceView;
 import android.opengl.Matrix;
 import com.google.ar.core.PointCloud;
+import com.google.ar.core.examples.java.common.helpers.FrameTracer;
 import java.io.IOException;
 
 /** Renders a point cloud. */
@@ -101,24 +102,29 @@ public class PointCloudRenderer {
       // Redundant call.
       return;
     }
-    ShaderUtil.checkGLError(TAG, "before update");
-
-    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vbo);
-    lastTimestamp = cloud.getTimestamp();
-
-    // If the VBO is not large enough to fit the new point cloud, resize it.
-    numPoints = cloud.getPoints().remaining() / FLOATS_PER_POINT;
-    if (numPoints * BYTES_PER_POINT > vboSize) {
-      while (numPoints * BYTES_PER_POINT > vboSize) {
-        vboSize *= 2;
+    FrameTracer.beginSection("PointCloudRenderer.update");
+    try {
+      ShaderUtil.checkGLError(TAG, "before update");
+
+      GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vbo);
+      lastTimestamp = cloud.getTimestamp();
+
+      // If the VBO is not large enough to fit the new point cloud, resize it.
+      numPoints = cloud.getPoints().remaining() / FLOATS_PER_POINT;
+      if (numPoints * BYTES_PER_POINT > vboSize) {
+        while (numPoints * BYTES_PER_POINT > vboSize) {
+          vboSize *= 2;
+        }
+        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, vboSize, null, GLES20.GL_DYNAMIC_DRAW);
       }
-      GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, vboSize, null, GLES20.GL_DYNAMIC_DRAW);
-    }
-    GLES20.glBufferSubData(
-        GLES20.GL_ARRAY_BUFFER, 0, numPoints * BYTES_PER_POINT, cloud.getPoints());
-    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+      GLES20.glBufferSubData(
+          GLES20.GL_ARRAY_BUFFER, 0, numPoints * BYTES_PER_POINT, cloud.getPoints());
+      GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
 
-    ShaderUtil.checkGLError(TAG, "after update");
+      ShaderUtil.checkGLError(TAG, "after update");
+    } finally {
+      FrameTracer.endSection();
+    }
   }
 
   /**
@@ -130,23 +136,29 @@ public class PointCloudRenderer {
    *     com.google.ar.core.Camera#getProjectionMatrix(float[], int, float, float)}.
    */
   public void draw(float[] cameraView, float[] cameraPerspective) {
-    float[] modelViewProjection = new float[16];
-    Matrix.multiplyMM(modelViewProjection, 0, cameraPerspective, 0, cameraView, 0);
-
-    ShaderUtil.checkGLError(TAG, "Before draw");
-
-    GLES20.glUseProgram(programName);
-    GLES20.glEnableVertexAttribArray(positionAttribute);
-    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vbo);
-    GLES20.glVertexAttribPointer(positionAttribute, 4, GLES20.GL_FLOAT, false, BYTES_PER_POINT, 0);
-    GLES20.glUniform4f(colorUniform, 31.0f / 255.0f, 188.0f / 255.0f, 210.0f / 255.0f, 1.0f);
-    GLES20.glUniformMatrix4fv(modelViewProjectionUniform, 1, false, modelViewProjection, 0);
-    GLES20.glUniform1f(pointSizeUniform, 5.0f);
-
-    GLES20.glDrawArrays(GLES20.GL_POINTS, 0, numPoints);
-    GLES20.glDisableVertexAttribArray(positionAttribute);
-    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
-
-    ShaderUtil.checkGLError(TAG, "Draw");
+    FrameTracer.beginSection("PointCloudRenderer.draw");
+    try {
+      float[] modelViewProjection = new float[16];
+      Matrix.multiplyMM(modelViewProjection, 0, cameraPerspective, 0, cameraView, 0);
+
+      ShaderUtil.checkGLError(TAG, "Before draw");
+
+      GLES20.glUseProgram(programName);
+      GLES20.glEnableVertexAttribArray(positionAttribute);
+      GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vbo);
+      GLES20.glVertexAttribPointer(
+          positionAttribute, 4, GLES20.GL_FLOAT, false, BYTES_PER_POINT, 0);
+      GLES20.glUniform4f(colorUniform, 31.0f / 255.0f, 188.0f / 255.0f, 210.0f / 255.0f, 1.0f);
+      GLES20.glUniformMatrix4fv(modelViewProjectionUniform, 1, false, modelViewProjection, 0);
+      GLES20.glUniform1f(pointSizeUniform, 5.0f);
+
+      GLES20.glDrawArrays(GLES20.GL_POINTS, 0, numPoints);
+      GLES20.glDisableVertexAttribArray(positionAttribute);
+      GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+
+      ShaderUtil.checkGLError(TAG, "Draw");
+    } finally {
+      FrameTracer.endSection();
+    }
   }
 }
@@ -0,0 +1,28 @@
+#version 300 es
+// Fragment shader of the 3x3 erosion stage, which replaces each pixel by the minimum of its
+// neighbourhood, like ImageProcessors.erode().
+
+// High precision keeps the byte values and the integer arithmetic exact.
+precision highp float;
+precision highp int;
+uniform highp sampler2D sTexture;
+
+// Size of the image. Neighbour pixels outside of it are replaced by the nearest image pixel.
+uniform ivec2 u_Size;
+out vec4 fragColor;
+
+// Returns the pixel at an offset from the current one, as an unsigned byte value.
+int pixel(int dx, int dy) {
+    ivec2 position = clamp(ivec2(gl_FragCoord.xy) + ivec2(dx, dy), ivec2(0), u_Size - 1);
+    return int(texelFetch(sTexture, position, 0).r * 255.0 + 0.5);
+}
+
+void main() {
+    int result = pixel(0, 0);
+    for (int dy = -1; dy <= 1; dy++) {
+        for (int dx = -1; dx <= 1; dx++) {
+            result = min(result, pixel(dx, dy));
+        }
+    }
+    fragColor = vec4(float(result) / 255.0, 0.0, 0.0, 1.0);
+}
@@ -0,0 +1,29 @@
+#version 300 es
+// Fragment shader of the 3x3 Gaussian blur stage, like ImageProcessors.gaussianBlur().
+
+// High precision keeps the byte values and the integer arithmetic exact.
+precision highp float;
+precision highp int;
+uniform highp sampler2D sTexture;
+
+// Size of the image. Neighbour pixels outside of it are replaced by the nearest image pixel.
+uniform ivec2 u_Size;
+out vec4 fragColor;
+
+// Returns the pixel at an offset from the current one, as an unsigned byte value.
+int pixel(int dx, int dy) {
+    ivec2 position = clamp(ivec2(gl_FragCoord.xy) + ivec2(dx, dy), ivec2(0), u_Size - 1);
+    return int(texelFetch(sTexture, position, 0).r * 255.0 + 0.5);
+}
+
+void main() {
+    // Gaussian filter, normalized by 16 with rounding:
+    //   1, 2, 1,
+    //   2, 4, 2,
+    //   1, 2, 1
+    int sum = pixel(-1, -1) + 2 * pixel(0, -1) + pixel(1, -1)
+            + 2 * pixel(-1, 0) + 4 * pixel(0, 0) + 2 * pixel(1, 0)
+            + pixel(-1, 1) + 2 * pixel(0, 1) + pixel(1, 1);
+    int result = (sum + 8) >> 4;
+    fragColor = vec4(float(result) / 255.0, 0.0, 0.0, 1.0);
+}
@@ -0,0 +1,44 @@
+#version 300 es
+// Fragment shader of the gradient magnitude stage. Outputs the magnitude of the Sobel gradient,
+// rounded down and clamped to 255, like ImageProcessors.gradientMagnitude().
+
+// High precision keeps the byte values and the integer arithmetic exact.
+precision highp float;
+precision highp int;
+uniform highp sampler2D sTexture;
+
+// Size of the image. Neighbour pixels outside of it are replaced by the nearest image pixel.
+uniform ivec2 u_Size;
+out vec4 fragColor;
+
+// Returns the pixel at an offset from the current one, as an unsigned byte value.
+int pixel(int dx, int dy) {
+    ivec2 position = clamp(ivec2(gl_FragCoord.xy) + ivec2(dx, dy), ivec2(0), u_Size - 1);
+    return int(texelFetch(sTexture, position, 0).r * 255.0 + 0.5);
+}
+
+void main() {
+    // Same Sobel X and Y filters as EdgeDetector. Rows with a negative offset are the previous
+    // rows of the image.
+    int a00 = pixel(-1, -1);
+    int a01 = pixel(0, -1);
+    int a02 = pixel(1, -1);
+    int a10 = pixel(-1, 0);
+    int a12 = pixel(1, 0);
+    int a20 = pixel(-1, 1);
+    int a21 = pixel(0, 1);
+    int a22 = pixel(1, 1);
+    int xSum = -a00 - (2 * a10) - a20 + a02 + (2 * a12) + a22;
+    int ySum = a00 + (2 * a01) + a02 - a20 - (2 * a21) - a22;
+    int sumOfSquares = (xSum * xSum) + (ySum * ySum);
+
+    // Integer square root. The float estimate is corrected, as sqrt() is not exactly rounded.
+    int magnitude = int(sqrt(float(sumOfSquares)));
+    if (magnitude * magnitude > sumOfSquares) {
+        magnitude--;
+    } else if ((magnitude + 1) * (magnitude + 1) <= sumOfSquares) {
+        magnitude++;
+    }
+    int result = min(magnitude, 255);
+    fragColor = vec4(float(result) / 255.0, 0.0, 0.0, 1.0);
+}
@@ -0,0 +1,23 @@
+// Fragment shader that renders the interleaved UV rows of an NV12 image to a single channel
+// texture. Even columns receive U and odd columns receive V, both sampled at the center of the
+// same 2x2 block of luma pixels. The rows are rendered at half the image height.
+#extension GL_OES_EGL_image_external : require
+
+// High precision is needed to tell even and odd columns apart across a full HD row.
+precision highp float;
+varying vec2 v_TexCoord;
+uniform samplerExternalOES sTexture;
+
+// Width of one output pixel, in texture coordinates.
+uniform float u_TexelWidth;
+
+void main() {
+    float isV = mod(floor(gl_FragCoord.x), 2.0);
+    vec2 blockCenter = v_TexCoord + vec2((0.5 - isV) * u_TexelWidth, 0.0);
+    vec4 color = texture2D(sTexture, blockCenter);
+
+    // Full range BT.601, matching the Y computed by gpu_download_i8.frag.
+    float u = color.r * -0.168736 + color.g * -0.331264 + color.b * 0.5 + 0.5;
+    float v = color.r * 0.5 + color.g * -0.418688 + color.b * -0.081312 + 0.5;
+    gl_FragColor.r = mix(u, v, isV);
+}
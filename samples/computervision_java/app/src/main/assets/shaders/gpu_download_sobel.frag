@@ -0,0 +1,45 @@
+#version 300 es
+// Fragment shader of the Sobel edge detection stage. Outputs 255 for pixels on an edge, 31 for all
+// other pixels and 0 on the image border, like EdgeDetector and ImageProcessors.sobel().
+
+// High precision keeps the byte values and the integer arithmetic exact.
+precision highp float;
+precision highp int;
+uniform highp sampler2D sTexture;
+
+// Size of the image.
+uniform ivec2 u_Size;
+out vec4 fragColor;
+
+// Returns the pixel at an offset from the current one, as a signed byte value like the Java
+// kernel reads it.
+int pixel(int dx, int dy) {
+    ivec2 position = ivec2(gl_FragCoord.xy) + ivec2(dx, dy);
+    int value = int(texelFetch(sTexture, position, 0).r * 255.0 + 0.5);
+    return value >= 128 ? value - 256 : value;
+}
+
+void main() {
+    ivec2 position = ivec2(gl_FragCoord.xy);
+    if (any(equal(position, ivec2(0))) || any(equal(position, u_Size - 1))) {
+        fragColor = vec4(0.0, 0.0, 0.0, 1.0);
+        return;
+    }
+
+    // Same Sobel X and Y filters as EdgeDetector. Rows with a negative offset are the previous
+    // rows of the image.
+    int a00 = pixel(-1, -1);
+    int a01 = pixel(0, -1);
+    int a02 = pixel(1, -1);
+    int a10 = pixel(-1, 0);
+    int a12 = pixel(1, 0);
+    int a20 = pixel(-1, 1);
+    int a21 = pixel(0, 1);
+    int a22 = pixel(1, 1);
+    int xSum = -a00 - (2 * a10) - a20 + a02 + (2 * a12) + a22;
+    int ySum = a00 + (2 * a01) + a02 - a20 - (2 * a21) - a22;
+    int sumOfSquares = (xSum * xSum) + (ySum * ySum);
+
+    int result = sumOfSquares > 128 * 128 ? 255 : 31;
+    fragColor = vec4(float(result) / 255.0, 0.0, 0.0, 1.0);
+}
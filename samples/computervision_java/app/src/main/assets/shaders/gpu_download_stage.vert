@@ -0,0 +1,7 @@
+#version 300 es
+// Vertex shader of the TextureReader shader stages, which address pixels with gl_FragCoord.
+in vec4 a_Position;
+
+void main() {
+   gl_Position = a_Position;
+}
@@ -0,0 +1,25 @@
+#version 300 es
+// Fragment shader of the binary threshold stage, like ImageProcessors.threshold().
+
+// High precision keeps the byte values and the integer arithmetic exact.
+precision highp float;
+precision highp int;
+uniform highp sampler2D sTexture;
+
+// Size of the image. Neighbour pixels outside of it are replaced by the nearest image pixel.
+uniform ivec2 u_Size;
+out vec4 fragColor;
+
+// Returns the pixel at an offset from the current one, as an unsigned byte value.
+int pixel(int dx, int dy) {
+    ivec2 position = clamp(ivec2(gl_FragCoord.xy) + ivec2(dx, dy), ivec2(0), u_Size - 1);
+    return int(texelFetch(sTexture, position, 0).r * 255.0 + 0.5);
+}
+
+// Pixels brighter than this value become 255, all others become 0.
+uniform int u_Level;
+
+void main() {
+    int result = pixel(0, 0) > u_Level ? 255 : 0;
+    fragColor = vec4(float(result) / 255.0, 0.0, 0.0, 1.0);
+}
@@ -0,0 +1,322 @@
+/*
+ * Copyright 2019 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+import android.arch.lifecycle.DefaultLifecycleObserver;
+import android.arch.lifecycle.LifecycleOwner;
+import android.support.annotation.NonNull;
+import android.util.Log;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Processes grayscale images on a worker thread, so that the OpenGL thread can keep rendering at
+ * full frame rate while the CPU image is being processed.
+ *
+ * <p>Both the input and the output side are triple buffered. The OpenGL thread copies each new
+ * image with {@link #submit(int, int, int, ByteBuffer, ByteBuffer)}, which replaces any image the
+ * worker has not started on yet, so stale images are dropped instead of queued. Each call to {@link
+ * #acquireLatestResult()} returns the most recently completed result, if there is a new one.
+ *
+ * <p>Images read back from the GPU can be handed over without copying with {@link
+ * #submit(TextureReaderImage, ByteBuffer)}. The processor then owns the image, and closes it once
+ * it has been processed or dropped.
+ *
+ * <p>Each image is submitted together with the buffer its result is written to, typically one
+ * returned by {@link CpuImageRenderer#beginCpuImageUpload(int, int)}, so the result never needs
+ * to be copied on the OpenGL thread. Buffers of images that were dropped, or of results that were
+ * replaced before being acquired, are handed back by {@link #pollReleasedOutput()}.
+ *
+ * <p>The worker thread runs between onResume and onPause of the lifecycle it observes. Input
+ * buffers are only reallocated when the image size grows, so steady-state processing does not
+ * allocate.
+ */
+public class AsyncImageProcessor implements DefaultLifecycleObserver {
+  private static final String TAG = AsyncImageProcessor.class.getSimpleName();
+
+  /** Processes a single channel grayscale image. Called on the worker thread. */
+  public interface Processor {
+    /**
+     * @param width image width.
+     * @param height image height.
+     * @param stride number of bytes per row of the input image.
+     * @param input bytes of the input image.
+     * @param output buffer of at least width * height bytes receiving the processed image.
+     */
+    void process(int width, int height, int stride, ByteBuffer input, ByteBuffer output);
+  }
+
+  /**
+   * A processed image. It is owned by the OpenGL thread until the next call to {@link
+   * #acquireLatestResult()} that returns a new result. Its buffer is the output submitted with the
+   * image, and is not accessed by the processor again.
+   */
+  public static class ProcessedImage {
+    /** The width of the image, in pixels. */
+    public int width;
+
+    /** The height of the image, in pixels. */
+    public int height;
+
+    /** The processed pixels, width * height bytes without row padding. */
+    public ByteBuffer buffer;
+  }
+
+  private static class InputImage {
+    int width;
+    int height;
+    int stride;
+    ByteBuffer buffer;
+    // Set instead of buffer for images submitted without copying.
+    TextureReaderImage image;
+    // Receives the result. Cleared once the worker takes the image.
+    ByteBuffer output;
+  }
+
+  private final Processor processor;
+  private final Object lock = new Object();
+
+  // Input being written by the OpenGL thread, waiting for the worker and being processed.
+  private InputImage writingInput = new InputImage();
+  private InputImage pendingInput = new InputImage();
+  private InputImage processingInput = new InputImage();
+  private boolean hasPendingInput;
+
+  // Output being written by the worker, completed and waiting, and being displayed.
+  private ProcessedImage processingOutput = new ProcessedImage();
+  private ProcessedImage readyOutput = new ProcessedImage();
+  private ProcessedImage displayedOutput = new ProcessedImage();
+  private boolean hasReadyOutput;
+
+  // Output buffers that will not be written or displayed, waiting to be handed back.
+  private final ArrayDeque<ByteBuffer> releasedOutputs = new ArrayDeque<>();
+
+  private Thread workerThread;
+  private boolean running;
+
+  public AsyncImageProcessor(Processor processor) {
+    this.processor = processor;
+  }
+
+  @Override
+  public void onResume(@NonNull LifecycleOwner owner) {
+    synchronized (lock) {
+      running = true;
+    }
+    workerThread = new Thread(this::runWorker, TAG);
+    workerThread.start();
+  }
+
+  @Override
+  public void onPause(@NonNull LifecycleOwner owner) {
+    synchronized (lock) {
+      running = false;
+      // Images from before the pause are stale, don't process or display them after resuming.
+      if (hasPendingInput) {
+        releaseOutput(pendingInput);
+        hasPendingInput = false;
+      }
+      if (hasReadyOutput) {
+        releasedOutputs.add(readyOutput.buffer);
+        hasReadyOutput = false;
+      }
+      lock.notifyAll();
+    }
+    try {
+      workerThread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    workerThread = null;
+    synchronized (lock) {
+      closeImage(pendingInput);
+    }
+  }
+
+  /**
+   * Copies an image and hands it over to the worker thread, replacing any image it has not started
+   * processing yet. Must be called on the OpenGL thread.
+   *
+   * @param width image width.
+   * @param height image height.
+   * @param stride image stride (number of bytes per row, equals to width if no row padding).
+   * @param input bytes of the image. Not accessed after this call returns, so the image can be
+   *     released immediately.
+   * @param output buffer of at least width * height bytes receiving the processed image. It is
+   *     either returned by {@link #acquireLatestResult()} once written, or by {@link
+   *     #pollReleasedOutput()}.
+   */
+  public void submit(int width, int height, int stride, ByteBuffer input, ByteBuffer output) {
+    input.position(0);
+    if (writingInput.buffer == null || writingInput.buffer.capacity() < input.remaining()) {
+      writingInput.buffer = ByteBuffer.allocateDirect(input.remaining());
+    }
+    writingInput.buffer.clear();
+    writingInput.buffer.put(input);
+    writingInput.buffer.flip();
+    input.position(0);
+
+    writingInput.width = width;
+    writingInput.height = height;
+    writingInput.stride = stride;
+    writingInput.output = output;
+    submitWritingInput();
+  }
+
+  /**
+   * Hands an image read back from the GPU over to the worker thread without copying it, replacing
+   * any image it has not started processing yet. Only the first width * height bytes are processed,
+   * which hold the grayscale plane of I8 and NV12 images. Must be called on the OpenGL thread.
+   *
+   * @param image the image, which is closed by the processor once it has been processed or
+   *     dropped. The caller must not close it.
+   * @param output buffer of at least width * height bytes receiving the processed image, handed
+   *     back the same way as for {@link #submit(int, int, int, ByteBuffer, ByteBuffer)}.
+   */
+  public void submit(TextureReaderImage image, ByteBuffer output) {
+    writingInput.width = image.width;
+    writingInput.height = image.height;
+    writingInput.stride = image.width;
+    writingInput.image = image;
+    writingInput.output = output;
+    submitWritingInput();
+  }
+
+  private void submitWritingInput() {
+    synchronized (lock) {
+      if (!running) {
+        // Paused, the image would only be dropped when resuming.
+        releaseOutput(writingInput);
+        closeImage(writingInput);
+        return;
+      }
+      InputImage swap = pendingInput;
+      pendingInput = writingInput;
+      writingInput = swap;
+      hasPendingInput = true;
+      // The replaced image, if the worker did not start on it.
+      releaseOutput(writingInput);
+      lock.notifyAll();
+    }
+    closeImage(writingInput);
+  }
+
+  /** Queues the output buffer of an image that will not be processed. Must hold the lock. */
+  private void releaseOutput(InputImage input) {
+    if (input.output != null) {
+      releasedOutputs.add(input.output);
+      input.output = null;
+    }
+  }
+
+  private static void closeImage(InputImage input) {
+    if (input.image != null) {
+      input.image.close();
+      input.image = null;
+    }
+  }
+
+  /**
+   * Returns the most recently processed image if a new one was completed since the last call, or
+   * null otherwise. The returned image remains valid until the next call that returns non-null.
+   * Must be called on the OpenGL thread.
+   */
+  public ProcessedImage acquireLatestResult() {
+    synchronized (lock) {
+      if (!hasReadyOutput) {
+        return null;
+      }
+      ProcessedImage swap = displayedOutput;
+      displayedOutput = readyOutput;
+      readyOutput = swap;
+      hasReadyOutput = false;
+    }
+    return displayedOutput;
+  }
+
+  /**
+   * Returns an output buffer that was submitted but will neither be written nor returned by {@link
+   * #acquireLatestResult()}, or null if there is none. Should be called until it returns null
+   * before each submit, so that these buffers can be reused or released. Must be called on the
+   * OpenGL thread.
+   */
+  public ByteBuffer pollReleasedOutput() {
+    synchronized (lock) {
+      return releasedOutputs.poll();
+    }
+  }
+
+  private void runWorker() {
+    while (true) {
+      synchronized (lock) {
+        while (running && !hasPendingInput) {
+          try {
+            lock.wait();
+          } catch (InterruptedException e) {
+            return;
+          }
+        }
+        if (!running) {
+          return;
+        }
+        InputImage swap = processingInput;
+        processingInput = pendingInput;
+        pendingInput = swap;
+        hasPendingInput = false;
+      }
+
+      InputImage input = processingInput;
+      ProcessedImage output = processingOutput;
+      output.buffer = input.output;
+      input.output = null;
+
+      try {
+        processor.process(
+            input.width,
+            input.height,
+            input.stride,
+            input.image != null ? input.image.getBuffer() : input.buffer,
+            output.buffer);
+      } catch (RuntimeException e) {
+        // Drop this image, but keep the worker alive for the next one.
+        Log.e(TAG, "Exception on the image processing thread", e);
+        synchronized (lock) {
+          releasedOutputs.add(output.buffer);
+        }
+        continue;
+      } finally {
+        closeImage(input);
+      }
+      output.width = input.width;
+      output.height = input.height;
+
+      synchronized (lock) {
+        if (!running) {
+          // Paused while processing, the result is already stale.
+          releasedOutputs.add(output.buffer);
+          return;
+        }
+        if (hasReadyOutput) {
+          // Replaced before the OpenGL thread acquired it.
+          releasedOutputs.add(readyOutput.buffer);
+        }
+        ProcessedImage swap = readyOutput;
+        readyOutput = processingOutput;
+        processingOutput = swap;
+        hasReadyOutput = true;
+      }
+    }
+  }
+}
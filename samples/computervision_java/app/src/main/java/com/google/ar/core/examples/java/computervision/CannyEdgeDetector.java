@@ -0,0 +1,270 @@
+/*
+ * Copyright 2019 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Detects thin edges from a grayscale image using the Canny edge detector.
+ *
+ * <p>The image is processed as a stream of rows: Sobel gradients, non-maximum suppression and
+ * hysteresis each run as soon as the rows they depend on are available. Only three rows of input,
+ * three rows of gradient magnitude and direction, and two rows of edges are kept at any time, so
+ * memory use does not depend on the image height.
+ *
+ * <p>Because rows below the current one are not kept, hysteresis only follows weak edges which
+ * connect to a strong edge within the same row or through the row above. Weak edges only connected
+ * to a strong edge further down the image are dropped.
+ */
+public class CannyEdgeDetector {
+  private static final byte EDGE = (byte) 0xFF;
+  private static final byte NON_EDGE = (byte) 0x1F;
+
+  // Pixel classes after non-maximum suppression.
+  private static final byte SUPPRESSED = 0;
+  private static final byte WEAK = 1;
+  private static final byte STRONG = 2;
+
+  // Quantized gradient directions, in image coordinates with y pointing down.
+  private static final byte DIRECTION_HORIZONTAL = 0;
+  private static final byte DIRECTION_DIAGONAL_DOWN = 1;
+  private static final byte DIRECTION_VERTICAL = 2;
+  private static final byte DIRECTION_DIAGONAL_UP = 3;
+
+  // Tangents of 22.5 and 67.5 degrees in 8-bit fixed point, bounding the diagonal directions.
+  private static final int TAN_22_5_FIXED = 106;
+  private static final int TAN_67_5_FIXED = 618;
+
+  private final int lowThreshold;
+  private final int highThreshold;
+
+  private int width;
+  private int height;
+
+  // Rings of three rows, indexed by row % 3.
+  private final byte[][] inputRows = new byte[3][0];
+  private final int[][] magnitudeRows = new int[3][0];
+  private final byte[][] directionRows = new byte[3][0];
+
+  private byte[] classRow = new byte[0];
+  private byte[] edgeRow = new byte[0];
+  private byte[] previousEdgeRow = new byte[0];
+
+  /**
+   * Creates a Canny edge detector.
+   *
+   * @param lowThreshold gradient magnitude above which a local maximum is a weak edge, kept only if
+   *     it connects to a strong edge. The magnitude is the sum of the absolute Sobel X and Y
+   *     responses, up to 2040 for unsigned byte pixels.
+   * @param highThreshold gradient magnitude above which a local maximum is a strong edge.
+   */
+  public CannyEdgeDetector(int lowThreshold, int highThreshold) {
+    if (lowThreshold > highThreshold) {
+      throw new IllegalArgumentException("Low threshold must not exceed the high threshold.");
+    }
+    this.lowThreshold = lowThreshold;
+    this.highThreshold = highThreshold;
+  }
+
+  /**
+   * Process a grayscale image using the Canny edge detector.
+   *
+   * @param width image width.
+   * @param height image height.
+   * @param stride image stride (number of bytes per row, equals to width if no row padding).
+   * @param input bytes of the image, assumed single channel grayscale with rows starting every
+   *     stride bytes.
+   * @param output buffer receiving the processed image, 0xFF for edge pixels and 0x1F for all
+   *     other pixels. Must hold at least width * height bytes; row padding is removed.
+   */
+  public synchronized void detect(
+      int width, int height, int stride, ByteBuffer input, ByteBuffer output) {
+    if (output.capacity() < width * height) {
+      throw new IllegalArgumentException(
+          "Output buffer too small: " + output.capacity() + " < " + (width * height));
+    }
+
+    this.width = width;
+    this.height = height;
+    ensureCapacity(width);
+
+    int inputPosition = input.position();
+    int outputPosition = output.position();
+
+    // Each row is finished two rows after it was read: its gradient needs the input row below it,
+    // and non-maximum suppression needs the gradient row below it.
+    for (int y = 0; y < height; y++) {
+      input.position(y * stride);
+      input.get(inputRows[y % 3], 0, width);
+      if (y >= 1) {
+        computeGradientRow(y - 1);
+      }
+      if (y >= 2) {
+        finishRow(y - 2, output);
+      }
+    }
+    computeGradientRow(height - 1);
+    if (height >= 2) {
+      finishRow(height - 2, output);
+    }
+    finishRow(height - 1, output);
+
+    input.position(inputPosition);
+    output.position(outputPosition);
+  }
+
+  private void ensureCapacity(int width) {
+    if (classRow.length >= width) {
+      return;
+    }
+    for (int k = 0; k < 3; k++) {
+      inputRows[k] = new byte[width];
+      magnitudeRows[k] = new int[width];
+      directionRows[k] = new byte[width];
+    }
+    classRow = new byte[width];
+    edgeRow = new byte[width];
+    previousEdgeRow = new byte[width];
+  }
+
+  /** Computes the gradient magnitude and direction of row y. The image border has no gradient. */
+  private void computeGradientRow(int y) {
+    int[] magnitude = magnitudeRows[y % 3];
+    byte[] direction = directionRows[y % 3];
+    magnitude[0] = 0;
+    magnitude[width - 1] = 0;
+    if (y == 0 || y == height - 1) {
+      for (int x = 0; x < width; x++) {
+        magnitude[x] = 0;
+      }
+      return;
+    }
+
+    byte[] top = inputRows[(y - 1) % 3];
+    byte[] middle = inputRows[y % 3];
+    byte[] bottom = inputRows[(y + 1) % 3];
+    for (int x = 1; x < width - 1; x++) {
+      int a00 = top[x - 1] & 0xFF;
+      int a01 = top[x] & 0xFF;
+      int a02 = top[x + 1] & 0xFF;
+      int a10 = middle[x - 1] & 0xFF;
+      int a12 = middle[x + 1] & 0xFF;
+      int a20 = bottom[x - 1] & 0xFF;
+      int a21 = bottom[x] & 0xFF;
+      int a22 = bottom[x + 1] & 0xFF;
+
+      // Same Sobel filters as EdgeDetector, with y pointing down.
+      int gx = -a00 - (2 * a10) - a20 + a02 + (2 * a12) + a22;
+      int gy = -a00 - (2 * a01) - a02 + a20 + (2 * a21) + a22;
+      int absX = Math.abs(gx);
+      int absY = Math.abs(gy);
+
+      magnitude[x] = absX + absY;
+      if ((absY << 8) <= absX * TAN_22_5_FIXED) {
+        direction[x] = DIRECTION_HORIZONTAL;
+      } else if ((absY << 8) >= absX * TAN_67_5_FIXED) {
+        direction[x] = DIRECTION_VERTICAL;
+      } else {
+        direction[x] = (gx ^ gy) >= 0 ? DIRECTION_DIAGONAL_DOWN : DIRECTION_DIAGONAL_UP;
+      }
+    }
+  }
+
+  /** Applies non-maximum suppression and hysteresis to row y and writes it to the output. */
+  private void finishRow(int y, ByteBuffer output) {
+    for (int x = 0; x < width; x++) {
+      edgeRow[x] = NON_EDGE;
+    }
+
+    if (y > 0 && y < height - 1) {
+      suppressNonMaxima(y);
+
+      // Strong edges are always kept.
+      for (int x = 1; x < width - 1; x++) {
+        if (classRow[x] == STRONG) {
+          edgeRow[x] = EDGE;
+        }
+      }
+
+      // Weak edges are kept if they touch an edge in the row above or an edge to their left...
+      for (int x = 1; x < width - 1; x++) {
+        if (classRow[x] == WEAK
+            && (edgeRow[x - 1] == EDGE
+                || previousEdgeRow[x - 1] == EDGE
+                || previousEdgeRow[x] == EDGE
+                || previousEdgeRow[x + 1] == EDGE)) {
+          edgeRow[x] = EDGE;
+        }
+      }
+
+      // ...or an edge to their right, so that whole runs of weak pixels are kept.
+      for (int x = width - 2; x >= 1; x--) {
+        if (classRow[x] == WEAK && edgeRow[x + 1] == EDGE) {
+          edgeRow[x] = EDGE;
+        }
+      }
+    }
+
+    output.position(y * width);
+    output.put(edgeRow, 0, width);
+
+    byte[] swap = previousEdgeRow;
+    previousEdgeRow = edgeRow;
+    edgeRow = swap;
+  }
+
+  /** Classifies each pixel of row y by comparing it with its neighbours across the edge. */
+  private void suppressNonMaxima(int y) {
+    int[] above = magnitudeRows[(y - 1) % 3];
+    int[] magnitude = magnitudeRows[y % 3];
+    int[] below = magnitudeRows[(y + 1) % 3];
+    byte[] direction = directionRows[y % 3];
+
+    for (int x = 1; x < width - 1; x++) {
+      int value = magnitude[x];
+      if (value <= lowThreshold) {
+        classRow[x] = SUPPRESSED;
+        continue;
+      }
+
+      int before;
+      int after;
+      switch (direction[x]) {
+        case DIRECTION_HORIZONTAL:
+          before = magnitude[x - 1];
+          after = magnitude[x + 1];
+          break;
+        case DIRECTION_DIAGONAL_DOWN:
+          before = above[x - 1];
+          after = below[x + 1];
+          break;
+        case DIRECTION_VERTICAL:
+          before = above[x];
+          after = below[x];
+          break;
+        default:
+          before = above[x + 1];
+          after = below[x - 1];
+          break;
+      }
+
+      if (value > before && value >= after) {
+        classRow[x] = value > highThreshold ? STRONG : WEAK;
+      } else {
+        classRow[x] = SUPPRESSED;
+      }
+    }
+  }
+}
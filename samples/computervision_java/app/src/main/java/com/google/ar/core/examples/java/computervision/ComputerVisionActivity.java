@@ -41,8 +41,11 @@ import com.google.ar.core.Config;
 import com.google.ar.core.Frame;
 import com.google.ar.core.Session;
 import com.google.ar.core.examples.java.common.helpers.CameraPermissionHelper;
+import com.google.ar.core.examples.java.common.helpers.FrameTracer;
 import com.google.ar.core.examples.java.common.helpers.FullScreenHelper;
+import com.google.ar.core.examples.java.common.helpers.LatencyRecorder;
 import com.google.ar.core.examples.java.common.helpers.SnackbarHelper;
+import com.google.ar.core.examples.java.common.helpers.StatsPublisher;
 import com.google.ar.core.exceptions.CameraNotAvailableException;
 import com.google.ar.core.exceptions.NotYetAvailableException;
 import com.google.ar.core.exceptions.UnavailableApkTooOldException;
@@ -52,33 +55,59 @@ import com.google.ar.core.exceptions.UnavailableUserDeclinedInstallationExceptio
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 
 /** This is a simple example that demonstrates CPU image access with ARCore. */
 public class ComputerVisionActivity extends AppCompatActivity implements GLSurfaceView.Renderer {
   private static final String TAG = ComputerVisionActivity.class.getSimpleName();
-  private static final String CAMERA_INTRINSICS_TEXT_FORMAT =
-      "Unrotated Camera %s %s Intrinsics:\n\tFocal Length: (%.2f, %.2f)"
-          + "\n\tPrincipal Point: (%.2f, %.2f)"
-          + "\n\t%s Image Dimensions: (%d, %d)"
-          + "\n\tUnrotated Field of View: (%.2f˚, %.2f˚)"
-          + "\n\tRender frame time: %.1f ms (%.0ffps)"
-          + "\n\tCPU image frame time: %.1f ms (%.0ffps)";
+
+  // Set to true to trace the time spent in each part of onDrawFrame(). The trace is written to the
+  // app's external files directory whenever the app is paused, and can be opened in
+  // chrome://tracing or ui.perfetto.dev.
+  private static final boolean TRACE_FRAMES = false;
+
+  // Maximum rate at which the camera intrinsics' text is updated.
+  private static final float CAMERA_INTRINSICS_UPDATES_PER_SECOND = 4;
   private static final float RADIANS_TO_DEGREES = (float) (180 / Math.PI);
 
-  // This app demonstrates two approaches to obtaining image data accessible on CPU:
+  // This app demonstrates four approaches to obtaining image data accessible on CPU:
   // 1. Access the CPU image directly from ARCore. This approach delivers a frame without latency
   //    (if available), but currently is lower resolution than the GPU image.
-  // 2. Download the texture from GPU. This approach incurs a 1-frame latency, but allows a high
-  //    resolution image.
+  // 2. Same as 1, but the image is processed on a worker thread. Rendering is not slowed down by
+  //    image processing, but the processed image may lag a few frames behind.
+  // 3. Download the texture from GPU. This approach incurs at least a 1-frame latency, but allows a
+  //    high resolution image.
+  // 4. Same as 3, but the downloaded image is handed over to a worker thread without copying, and
+  //    processed there.
   private enum ImageAcquisitionPath {
     CPU_DIRECT_ACCESS,
-    GPU_DOWNLOAD
+    CPU_DIRECT_ACCESS_ASYNC,
+    GPU_DOWNLOAD,
+    GPU_DOWNLOAD_ASYNC
   }
 
   // Select the image acquisition path here.
-  private final ImageAcquisitionPath imageAcquisitionPath = ImageAcquisitionPath.CPU_DIRECT_ACCESS;
+  private final ImageAcquisitionPath imageAcquisitionPath =
+      ImageAcquisitionPath.CPU_DIRECT_ACCESS_ASYNC;
+
+  // The CPU image can be processed in four ways:
+  // 1. Run the Sobel edge detector, split into row bands processed in parallel.
+  // 2. Same as 1, but only re-run the edge detector on the tiles of the image that changed since
+  //    the previous image. This is much cheaper when the camera is held still.
+  // 3. Run the Canny edge detector, which produces thin edges using a few rows of memory.
+  // 4. Stream the image through a pipeline of stages, which can be freely combined without
+  //    allocating intermediate images.
+  private enum ImageProcessingMode {
+    EDGE_DETECTOR,
+    EDGE_DETECTOR_CHANGED_TILES,
+    CANNY_EDGE_DETECTOR,
+    PIPELINE
+  }
+
+  // Select the image processing mode here.
+  private final ImageProcessingMode imageProcessingMode = ImageProcessingMode.EDGE_DETECTOR;
 
   // Session management and rendering.
   private GLSurfaceView surfaceView;
@@ -88,19 +117,58 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
   private final SnackbarHelper messageSnackbarHelper = new SnackbarHelper();
   private CpuImageDisplayRotationHelper cpuImageDisplayRotationHelper;
   private final CpuImageRenderer cpuImageRenderer = new CpuImageRenderer();
-  private final EdgeDetector edgeDetector = new EdgeDetector();
+  // Split edge detection into row bands which run in parallel on the common fork/join pool.
+  private final EdgeDetector edgeDetector = new EdgeDetector(ForkJoinPool.commonPool());
+  private final IncrementalEdgeDetector incrementalEdgeDetector =
+      new IncrementalEdgeDetector(edgeDetector);
+  private final CannyEdgeDetector cannyEdgeDetector =
+      new CannyEdgeDetector(/*lowThreshold=*/ 100, /*highThreshold=*/ 200);
+  private final ImageProcessingPipeline imageProcessingPipeline =
+      new ImageProcessingPipeline.Builder()
+          .add(ImageProcessors.gaussianBlur())
+          .add(ImageProcessors.sobel())
+          .add(ImageProcessors.dilate())
+          .build();
   private GestureDetector gestureDetector;
 
+  // Processed image output, reused across frames so that edge detection does not allocate.
+  private ByteBuffer processedImageBuffer;
+
+  // Pyramid level at which the CPU_DIRECT_ACCESS path processes the image. Every level halves the
+  // width and height, so level 1 processes four times fewer pixels than full resolution (level 0).
+  private static final int CPU_IMAGE_PROCESSING_LEVEL = 0;
+  private final ImagePyramid imagePyramid = new ImagePyramid(CPU_IMAGE_PROCESSING_LEVEL + 1);
+
+  // Processes the CPU image on a worker thread for the CPU_DIRECT_ACCESS_ASYNC and
+  // GPU_DOWNLOAD_ASYNC paths.
+  private final AsyncImageProcessor asyncImageProcessor =
+      new AsyncImageProcessor(
+          imageAcquisitionPath == ImageAcquisitionPath.GPU_DOWNLOAD_ASYNC
+              ? this::processDownloadedImage
+              : this::processImage);
+
+  // Set to true to record the CPU images of the CPU_DIRECT_ACCESS paths to the app's external files
+  // directory. Recordings can be replayed off-device with YuvFrameReader. The planes are copied on
+  // the GL thread, so the frame timings reported while recording are inflated.
+  private static final boolean RECORD_CPU_IMAGES = false;
+  private YuvFrameRecorder yuvFrameRecorder;
+
   // This lock prevents changing resolution as the frame is being rendered. ARCore requires all
   // CPU images to be released before changing resolution.
   private final Object frameImageInUseLock = new Object();
 
   // Camera intrinsics text view.
   private TextView cameraIntrinsicsTextView;
+  private StatsPublisher cameraIntrinsicsPublisher;
 
-  // The fields below are used for the GPU_DOWNLOAD image acquisition path.
-  private final TextureReader textureReader = new TextureReader();
-  private int gpuDownloadFrameBufferIndex = -1;
+  // The fields below are used for the GPU_DOWNLOAD and GPU_DOWNLOAD_ASYNC image acquisition paths.
+  // Up to three reads are kept in flight, so that a slow readback never stalls the OpenGL thread.
+  private static final int GPU_DOWNLOAD_BUFFER_COUNT = 3;
+  private final TextureReader textureReader = new TextureReader(GPU_DOWNLOAD_BUFFER_COUNT);
+
+  // Set to true to detect edges on the GPU in the GPU_DOWNLOAD paths, as shader stages of the
+  // texture reader. Only the edge mask is read back, and the image processing mode is ignored.
+  private static final boolean GPU_DOWNLOAD_SHADER_STAGES = false;
 
   // ARCore full resolution GL texture typically has a size of 1920 x 1080.
   private static final int TEXTURE_WIDTH = 1920;
@@ -117,8 +185,25 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
 
   private Switch focusModeSwitch;
 
-  private final FrameTimeHelper renderFrameTimeHelper = new FrameTimeHelper();
-  private final FrameTimeHelper cpuImageFrameTimeHelper = new FrameTimeHelper();
+  // Latency of the stages of each frame, reported over one second windows. The first two stages
+  // measure the time between rendered frames, and between processed CPU images.
+  private static final int RENDER_FRAME_STAGE = 0;
+  private static final int CPU_IMAGE_FRAME_STAGE = 1;
+  private static final int SESSION_UPDATE_STAGE = 2;
+  private static final int IMAGE_ACQUIRE_STAGE = 3;
+  private static final int DETECT_STAGE = 4;
+  private static final int UPLOAD_STAGE = 5;
+  private static final int DRAW_STAGE = 6;
+  private final LatencyRecorder latencyRecorder =
+      new LatencyRecorder(
+          /*windowMillis=*/ 1000,
+          "Render frame",
+          "CPU image frame",
+          "session.update",
+          "Image acquire",
+          "Detect",
+          "Upload",
+          "Draw");
 
   @Override
   protected void onCreate(Bundle savedInstanceState) {
@@ -126,6 +211,8 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
     setContentView(R.layout.activity_main);
     surfaceView = findViewById(R.id.surfaceview);
     cameraIntrinsicsTextView = findViewById(R.id.camera_intrinsics_view);
+    cameraIntrinsicsPublisher =
+        new StatsPublisher(cameraIntrinsicsTextView, CAMERA_INTRINSICS_UPDATES_PER_SECOND);
     surfaceView = findViewById(R.id.surfaceview);
     focusModeSwitch = (Switch) findViewById(R.id.switch_focus_mode);
     focusModeSwitch.setOnCheckedChangeListener(this::onFocusModeChanged);
@@ -159,14 +246,19 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
 
     // Set up renderer.
     surfaceView.setPreserveEGLContextOnPause(true);
-    surfaceView.setEGLContextClientVersion(2);
+    surfaceView.setEGLContextClientVersion(3);
     surfaceView.setEGLConfigChooser(8, 8, 8, 8, 16, 0); // Alpha used for plane blending.
     surfaceView.setRenderer(this);
     surfaceView.setRenderMode(GLSurfaceView.RENDERMODE_CONTINUOUSLY);
     surfaceView.setWillNotDraw(false);
+    FrameTracer.setEnabled(TRACE_FRAMES);
 
-    getLifecycle().addObserver(renderFrameTimeHelper);
-    getLifecycle().addObserver(cpuImageFrameTimeHelper);
+    getLifecycle().addObserver(latencyRecorder);
+    getLifecycle().addObserver(asyncImageProcessor);
+    if (RECORD_CPU_IMAGES) {
+      yuvFrameRecorder = new YuvFrameRecorder(getExternalFilesDir(/*type=*/ null));
+      getLifecycle().addObserver(yuvFrameRecorder);
+    }
 
     installRequested = false;
   }
@@ -246,6 +338,7 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
       // still call session.update() and get a SessionPausedException.
       cpuImageDisplayRotationHelper.onPause();
       surfaceView.onPause();
+      FrameTracer.writeTraceIfEnabled(getExternalFilesDir(/*type=*/ null));
       session.pause();
     }
   }
@@ -277,8 +370,13 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
     try {
       cpuImageRenderer.createOnGlThread(/* context= */ this);
 
-      // The image format can be either IMAGE_FORMAT_RGBA or IMAGE_FORMAT_I8.
+      // The image format can be IMAGE_FORMAT_RGBA, IMAGE_FORMAT_I8 or IMAGE_FORMAT_NV12. NV12
+      // starts with the same grayscale plane as I8, followed by the color of each 2x2 block of
+      // pixels.
       // Set keepAspectRatio to false so that the output image covers the whole viewport.
+      if (GPU_DOWNLOAD_SHADER_STAGES) {
+        textureReader.setShaderStages(ShaderStages.gaussianBlur(), ShaderStages.sobel());
+      }
       textureReader.create(
           /* context= */ this,
           TextureReaderImage.IMAGE_FORMAT_I8,
@@ -309,26 +407,47 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
     // the video background can be properly adjusted.
     cpuImageDisplayRotationHelper.updateSessionIfNeeded(session);
 
+    FrameTracer.beginSection("onDrawFrame");
     try {
       session.setCameraTextureName(cpuImageRenderer.getTextureId());
-      final Frame frame = session.update();
+      long updateStart = latencyRecorder.start();
+      FrameTracer.beginSection("session.update");
+      final Frame frame;
+      try {
+        frame = session.update();
+      } finally {
+        FrameTracer.endSection();
+      }
+      latencyRecorder.record(SESSION_UPDATE_STAGE, updateStart);
 
-      renderFrameTimeHelper.nextFrame();
+      latencyRecorder.recordInterval(RENDER_FRAME_STAGE);
+      latencyRecorder.updateWindow();
 
       switch (imageAcquisitionPath) {
         case CPU_DIRECT_ACCESS:
           renderProcessedImageCpuDirectAccess(frame);
           break;
+        case CPU_DIRECT_ACCESS_ASYNC:
+          renderProcessedImageCpuDirectAccessAsync(frame);
+          break;
         case GPU_DOWNLOAD:
           renderProcessedImageGpuDownload(frame);
           break;
+        case GPU_DOWNLOAD_ASYNC:
+          renderProcessedImageGpuDownloadAsync(frame);
+          break;
       }
 
-      // Update the camera intrinsics' text.
-      runOnUiThread(() -> cameraIntrinsicsTextView.setText(getCameraIntrinsicsText(frame)));
+      // Update the camera intrinsics' text. The latency windows may only be read on this thread.
+      if (cameraIntrinsicsPublisher.isUpdateDue()) {
+        appendCameraIntrinsicsText(frame, cameraIntrinsicsPublisher.beginUpdate());
+        cameraIntrinsicsPublisher.endUpdate();
+      }
     } catch (Exception t) {
       // Avoid crashing the application due to unhandled exceptions.
       Log.e(TAG, "Exception on the OpenGL thread", t);
+    } finally {
+      FrameTracer.endSection();
     }
   }
 
@@ -338,29 +457,38 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
     // because switching resolutions requires all images to be released before session.resume() is
     // called.
     synchronized (frameImageInUseLock) {
+      long acquireStart = latencyRecorder.start();
       try (Image image = frame.acquireCameraImage()) {
+        latencyRecorder.record(IMAGE_ACQUIRE_STAGE, acquireStart);
         if (image.getFormat() != ImageFormat.YUV_420_888) {
           throw new IllegalArgumentException(
               "Expected image in YUV_420_888 format, got format " + image.getFormat());
         }
+        if (yuvFrameRecorder != null) {
+          yuvFrameRecorder.record(image, frame.getCamera().getImageIntrinsics());
+        }
 
-        ByteBuffer processedImageBytesGrayscale =
-            edgeDetector.detect(
-                image.getWidth(),
-                image.getHeight(),
-                image.getPlanes()[0].getRowStride(),
-                image.getPlanes()[0].getBuffer());
-
-        cpuImageRenderer.drawWithCpuImage(
-            frame,
+        // Downsample the Y plane to the selected level. Level 0 uses the plane without copying.
+        imagePyramid.build(
             image.getWidth(),
             image.getHeight(),
-            processedImageBytesGrayscale,
-            cpuImageDisplayRotationHelper.getViewportAspectRatio(),
-            cpuImageDisplayRotationHelper.getCameraToDisplayRotation());
-
-        // Measure frame time since last successful execution of drawWithCpuImage().
-        cpuImageFrameTimeHelper.nextFrame();
+            image.getPlanes()[0].getRowStride(),
+            image.getPlanes()[0].getBuffer());
+        int width = imagePyramid.getWidth(CPU_IMAGE_PROCESSING_LEVEL);
+        int height = imagePyramid.getHeight(CPU_IMAGE_PROCESSING_LEVEL);
+
+        ByteBuffer processedImageBytesGrayscale = getProcessedImageBuffer(width, height);
+        processImage(
+            width,
+            height,
+            imagePyramid.getStride(CPU_IMAGE_PROCESSING_LEVEL),
+            imagePyramid.getBuffer(CPU_IMAGE_PROCESSING_LEVEL),
+            processedImageBytesGrayscale);
+
+        drawCpuImage(frame, width, height, processedImageBytesGrayscale);
+
+        // Measure frame time since last successful execution of drawCpuImage().
+        latencyRecorder.recordInterval(CPU_IMAGE_FRAME_STAGE);
       } catch (NotYetAvailableException e) {
         // This exception will routinely happen during startup, and is expected. cpuImageRenderer
         // will handle null image properly, and will just render the background.
@@ -369,41 +497,216 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
     }
   }
 
+  /* Same as above, but hands the CPU image over to a worker thread instead of processing it. */
+  private void renderProcessedImageCpuDirectAccessAsync(Frame frame) {
+    drawLatestProcessedImage(frame);
+
+    // The lock is only held while copying the image, not while processing it.
+    synchronized (frameImageInUseLock) {
+      long acquireStart = latencyRecorder.start();
+      try (Image image = frame.acquireCameraImage()) {
+        latencyRecorder.record(IMAGE_ACQUIRE_STAGE, acquireStart);
+        if (image.getFormat() != ImageFormat.YUV_420_888) {
+          throw new IllegalArgumentException(
+              "Expected image in YUV_420_888 format, got format " + image.getFormat());
+        }
+        if (yuvFrameRecorder != null) {
+          yuvFrameRecorder.record(image, frame.getCamera().getImageIntrinsics());
+        }
+
+        // The worker always processes the most recent image. If it is still busy, an image
+        // submitted earlier which it has not started on yet is dropped. The result is written
+        // straight into a pixel buffer of the renderer, so it is never copied on this thread.
+        ByteBuffer output =
+            cpuImageRenderer.beginCpuImageUpload(image.getWidth(), image.getHeight());
+        if (output != null) {
+          asyncImageProcessor.submit(
+              image.getWidth(),
+              image.getHeight(),
+              image.getPlanes()[0].getRowStride(),
+              image.getPlanes()[0].getBuffer(),
+              output);
+        }
+      } catch (NotYetAvailableException e) {
+        // This exception will routinely happen during startup, and is expected. The most recent
+        // processed image, if any, was already drawn above.
+      }
+    }
+  }
+
   /* Demonstrates how to access a CPU image using a download from GPU. */
   private void renderProcessedImageGpuDownload(Frame frame) {
-    // If there is a frame being requested previously, acquire the pixels and process it.
-    if (gpuDownloadFrameBufferIndex >= 0) {
-      TextureReaderImage image = textureReader.acquireFrame(gpuDownloadFrameBufferIndex);
+    // If the GPU has finished reading a frame requested previously, acquire the pixels and process
+    // them. Frames which are still being read are left for a later call, instead of waiting.
+    int bufferIndex = textureReader.pollReadyFrame();
+    if (bufferIndex >= 0) {
+      ByteBuffer processedImageBytesGrayscale;
+      // You should always close the image after using it, which releases its frame buffer.
+      // Otherwise the next call to submitFrame() may fail.
+      long acquireStart = latencyRecorder.start();
+      try (TextureReaderImage image = textureReader.acquireImage(bufferIndex)) {
+        latencyRecorder.record(IMAGE_ACQUIRE_STAGE, acquireStart);
+        checkGpuDownloadImageFormat(image);
+
+        processedImageBytesGrayscale = getProcessedImageBuffer(image.width, image.height);
+        processDownloadedImage(
+            image.width,
+            image.height,
+            /* stride= */ image.width,
+            image.getBuffer(),
+            processedImageBytesGrayscale);
+      }
+
+      drawCpuImage(frame, IMAGE_WIDTH, IMAGE_HEIGHT, processedImageBytesGrayscale);
+
+      // Measure frame time since last successful execution of drawCpuImage().
+      latencyRecorder.recordInterval(CPU_IMAGE_FRAME_STAGE);
+    } else {
+      drawPreviousCpuImage(frame);
+    }
+
+    // Submit request for the texture from the current frame, unless all buffers are still being
+    // read by the GPU.
+    if (textureReader.hasFreeBuffer()) {
+      textureReader.submitFrame(cpuImageRenderer.getTextureId(), TEXTURE_WIDTH, TEXTURE_HEIGHT);
+    }
+  }
+
+  /* Same as above, but hands the downloaded image over to a worker thread for processing. */
+  private void renderProcessedImageGpuDownloadAsync(Frame frame) {
+    drawLatestProcessedImage(frame);
 
-      if (image.format != TextureReaderImage.IMAGE_FORMAT_I8) {
-        throw new IllegalArgumentException(
-            "Expected image in I8 format, got format " + image.format);
+    int bufferIndex = textureReader.pollReadyFrame();
+    if (bufferIndex >= 0) {
+      long acquireStart = latencyRecorder.start();
+      TextureReaderImage image = textureReader.acquireImage(bufferIndex);
+      latencyRecorder.record(IMAGE_ACQUIRE_STAGE, acquireStart);
+      try {
+        checkGpuDownloadImageFormat(image);
+      } catch (IllegalArgumentException e) {
+        image.close();
+        throw e;
+      }
+      ByteBuffer output = cpuImageRenderer.beginCpuImageUpload(image.width, image.height);
+      if (output != null) {
+        // The frame buffer stays reserved until the worker has processed the image and closed it.
+        asyncImageProcessor.submit(image, output);
+      } else {
+        image.close();
       }
+    }
+
+    // Submit request for the texture from the current frame, unless all buffers are still being
+    // read by the GPU or held by the worker.
+    if (textureReader.hasFreeBuffer()) {
+      textureReader.submitFrame(cpuImageRenderer.getTextureId(), TEXTURE_WIDTH, TEXTURE_HEIGHT);
+    }
+  }
 
-      ByteBuffer processedImageBytesGrayscale =
-          edgeDetector.detect(image.width, image.height, /* stride= */ image.width, image.buffer);
+  private static void checkGpuDownloadImageFormat(TextureReaderImage image) {
+    if (image.format != TextureReaderImage.IMAGE_FORMAT_I8
+        && image.format != TextureReaderImage.IMAGE_FORMAT_NV12) {
+      throw new IllegalArgumentException(
+          "Expected image in I8 or NV12 format, got format " + image.format);
+    }
+  }
 
-      // You should always release frame buffer after using. Otherwise the next call to
-      // submitFrame() may fail.
-      textureReader.releaseFrame(gpuDownloadFrameBufferIndex);
+  /**
+   * Processes an image downloaded from the GPU, which only needs to be copied if it was already
+   * processed by the shader stages.
+   */
+  private void processDownloadedImage(
+      int width, int height, int stride, ByteBuffer input, ByteBuffer output) {
+    if (!GPU_DOWNLOAD_SHADER_STAGES) {
+      processImage(width, height, stride, input, output);
+      return;
+    }
+    for (int y = 0; y < height; y++) {
+      input.limit((y * stride) + width);
+      input.position(y * stride);
+      output.position(y * width);
+      output.put(input);
+    }
+    input.clear();
+    output.clear();
+  }
 
-      cpuImageRenderer.drawWithCpuImage(
-          frame,
-          IMAGE_WIDTH,
-          IMAGE_HEIGHT,
-          processedImageBytesGrayscale,
-          cpuImageDisplayRotationHelper.getViewportAspectRatio(),
-          cpuImageDisplayRotationHelper.getCameraToDisplayRotation());
+  /** Processes a grayscale image using the selected image processing mode. */
+  private void processImage(
+      int width, int height, int stride, ByteBuffer input, ByteBuffer output) {
+    FrameTracer.beginSection("processImage");
+    try {
+      long start = latencyRecorder.start();
+      switch (imageProcessingMode) {
+        case EDGE_DETECTOR:
+          edgeDetector.detect(width, height, stride, input, output);
+          break;
+        case EDGE_DETECTOR_CHANGED_TILES:
+          incrementalEdgeDetector.detect(width, height, stride, input, output);
+          break;
+        case CANNY_EDGE_DETECTOR:
+          cannyEdgeDetector.detect(width, height, stride, input, output);
+          break;
+        case PIPELINE:
+          imageProcessingPipeline.process(width, height, stride, input, output);
+          break;
+      }
+      latencyRecorder.record(DETECT_STAGE, start);
+    } finally {
+      FrameTracer.endSection();
+    }
+  }
+
+  /** Uploads a processed image and draws it, recording the latency of both. */
+  private void drawCpuImage(Frame frame, int width, int height, ByteBuffer image) {
+    long start = latencyRecorder.start();
+    cpuImageRenderer.uploadCpuImage(width, height, image);
+    latencyRecorder.record(UPLOAD_STAGE, start);
+    drawPreviousCpuImage(frame);
+  }
+
+  /**
+   * Finishes the upload of the latest image completed by the worker thread and draws it, or draws
+   * the previous image if there is no new one. Uploads of images the worker dropped are abandoned
+   * first, so that their pixel buffers are free for the next submit.
+   */
+  private void drawLatestProcessedImage(Frame frame) {
+    for (ByteBuffer output = asyncImageProcessor.pollReleasedOutput();
+        output != null;
+        output = asyncImageProcessor.pollReleasedOutput()) {
+      cpuImageRenderer.cancelCpuImageUpload(output);
+    }
 
-      // Measure frame time since last successful execution of drawWithCpuImage().
-      cpuImageFrameTimeHelper.nextFrame();
+    AsyncImageProcessor.ProcessedImage processedImage = asyncImageProcessor.acquireLatestResult();
+    if (processedImage != null) {
+      long start = latencyRecorder.start();
+      cpuImageRenderer.endCpuImageUpload(processedImage.buffer);
+      latencyRecorder.record(UPLOAD_STAGE, start);
+      drawPreviousCpuImage(frame);
+
+      // Measure frame time since the last processed image was completed.
+      latencyRecorder.recordInterval(CPU_IMAGE_FRAME_STAGE);
     } else {
-      cpuImageRenderer.drawWithoutCpuImage();
+      drawPreviousCpuImage(frame);
     }
+  }
 
-    // Submit request for the texture from the current frame.
-    gpuDownloadFrameBufferIndex =
-        textureReader.submitFrame(cpuImageRenderer.getTextureId(), TEXTURE_WIDTH, TEXTURE_HEIGHT);
+  /** Draws the last uploaded processed image, recording the latency. */
+  private void drawPreviousCpuImage(Frame frame) {
+    long start = latencyRecorder.start();
+    cpuImageRenderer.drawWithPreviousCpuImage(frame);
+    latencyRecorder.record(DRAW_STAGE, start);
+  }
+
+  /**
+   * Returns the reusable buffer for the processed image, reallocating it only when the image grows
+   * beyond its current capacity, e.g. after switching to a higher resolution camera config.
+   */
+  private ByteBuffer getProcessedImageBuffer(int width, int height) {
+    if (processedImageBuffer == null || processedImageBuffer.capacity() < width * height) {
+      processedImageBuffer = ByteBuffer.allocateDirect(width * height);
+    }
+    return processedImageBuffer;
   }
 
   public void onLowResolutionRadioButtonClicked(View view) {
@@ -507,7 +810,7 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
     return cameraConfig;
   }
 
-  private String getCameraIntrinsicsText(Frame frame) {
+  private void appendCameraIntrinsicsText(Frame frame, StringBuilder text) {
     Camera camera = frame.getCamera();
 
     boolean forGpuTexture = (cpuImageRenderer.getSplitterPosition() > 0.5f);
@@ -525,22 +828,38 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
     fovX *= RADIANS_TO_DEGREES;
     fovY *= RADIANS_TO_DEGREES;
 
-    return String.format(
-        CAMERA_INTRINSICS_TEXT_FORMAT,
-        imageType,
-        intrinsicsLabel,
-        focalLength[0],
-        focalLength[1],
-        principalPoint[0],
-        principalPoint[1],
-        imageType,
-        imageSize[0],
-        imageSize[1],
-        fovX,
-        fovY,
-        renderFrameTimeHelper.getSmoothedFrameTime(),
-        renderFrameTimeHelper.getSmoothedFrameRate(),
-        cpuImageFrameTimeHelper.getSmoothedFrameTime(),
-        cpuImageFrameTimeHelper.getSmoothedFrameRate());
+    text.append("Unrotated Camera ").append(imageType).append(' ').append(intrinsicsLabel);
+    text.append(" Intrinsics:\n\tFocal Length: (");
+    StatsPublisher.appendFixed(text, focalLength[0], 2).append(", ");
+    StatsPublisher.appendFixed(text, focalLength[1], 2).append(")\n\tPrincipal Point: (");
+    StatsPublisher.appendFixed(text, principalPoint[0], 2).append(", ");
+    StatsPublisher.appendFixed(text, principalPoint[1], 2).append(")\n\t");
+    text.append(imageType).append(" Image Dimensions: (").append(imageSize[0]).append(", ");
+    text.append(imageSize[1]).append(")\n\tUnrotated Field of View: (");
+    StatsPublisher.appendFixed(text, fovX, 2).append("˚, ");
+    StatsPublisher.appendFixed(text, fovY, 2).append("˚)");
+
+    text.append("\n\tRender frame time: ");
+    appendFrameTimes(text, latencyRecorder.getWindow(RENDER_FRAME_STAGE));
+    text.append("\n\tCPU image frame time: ");
+    appendFrameTimes(text, latencyRecorder.getWindow(CPU_IMAGE_FRAME_STAGE));
+    for (int stage = SESSION_UPDATE_STAGE; stage < latencyRecorder.getStageCount(); stage++) {
+      LatencyRecorder.Window window = latencyRecorder.getWindow(stage);
+      text.append("\n\t").append(latencyRecorder.getStageName(stage)).append(": ");
+      StatsPublisher.appendFixed(text, toMillis(window.p50), 1).append(" ms p50, ");
+      StatsPublisher.appendFixed(text, toMillis(window.p95), 1).append(" ms p95, ");
+      StatsPublisher.appendFixed(text, toMillis(window.p99), 1).append(" ms p99, ");
+      StatsPublisher.appendFixed(text, toMillis(window.max), 1).append(" ms max");
+    }
+  }
+
+  private static void appendFrameTimes(StringBuilder text, LatencyRecorder.Window window) {
+    StatsPublisher.appendFixed(text, toMillis(window.p50), 1).append(" ms p50, ");
+    StatsPublisher.appendFixed(text, toMillis(window.p99), 1).append(" ms p99 (");
+    StatsPublisher.appendFixed(text, window.getRate(), 0).append("fps)");
+  }
+
+  private static float toMillis(long nanos) {
+    return nanos / 1e6f;
   }
 }
@@ -17,21 +17,31 @@ package com.google.ar.core.examples.java.computervision;
 import android.content.Context;
 import android.opengl.GLES11Ext;
 import android.opengl.GLES20;
+import android.opengl.GLES30;
 import android.opengl.GLSurfaceView;
 import com.google.ar.core.Coordinates2d;
 import com.google.ar.core.Frame;
 import com.google.ar.core.Session;
+import com.google.ar.core.examples.java.common.helpers.FrameTracer;
 import com.google.ar.core.examples.java.common.rendering.ShaderUtil;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
+import java.util.Arrays;
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 
 /**
  * This class renders the screen with images from both GPU and CPU. The top half of the screen shows
  * the GPU image, while the bottom half of the screen shows the CPU image.
+ *
+ * <p>The CPU image texture is only allocated when the image size changes, e.g. after switching
+ * camera configs. Each new image is written into one of three pixel unpack buffers and copied into
+ * the texture from there, so the transfer to the texture runs asynchronously on the GPU while the
+ * other buffers are written. A buffer can be filled on another thread, between {@link
+ * #beginCpuImageUpload(int, int)} and {@link #endCpuImageUpload(ByteBuffer)}, which lets a worker
+ * thread write the processed image straight into it.
  */
 public class CpuImageRenderer {
   private static final String TAG = CpuImageRenderer.class.getSimpleName();
@@ -54,6 +64,16 @@ public class CpuImageRenderer {
   private int overlayTextureId = -1;
   private float splitterPosition = 0.0f;
 
+  // Size of the overlay texture storage, allocated on the first upload of each size.
+  private int overlayWidth;
+  private int overlayHeight;
+  // Pixel unpack buffers the overlay is uploaded from, in turn. All three can be mapped at once:
+  // one written by a worker thread, one waiting for it and one just handed out.
+  private final int[] overlayPixelBuffers = new int[3];
+  // Mapping of each pixel buffer while an upload from it is in progress, null otherwise.
+  private final ByteBuffer[] overlayMappedBuffers = new ByteBuffer[overlayPixelBuffers.length];
+  private int overlayPixelBufferIndex;
+
   public int getTextureId() {
     return backgroundTextureId;
   }
@@ -87,6 +107,10 @@ public class CpuImageRenderer {
     GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
     GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
     GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
+    GLES20.glGenBuffers(overlayPixelBuffers.length, overlayPixelBuffers, 0);
+    overlayWidth = 0;
+    overlayHeight = 0;
+    Arrays.fill(overlayMappedBuffers, null);
 
     int numVertices = QUAD_COORDS.length / COORDS_PER_VERTEX;
     ByteBuffer bbCoords = ByteBuffer.allocateDirect(QUAD_COORDS.length * FLOAT_SIZE);
@@ -178,23 +202,201 @@ public class CpuImageRenderer {
 
     // Apply overlay image buffer
     if (processedImageBytesGrayscale != null) {
+      uploadCpuImage(imageWidth, imageHeight, processedImageBytesGrayscale);
+    }
+
+    updateTextureCoordinates(frame);
+
+    // Rest of the draw code is shared between the two functions.
+    drawWithoutCpuImage();
+  }
+
+  /**
+   * Uploads a CPU image to be drawn by the next call to {@link #drawWithPreviousCpuImage(Frame)}.
+   * Must be called on the OpenGL thread.
+   *
+   * @param imageWidth The processed image width.
+   * @param imageHeight The processed image height.
+   * @param processedImageBytesGrayscale the processed bytes of the image, grayscale part only.
+   */
+  public void uploadCpuImage(
+      int imageWidth, int imageHeight, ByteBuffer processedImageBytesGrayscale) {
+    FrameTracer.beginSection("CpuImageRenderer.upload");
+    try {
+      ByteBuffer pixelBuffer = beginCpuImageUpload(imageWidth, imageHeight);
+      if (pixelBuffer == null) {
+        // Keep the previous image.
+        return;
+      }
+      processedImageBytesGrayscale.position(0);
+      processedImageBytesGrayscale.limit(imageWidth * imageHeight);
+      pixelBuffer.put(processedImageBytesGrayscale);
+      processedImageBytesGrayscale.clear();
+      endCpuImageUpload(pixelBuffer);
+    } finally {
+      FrameTracer.endSection();
+    }
+  }
+
+  /**
+   * Starts uploading a new CPU image, and returns the buffer to write its pixels to. Must be called
+   * on the OpenGL thread. The texture is reallocated if the image size changed.
+   *
+   * <p>The returned buffer maps a pixel unpack buffer, and can be written on any thread until
+   * {@link #endCpuImageUpload(ByteBuffer)} or {@link #cancelCpuImageUpload(ByteBuffer)} is called
+   * with it on the OpenGL thread. Up to three uploads can be in progress at once.
+   *
+   * @param imageWidth The image width.
+   * @param imageHeight The image height.
+   * @return a buffer of imageWidth * imageHeight bytes, receiving the grayscale image without row
+   *     padding, or null if all pixel buffers are in use, or if the image size changed while
+   *     uploads of the previous size are still in progress.
+   */
+  public ByteBuffer beginCpuImageUpload(int imageWidth, int imageHeight) {
+    if (imageWidth != overlayWidth || imageHeight != overlayHeight) {
+      for (ByteBuffer mappedBuffer : overlayMappedBuffers) {
+        if (mappedBuffer != null) {
+          // The texture can only be reallocated once the uploads of the previous size are done.
+          return null;
+        }
+      }
+      // Allocate the texture and the pixel buffers once per image size.
       GLES20.glActiveTexture(GLES20.GL_TEXTURE1);
       GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, overlayTextureId);
-      GLES20.glTexImage2D(
-          GLES20.GL_TEXTURE_2D,
+      GLES30.glTexImage2D(
+          GLES30.GL_TEXTURE_2D,
           0,
-          GLES20.GL_LUMINANCE,
+          GLES30.GL_R8,
           imageWidth,
           imageHeight,
           0,
-          GLES20.GL_LUMINANCE,
-          GLES20.GL_UNSIGNED_BYTE,
-          processedImageBytesGrayscale);
+          GLES30.GL_RED,
+          GLES30.GL_UNSIGNED_BYTE,
+          null);
+      for (int pixelBuffer : overlayPixelBuffers) {
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_UNPACK_BUFFER, pixelBuffer);
+        GLES30.glBufferData(
+            GLES30.GL_PIXEL_UNPACK_BUFFER, imageWidth * imageHeight, null, GLES30.GL_STREAM_DRAW);
+      }
+      overlayWidth = imageWidth;
+      overlayHeight = imageHeight;
     }
 
-    updateTextureCoordinates(frame);
+    // Use the buffer that has been unmapped the longest.
+    int index = -1;
+    for (int i = 0; i < overlayPixelBuffers.length; i++) {
+      int candidate = (overlayPixelBufferIndex + i) % overlayPixelBuffers.length;
+      if (overlayMappedBuffers[candidate] == null) {
+        index = candidate;
+        break;
+      }
+    }
+    if (index < 0) {
+      return null;
+    }
 
-    // Rest of the draw code is shared between the two functions.
+    // The GPU may still be copying from this buffer. Invalidating it lets the driver map it
+    // without waiting for that copy.
+    GLES30.glBindBuffer(GLES30.GL_PIXEL_UNPACK_BUFFER, overlayPixelBuffers[index]);
+    ByteBuffer mapped =
+        (ByteBuffer)
+            GLES30.glMapBufferRange(
+                GLES30.GL_PIXEL_UNPACK_BUFFER,
+                0,
+                imageWidth * imageHeight,
+                GLES30.GL_MAP_WRITE_BIT | GLES30.GL_MAP_INVALIDATE_BUFFER_BIT);
+    GLES30.glBindBuffer(GLES30.GL_PIXEL_UNPACK_BUFFER, 0);
+    if (mapped == null) {
+      return null;
+    }
+    overlayMappedBuffers[index] = mapped;
+    overlayPixelBufferIndex = (index + 1) % overlayPixelBuffers.length;
+    return mapped;
+  }
+
+  /**
+   * Finishes an upload started by {@link #beginCpuImageUpload(int, int)}, once the returned buffer
+   * was written. The image is drawn by the next draw call. Must be called on the OpenGL thread.
+   *
+   * @param pixels the buffer returned by {@link #beginCpuImageUpload(int, int)}. Buffers mapped
+   *     before the OpenGL surface was recreated are ignored.
+   */
+  public void endCpuImageUpload(ByteBuffer pixels) {
+    int index = releasePixelBuffer(pixels);
+    if (index < 0) {
+      return;
+    }
+
+    GLES30.glBindBuffer(GLES30.GL_PIXEL_UNPACK_BUFFER, overlayPixelBuffers[index]);
+    if (!GLES30.glUnmapBuffer(GLES30.GL_PIXEL_UNPACK_BUFFER)) {
+      // The buffer contents were lost, e.g. because the display mode changed. Keep the previous
+      // image.
+      GLES30.glBindBuffer(GLES30.GL_PIXEL_UNPACK_BUFFER, 0);
+      return;
+    }
+
+    // Copy from the buffer to the texture. This returns without waiting for the copy.
+    GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 1);
+    GLES20.glActiveTexture(GLES20.GL_TEXTURE1);
+    GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, overlayTextureId);
+    GLES30.glTexSubImage2D(
+        GLES30.GL_TEXTURE_2D,
+        0,
+        0,
+        0,
+        overlayWidth,
+        overlayHeight,
+        GLES30.GL_RED,
+        GLES30.GL_UNSIGNED_BYTE,
+        0);
+    GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 4);
+    GLES30.glBindBuffer(GLES30.GL_PIXEL_UNPACK_BUFFER, 0);
+  }
+
+  /**
+   * Abandons an upload started by {@link #beginCpuImageUpload(int, int)}, e.g. because the image
+   * written to it was dropped. The previous image keeps being drawn. Must be called on the OpenGL
+   * thread.
+   *
+   * @param pixels the buffer returned by {@link #beginCpuImageUpload(int, int)}. Buffers mapped
+   *     before the OpenGL surface was recreated are ignored.
+   */
+  public void cancelCpuImageUpload(ByteBuffer pixels) {
+    int index = releasePixelBuffer(pixels);
+    if (index < 0) {
+      return;
+    }
+    GLES30.glBindBuffer(GLES30.GL_PIXEL_UNPACK_BUFFER, overlayPixelBuffers[index]);
+    GLES30.glUnmapBuffer(GLES30.GL_PIXEL_UNPACK_BUFFER);
+    GLES30.glBindBuffer(GLES30.GL_PIXEL_UNPACK_BUFFER, 0);
+  }
+
+  /**
+   * Marks the pixel buffer mapped to the given buffer as no longer in use, and returns its index,
+   * or -1 if the buffer is not mapped.
+   */
+  private int releasePixelBuffer(ByteBuffer pixels) {
+    if (pixels == null) {
+      return -1;
+    }
+    for (int i = 0; i < overlayMappedBuffers.length; i++) {
+      if (overlayMappedBuffers[i] == pixels) {
+        overlayMappedBuffers[i] = null;
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Same as {@link #drawWithCpuImage}, but keeps the CPU image uploaded by the previous call.
+   * Should be used when the CPU image is processed at a lower frame rate than rendering, so that
+   * the previous processed image stays aligned with the current frame.
+   *
+   * @param frame The last {@code Frame} returned by {@link Session#update()}.
+   */
+  public void drawWithPreviousCpuImage(Frame frame) {
+    updateTextureCoordinates(frame);
     drawWithoutCpuImage();
   }
 
@@ -203,48 +405,55 @@ public class CpuImageRenderer {
    * unavailable for any reason, and only background should be drawn.
    */
   public void drawWithoutCpuImage() {
-    // No need to test or write depth, the screen quad has arbitrary depth, and is expected
-    // to be drawn first.
-    GLES20.glDisable(GLES20.GL_DEPTH_TEST);
-    GLES20.glDepthMask(false);
+    FrameTracer.beginSection("CpuImageRenderer.draw");
+    try {
+      // No need to test or write depth, the screen quad has arbitrary depth, and is expected
+      // to be drawn first.
+      GLES20.glDisable(GLES20.GL_DEPTH_TEST);
+      GLES20.glDepthMask(false);
 
-    GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-    GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, backgroundTextureId);
+      GLES20.glActiveTexture(GLES20.GL_TEXTURE1);
+      GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, overlayTextureId);
+      GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+      GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, backgroundTextureId);
 
-    GLES20.glUseProgram(quadProgram);
+      GLES20.glUseProgram(quadProgram);
 
-    // Set the vertex positions.
-    GLES20.glVertexAttribPointer(
-        quadPositionAttrib, COORDS_PER_VERTEX, GLES20.GL_FLOAT, false, 0, quadCoords);
+      // Set the vertex positions.
+      GLES20.glVertexAttribPointer(
+          quadPositionAttrib, COORDS_PER_VERTEX, GLES20.GL_FLOAT, false, 0, quadCoords);
 
-    // Set splitter position.
-    GLES20.glUniform1f(quadSplitterUniform, splitterPosition);
+      // Set splitter position.
+      GLES20.glUniform1f(quadSplitterUniform, splitterPosition);
 
-    // Set the GPU image texture coordinates.
-    GLES20.glVertexAttribPointer(
-        quadTexCoordAttrib, TEXCOORDS_PER_VERTEX, GLES20.GL_FLOAT, false, 0, quadTexCoords);
+      // Set the GPU image texture coordinates.
+      GLES20.glVertexAttribPointer(
+          quadTexCoordAttrib, TEXCOORDS_PER_VERTEX, GLES20.GL_FLOAT, false, 0, quadTexCoords);
 
-    // Set the CPU image texture coordinates.
-    GLES20.glVertexAttribPointer(
-        quadImgCoordAttrib, TEXCOORDS_PER_VERTEX, GLES20.GL_FLOAT, false, 0, quadImgCoords);
+      // Set the CPU image texture coordinates.
+      GLES20.glVertexAttribPointer(
+          quadImgCoordAttrib, TEXCOORDS_PER_VERTEX, GLES20.GL_FLOAT, false, 0, quadImgCoords);
 
-    // Enable vertex arrays
-    GLES20.glEnableVertexAttribArray(quadPositionAttrib);
-    GLES20.glEnableVertexAttribArray(quadTexCoordAttrib);
-    GLES20.glEnableVertexAttribArray(quadImgCoordAttrib);
+      // Enable vertex arrays
+      GLES20.glEnableVertexAttribArray(quadPositionAttrib);
+      GLES20.glEnableVertexAttribArray(quadTexCoordAttrib);
+      GLES20.glEnableVertexAttribArray(quadImgCoordAttrib);
 
-    GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+      GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
 
-    // Disable vertex arrays
-    GLES20.glDisableVertexAttribArray(quadPositionAttrib);
-    GLES20.glDisableVertexAttribArray(quadTexCoordAttrib);
-    GLES20.glDisableVertexAttribArray(quadImgCoordAttrib);
+      // Disable vertex arrays
+      GLES20.glDisableVertexAttribArray(quadPositionAttrib);
+      GLES20.glDisableVertexAttribArray(quadTexCoordAttrib);
+      GLES20.glDisableVertexAttribArray(quadImgCoordAttrib);
 
-    // Restore the depth state for further drawing.
-    GLES20.glDepthMask(true);
-    GLES20.glEnable(GLES20.GL_DEPTH_TEST);
+      // Restore the depth state for further drawing.
+      GLES20.glDepthMask(true);
+      GLES20.glEnable(GLES20.GL_DEPTH_TEST);
 
-    ShaderUtil.checkGLError(TAG, "Draw");
+      ShaderUtil.checkGLError(TAG, "Draw");
+    } finally {
+      FrameTracer.endSection();
+    }
   }
 
   private void updateTextureCoordinates(Frame frame) {
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2019 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs a chain of {@link ImageProcessor} stages over a grayscale image in a single streaming pass.
+ *
+ * <p>Input rows are pushed through all stages as soon as they are read. A stage that reads the 3x3
+ * neighbourhood keeps a ring of only three rows of its input, and stages that only read the pixel
+ * itself run in place on the output row of the stage before them. No full-size intermediate image
+ * is ever allocated, regardless of the number of stages.
+ *
+ * <p>Typical usage:
+ *
+ * <pre>
+ * ImageProcessingPipeline pipeline =
+ *     new ImageProcessingPipeline.Builder()
+ *         .add(ImageProcessors.gaussianBlur())
+ *         .add(ImageProcessors.sobel())
+ *         .add(ImageProcessors.dilate())
+ *         .build();
+ * pipeline.process(width, height, stride, input, output);
+ * </pre>
+ */
+public class ImageProcessingPipeline {
+  // Per-pixel stages applied to each input row right after it is read.
+  private final ImageProcessor[] leadingPixelStages;
+
+  // One segment per neighbourhood stage, in processing order.
+  private final Segment[] segments;
+
+  // Row produced by the last segment, before it is written to the output.
+  private byte[] outputRow = new byte[0];
+
+  private int width;
+  private int height;
+  private ByteBuffer output;
+
+  /** Builds an {@link ImageProcessingPipeline} from a sequence of stages. */
+  public static class Builder {
+    private final List<ImageProcessor> stages = new ArrayList<>();
+
+    /** Appends a stage to the end of the pipeline. */
+    public Builder add(ImageProcessor stage) {
+      if (stage == null) {
+        throw new IllegalArgumentException("Stage cannot be null.");
+      }
+      stages.add(stage);
+      return this;
+    }
+
+    /** Creates the pipeline. */
+    public ImageProcessingPipeline build() {
+      return new ImageProcessingPipeline(stages);
+    }
+  }
+
+  private ImageProcessingPipeline(List<ImageProcessor> stages) {
+    // Split the stages into segments, each made of one neighbourhood stage followed by the
+    // per-pixel stages fused onto its output.
+    List<Segment> segmentList = new ArrayList<>();
+    List<ImageProcessor> pixelStages = new ArrayList<>();
+    ImageProcessor[] leading = null;
+    for (ImageProcessor stage : stages) {
+      if (!stage.readsNeighborhood()) {
+        pixelStages.add(stage);
+        continue;
+      }
+      if (segmentList.isEmpty()) {
+        leading = pixelStages.toArray(new ImageProcessor[0]);
+      } else {
+        segmentList.get(segmentList.size() - 1).pixelStages =
+            pixelStages.toArray(new ImageProcessor[0]);
+      }
+      pixelStages.clear();
+      segmentList.add(new Segment(stage));
+    }
+    if (segmentList.isEmpty()) {
+      leading = pixelStages.toArray(new ImageProcessor[0]);
+    } else {
+      segmentList.get(segmentList.size() - 1).pixelStages =
+          pixelStages.toArray(new ImageProcessor[0]);
+    }
+    leadingPixelStages = leading;
+    segments = segmentList.toArray(new Segment[0]);
+  }
+
+  /**
+   * Processes a grayscale image through all stages of the pipeline.
+   *
+   * @param width image width.
+   * @param height image height.
+   * @param stride image stride (number of bytes per row, equals to width if no row padding).
+   * @param input bytes of the image, assumed single channel grayscale with rows starting every
+   *     stride bytes. The last row does not need to be padded to the full stride.
+   * @param output buffer receiving the processed image. Must hold at least width * height bytes;
+   *     row padding is removed.
+   */
+  public synchronized void process(
+      int width, int height, int stride, ByteBuffer input, ByteBuffer output) {
+    if (output.capacity() < width * height) {
+      throw new IllegalArgumentException(
+          "Output buffer too small: " + output.capacity() + " < " + (width * height));
+    }
+
+    this.width = width;
+    this.height = height;
+    this.output = output;
+
+    // Row buffers are only reallocated when the image width grows.
+    if (outputRow.length < width) {
+      outputRow = new byte[width];
+      for (Segment segment : segments) {
+        for (int k = 0; k < segment.rows.length; k++) {
+          segment.rows[k] = new byte[width];
+        }
+      }
+    }
+
+    for (int y = 0; y < height; y++) {
+      byte[] row = segments.length > 0 ? segments[0].rowFor(y) : outputRow;
+      input.position(y * stride);
+      input.get(row, 0, width);
+      applyPixelStages(leadingPixelStages, row);
+      deliver(0, y, row);
+    }
+
+    input.position(0);
+    output.position(0);
+    this.output = null;
+  }
+
+  /** Passes row y to segment index s, or writes it to the output if all segments are done. */
+  private void deliver(int s, int y, byte[] row) {
+    if (s == segments.length) {
+      output.position(y * width);
+      output.put(row, 0, width);
+      return;
+    }
+
+    // Once row y has arrived, the segment has the full neighbourhood of row y - 1. The last row
+    // is produced immediately, using itself as its lower neighbour.
+    Segment segment = segments[s];
+    if (y > 0) {
+      produce(s, segment, y - 1);
+    }
+    if (y == height - 1) {
+      produce(s, segment, y);
+    }
+  }
+
+  private void produce(int s, Segment segment, int y) {
+    byte[] previousRow = segment.rowFor(y > 0 ? y - 1 : y);
+    byte[] currentRow = segment.rowFor(y);
+    byte[] nextRow = segment.rowFor(y < height - 1 ? y + 1 : y);
+
+    // Write directly into the ring of the next segment, so rows are never copied between stages.
+    byte[] destination = s + 1 < segments.length ? segments[s + 1].rowFor(y) : outputRow;
+    segment.stage.processRow(previousRow, currentRow, nextRow, destination, width);
+    applyPixelStages(segment.pixelStages, destination);
+    deliver(s + 1, y, destination);
+  }
+
+  private void applyPixelStages(ImageProcessor[] stages, byte[] row) {
+    for (ImageProcessor stage : stages) {
+      stage.processRow(row, row, row, row, width);
+    }
+  }
+
+  /** A neighbourhood stage, the per-pixel stages fused after it and the ring of its input rows. */
+  private static class Segment {
+    final ImageProcessor stage;
+    ImageProcessor[] pixelStages = new ImageProcessor[0];
+    final byte[][] rows = {new byte[0], new byte[0], new byte[0]};
+
+    Segment(ImageProcessor stage) {
+      this.stage = stage;
+    }
+
+    byte[] rowFor(int y) {
+      return rows[y % rows.length];
+    }
+  }
+}
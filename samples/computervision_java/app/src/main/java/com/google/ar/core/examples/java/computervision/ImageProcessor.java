@@ -0,0 +1,47 @@
+/*
+ * Copyright 2019 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+/**
+ * A single stage of an {@link ImageProcessingPipeline}. Stages process a single channel grayscale
+ * image one row at a time, so that the pipeline never needs to hold a full intermediate image.
+ *
+ * @see ImageProcessors for the built-in stages.
+ */
+public interface ImageProcessor {
+  /**
+   * Returns whether this stage reads the 3x3 neighbourhood around each pixel. Stages that only read
+   * the pixel itself are fused with the previous stage and run in place on its output row.
+   */
+  boolean readsNeighborhood();
+
+  /**
+   * Processes one row of the image. Stages read pixel values as unsigned bytes, except for {@link
+   * ImageProcessors#sobel()}, which reads them as signed bytes like {@link EdgeDetector}.
+   *
+   * <p>Rows above and below the image are replaced by the nearest image row: for the first row of
+   * the image, the previous row is the same array as the current row, and likewise for the next row
+   * of the last row. Stages which do not read the neighbourhood are passed the current row as
+   * previous and next row, and the output row may be the same array as the current row.
+   *
+   * @param previousRow the input row above the current row.
+   * @param currentRow the input row being processed.
+   * @param nextRow the input row below the current row.
+   * @param outputRow receives the processed row.
+   * @param width number of pixels in each row.
+   */
+  void processRow(
+      byte[] previousRow, byte[] currentRow, byte[] nextRow, byte[] outputRow, int width);
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2019 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+import java.util.Arrays;
+
+/**
+ * Built-in {@link ImageProcessor} stages. Except for {@link #sobel()}, neighbourhood stages clamp
+ * to the nearest pixel at the left and right image border.
+ */
+public final class ImageProcessors {
+  private ImageProcessors() {}
+
+  /**
+   * Returns the Sobel edge detection stage. It runs the kernel of {@link EdgeDetector}, so its
+   * output is identical: 0xFF for pixels on an edge, 0x1F for all other pixels and 0x00 on the
+   * image border.
+   *
+   * <p>Like {@link EdgeDetector}, it reads pixel values as signed bytes, so it also finds edges
+   * where neighbouring values cross from 127 to 128, e.g. in the smooth output of {@link
+   * #gaussianBlur()}. Use {@link #gradientMagnitude()} followed by {@link #threshold(int)} to
+   * detect edges of the unsigned values.
+   */
+  public static ImageProcessor sobel() {
+    return new SobelProcessor();
+  }
+
+  /**
+   * Returns the Sobel gradient magnitude stage. It outputs the magnitude of the gradient of the
+   * unsigned pixel values, rounded down and clamped to 255, so that edges can be thresholded later.
+   */
+  public static ImageProcessor gradientMagnitude() {
+    return new GradientMagnitudeProcessor();
+  }
+
+  /** Returns a 3x3 Gaussian blur stage. */
+  public static ImageProcessor gaussianBlur() {
+    return new GaussianBlurProcessor();
+  }
+
+  /**
+   * Returns a binary threshold stage.
+   *
+   * @param level pixels brighter than this value become 0xFF, all others become 0x00.
+   */
+  public static ImageProcessor threshold(int level) {
+    return new ThresholdProcessor(level);
+  }
+
+  /** Returns a 3x3 dilation stage, which replaces each pixel by the maximum of its neighbourhood. */
+  public static ImageProcessor dilate() {
+    return new MorphologyProcessor(/*dilate=*/ true);
+  }
+
+  /** Returns a 3x3 erosion stage, which replaces each pixel by the minimum of its neighbourhood. */
+  public static ImageProcessor erode() {
+    return new MorphologyProcessor(/*dilate=*/ false);
+  }
+
+  private static class SobelProcessor implements ImageProcessor {
+    @Override
+    public boolean readsNeighborhood() {
+      return true;
+    }
+
+    @Override
+    public void processRow(
+        byte[] previousRow, byte[] currentRow, byte[] nextRow, byte[] outputRow, int width) {
+      // Like EdgeDetector, the first and last rows and columns are not processed, and cleared.
+      if (width < 3 || previousRow == currentRow || nextRow == currentRow) {
+        Arrays.fill(outputRow, 0, width, (byte) 0);
+        return;
+      }
+      outputRow[0] = 0;
+      outputRow[width - 1] = 0;
+      EdgeDetector.sobelRow(previousRow, currentRow, nextRow, outputRow, 1, width - 2);
+    }
+  }
+
+  private static class GradientMagnitudeProcessor implements ImageProcessor {
+    @Override
+    public boolean readsNeighborhood() {
+      return true;
+    }
+
+    @Override
+    public void processRow(
+        byte[] previousRow, byte[] currentRow, byte[] nextRow, byte[] outputRow, int width) {
+      for (int i = 0; i < width; i++) {
+        int left = i > 0 ? i - 1 : 0;
+        int right = i < width - 1 ? i + 1 : width - 1;
+
+        // Neighbour pixels around the pixel at column i.
+        int a00 = previousRow[left] & 0xFF;
+        int a01 = previousRow[i] & 0xFF;
+        int a02 = previousRow[right] & 0xFF;
+        int a10 = currentRow[left] & 0xFF;
+        int a12 = currentRow[right] & 0xFF;
+        int a20 = nextRow[left] & 0xFF;
+        int a21 = nextRow[i] & 0xFF;
+        int a22 = nextRow[right] & 0xFF;
+
+        // Same Sobel X and Y filters as EdgeDetector.
+        int xSum = -a00 - (2 * a10) - a20 + a02 + (2 * a12) + a22;
+        int ySum = a00 + (2 * a01) + a02 - a20 - (2 * a21) - a22;
+
+        int sumOfSquares = (xSum * xSum) + (ySum * ySum);
+        outputRow[i] = (byte) Math.min(255, (int) Math.sqrt(sumOfSquares));
+      }
+    }
+  }
+
+  private static class GaussianBlurProcessor implements ImageProcessor {
+    @Override
+    public boolean readsNeighborhood() {
+      return true;
+    }
+
+    @Override
+    public void processRow(
+        byte[] previousRow, byte[] currentRow, byte[] nextRow, byte[] outputRow, int width) {
+      for (int i = 0; i < width; i++) {
+        int left = i > 0 ? i - 1 : 0;
+        int right = i < width - 1 ? i + 1 : width - 1;
+
+        // Gaussian filter, normalized by 16 with rounding:
+        //   1, 2, 1,
+        //   2, 4, 2,
+        //   1, 2, 1
+        int sum =
+            (previousRow[left] & 0xFF)
+                + 2 * (previousRow[i] & 0xFF)
+                + (previousRow[right] & 0xFF)
+                + 2 * (currentRow[left] & 0xFF)
+                + 4 * (currentRow[i] & 0xFF)
+                + 2 * (currentRow[right] & 0xFF)
+                + (nextRow[left] & 0xFF)
+                + 2 * (nextRow[i] & 0xFF)
+                + (nextRow[right] & 0xFF);
+
+        outputRow[i] = (byte) ((sum + 8) >> 4);
+      }
+    }
+  }
+
+  private static class ThresholdProcessor implements ImageProcessor {
+    private final int level;
+
+    ThresholdProcessor(int level) {
+      this.level = level;
+    }
+
+    @Override
+    public boolean readsNeighborhood() {
+      return false;
+    }
+
+    @Override
+    public void processRow(
+        byte[] previousRow, byte[] currentRow, byte[] nextRow, byte[] outputRow, int width) {
+      for (int i = 0; i < width; i++) {
+        outputRow[i] = (currentRow[i] & 0xFF) > level ? (byte) 0xFF : (byte) 0x00;
+      }
+    }
+  }
+
+  private static class MorphologyProcessor implements ImageProcessor {
+    private final boolean dilate;
+
+    MorphologyProcessor(boolean dilate) {
+      this.dilate = dilate;
+    }
+
+    @Override
+    public boolean readsNeighborhood() {
+      return true;
+    }
+
+    @Override
+    public void processRow(
+        byte[] previousRow, byte[] currentRow, byte[] nextRow, byte[] outputRow, int width) {
+      for (int i = 0; i < width; i++) {
+        int left = i > 0 ? i - 1 : 0;
+        int right = i < width - 1 ? i + 1 : width - 1;
+
+        int result = currentRow[i] & 0xFF;
+        for (int k = left; k <= right; k++) {
+          int top = previousRow[k] & 0xFF;
+          int middle = currentRow[k] & 0xFF;
+          int bottom = nextRow[k] & 0xFF;
+          if (dilate) {
+            result = Math.max(result, Math.max(top, Math.max(middle, bottom)));
+          } else {
+            result = Math.min(result, Math.min(top, Math.min(middle, bottom)));
+          }
+        }
+
+        outputRow[i] = (byte) result;
+      }
+    }
+  }
+}
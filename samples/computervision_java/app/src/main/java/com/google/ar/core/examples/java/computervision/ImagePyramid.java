@@ -0,0 +1,142 @@
+/*
+ * Copyright 2019 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Builds a resolution pyramid from a single channel grayscale image, such as the Y plane of a
+ * YUV_420_888 camera image.
+ *
+ * <p>Level 0 is the input image itself, which is not copied. Each further level has half the width
+ * and height of the level before it, and every pixel is the rounded average of a 2x2 block of the
+ * level before it. All levels are built in a single pass over the input: as soon as two rows of a
+ * level are complete, the corresponding row of the next level is computed while they are still in
+ * the cache.
+ *
+ * <p>Level buffers are kept between calls to {@link #build(int, int, int, ByteBuffer)} and only
+ * reallocated when the input image grows, so rebuilding the pyramid every frame does not allocate.
+ */
+public class ImagePyramid {
+  private final int levelCount;
+  private final int[] widths;
+  private final int[] heights;
+  private final int[] strides;
+  private final ByteBuffer[] buffers;
+
+  /**
+   * Creates a pyramid.
+   *
+   * @param levelCount number of levels including the full resolution level, at least 1.
+   */
+  public ImagePyramid(int levelCount) {
+    if (levelCount < 1) {
+      throw new IllegalArgumentException("Invalid number of pyramid levels: " + levelCount);
+    }
+    this.levelCount = levelCount;
+    widths = new int[levelCount];
+    heights = new int[levelCount];
+    strides = new int[levelCount];
+    buffers = new ByteBuffer[levelCount];
+  }
+
+  /**
+   * Builds all levels of the pyramid from an image. The input buffer is referenced as level 0, so
+   * it must remain valid for as long as level 0 is used.
+   *
+   * @param width image width.
+   * @param height image height.
+   * @param stride image stride (number of bytes per row, equals to width if no row padding).
+   * @param input bytes of the image, assumed single channel grayscale with rows starting every
+   *     stride bytes.
+   */
+  public synchronized void build(int width, int height, int stride, ByteBuffer input) {
+    widths[0] = width;
+    heights[0] = height;
+    strides[0] = stride;
+    buffers[0] = input;
+
+    for (int level = 1; level < levelCount; level++) {
+      widths[level] = widths[level - 1] / 2;
+      heights[level] = heights[level - 1] / 2;
+      strides[level] = widths[level];
+      int size = widths[level] * heights[level];
+      if (buffers[level] == null || buffers[level].capacity() < size) {
+        buffers[level] = ByteBuffer.allocateDirect(Math.max(size, 1));
+      }
+    }
+
+    if (levelCount > 1) {
+      for (int y = 0; y < heights[1]; y++) {
+        downsampleRow(1, y);
+      }
+    }
+  }
+
+  /** Returns the number of levels, including the full resolution level. */
+  public int getLevelCount() {
+    return levelCount;
+  }
+
+  /** Returns the width of a level, in pixels. */
+  public int getWidth(int level) {
+    return widths[level];
+  }
+
+  /** Returns the height of a level, in pixels. */
+  public int getHeight(int level) {
+    return heights[level];
+  }
+
+  /** Returns the number of bytes per row of a level. */
+  public int getStride(int level) {
+    return strides[level];
+  }
+
+  /**
+   * Returns the pixels of a level. Level 0 is the input buffer passed to the last call to {@link
+   * #build(int, int, int, ByteBuffer)}, the others are owned by the pyramid and overwritten by the
+   * next call.
+   */
+  public ByteBuffer getBuffer(int level) {
+    return buffers[level];
+  }
+
+  /**
+   * Computes row y of a level from rows 2y and 2y + 1 of the level above it, then continues with
+   * the next level as soon as this completes a pair of rows.
+   */
+  private void downsampleRow(int level, int y) {
+    ByteBuffer source = buffers[level - 1];
+    ByteBuffer destination = buffers[level];
+    int sourceStride = strides[level - 1];
+    int topOffset = 2 * y * sourceStride;
+    int bottomOffset = topOffset + sourceStride;
+    int destinationOffset = y * strides[level];
+
+    for (int x = 0; x < widths[level]; x++) {
+      int sum =
+          (source.get(topOffset + 2 * x) & 0xFF)
+              + (source.get(topOffset + 2 * x + 1) & 0xFF)
+              + (source.get(bottomOffset + 2 * x) & 0xFF)
+              + (source.get(bottomOffset + 2 * x + 1) & 0xFF);
+      destination.put(destinationOffset + x, (byte) ((sum + 2) >> 2));
+    }
+
+    if (level + 1 < levelCount && (y & 1) == 1 && y / 2 < heights[level + 1]) {
+      downsampleRow(level + 1, y / 2);
+    }
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2019 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Detects edges like {@link EdgeDetector}, but only re-runs the Sobel kernel on the tiles of the
+ * image that changed since the previous image. This makes processing nearly free while the camera
+ * and the scene are static.
+ *
+ * <p>The edge image of the previous call is kept and patched in place, then copied to the output.
+ * When most of the image changed, the whole image is processed by the wrapped {@link EdgeDetector}
+ * instead, which may split the work across several threads.
+ */
+public class IncrementalEdgeDetector {
+  // Tiles of 32x32 pixels, hashed over every 4th pixel of every 4th row, ignoring the 3 low bits.
+  private static final int TILE_SIZE = 32;
+  private static final int SAMPLE_STEP = 4;
+  private static final int QUANTIZATION_SHIFT = 3;
+
+  private final EdgeDetector edgeDetector;
+  private final TileChangeDetector changeDetector =
+      new TileChangeDetector(TILE_SIZE, SAMPLE_STEP, QUANTIZATION_SHIFT);
+
+  // Edge image of the previous call, patched in place for every changed tile.
+  private ByteBuffer edgeImage;
+
+  /**
+   * Creates an incremental edge detector.
+   *
+   * @param edgeDetector the detector used when the whole image needs to be processed.
+   */
+  public IncrementalEdgeDetector(EdgeDetector edgeDetector) {
+    this.edgeDetector = edgeDetector;
+  }
+
+  /**
+   * Process a grayscale image using the Sobel edge detector, only recomputing the tiles which
+   * changed since the previous call. See {@link EdgeDetector#detect(int, int, int, ByteBuffer,
+   * ByteBuffer)} for the meaning of the parameters.
+   */
+  public synchronized void detect(
+      int width, int height, int stride, ByteBuffer input, ByteBuffer output) {
+    if (output.capacity() < width * height) {
+      throw new IllegalArgumentException(
+          "Output buffer too small: " + output.capacity() + " < " + (width * height));
+    }
+
+    if (edgeImage == null || edgeImage.capacity() < width * height) {
+      edgeImage = ByteBuffer.allocateDirect(width * height);
+    }
+
+    changeDetector.update(width, height, stride, input);
+    int tileCount = changeDetector.getTileCountX() * changeDetector.getTileCountY();
+
+    if (changeDetector.getChangedTileCount() * 2 > tileCount) {
+      // Most of the image changed, recomputing it all is just as fast.
+      edgeDetector.detect(width, height, stride, input, edgeImage);
+    } else if (changeDetector.getChangedTileCount() > 0) {
+      updateChangedTiles(width, height, stride, input);
+    }
+
+    edgeImage.limit(width * height);
+    edgeImage.position(0);
+    output.position(0);
+    output.put(edgeImage);
+    output.position(0);
+    edgeImage.clear();
+  }
+
+  private void updateChangedTiles(int width, int height, int stride, ByteBuffer input) {
+    int tileSize = changeDetector.getTileSize();
+    for (int tileY = 0; tileY < changeDetector.getTileCountY(); tileY++) {
+      for (int tileX = 0; tileX < changeDetector.getTileCountX(); tileX++) {
+        if (!changeDetector.isTileChanged(tileX, tileY)) {
+          continue;
+        }
+
+        // The Sobel kernel reads one pixel around each output pixel, so a change within the tile
+        // also affects the output pixels one pixel outside of it. The image border is never
+        // written by the kernel.
+        int rowStart = Math.max(1, (tileY * tileSize) - 1);
+        int rowEnd = Math.min(height - 1, ((tileY + 1) * tileSize) + 1);
+        int columnStart = Math.max(1, (tileX * tileSize) - 1);
+        int columnEnd = Math.min(width - 1, ((tileX + 1) * tileSize) + 1);
+        edgeDetector.detectRegion(
+            input, edgeImage, width, stride, rowStart, rowEnd, columnStart, columnEnd);
+      }
+    }
+  }
+}
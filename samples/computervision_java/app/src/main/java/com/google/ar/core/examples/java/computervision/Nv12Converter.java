@@ -0,0 +1,106 @@
+/*
+ * Copyright 2019 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+import java.nio.ByteBuffer;
+
+/**
+ * CPU reference for the {@link TextureReaderImage#IMAGE_FORMAT_NV12} readback of {@link
+ * TextureReader}, which packs an image on the GPU with the gpu_download_i8.frag and
+ * gpu_download_nv12_uv.frag shaders.
+ *
+ * <p>Colors are converted with the full range BT.601 matrix used by the shaders. Luma is computed
+ * for every pixel, and chroma from the average color of each 2x2 block of pixels. The GPU samples
+ * the chroma at the center of the block from the camera texture, which usually has a higher
+ * resolution than the output image, so the two only match exactly where the color is uniform
+ * across the block.
+ */
+public final class Nv12Converter {
+  private Nv12Converter() {}
+
+  /**
+   * Returns the size of an NV12 image, in bytes.
+   *
+   * @param width image width, must be even.
+   * @param height image height, must be even.
+   */
+  public static int getNv12Size(int width, int height) {
+    // Odd sizes would need an extra, partially covered chroma column or row, which neither this
+    // class nor TextureReader write.
+    if (width % 2 != 0 || height % 2 != 0) {
+      throw new IllegalArgumentException("NV12 images must have an even width and height.");
+    }
+    return width * height * 3 / 2;
+  }
+
+  /**
+   * Converts an RGBA image, such as a {@link TextureReaderImage#IMAGE_FORMAT_RGBA} readback, to
+   * NV12.
+   *
+   * @param width image width, must be even.
+   * @param height image height, must be even.
+   * @param rgba pixels of the image, 4 bytes per pixel without row padding. Alpha is ignored.
+   * @param nv12 buffer receiving the NV12 image. Must hold at least {@link #getNv12Size(int, int)}
+   *     bytes.
+   */
+  public static void rgbaToNv12(int width, int height, ByteBuffer rgba, ByteBuffer nv12) {
+    int size = getNv12Size(width, height);
+    if (nv12.capacity() < size) {
+      throw new IllegalArgumentException(
+          "Output buffer too small: " + nv12.capacity() + " < " + size);
+    }
+
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        int offset = ((y * width) + x) * 4;
+        int r = rgba.get(offset) & 0xFF;
+        int g = rgba.get(offset + 1) & 0xFF;
+        int b = rgba.get(offset + 2) & 0xFF;
+        nv12.put((y * width) + x, toByte(r * 0.299f + g * 0.587f + b * 0.114f));
+      }
+    }
+
+    int chromaOffset = width * height;
+    for (int y = 0; y < height / 2; y++) {
+      for (int x = 0; x < width / 2; x++) {
+        int r = 0;
+        int g = 0;
+        int b = 0;
+        for (int k = 0; k < 4; k++) {
+          int offset = ((((2 * y) + (k >> 1)) * width) + (2 * x) + (k & 1)) * 4;
+          r += rgba.get(offset) & 0xFF;
+          g += rgba.get(offset + 1) & 0xFF;
+          b += rgba.get(offset + 2) & 0xFF;
+        }
+        float averageR = r / 4f;
+        float averageG = g / 4f;
+        float averageB = b / 4f;
+
+        int uvOffset = chromaOffset + (y * width) + (2 * x);
+        nv12.put(
+            uvOffset,
+            toByte(averageR * -0.168736f + averageG * -0.331264f + averageB * 0.5f + 127.5f));
+        nv12.put(
+            uvOffset + 1,
+            toByte(averageR * 0.5f + averageG * -0.418688f + averageB * -0.081312f + 127.5f));
+      }
+    }
+  }
+
+  /** Rounds and clamps a value to an unsigned byte, as OpenGL stores a normalized color. */
+  private static byte toByte(float value) {
+    return (byte) Math.max(0, Math.min(255, Math.round(value)));
+  }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2019 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Tracks the state of a ring of pixel buffer objects (PBOs) that asynchronous pixel reads are
+ * submitted to.
+ *
+ * <p>Each submitted buffer is tagged with a fence sync object, and {@link #pollReadyBuffer()} only
+ * returns buffers whose fence has signaled. Mapping such a buffer never waits for the GPU, so a
+ * slow readback does not stall the OpenGL thread. All OpenGL calls go through the {@link Gl}
+ * interface, so the ring logic can be exercised without an OpenGL context.
+ */
+class PixelBufferRing {
+  /** The OpenGL ES 3.0 calls used by the ring. */
+  interface Gl {
+    /** Inserts a fence sync object after all commands issued so far, and returns it. */
+    long fenceSync();
+
+    /** Returns whether a fence has signaled, without waiting for it. */
+    boolean isSignaled(long sync);
+
+    /** Deletes a fence sync object. */
+    void deleteSync(long sync);
+
+    /** Maps the first size bytes of a pixel pack buffer for reading. */
+    ByteBuffer mapBuffer(int buffer, int size);
+
+    /** Unmaps a pixel pack buffer mapped by {@link #mapBuffer(int, int)}. */
+    void unmapBuffer(int buffer);
+  }
+
+  private enum State {
+    // Available for the next submission.
+    FREE,
+    // Submitted, the GPU may still be writing to it.
+    PENDING,
+    // Submitted, and the GPU has finished writing to it.
+    READY,
+    // Mapped, owned by the caller until it is released.
+    MAPPED
+  }
+
+  private final Gl gl;
+  private final int[] buffers;
+  private final int bufferSize;
+  private final State[] states;
+  private final long[] fences;
+  private final int[] sizes;
+  private final long[] submissionOrder;
+  private long submissionCount;
+
+  /**
+   * Creates a ring over a set of pixel pack buffers.
+   *
+   * @param gl the OpenGL calls to use.
+   * @param buffers names of the pixel pack buffers, one per ring slot.
+   * @param bufferSize capacity of each buffer, in bytes.
+   */
+  PixelBufferRing(Gl gl, int[] buffers, int bufferSize) {
+    if (buffers.length == 0) {
+      throw new IllegalArgumentException("The ring needs at least one buffer.");
+    }
+    this.gl = gl;
+    this.buffers = buffers.clone();
+    this.bufferSize = bufferSize;
+    states = new State[buffers.length];
+    fences = new long[buffers.length];
+    sizes = new int[buffers.length];
+    submissionOrder = new long[buffers.length];
+    for (int i = 0; i < buffers.length; i++) {
+      states[i] = State.FREE;
+    }
+  }
+
+  /** Returns the index of a free buffer to submit a read into, or -1 if all buffers are in use. */
+  int findFreeBuffer() {
+    for (int i = 0; i < buffers.length; i++) {
+      if (states[i] == State.FREE) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Marks a free buffer as submitted. Must be called right after the read into the buffer was
+   * issued, so that the fence follows it.
+   *
+   * @param index the buffer the read was issued into.
+   * @param size number of bytes written by the read, which will be mapped.
+   */
+  void submit(int index, int size) {
+    if (states[index] != State.FREE) {
+      throw new IllegalStateException("Buffer " + index + " is already in use.");
+    }
+    if (size > bufferSize) {
+      throw new IllegalArgumentException("Read of " + size + " bytes exceeds " + bufferSize);
+    }
+    sizes[index] = size;
+    fences[index] = gl.fenceSync();
+    submissionOrder[index] = submissionCount++;
+    states[index] = State.PENDING;
+  }
+
+  /**
+   * Returns the index of the most recently submitted buffer whose read has completed, or -1 if no
+   * read has completed yet. Never waits for the GPU. Completed buffers submitted before the
+   * returned one are stale, and are released.
+   */
+  int pollReadyBuffer() {
+    int latest = -1;
+    for (int i = 0; i < buffers.length; i++) {
+      if (states[i] == State.PENDING && gl.isSignaled(fences[i])) {
+        gl.deleteSync(fences[i]);
+        fences[i] = 0;
+        states[i] = State.READY;
+      }
+      if (states[i] == State.READY
+          && (latest == -1 || submissionOrder[i] > submissionOrder[latest])) {
+        latest = i;
+      }
+    }
+    for (int i = 0; i < buffers.length; i++) {
+      if (states[i] == State.READY && i != latest) {
+        states[i] = State.FREE;
+      }
+    }
+    return latest;
+  }
+
+  /**
+   * Maps a submitted buffer. If its read has not completed yet, mapping waits for it to complete.
+   */
+  ByteBuffer map(int index) {
+    if (states[index] != State.PENDING && states[index] != State.READY) {
+      throw new IllegalStateException("Buffer " + index + " was not submitted.");
+    }
+    if (states[index] == State.PENDING) {
+      gl.deleteSync(fences[index]);
+      fences[index] = 0;
+    }
+    states[index] = State.MAPPED;
+    return gl.mapBuffer(buffers[index], sizes[index]);
+  }
+
+  /** Returns whether a buffer was submitted and not released yet. */
+  boolean isInUse(int index) {
+    return index >= 0 && index < buffers.length && states[index] != State.FREE;
+  }
+
+  /** Unmaps a buffer if it is mapped, and makes it available for the next submission. */
+  void release(int index) {
+    if (states[index] == State.MAPPED) {
+      gl.unmapBuffer(buffers[index]);
+    } else if (states[index] == State.PENDING) {
+      gl.deleteSync(fences[index]);
+      fences[index] = 0;
+    }
+    states[index] = State.FREE;
+  }
+
+  /** Releases all buffers and deletes their fences. */
+  void releaseAll() {
+    for (int i = 0; i < buffers.length; i++) {
+      release(i);
+    }
+  }
+}
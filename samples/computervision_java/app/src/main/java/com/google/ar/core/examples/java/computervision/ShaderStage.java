@@ -0,0 +1,58 @@
+/*
+ * Copyright 2019 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+/**
+ * A preprocessing stage that {@link TextureReader} runs as a fragment shader pass on the GPU,
+ * before the image is read back.
+ *
+ * <p>Each stage renders a single channel image from the output of the stage before it, the first
+ * stage reading the grayscale image. The fragment shader is written in GLSL ES 3.00 and is paired
+ * with the shaders/gpu_download_stage.vert vertex shader. It reads its input with texelFetch() from
+ * the sTexture sampler, at the integer coordinates of gl_FragCoord. The u_Size uniform holds the
+ * size of the image, to which neighbour coordinates are clamped.
+ *
+ * <p>Every stage has a CPU implementation producing exactly the same bytes. Running the reference
+ * stages through an {@link ImageProcessingPipeline} over an IMAGE_FORMAT_I8 readback gives the same
+ * image as reading back with the shader stages, which allows checking a stage under any OpenGL ES 3
+ * implementation, including software ones. The benchmark module tests the built-in reference
+ * stages against a Java transcription of their shaders.
+ *
+ * @see ShaderStages for the built-in stages.
+ */
+public interface ShaderStage {
+  /** Returns the asset path of the fragment shader of the stage. */
+  String getFragmentShaderName();
+
+  /**
+   * Looks up the locations of the uniforms of the stage besides sTexture and u_Size. Called once on
+   * the OpenGL thread, after the program of the stage was linked. A stage is used by a single
+   * {@link TextureReader}.
+   *
+   * @param program the program of the stage.
+   */
+  void onProgramCreated(int program);
+
+  /**
+   * Sets the uniforms of the stage besides sTexture and u_Size. Called on the OpenGL thread for
+   * every frame, with the program of the stage in use.
+   *
+   * @param program the program of the stage.
+   */
+  void setUniforms(int program);
+
+  /** Returns the CPU implementation of the stage. */
+  ImageProcessor getReference();
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2019 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+import android.opengl.GLES20;
+
+/**
+ * Built-in {@link ShaderStage} stages, the GPU counterparts of the {@link ImageProcessors} stages.
+ * Except for {@link #sobel()}, neighbourhood stages clamp to the nearest pixel at all image
+ * borders.
+ */
+public final class ShaderStages {
+  private ShaderStages() {}
+
+  /**
+   * Returns the Sobel edge detection stage. Like {@link ImageProcessors#sobel()}, it outputs 0xFF
+   * for pixels on an edge, 0x1F for all other pixels and 0x00 on the image border.
+   */
+  public static ShaderStage sobel() {
+    return new FixedShaderStage("shaders/gpu_download_sobel.frag", ImageProcessors.sobel());
+  }
+
+  /** Returns the gradient magnitude stage, see {@link ImageProcessors#gradientMagnitude()}. */
+  public static ShaderStage gradientMagnitude() {
+    return new FixedShaderStage(
+        "shaders/gpu_download_gradient_magnitude.frag", ImageProcessors.gradientMagnitude());
+  }
+
+  /** Returns a 3x3 Gaussian blur stage. */
+  public static ShaderStage gaussianBlur() {
+    return new FixedShaderStage(
+        "shaders/gpu_download_gaussian_blur.frag", ImageProcessors.gaussianBlur());
+  }
+
+  /**
+   * Returns a binary threshold stage.
+   *
+   * @param level pixels brighter than this value become 0xFF, all others become 0x00.
+   */
+  public static ShaderStage threshold(int level) {
+    return new ThresholdShaderStage(level);
+  }
+
+  /**
+   * Returns a 3x3 dilation stage, which replaces each pixel by the maximum of its neighbourhood.
+   */
+  public static ShaderStage dilate() {
+    return new FixedShaderStage("shaders/gpu_download_dilate.frag", ImageProcessors.dilate());
+  }
+
+  /** Returns a 3x3 erosion stage, which replaces each pixel by the minimum of its neighbourhood. */
+  public static ShaderStage erode() {
+    return new FixedShaderStage("shaders/gpu_download_erode.frag", ImageProcessors.erode());
+  }
+
+  /** A stage without uniforms of its own. */
+  private static class FixedShaderStage implements ShaderStage {
+    private final String fragmentShaderName;
+    private final ImageProcessor reference;
+
+    FixedShaderStage(String fragmentShaderName, ImageProcessor reference) {
+      this.fragmentShaderName = fragmentShaderName;
+      this.reference = reference;
+    }
+
+    @Override
+    public String getFragmentShaderName() {
+      return fragmentShaderName;
+    }
+
+    @Override
+    public void onProgramCreated(int program) {}
+
+    @Override
+    public void setUniforms(int program) {}
+
+    @Override
+    public ImageProcessor getReference() {
+      return reference;
+    }
+  }
+
+  private static class ThresholdShaderStage implements ShaderStage {
+    private final int level;
+    private int levelUniform;
+
+    ThresholdShaderStage(int level) {
+      this.level = level;
+    }
+
+    @Override
+    public String getFragmentShaderName() {
+      return "shaders/gpu_download_threshold.frag";
+    }
+
+    @Override
+    public void onProgramCreated(int program) {
+      levelUniform = GLES20.glGetUniformLocation(program, "u_Level");
+    }
+
+    @Override
+    public void setUniforms(int program) {
+      GLES20.glUniform1i(levelUniform, level);
+    }
+
+    @Override
+    public ImageProcessor getReference() {
+      return ImageProcessors.threshold(level);
+    }
+  }
+}
@@ -17,6 +17,7 @@
 package com.google.ar.core.examples.java.computervision;
 
 import android.content.Context;
+import android.graphics.RectF;
 import android.opengl.GLES11Ext;
 import android.opengl.GLES20;
 import android.opengl.GLES30;
@@ -26,6 +27,7 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
+import java.util.ArrayDeque;
 
 /**
  * Helper class for ARCore apps to read camera image from an OpenGL OES texture.
@@ -57,6 +59,37 @@ import java.nio.IntBuffer;
  *
  * <p>releaseFrame(bufferIndex);
  *
+ * <p>acquireFrame() waits for the GPU if the frame has not been read yet. To avoid stalling the
+ * caller thread, create the reader with more buffers and call pollReadyFrame() instead, which
+ * returns the index of the most recent frame the GPU has finished reading, or -1 if there is none:
+ *
+ * <p>bufferIndex = pollReadyFrame(); if (bufferIndex >= 0) { imageBuffer =
+ * acquireFrame(bufferIndex); ... releaseFrame(bufferIndex); }
+ *
+ * <p>To read back only part of the image, pass a region of interest and an output size to
+ * submitFrame(). Only that region is rendered and read, into a correspondingly smaller part of the
+ * frame buffer.
+ *
+ * <p>To read back several resolutions at once, pass a level count to create(). The camera texture
+ * is only drawn once, at full resolution, and the GPU downsamples it into the smaller levels, each
+ * half the width and height of the one before. All levels are read into the same frame buffer, and
+ * their offsets are listed in the acquired TextureReaderImage.
+ *
+ * <p>Frames can also be acquired as reference counted images, which may be used and closed on any
+ * thread, e.g. to process them on a worker thread:
+ *
+ * <p>try (TextureReaderImage image = acquireImage(bufferIndex)) { ... }
+ *
+ * <p>acquireImage() maps the frame buffer without copying, and the buffer stays reserved until the
+ * image is closed. acquireImageCopy() copies the pixels into a pooled buffer and makes the frame
+ * buffer available again right away, which is preferable when the consumer holds on to images for
+ * longer than the reader can spare its buffers. All images must be closed before destroy().
+ *
+ * <p>Grayscale images can be preprocessed on the GPU before they are read, by passing a chain of
+ * {@link ShaderStage} stages to setShaderStages() before create(). The stages run as extra draw
+ * passes of submitFrame(), so that e.g. only an edge mask is read back and the CPU is left to
+ * post-process it.
+ *
  * <p>Note: To use any of the above two methods, you need to call create() routine to initialize the
  * reader before calling any of the reading routine. You will also need to call destroy() method to
  * release the internal resource when you are done with the reader.
@@ -65,20 +98,47 @@ public class TextureReader {
   private static final String TAG = TextureReader.class.getSimpleName();
 
   // By default, we create only two internal buffers. So you can only hold more than one buffer
-  // index in your app without releasing it. If you need to hold more than one buffers, you can
-  // increase the bufferCount member.
-  private final int bufferCount = 2;
+  // index in your app without releasing it. If you need to hold more than one buffers, or to keep
+  // more reads in flight with pollReadyFrame(), you can pass a larger buffer count to the
+  // constructor.
+  private static final int DEFAULT_BUFFER_COUNT = 2;
+  private final int bufferCount;
   private int[] frameBuffer;
   private int[] texture;
   private int[] pbo;
-  private Boolean[] bufferUsed;
+  private PixelBufferRing pixelBufferRing;
+  // Size of the image submitted to each buffer, smaller than the image size for a region of
+  // interest.
+  private int[] frameWidth;
+  private int[] frameHeight;
+  // Frame buffers of the downsampled levels, levelCount - 1 per buffer, and the layout of the
+  // levels in each buffer.
+  private int levelCount = 1;
+  private int[] levelFrameBuffer;
+  private int[][] levelOffsets;
+  private int[][] levelWidths;
+  private int[][] levelHeights;
   private int frontIndex = -1;
   private int backIndex = -1;
 
-  // By default, the output image format is set to RGBA. You can also set it to IMAGE_FORMAT_I8.
+  // Images acquired with acquireImage(), by frame buffer. Their buffers are only released on the
+  // OpenGL thread, which owns them, so images closed on other threads are released later.
+  private TextureReaderImage[] bufferImages;
+  private Thread glThread;
+  private final TextureReaderImage.Releaser bufferImageReleaser = this::onBufferImageReleased;
+
+  // Buffers of the images acquired with acquireImageCopy(), reused once the images are closed.
+  // Guarded by itself, as images may be closed on any thread.
+  private final ArrayDeque<ByteBuffer> copyBufferPool = new ArrayDeque<>();
+  private final TextureReaderImage.Releaser copyImageReleaser = this::onCopyImageReleased;
+
+  // By default, the output image format is set to RGBA. You can also set it to IMAGE_FORMAT_I8 or
+  // IMAGE_FORMAT_NV12.
   private int imageFormat = TextureReaderImage.IMAGE_FORMAT_RGBA;
   private int imageWidth = 0;
   private int imageHeight = 0;
+  // Number of rows of the framebuffer textures. NV12 stores the chroma rows below the luma rows.
+  private int renderTargetHeight = 0;
   private int pixelBufferSize = 0;
   private Boolean keepAspectRatio = false;
 
@@ -87,6 +147,26 @@ public class TextureReader {
   private int quadProgram;
   private int quadPositionAttrib;
   private int quadTexCoordAttrib;
+  private final float[] texCoords = new float[8];
+  // Width of one output pixel, in texture coordinates.
+  private float texelWidth;
+
+  // Second pass of IMAGE_FORMAT_NV12, which renders the interleaved chroma rows.
+  private int chromaProgram;
+  private int chromaPositionAttrib;
+  private int chromaTexCoordAttrib;
+  private int chromaTexelWidthUniform;
+
+  // Preprocessing stages of IMAGE_FORMAT_I8 images, and their programs.
+  private ShaderStage[] shaderStages = new ShaderStage[0];
+  private int[] stageProgram;
+  private int[] stagePositionAttrib;
+  private int[] stageSizeUniform;
+  // Intermediate images the stages read from and render to, in turn. The grayscale image is
+  // rendered to the first one, and the last stage renders to the frame buffer to be read.
+  private int[] stageFrameBuffer;
+  private int[] stageTexture;
+
   private static final int COORDS_PER_VERTEX = 3;
   private static final int TEXCOORDS_PER_VERTEX = 2;
   private static final int FLOAT_SIZE = 4;
@@ -108,59 +188,133 @@ public class TextureReader {
         1.0f, 1.0f,
       };
 
+  /** Creates a texture reader with two internal buffers. */
+  public TextureReader() {
+    this(DEFAULT_BUFFER_COUNT);
+  }
+
+  /**
+   * Creates a texture reader with a given number of internal buffers.
+   *
+   * @param bufferCount number of frames which can be submitted and not yet released at any time.
+   */
+  public TextureReader(int bufferCount) {
+    if (bufferCount < 1) {
+      throw new IllegalArgumentException("Invalid buffer count: " + bufferCount);
+    }
+    this.bufferCount = bufferCount;
+  }
+
   /**
    * Creates the texture reader. This function needs to be called from the OpenGL rendering thread.
    *
-   * @param format the format of the output pixel buffer. It can be one of the two values:
-   *     TextureReaderImage.IMAGE_FORMAT_RGBA or TextureReaderImage.IMAGE_FORMAT_I8.
-   * @param width the width of the output image.
-   * @param height the height of the output image.
+   * @param format the format of the output pixel buffer. It can be one of the three values:
+   *     TextureReaderImage.IMAGE_FORMAT_RGBA, TextureReaderImage.IMAGE_FORMAT_I8 or
+   *     TextureReaderImage.IMAGE_FORMAT_NV12.
+   * @param width the width of the output image. Must be even for IMAGE_FORMAT_NV12.
+   * @param height the height of the output image. Must be even for IMAGE_FORMAT_NV12.
    * @param keepAspectRatio whether or not to keep aspect ratio. If true, the output image may be
    *     cropped if the image aspect ratio is different from the texture aspect ratio. If false, the
    *     output image covers the entire texture scope and no cropping is applied.
    */
   public void create(Context context, int format, int width, int height, Boolean keepAspectRatio)
       throws IOException {
+    create(context, format, width, height, keepAspectRatio, 1);
+  }
+
+  /**
+   * Creates the texture reader with several resolution levels. This function needs to be called
+   * from the OpenGL rendering thread.
+   *
+   * @param format the format of the output pixel buffer. It can be one of the three values:
+   *     TextureReaderImage.IMAGE_FORMAT_RGBA, TextureReaderImage.IMAGE_FORMAT_I8 or
+   *     TextureReaderImage.IMAGE_FORMAT_NV12.
+   * @param width the width of the output image. Must be even for IMAGE_FORMAT_NV12.
+   * @param height the height of the output image. Must be even for IMAGE_FORMAT_NV12.
+   * @param keepAspectRatio whether or not to keep aspect ratio. If true, the output image may be
+   *     cropped if the image aspect ratio is different from the texture aspect ratio. If false, the
+   *     output image covers the entire texture scope and no cropping is applied.
+   * @param levelCount number of resolution levels read from each frame, including the full
+   *     resolution level. Each further level has half the width and height of the one before it.
+   *     Only supported for IMAGE_FORMAT_RGBA and IMAGE_FORMAT_I8.
+   */
+  public void create(
+      Context context,
+      int format,
+      int width,
+      int height,
+      Boolean keepAspectRatio,
+      int levelCount)
+      throws IOException {
     if (format != TextureReaderImage.IMAGE_FORMAT_RGBA
-        && format != TextureReaderImage.IMAGE_FORMAT_I8) {
+        && format != TextureReaderImage.IMAGE_FORMAT_I8
+        && format != TextureReaderImage.IMAGE_FORMAT_NV12) {
       throw new RuntimeException("Image format not supported.");
     }
+    if (format == TextureReaderImage.IMAGE_FORMAT_NV12 && (width % 2 != 0 || height % 2 != 0)) {
+      throw new RuntimeException("NV12 images must have an even width and height.");
+    }
+    if (levelCount < 1 || (Math.min(width, height) >> (levelCount - 1)) == 0) {
+      throw new RuntimeException("Invalid number of levels: " + levelCount);
+    }
+    if (levelCount > 1 && format == TextureReaderImage.IMAGE_FORMAT_NV12) {
+      throw new RuntimeException("Multiple levels are not supported for NV12 images.");
+    }
+    if (shaderStages.length > 0 && format != TextureReaderImage.IMAGE_FORMAT_I8) {
+      throw new RuntimeException("Shader stages are only supported for I8 images.");
+    }
 
     this.keepAspectRatio = keepAspectRatio;
+    this.levelCount = levelCount;
     imageFormat = format;
     imageWidth = width;
     imageHeight = height;
     frontIndex = -1;
     backIndex = -1;
 
+    renderTargetHeight = imageHeight;
     if (imageFormat == TextureReaderImage.IMAGE_FORMAT_RGBA) {
       pixelBufferSize = imageWidth * imageHeight * 4;
     } else if (imageFormat == TextureReaderImage.IMAGE_FORMAT_I8) {
       pixelBufferSize = imageWidth * imageHeight;
+    } else if (imageFormat == TextureReaderImage.IMAGE_FORMAT_NV12) {
+      // A full resolution luma plane, followed by an interleaved chroma plane at half resolution.
+      renderTargetHeight = imageHeight * 3 / 2;
+      pixelBufferSize = imageWidth * renderTargetHeight;
+    }
+    boolean singleChannel = imageFormat != TextureReaderImage.IMAGE_FORMAT_RGBA;
+    for (int level = 1; level < levelCount; level++) {
+      pixelBufferSize += (imageWidth >> level) * (imageHeight >> level) * (singleChannel ? 1 : 4);
     }
 
     // Create framebuffers and PBOs.
     pbo = new int[bufferCount];
     frameBuffer = new int[bufferCount];
     texture = new int[bufferCount];
-    bufferUsed = new Boolean[bufferCount];
+    frameWidth = new int[bufferCount];
+    frameHeight = new int[bufferCount];
+    levelFrameBuffer = new int[bufferCount * (levelCount - 1)];
+    levelOffsets = new int[bufferCount][levelCount];
+    levelWidths = new int[bufferCount][levelCount];
+    levelHeights = new int[bufferCount][levelCount];
+    bufferImages = new TextureReaderImage[bufferCount];
+    glThread = Thread.currentThread();
     GLES30.glGenBuffers(bufferCount, pbo, 0);
     GLES20.glGenFramebuffers(bufferCount, frameBuffer, 0);
     GLES20.glGenTextures(bufferCount, texture, 0);
 
     for (int i = 0; i < bufferCount; i++) {
-      bufferUsed[i] = false;
       GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, frameBuffer[i]);
 
       GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture[i]);
       GLES30.glTexImage2D(
           GLES30.GL_TEXTURE_2D,
           0,
-          imageFormat == TextureReaderImage.IMAGE_FORMAT_I8 ? GLES30.GL_R8 : GLES30.GL_RGBA,
+          singleChannel ? GLES30.GL_R8 : GLES30.GL_RGBA,
           imageWidth,
-          imageHeight,
+          renderTargetHeight,
           0,
-          imageFormat == TextureReaderImage.IMAGE_FORMAT_I8 ? GLES30.GL_RED : GLES30.GL_RGBA,
+          singleChannel ? GLES30.GL_RED : GLES30.GL_RGBA,
           GLES30.GL_UNSIGNED_BYTE,
           null);
       GLES20.glTexParameteri(
@@ -172,14 +326,23 @@ public class TextureReader {
       GLES20.glFramebufferTexture2D(
           GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0, GLES20.GL_TEXTURE_2D, texture[i], 0);
 
-      int status = GLES20.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER);
-      if (status != GLES20.GL_FRAMEBUFFER_COMPLETE) {
-        throw new RuntimeException(
-            this
-                + ": Failed to set up render buffer with status "
-                + status
-                + " and error "
-                + GLES20.glGetError());
+      checkFramebufferStatus();
+
+      // Allocate the downsampled levels, and attach each of them to a frame buffer to read from.
+      if (levelCount > 1) {
+        GLES30.glGenerateMipmap(GLES30.GL_TEXTURE_2D);
+        GLES20.glGenFramebuffers(levelCount - 1, levelFrameBuffer, i * (levelCount - 1));
+        for (int level = 1; level < levelCount; level++) {
+          GLES20.glBindFramebuffer(
+              GLES20.GL_FRAMEBUFFER, levelFrameBuffer[(i * (levelCount - 1)) + level - 1]);
+          GLES20.glFramebufferTexture2D(
+              GLES20.GL_FRAMEBUFFER,
+              GLES20.GL_COLOR_ATTACHMENT0,
+              GLES20.GL_TEXTURE_2D,
+              texture[i],
+              level);
+          checkFramebufferStatus();
+        }
       }
 
       // Setup PBOs
@@ -189,8 +352,44 @@ public class TextureReader {
       GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
     }
 
+    // Create the intermediate images of the shader stages. Only two are needed however many
+    // stages there are, as each stage only reads the output of the stage before it.
+    int stageImageCount = Math.min(shaderStages.length, 2);
+    stageFrameBuffer = new int[stageImageCount];
+    stageTexture = new int[stageImageCount];
+    GLES20.glGenFramebuffers(stageImageCount, stageFrameBuffer, 0);
+    GLES20.glGenTextures(stageImageCount, stageTexture, 0);
+    for (int i = 0; i < stageImageCount; i++) {
+      GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, stageFrameBuffer[i]);
+      GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, stageTexture[i]);
+      GLES30.glTexImage2D(
+          GLES30.GL_TEXTURE_2D,
+          0,
+          GLES30.GL_R8,
+          imageWidth,
+          imageHeight,
+          0,
+          GLES30.GL_RED,
+          GLES30.GL_UNSIGNED_BYTE,
+          null);
+      GLES20.glTexParameteri(
+          GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
+      GLES20.glTexParameteri(
+          GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
+      GLES20.glFramebufferTexture2D(
+          GLES20.GL_FRAMEBUFFER,
+          GLES20.GL_COLOR_ATTACHMENT0,
+          GLES20.GL_TEXTURE_2D,
+          stageTexture[i],
+          0);
+      checkFramebufferStatus();
+    }
+    GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+
     GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
 
+    pixelBufferRing = new PixelBufferRing(new Gles30PixelBufferGl(), pbo, pixelBufferSize);
+
     // Load shader program.
     int numVertices = 4;
     if (numVertices != QUAD_COORDS.length / COORDS_PER_VERTEX) {
@@ -212,25 +411,85 @@ public class TextureReader {
 
     int vertexShader =
         ShaderUtil.loadGLShader(TAG, context, GLES20.GL_VERTEX_SHADER, "shaders/gpu_download.vert");
-    int fragmentShader =
-        ShaderUtil.loadGLShader(
-            TAG,
-            context,
-            GLES20.GL_FRAGMENT_SHADER,
-            imageFormat == TextureReaderImage.IMAGE_FORMAT_I8
-                ? "shaders/gpu_download_i8.frag"
-                : "shaders/gpu_download_rgba.frag");
-
-    quadProgram = GLES20.glCreateProgram();
-    GLES20.glAttachShader(quadProgram, vertexShader);
-    GLES20.glAttachShader(quadProgram, fragmentShader);
-    GLES20.glLinkProgram(quadProgram);
-    GLES20.glUseProgram(quadProgram);
 
+    // The luma plane of NV12 is rendered the same way as a grayscale image.
+    quadProgram =
+        createProgram(
+            context,
+            vertexShader,
+            singleChannel ? "shaders/gpu_download_i8.frag" : "shaders/gpu_download_rgba.frag");
     quadPositionAttrib = GLES20.glGetAttribLocation(quadProgram, "a_Position");
     quadTexCoordAttrib = GLES20.glGetAttribLocation(quadProgram, "a_TexCoord");
-    int texLoc = GLES20.glGetUniformLocation(quadProgram, "sTexture");
+
+    if (imageFormat == TextureReaderImage.IMAGE_FORMAT_NV12) {
+      chromaProgram = createProgram(context, vertexShader, "shaders/gpu_download_nv12_uv.frag");
+      chromaPositionAttrib = GLES20.glGetAttribLocation(chromaProgram, "a_Position");
+      chromaTexCoordAttrib = GLES20.glGetAttribLocation(chromaProgram, "a_TexCoord");
+      chromaTexelWidthUniform = GLES20.glGetUniformLocation(chromaProgram, "u_TexelWidth");
+    }
+
+    stageProgram = new int[shaderStages.length];
+    stagePositionAttrib = new int[shaderStages.length];
+    stageSizeUniform = new int[shaderStages.length];
+    if (shaderStages.length > 0) {
+      int stageVertexShader =
+          ShaderUtil.loadGLShader(
+              TAG, context, GLES20.GL_VERTEX_SHADER, "shaders/gpu_download_stage.vert");
+      for (int i = 0; i < shaderStages.length; i++) {
+        stageProgram[i] =
+            createProgram(context, stageVertexShader, shaderStages[i].getFragmentShaderName());
+        stagePositionAttrib[i] = GLES20.glGetAttribLocation(stageProgram[i], "a_Position");
+        stageSizeUniform[i] = GLES20.glGetUniformLocation(stageProgram[i], "u_Size");
+        shaderStages[i].onProgramCreated(stageProgram[i]);
+      }
+    }
+  }
+
+  /**
+   * Sets the stages which preprocess the grayscale image on the GPU before it is read, in order.
+   * The output of the last stage is read instead of the grayscale image. Takes effect on the next
+   * call to create(), and is only supported for IMAGE_FORMAT_I8.
+   *
+   * <p>The stages are drawn at the output size of each frame, so a region of interest is processed
+   * as a separate image. Downsampled levels are derived from the output of the last stage.
+   *
+   * @param stages the stages, or none to read the grayscale image.
+   */
+  public void setShaderStages(ShaderStage... stages) {
+    for (ShaderStage stage : stages) {
+      if (stage == null) {
+        throw new IllegalArgumentException("Stage cannot be null.");
+      }
+    }
+    shaderStages = stages.clone();
+  }
+
+  private void checkFramebufferStatus() {
+    int status = GLES20.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER);
+    if (status != GLES20.GL_FRAMEBUFFER_COMPLETE) {
+      throw new RuntimeException(
+          this
+              + ": Failed to set up render buffer with status "
+              + status
+              + " and error "
+              + GLES20.glGetError());
+    }
+  }
+
+  private static int createProgram(Context context, int vertexShader, String fragmentShaderName)
+      throws IOException {
+    int fragmentShader =
+        ShaderUtil.loadGLShader(TAG, context, GLES20.GL_FRAGMENT_SHADER, fragmentShaderName);
+
+    int program = GLES20.glCreateProgram();
+    GLES20.glAttachShader(program, vertexShader);
+    GLES20.glAttachShader(program, fragmentShader);
+    GLES20.glLinkProgram(program);
+    GLES20.glUseProgram(program);
+
+    int texLoc = GLES20.glGetUniformLocation(program, "sTexture");
     GLES20.glUniform1i(texLoc, 0);
+    return program;
   }
 
   /** Destroy the texture reader. */
@@ -239,11 +498,26 @@ public class TextureReader {
       GLES20.glDeleteFramebuffers(bufferCount, frameBuffer, 0);
       frameBuffer = null;
     }
+    if (levelFrameBuffer != null) {
+      GLES20.glDeleteFramebuffers(levelFrameBuffer.length, levelFrameBuffer, 0);
+      levelFrameBuffer = null;
+    }
+    if (stageFrameBuffer != null) {
+      GLES20.glDeleteFramebuffers(stageFrameBuffer.length, stageFrameBuffer, 0);
+      stageFrameBuffer = null;
+    }
+    if (stageTexture != null) {
+      GLES20.glDeleteTextures(stageTexture.length, stageTexture, 0);
+      stageTexture = null;
+    }
     if (texture != null) {
       GLES20.glDeleteTextures(bufferCount, texture, 0);
       texture = null;
     }
     if (pbo != null) {
+      bufferImages = null;
+      pixelBufferRing.releaseAll();
+      pixelBufferRing = null;
       GLES30.glDeleteBuffers(bufferCount, pbo, 0);
       pbo = null;
     }
@@ -264,41 +538,157 @@ public class TextureReader {
    *     releaseBuffer() routine after using of the frame.
    */
   public int submitFrame(int textureId, int textureWidth, int textureHeight) {
-    // Find next buffer.
-    int bufferIndex = -1;
-    for (int i = 0; i < bufferCount; i++) {
-      if (!bufferUsed[i]) {
-        bufferIndex = i;
-        break;
-      }
+    return submitFrame(textureId, textureWidth, textureHeight, 0, 0, 1, 1, imageWidth, imageHeight);
+  }
+
+  /**
+   * Submits a request to read only a region of interest of the image, at a given output size. Only
+   * the region is rendered and read back, so reading a small region is much cheaper than reading
+   * the whole image. Otherwise this works like submitFrame() above, and the acquired image has the
+   * output size. Downsampled levels have half the size of the level before them, and cover the
+   * same region.
+   *
+   * @param textureId the id of the input OpenGL texture.
+   * @param textureWidth width of the texture in pixels.
+   * @param textureHeight height of the texture in pixels.
+   * @param regionOfInterest the region to read, in normalized coordinates of the full image that
+   *     submitFrame() would read: left and right along the rows, top and bottom across the rows,
+   *     with top at the first row of the image buffer.
+   * @param outputWidth width of the output image, at most the width passed to create().
+   * @param outputHeight height of the output image, at most the height passed to create().
+   * @return the index to the frame buffer this request is associated to.
+   */
+  public int submitFrame(
+      int textureId,
+      int textureWidth,
+      int textureHeight,
+      RectF regionOfInterest,
+      int outputWidth,
+      int outputHeight) {
+    if (regionOfInterest.left < 0
+        || regionOfInterest.top < 0
+        || regionOfInterest.right > 1
+        || regionOfInterest.bottom > 1
+        || regionOfInterest.isEmpty()) {
+      throw new RuntimeException("Invalid region of interest: " + regionOfInterest);
+    }
+    if (outputWidth <= 0
+        || outputHeight <= 0
+        || outputWidth > imageWidth
+        || outputHeight > imageHeight) {
+      throw new RuntimeException("Invalid output size: " + outputWidth + "x" + outputHeight);
     }
+    if (imageFormat == TextureReaderImage.IMAGE_FORMAT_NV12
+        && (outputWidth % 2 != 0 || outputHeight % 2 != 0)) {
+      throw new RuntimeException("NV12 images must have an even width and height.");
+    }
+    return submitFrame(
+        textureId,
+        textureWidth,
+        textureHeight,
+        regionOfInterest.left,
+        regionOfInterest.top,
+        regionOfInterest.right,
+        regionOfInterest.bottom,
+        outputWidth,
+        outputHeight);
+  }
+
+  private int submitFrame(
+      int textureId,
+      int textureWidth,
+      int textureHeight,
+      float left,
+      float top,
+      float right,
+      float bottom,
+      int outputWidth,
+      int outputHeight) {
+    // Find next buffer.
+    releaseClosedBufferImages();
+    int bufferIndex = pixelBufferRing.findFreeBuffer();
     if (bufferIndex == -1) {
       throw new RuntimeException("No buffer available.");
     }
 
-    // Bind both read and write to framebuffer.
-    GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, frameBuffer[bufferIndex]);
+    // Bind both read and write to framebuffer. With shader stages, the grayscale image is only
+    // their input.
+    GLES20.glBindFramebuffer(
+        GLES20.GL_FRAMEBUFFER,
+        shaderStages.length > 0 ? stageFrameBuffer[0] : frameBuffer[bufferIndex]);
 
     // Save and setup viewport
     IntBuffer viewport = IntBuffer.allocate(4);
     GLES20.glGetIntegerv(GLES20.GL_VIEWPORT, viewport);
-    GLES20.glViewport(0, 0, imageWidth, imageHeight);
+    GLES20.glViewport(0, 0, outputWidth, outputHeight);
+
+    // Clear buffers.
+    GLES20.glClearColor(0, 0, 0, 0);
+    GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
+
+    // Map the output image to the region of interest of the texture.
+    updateTexCoords(textureWidth, textureHeight, left, top, right, bottom, outputWidth);
 
     // Draw texture to framebuffer.
-    drawTexture(textureId, textureWidth, textureHeight);
+    drawTexture(quadProgram, quadPositionAttrib, quadTexCoordAttrib, textureId);
 
-    // Start reading into PBO
+    // Run the shader stages, each on the output of the one before it.
+    for (int i = 0; i < shaderStages.length; i++) {
+      GLES20.glBindFramebuffer(
+          GLES20.GL_FRAMEBUFFER,
+          i == shaderStages.length - 1
+              ? frameBuffer[bufferIndex]
+              : stageFrameBuffer[(i + 1) % stageFrameBuffer.length]);
+      drawShaderStage(i, stageTexture[i % stageTexture.length], outputWidth, outputHeight);
+    }
+
+    // Draw the chroma rows of NV12 above the luma rows, at half the height.
+    int outputRows = outputHeight;
+    if (imageFormat == TextureReaderImage.IMAGE_FORMAT_NV12) {
+      GLES20.glViewport(0, outputHeight, outputWidth, outputHeight / 2);
+      drawTexture(chromaProgram, chromaPositionAttrib, chromaTexCoordAttrib, textureId);
+      outputRows = outputHeight * 3 / 2;
+    }
+
+    // Downsample the full resolution level into the other levels.
+    if (levelCount > 1) {
+      GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture[bufferIndex]);
+      GLES30.glGenerateMipmap(GLES30.GL_TEXTURE_2D);
+      GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+    }
+
+    // Start reading into PBO, packing the levels one after the other. Rows are tightly packed
+    // whatever their width.
     GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, pbo[bufferIndex]);
-    GLES30.glReadBuffer(GLES30.GL_COLOR_ATTACHMENT0);
+    GLES30.glPixelStorei(GLES30.GL_PACK_ALIGNMENT, 1);
+    int bytesPerPixel = imageFormat == TextureReaderImage.IMAGE_FORMAT_RGBA ? 4 : 1;
+    int offset = 0;
+    for (int level = 0; level < levelCount; level++) {
+      int levelWidth = Math.max(1, outputWidth >> level);
+      int levelHeight = Math.max(1, outputHeight >> level);
+      int levelRows = level == 0 ? outputRows : levelHeight;
+      if (level > 0) {
+        GLES20.glBindFramebuffer(
+            GLES20.GL_FRAMEBUFFER,
+            levelFrameBuffer[(bufferIndex * (levelCount - 1)) + level - 1]);
+      }
+      GLES30.glReadBuffer(GLES30.GL_COLOR_ATTACHMENT0);
 
-    GLES30.glReadPixels(
-        0,
-        0,
-        imageWidth,
-        imageHeight,
-        imageFormat == TextureReaderImage.IMAGE_FORMAT_I8 ? GLES30.GL_RED : GLES20.GL_RGBA,
-        GLES20.GL_UNSIGNED_BYTE,
-        0);
+      GLES30.glReadPixels(
+          0,
+          0,
+          levelWidth,
+          levelRows,
+          imageFormat == TextureReaderImage.IMAGE_FORMAT_RGBA ? GLES20.GL_RGBA : GLES30.GL_RED,
+          GLES20.GL_UNSIGNED_BYTE,
+          offset);
+
+      levelOffsets[bufferIndex][level] = offset;
+      levelWidths[bufferIndex][level] = levelWidth;
+      levelHeights[bufferIndex][level] = levelHeight;
+      offset += levelWidth * levelRows * bytesPerPixel;
+    }
+    GLES30.glPixelStorei(GLES30.GL_PACK_ALIGNMENT, 4);
 
     // Restore viewport.
     GLES20.glViewport(viewport.get(0), viewport.get(1), viewport.get(2), viewport.get(3));
@@ -306,13 +696,36 @@ public class TextureReader {
     GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
     GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
 
-    bufferUsed[bufferIndex] = true;
+    // Tag the buffer with a fence, so that pollReadyFrame() can tell when the read has completed.
+    pixelBufferRing.submit(bufferIndex, offset);
+    frameWidth[bufferIndex] = outputWidth;
+    frameHeight[bufferIndex] = outputHeight;
     return bufferIndex;
   }
 
+  /** Returns whether a buffer is available for the next call to submitFrame(). */
+  public boolean hasFreeBuffer() {
+    releaseClosedBufferImages();
+    return pixelBufferRing.findFreeBuffer() != -1;
+  }
+
+  /**
+   * Returns the index of the most recently submitted frame whose pixels the GPU has finished
+   * reading, or -1 if there is none yet. This never blocks, and acquiring the returned frame with
+   * acquireFrame() does not wait for the GPU either. Frames which were submitted before the
+   * returned one and which have not been acquired are released, as they are stale.
+   *
+   * @return the index of a frame buffer to pass to acquireFrame() and releaseFrame(), or -1.
+   */
+  public int pollReadyFrame() {
+    releaseClosedBufferImages();
+    return pixelBufferRing.pollReadyBuffer();
+  }
+
   /**
    * Acquires the frame requested earlier. This routine returns a TextureReaderImage object that
-   * contains the pixels mapped to the frame buffer requested previously through submitFrame().
+   * contains the pixels mapped to the frame buffer requested previously through submitFrame(). If
+   * the GPU has not finished reading the frame yet, this waits for it to finish.
    *
    * <p>If input buffer index is invalid, an exception will be thrown.
    *
@@ -321,20 +734,23 @@ public class TextureReader {
    * @return a TextureReaderImage object if succeed. Null otherwise.
    */
   public TextureReaderImage acquireFrame(int bufferIndex) {
-    if (bufferIndex < 0 || bufferIndex >= bufferCount || !bufferUsed[bufferIndex]) {
+    if (!pixelBufferRing.isInUse(bufferIndex)) {
       throw new RuntimeException("Invalid buffer index.");
     }
 
-    // Bind the current PB and acquire the pixel buffer.
-    GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, pbo[bufferIndex]);
-    ByteBuffer mapped =
-        (ByteBuffer)
-            GLES30.glMapBufferRange(
-                GLES30.GL_PIXEL_PACK_BUFFER, 0, pixelBufferSize, GLES30.GL_MAP_READ_BIT);
+    // Acquire the pixel buffer.
+    ByteBuffer mapped = pixelBufferRing.map(bufferIndex);
 
     // Wrap the mapped buffer into TextureReaderImage object.
     TextureReaderImage buffer =
-        new TextureReaderImage(imageWidth, imageHeight, imageFormat, mapped);
+        new TextureReaderImage(
+            frameWidth[bufferIndex],
+            frameHeight[bufferIndex],
+            imageFormat,
+            mapped,
+            levelOffsets[bufferIndex],
+            levelWidths[bufferIndex],
+            levelHeights[bufferIndex]);
 
     return buffer;
   }
@@ -347,13 +763,100 @@ public class TextureReader {
    *     returned from submitFrame().
    */
   public void releaseFrame(int bufferIndex) {
-    if (bufferIndex < 0 || bufferIndex >= bufferCount || !bufferUsed[bufferIndex]) {
+    if (!pixelBufferRing.isInUse(bufferIndex)) {
       throw new RuntimeException("Invalid buffer index.");
     }
-    GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, pbo[bufferIndex]);
-    GLES30.glUnmapBuffer(GLES30.GL_PIXEL_PACK_BUFFER);
-    GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
-    bufferUsed[bufferIndex] = false;
+    if (bufferImages[bufferIndex] != null) {
+      throw new RuntimeException("The frame is held by an image, close the image instead.");
+    }
+    pixelBufferRing.release(bufferIndex);
+  }
+
+  /**
+   * Acquires a frame as a reference counted image which maps the frame buffer without copying.
+   * Like acquireFrame(), this waits for the GPU if it has not finished reading the frame yet.
+   *
+   * <p>The frame buffer stays reserved until the last reference to the image is closed, instead of
+   * being released with releaseFrame(). The image can be used and closed on any thread. Buffers of
+   * images closed on another thread are released by the next call to submitFrame(),
+   * hasFreeBuffer() or pollReadyFrame().
+   *
+   * @param bufferIndex the index of a frame buffer returned by submitFrame() or pollReadyFrame().
+   * @return the image, which must be closed.
+   */
+  public TextureReaderImage acquireImage(int bufferIndex) {
+    if (bufferImages[bufferIndex] != null) {
+      throw new RuntimeException("The frame has already been acquired.");
+    }
+    TextureReaderImage image = acquireFrame(bufferIndex);
+    image.releaser = bufferImageReleaser;
+    image.bufferIndex = bufferIndex;
+    bufferImages[bufferIndex] = image;
+    return image;
+  }
+
+  /**
+   * Acquires a frame as a reference counted image holding a copy of its pixels, and releases the
+   * frame buffer right away. Like acquireFrame(), this waits for the GPU if it has not finished
+   * reading the frame yet. The copy buffers are pooled, so this only allocates while more images
+   * are open than ever before.
+   *
+   * @param bufferIndex the index of a frame buffer returned by submitFrame() or pollReadyFrame().
+   * @return the image, which must be closed. It can be used and closed on any thread.
+   */
+  public TextureReaderImage acquireImageCopy(int bufferIndex) {
+    ByteBuffer copy;
+    synchronized (copyBufferPool) {
+      copy = copyBufferPool.poll();
+    }
+    if (copy == null || copy.capacity() < pixelBufferSize) {
+      copy = ByteBuffer.allocateDirect(pixelBufferSize);
+    }
+
+    TextureReaderImage mapped = acquireFrame(bufferIndex);
+    copy.clear();
+    mapped.buffer.clear();
+    copy.put(mapped.buffer);
+    copy.flip();
+    releaseFrame(bufferIndex);
+
+    TextureReaderImage image =
+        new TextureReaderImage(
+            mapped.width,
+            mapped.height,
+            mapped.format,
+            copy,
+            mapped.levelOffsets.clone(),
+            mapped.levelWidths.clone(),
+            mapped.levelHeights.clone());
+    image.releaser = copyImageReleaser;
+    return image;
+  }
+
+  private void onBufferImageReleased(TextureReaderImage image) {
+    // The reader may have been destroyed, or re-created, since the image was acquired.
+    if (Thread.currentThread() == glThread
+        && bufferImages != null
+        && bufferImages[image.bufferIndex] == image) {
+      bufferImages[image.bufferIndex] = null;
+      pixelBufferRing.release(image.bufferIndex);
+    }
+  }
+
+  private void onCopyImageReleased(TextureReaderImage image) {
+    synchronized (copyBufferPool) {
+      copyBufferPool.push(image.buffer);
+    }
+  }
+
+  /** Releases the frame buffers of images closed on other threads. */
+  private void releaseClosedBufferImages() {
+    for (int i = 0; i < bufferCount; i++) {
+      if (bufferImages[i] != null && bufferImages[i].isReleased()) {
+        bufferImages[i] = null;
+        pixelBufferRing.release(i);
+      }
+    }
   }
 
   /**
@@ -387,28 +890,21 @@ public class TextureReader {
     return null;
   }
 
-  /** Draws texture to full screen. */
-  private void drawTexture(int textureId, int textureWidth, int textureHeight) {
-    // Disable features that we don't use.
-    GLES20.glDisable(GLES20.GL_DEPTH_TEST);
-    GLES20.glDisable(GLES20.GL_CULL_FACE);
-    GLES20.glDisable(GLES20.GL_SCISSOR_TEST);
-    GLES20.glDisable(GLES20.GL_STENCIL_TEST);
-    GLES20.glDisable(GLES20.GL_BLEND);
-    GLES20.glDepthMask(false);
-    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
-    GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
-    GLES30.glBindVertexArray(0);
-
-    // Clear buffers.
-    GLES20.glClearColor(0, 0, 0, 0);
-    GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
-
-    // Set the vertex positions.
-    GLES20.glVertexAttribPointer(
-        quadPositionAttrib, COORDS_PER_VERTEX, GLES20.GL_FLOAT, false, 0, quadVertices);
-
-    // Calculate the texture coordinates.
+  /**
+   * Computes the texture coordinates of the output image corners for a region of interest, given
+   * in normalized coordinates of the full output image.
+   */
+  private void updateTexCoords(
+      int textureWidth,
+      int textureHeight,
+      float left,
+      float top,
+      float right,
+      float bottom,
+      int outputWidth) {
+    // Calculate the texture coordinates of the full output image.
+    float offsetU = 0;
+    float offsetV = 0;
     if (keepAspectRatio) {
       int renderWidth = 0;
       int renderHeight = 0;
@@ -421,30 +917,59 @@ public class TextureReader {
         renderWidth = textureWidth * imageHeight / textureHeight;
         renderHeight = imageHeight;
       }
-      float offsetU = (float) (renderWidth - imageWidth) / renderWidth / 2;
-      float offsetV = (float) (renderHeight - imageHeight) / renderHeight / 2;
+      offsetU = (float) (renderWidth - imageWidth) / renderWidth / 2;
+      offsetV = (float) (renderHeight - imageHeight) / renderHeight / 2;
+    }
 
-      float[] texCoords =
-          new float[] {
-            offsetU, offsetV, offsetU, 1 - offsetV, 1 - offsetU, offsetV, 1 - offsetU, 1 - offsetV
-          };
+    // Narrow them down to the region of interest.
+    float leftU = offsetU + left * (1 - 2 * offsetU);
+    float rightU = offsetU + right * (1 - 2 * offsetU);
+    float topV = offsetV + top * (1 - 2 * offsetV);
+    float bottomV = offsetV + bottom * (1 - 2 * offsetV);
 
-      quadTexCoord.put(texCoords);
-      quadTexCoord.position(0);
-    } else {
-      quadTexCoord.put(QUAD_TEXCOORDS);
-      quadTexCoord.position(0);
-    }
+    texCoords[0] = leftU;
+    texCoords[1] = topV;
+    texCoords[2] = leftU;
+    texCoords[3] = bottomV;
+    texCoords[4] = rightU;
+    texCoords[5] = topV;
+    texCoords[6] = rightU;
+    texCoords[7] = bottomV;
+    quadTexCoord.put(texCoords);
+    quadTexCoord.position(0);
+
+    texelWidth = (rightU - leftU) / outputWidth;
+  }
+
+  /** Draws texture to full screen. */
+  private void drawTexture(int program, int positionAttrib, int texCoordAttrib, int textureId) {
+    // Disable features that we don't use.
+    GLES20.glDisable(GLES20.GL_DEPTH_TEST);
+    GLES20.glDisable(GLES20.GL_CULL_FACE);
+    GLES20.glDisable(GLES20.GL_SCISSOR_TEST);
+    GLES20.glDisable(GLES20.GL_STENCIL_TEST);
+    GLES20.glDisable(GLES20.GL_BLEND);
+    GLES20.glDepthMask(false);
+    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+    GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+    GLES30.glBindVertexArray(0);
+
+    // Set the vertex positions.
+    GLES20.glVertexAttribPointer(
+        positionAttrib, COORDS_PER_VERTEX, GLES20.GL_FLOAT, false, 0, quadVertices);
 
     // Set the texture coordinates.
     GLES20.glVertexAttribPointer(
-        quadTexCoordAttrib, TEXCOORDS_PER_VERTEX, GLES20.GL_FLOAT, false, 0, quadTexCoord);
+        texCoordAttrib, TEXCOORDS_PER_VERTEX, GLES20.GL_FLOAT, false, 0, quadTexCoord);
 
     // Enable vertex arrays
-    GLES20.glEnableVertexAttribArray(quadPositionAttrib);
-    GLES20.glEnableVertexAttribArray(quadTexCoordAttrib);
+    GLES20.glEnableVertexAttribArray(positionAttrib);
+    GLES20.glEnableVertexAttribArray(texCoordAttrib);
 
-    GLES20.glUseProgram(quadProgram);
+    GLES20.glUseProgram(program);
+    if (imageFormat == TextureReaderImage.IMAGE_FORMAT_NV12 && program == chromaProgram) {
+      GLES20.glUniform1f(chromaTexelWidthUniform, texelWidth);
+    }
 
     // Select input texture.
     GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
@@ -454,10 +979,71 @@ public class TextureReader {
     GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
 
     // Disable vertex arrays
-    GLES20.glDisableVertexAttribArray(quadPositionAttrib);
-    GLES20.glDisableVertexAttribArray(quadTexCoordAttrib);
+    GLES20.glDisableVertexAttribArray(positionAttrib);
+    GLES20.glDisableVertexAttribArray(texCoordAttrib);
 
     // Reset texture binding.
     GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, 0);
   }
+
+  /** Draws a preprocessing stage over the whole image, reading the output of the stage before. */
+  private void drawShaderStage(int stage, int inputTexture, int width, int height) {
+    // Set the vertex positions. Stages address their pixels with gl_FragCoord, so they don't need
+    // texture coordinates.
+    GLES20.glVertexAttribPointer(
+        stagePositionAttrib[stage], COORDS_PER_VERTEX, GLES20.GL_FLOAT, false, 0, quadVertices);
+    GLES20.glEnableVertexAttribArray(stagePositionAttrib[stage]);
+
+    GLES20.glUseProgram(stageProgram[stage]);
+    GLES20.glUniform2i(stageSizeUniform[stage], width, height);
+    shaderStages[stage].setUniforms(stageProgram[stage]);
+
+    // Select input texture.
+    GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+    GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, inputTexture);
+
+    // Draw a quad with texture.
+    GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+
+    GLES20.glDisableVertexAttribArray(stagePositionAttrib[stage]);
+    GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+  }
+
+  /** Implements the OpenGL calls of the pixel buffer ring with OpenGL ES 3.0. */
+  private static class Gles30PixelBufferGl implements PixelBufferRing.Gl {
+    @Override
+    public long fenceSync() {
+      return GLES30.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+    }
+
+    @Override
+    public boolean isSignaled(long sync) {
+      // A zero timeout only polls the fence. The flush bit makes sure the fence eventually
+      // signals even if nothing else flushes the command stream.
+      int result = GLES30.glClientWaitSync(sync, GLES30.GL_SYNC_FLUSH_COMMANDS_BIT, 0);
+      return result == GLES30.GL_ALREADY_SIGNALED || result == GLES30.GL_CONDITION_SATISFIED;
+    }
+
+    @Override
+    public void deleteSync(long sync) {
+      GLES30.glDeleteSync(sync);
+    }
+
+    @Override
+    public ByteBuffer mapBuffer(int buffer, int size) {
+      GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, buffer);
+      ByteBuffer mapped =
+          (ByteBuffer)
+              GLES30.glMapBufferRange(GLES30.GL_PIXEL_PACK_BUFFER, 0, size, GLES30.GL_MAP_READ_BIT);
+      GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+      return mapped;
+    }
+
+    @Override
+    public void unmapBuffer(int buffer) {
+      GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, buffer);
+      GLES30.glUnmapBuffer(GLES30.GL_PIXEL_PACK_BUFFER);
+      GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+    }
+  }
 }
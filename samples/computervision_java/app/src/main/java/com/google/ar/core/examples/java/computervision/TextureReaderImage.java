@@ -15,15 +15,32 @@
 package com.google.ar.core.examples.java.computervision;
 
 import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
 
-/** Image Buffer Class. */
-public class TextureReaderImage {
+/**
+ * Image Buffer Class.
+ *
+ * <p>Images acquired with TextureReader.acquireImage() or TextureReader.acquireImageCopy() are
+ * reference counted. They start with one reference, which {@link #close()} releases, and further
+ * references can be taken with {@link #retain()}, for example to hand the image over to another
+ * thread. Once the last reference is released, the pixels are given back to the reader and the
+ * buffer field is cleared. Using an image after that throws an IllegalStateException from
+ * {@link #getBuffer()}, {@link #retain()} and {@link #close()}.
+ */
+public class TextureReaderImage implements AutoCloseable {
   /** The id corresponding to RGBA8888. */
   public static final int IMAGE_FORMAT_RGBA = 0;
 
   /** The id corresponding to grayscale. */
   public static final int IMAGE_FORMAT_I8 = 1;
 
+  /**
+   * The id corresponding to NV12: width * height bytes of luma, followed by height / 2 rows of
+   * width bytes each holding the interleaved U and V values of each 2x2 block of pixels. Uses 1.5
+   * bytes per pixel. See {@link Nv12Converter} for the color conversion.
+   */
+  public static final int IMAGE_FORMAT_NV12 = 2;
+
   /** The width of the image, in pixels. */
   public int width;
 
@@ -33,15 +50,46 @@ public class TextureReaderImage {
   /** The image buffer. */
   public ByteBuffer buffer;
 
-  /** Pixel format. Can be either IMAGE_FORMAT_RGBA or IMAGE_FORMAT_I8. */
+  /** Pixel format. Can be IMAGE_FORMAT_RGBA, IMAGE_FORMAT_I8 or IMAGE_FORMAT_NV12. */
   public int format;
 
+  /**
+   * Number of resolution levels in the buffer. Level 0 is the full resolution image, and each
+   * further level has half the width and height of the one before it.
+   */
+  public int levelCount;
+
+  /** Offset of each level in the buffer, in bytes. Rows of every level are tightly packed. */
+  public int[] levelOffsets;
+
+  /** Width of each level, in pixels. */
+  public int[] levelWidths;
+
+  /** Height of each level, in pixels. */
+  public int[] levelHeights;
+
+  /** Gives the pixels of an image back to its owner once the last reference is released. */
+  interface Releaser {
+    /** Called once per image, on the thread which released the last reference. */
+    void release(TextureReaderImage image);
+  }
+
+  private final AtomicInteger referenceCount = new AtomicInteger(1);
+  // Null for images which are not owned by a TextureReader.
+  Releaser releaser;
+  // The frame buffer the pixels are mapped from, or -1 if they were copied.
+  int bufferIndex = -1;
+
   /** Default constructor. */
   public TextureReaderImage() {
     width = 1;
     height = 1;
     format = IMAGE_FORMAT_RGBA;
     buffer = ByteBuffer.allocateDirect(4);
+    levelCount = 1;
+    levelOffsets = new int[] {0};
+    levelWidths = new int[] {width};
+    levelHeights = new int[] {height};
   }
 
   /**
@@ -53,11 +101,42 @@ public class TextureReaderImage {
    * @param imgBuffer the buffer of the image pixels.
    */
   public TextureReaderImage(int imgWidth, int imgHeight, int imgFormat, ByteBuffer imgBuffer) {
+    this(
+        imgWidth,
+        imgHeight,
+        imgFormat,
+        imgBuffer,
+        new int[] {0},
+        new int[] {imgWidth},
+        new int[] {imgHeight});
+  }
+
+  /**
+   * Constructor for an image with several resolution levels.
+   *
+   * @param imgWidth the width of the image, in pixels.
+   * @param imgHeight the height of the image, in pixels.
+   * @param imgFormat the format of the image.
+   * @param imgBuffer the buffer of the pixels of all levels.
+   * @param imgLevelOffsets the offset of each level in the buffer, in bytes.
+   * @param imgLevelWidths the width of each level, in pixels.
+   * @param imgLevelHeights the height of each level, in pixels.
+   */
+  public TextureReaderImage(
+      int imgWidth,
+      int imgHeight,
+      int imgFormat,
+      ByteBuffer imgBuffer,
+      int[] imgLevelOffsets,
+      int[] imgLevelWidths,
+      int[] imgLevelHeights) {
     if (imgWidth == 0 || imgHeight == 0) {
       throw new RuntimeException("Invalid image size.");
     }
 
-    if (imgFormat != IMAGE_FORMAT_RGBA && imgFormat != IMAGE_FORMAT_I8) {
+    if (imgFormat != IMAGE_FORMAT_RGBA
+        && imgFormat != IMAGE_FORMAT_I8
+        && imgFormat != IMAGE_FORMAT_NV12) {
       throw new RuntimeException("Invalid image format.");
     }
 
@@ -65,9 +144,74 @@ public class TextureReaderImage {
       throw new RuntimeException("Pixel buffer cannot be null.");
     }
 
+    if (imgLevelOffsets.length == 0
+        || imgLevelWidths.length != imgLevelOffsets.length
+        || imgLevelHeights.length != imgLevelOffsets.length) {
+      throw new RuntimeException("Invalid level layout.");
+    }
+
     width = imgWidth;
     height = imgHeight;
     format = imgFormat;
     buffer = imgBuffer;
+    levelCount = imgLevelOffsets.length;
+    levelOffsets = imgLevelOffsets;
+    levelWidths = imgLevelWidths;
+    levelHeights = imgLevelHeights;
+  }
+
+  /**
+   * Returns the image buffer. Unlike the buffer field, this checks that the image has not been
+   * released.
+   */
+  public ByteBuffer getBuffer() {
+    if (referenceCount.get() == 0) {
+      throw new IllegalStateException("The image has already been released.");
+    }
+    return buffer;
+  }
+
+  /** Returns whether the last reference to the image has been released. */
+  public boolean isReleased() {
+    return referenceCount.get() == 0;
+  }
+
+  /**
+   * Takes another reference to the image, which must be released with another call to {@link
+   * #close()}. Can be called on any thread.
+   *
+   * @return this image.
+   */
+  public TextureReaderImage retain() {
+    int count;
+    do {
+      count = referenceCount.get();
+      if (count == 0) {
+        throw new IllegalStateException("The image has already been released.");
+      }
+    } while (!referenceCount.compareAndSet(count, count + 1));
+    return this;
+  }
+
+  /**
+   * Releases a reference to the image. Releasing the last one gives the pixels back to the reader
+   * the image was acquired from. Can be called on any thread.
+   */
+  @Override
+  public void close() {
+    int count;
+    do {
+      count = referenceCount.get();
+      if (count == 0) {
+        throw new IllegalStateException("The image has already been released.");
+      }
+    } while (!referenceCount.compareAndSet(count, count - 1));
+
+    if (count == 1) {
+      if (releaser != null) {
+        releaser.release(this);
+      }
+      buffer = null;
+    }
   }
 }
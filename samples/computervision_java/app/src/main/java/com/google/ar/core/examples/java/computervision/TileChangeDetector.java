@@ -0,0 +1,135 @@
+/*
+ * Copyright 2019 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Detects which square tiles of a grayscale image changed since the previous image.
+ *
+ * <p>Each tile is summarized by a hash over a sparse grid of sampled pixels, and a tile is marked
+ * as changed when its hash differs from the one of the previous image. Samples are quantized before
+ * hashing so that small amounts of sensor noise do not mark every tile as changed. Since only a
+ * subset of the pixels is sampled, small changes between samples may go unnoticed.
+ */
+public class TileChangeDetector {
+  private final int tileSize;
+  private final int sampleStep;
+  private final int quantizationShift;
+
+  private int width;
+  private int height;
+  private int tileCountX;
+  private int tileCountY;
+  private int[] tileHashes = new int[0];
+  private boolean[] changedTiles = new boolean[0];
+  private int changedTileCount;
+
+  /**
+   * Creates a change detector.
+   *
+   * @param tileSize width and height of each tile, in pixels.
+   * @param sampleStep distance between sampled pixels within a tile, in pixels.
+   * @param quantizationShift number of low bits of each sample ignored by the hash.
+   */
+  public TileChangeDetector(int tileSize, int sampleStep, int quantizationShift) {
+    if (tileSize < 1 || sampleStep < 1 || quantizationShift < 0 || quantizationShift > 7) {
+      throw new IllegalArgumentException("Invalid change detector parameters.");
+    }
+    this.tileSize = tileSize;
+    this.sampleStep = sampleStep;
+    this.quantizationShift = quantizationShift;
+  }
+
+  /**
+   * Compares an image with the image passed to the previous call. If the image size changed, all
+   * tiles are marked as changed.
+   *
+   * @param width image width.
+   * @param height image height.
+   * @param stride image stride (number of bytes per row, equals to width if no row padding).
+   * @param input bytes of the image, assumed single channel grayscale with rows starting every
+   *     stride bytes.
+   */
+  public synchronized void update(int width, int height, int stride, ByteBuffer input) {
+    boolean sizeChanged = width != this.width || height != this.height;
+    if (sizeChanged) {
+      this.width = width;
+      this.height = height;
+      tileCountX = (width + tileSize - 1) / tileSize;
+      tileCountY = (height + tileSize - 1) / tileSize;
+      if (tileHashes.length < tileCountX * tileCountY) {
+        tileHashes = new int[tileCountX * tileCountY];
+        changedTiles = new boolean[tileCountX * tileCountY];
+      }
+    }
+
+    changedTileCount = 0;
+    for (int tileY = 0; tileY < tileCountY; tileY++) {
+      for (int tileX = 0; tileX < tileCountX; tileX++) {
+        int tile = (tileY * tileCountX) + tileX;
+        int hash = hashTile(tileX, tileY, stride, input);
+        boolean changed = sizeChanged || hash != tileHashes[tile];
+        tileHashes[tile] = hash;
+        changedTiles[tile] = changed;
+        if (changed) {
+          changedTileCount++;
+        }
+      }
+    }
+  }
+
+  /** Returns the width and height of each tile, in pixels. */
+  public int getTileSize() {
+    return tileSize;
+  }
+
+  /** Returns the number of tile columns of the last image. */
+  public int getTileCountX() {
+    return tileCountX;
+  }
+
+  /** Returns the number of tile rows of the last image. */
+  public int getTileCountY() {
+    return tileCountY;
+  }
+
+  /** Returns the number of tiles that changed in the last image. */
+  public int getChangedTileCount() {
+    return changedTileCount;
+  }
+
+  /** Returns whether the tile at the given tile column and row changed in the last image. */
+  public boolean isTileChanged(int tileX, int tileY) {
+    return changedTiles[(tileY * tileCountX) + tileX];
+  }
+
+  private int hashTile(int tileX, int tileY, int stride, ByteBuffer input) {
+    int xStart = tileX * tileSize;
+    int yStart = tileY * tileSize;
+    int xEnd = Math.min(xStart + tileSize, width);
+    int yEnd = Math.min(yStart + tileSize, height);
+
+    // Sample in the middle of each sampling cell rather than at the tile edges.
+    int hash = 1;
+    for (int y = yStart + (sampleStep / 2); y < yEnd; y += sampleStep) {
+      int rowOffset = y * stride;
+      for (int x = xStart + (sampleStep / 2); x < xEnd; x += sampleStep) {
+        hash = (31 * hash) + ((input.get(rowOffset + x) & 0xFF) >> quantizationShift);
+      }
+    }
+    return hash;
+  }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2019 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads camera images recorded by {@link YuvFrameRecorder}. This class only depends on the Java
+ * standard library, so recordings made on a device can be replayed through the image processing
+ * code on any JVM, for example to profile it on a workstation.
+ *
+ * <p>The recording is memory-mapped chunk by chunk, and all frames are indexed when the reader is
+ * created. Accessing a frame and its planes afterwards does not allocate or copy, so frames can be
+ * streamed through a processor as fast as it can consume them:
+ *
+ * <pre>
+ * YuvFrameReader reader = new YuvFrameReader(file);
+ * for (int i = 0; i &lt; reader.getFrameCount(); i++) {
+ *   YuvFrameReader.RecordedFrame frame = reader.getFrame(i);
+ *   edgeDetector.detect(
+ *       frame.getWidth(), frame.getHeight(), frame.getRowStride(0), frame.getPlane(0), output);
+ * }
+ * </pre>
+ */
+public class YuvFrameReader {
+  private final List<RecordedFrame> frames = new ArrayList<>();
+
+  /** A recorded camera image, with the intrinsics of the camera when it was captured. */
+  public static class RecordedFrame {
+    private long timestamp;
+    private int width;
+    private int height;
+    private float focalLengthX;
+    private float focalLengthY;
+    private float principalPointX;
+    private float principalPointY;
+    private int intrinsicsWidth;
+    private int intrinsicsHeight;
+    private final int[] rowStrides = new int[YuvRecordingFormat.PLANE_COUNT];
+    private final int[] pixelStrides = new int[YuvRecordingFormat.PLANE_COUNT];
+    private final ByteBuffer[] planes = new ByteBuffer[YuvRecordingFormat.PLANE_COUNT];
+
+    /** Returns the timestamp of the image, in nanoseconds. */
+    public long getTimestamp() {
+      return timestamp;
+    }
+
+    /** Returns the width of the image, in pixels. */
+    public int getWidth() {
+      return width;
+    }
+
+    /** Returns the height of the image, in pixels. */
+    public int getHeight() {
+      return height;
+    }
+
+    /** Returns the focal length of the image intrinsics along the x axis, in pixels. */
+    public float getFocalLengthX() {
+      return focalLengthX;
+    }
+
+    /** Returns the focal length of the image intrinsics along the y axis, in pixels. */
+    public float getFocalLengthY() {
+      return focalLengthY;
+    }
+
+    /** Returns the x coordinate of the principal point of the image intrinsics, in pixels. */
+    public float getPrincipalPointX() {
+      return principalPointX;
+    }
+
+    /** Returns the y coordinate of the principal point of the image intrinsics, in pixels. */
+    public float getPrincipalPointY() {
+      return principalPointY;
+    }
+
+    /** Returns the image width the intrinsics refer to, in pixels. */
+    public int getIntrinsicsWidth() {
+      return intrinsicsWidth;
+    }
+
+    /** Returns the image height the intrinsics refer to, in pixels. */
+    public int getIntrinsicsHeight() {
+      return intrinsicsHeight;
+    }
+
+    /** Returns the number of bytes per row of a plane: 0 for Y, 1 for U and 2 for V. */
+    public int getRowStride(int plane) {
+      return rowStrides[plane];
+    }
+
+    /** Returns the number of bytes per pixel of a plane: 0 for Y, 1 for U and 2 for V. */
+    public int getPixelStride(int plane) {
+      return pixelStrides[plane];
+    }
+
+    /**
+     * Returns the bytes of a plane: 0 for Y, 1 for U and 2 for V. The buffer maps the recording
+     * directly and is shared by all callers, its position is reset to 0 by every call.
+     */
+    public ByteBuffer getPlane(int plane) {
+      planes[plane].clear();
+      return planes[plane];
+    }
+  }
+
+  /**
+   * Maps a recording and indexes its frames.
+   *
+   * @param file recording written by {@link YuvFrameRecorder}.
+   * @throws IOException if the file cannot be read or is not a valid recording.
+   */
+  public YuvFrameReader(File file) throws IOException {
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+      FileChannel channel = randomAccessFile.getChannel();
+      long fileSize = channel.size();
+      ByteBuffer header = ByteBuffer.allocate(YuvRecordingFormat.CHUNK_HEADER_SIZE);
+      header.order(YuvRecordingFormat.BYTE_ORDER);
+
+      long chunkOffset = 0;
+      while (chunkOffset + YuvRecordingFormat.CHUNK_HEADER_SIZE <= fileSize) {
+        header.clear();
+        while (header.hasRemaining()) {
+          if (channel.read(header, chunkOffset + header.position()) < 0) {
+            throw new IOException("Unexpected end of recording at offset " + chunkOffset);
+          }
+        }
+        int magic = header.getInt(0);
+        if (magic == 0) {
+          // The recorder was not closed, the rest of the file was never written.
+          break;
+        }
+        if (magic != YuvRecordingFormat.CHUNK_MAGIC) {
+          throw new IOException("Invalid chunk at offset " + chunkOffset);
+        }
+        int version = header.getInt(4);
+        if (version != YuvRecordingFormat.VERSION) {
+          throw new IOException("Unsupported recording version: " + version);
+        }
+        int chunkSize = header.getInt(YuvRecordingFormat.CHUNK_SIZE_OFFSET);
+        int frameCount = header.getInt(YuvRecordingFormat.CHUNK_FRAME_COUNT_OFFSET);
+        if (chunkSize < YuvRecordingFormat.CHUNK_HEADER_SIZE
+            || chunkOffset + chunkSize > fileSize) {
+          throw new IOException("Invalid chunk size " + chunkSize + " at offset " + chunkOffset);
+        }
+
+        MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, chunkOffset, chunkSize);
+        chunk.order(YuvRecordingFormat.BYTE_ORDER);
+        chunk.position(YuvRecordingFormat.CHUNK_HEADER_SIZE);
+        for (int i = 0; i < frameCount; i++) {
+          frames.add(readFrame(chunk, chunkOffset));
+        }
+        chunkOffset += chunkSize;
+      }
+    }
+    // The mapped chunks remain valid after the file is closed.
+  }
+
+  /** Returns the number of frames in the recording. */
+  public int getFrameCount() {
+    return frames.size();
+  }
+
+  /** Returns a frame of the recording, in recording order. */
+  public RecordedFrame getFrame(int index) {
+    return frames.get(index);
+  }
+
+  private static RecordedFrame readFrame(ByteBuffer chunk, long chunkOffset) throws IOException {
+    int frameStart = chunk.position();
+    if (chunk.remaining() < YuvRecordingFormat.FRAME_HEADER_SIZE) {
+      throw new IOException("Truncated frame at offset " + (chunkOffset + frameStart));
+    }
+    int frameSize = chunk.getInt();
+    if (frameSize < YuvRecordingFormat.FRAME_HEADER_SIZE
+        || frameSize > chunk.capacity() - frameStart) {
+      throw new IOException("Invalid frame size at offset " + (chunkOffset + frameStart));
+    }
+
+    RecordedFrame frame = new RecordedFrame();
+    frame.timestamp = chunk.getLong();
+    frame.width = chunk.getInt();
+    frame.height = chunk.getInt();
+    frame.focalLengthX = chunk.getFloat();
+    frame.focalLengthY = chunk.getFloat();
+    frame.principalPointX = chunk.getFloat();
+    frame.principalPointY = chunk.getFloat();
+    frame.intrinsicsWidth = chunk.getInt();
+    frame.intrinsicsHeight = chunk.getInt();
+
+    int[] planeSizes = new int[YuvRecordingFormat.PLANE_COUNT];
+    int planeBytes = 0;
+    for (int i = 0; i < YuvRecordingFormat.PLANE_COUNT; i++) {
+      frame.rowStrides[i] = chunk.getInt();
+      frame.pixelStrides[i] = chunk.getInt();
+      planeSizes[i] = chunk.getInt();
+      planeBytes += planeSizes[i];
+    }
+    if (YuvRecordingFormat.FRAME_HEADER_SIZE + planeBytes != frameSize) {
+      throw new IOException("Inconsistent plane sizes at offset " + (chunkOffset + frameStart));
+    }
+
+    for (int i = 0; i < YuvRecordingFormat.PLANE_COUNT; i++) {
+      int planeEnd = chunk.position() + planeSizes[i];
+      chunk.limit(planeEnd);
+      frame.planes[i] = chunk.slice();
+      chunk.limit(chunk.capacity());
+      chunk.position(planeEnd);
+    }
+    return frame;
+  }
+}
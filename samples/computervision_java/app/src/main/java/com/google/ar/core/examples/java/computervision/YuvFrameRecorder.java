@@ -0,0 +1,187 @@
+/*
+ * Copyright 2019 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+import android.arch.lifecycle.DefaultLifecycleObserver;
+import android.arch.lifecycle.LifecycleOwner;
+import android.graphics.ImageFormat;
+import android.media.Image;
+import android.support.annotation.NonNull;
+import android.util.Log;
+import com.google.ar.core.CameraIntrinsics;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Records YUV_420_888 camera images to a file, so that they can be replayed off-device with {@link
+ * YuvFrameReader}. See {@link YuvRecordingFormat} for the file layout.
+ *
+ * <p>Frames are written into a memory-mapped chunk of the file, so recording a frame only copies
+ * its planes in memory and the kernel writes them to storage in the background. A new file is
+ * started in the given directory every time the observed lifecycle resumes, and it is closed when
+ * the lifecycle pauses.
+ *
+ * <p>{@link #record} copies the three planes on the calling thread, which is the OpenGL thread in
+ * {@link ComputerVisionActivity}, while the image is still held. The copy adds to the frame time
+ * and delays the release of the image, so frame timings measured while recording are not
+ * representative of the app without recording.
+ */
+public class YuvFrameRecorder implements DefaultLifecycleObserver {
+  private static final String TAG = YuvFrameRecorder.class.getSimpleName();
+
+  // Size of each mapped chunk. Larger frames get a chunk of their own.
+  private static final int CHUNK_SIZE = 64 * 1024 * 1024;
+
+  private final File directory;
+
+  private RandomAccessFile file;
+  private FileChannel channel;
+  private MappedByteBuffer chunk;
+  private long chunkOffset;
+  private int chunkFrameCount;
+
+  /**
+   * Creates a recorder.
+   *
+   * @param directory directory receiving the recordings, one file per resumed session.
+   */
+  public YuvFrameRecorder(File directory) {
+    this.directory = directory;
+  }
+
+  @Override
+  public synchronized void onResume(@NonNull LifecycleOwner owner) {
+    File recording = new File(directory, "frames-" + System.currentTimeMillis() + ".yuv");
+    try {
+      file = new RandomAccessFile(recording, "rw");
+      channel = file.getChannel();
+      chunkOffset = 0;
+      startChunk(CHUNK_SIZE);
+      Log.i(TAG, "Recording camera images to " + recording);
+    } catch (IOException e) {
+      Log.e(TAG, "Failed to start recording to " + recording, e);
+      closeQuietly();
+    }
+  }
+
+  @Override
+  public synchronized void onPause(@NonNull LifecycleOwner owner) {
+    if (file == null) {
+      return;
+    }
+    try {
+      // Cut off the unused end of the last chunk.
+      channel.truncate(chunkOffset + chunk.position());
+    } catch (IOException e) {
+      Log.e(TAG, "Failed to finish the recording", e);
+    }
+    closeQuietly();
+  }
+
+  /**
+   * Appends a camera image to the recording. Does nothing if the recorder is not resumed.
+   *
+   * @param image camera image in YUV_420_888 format. Its planes are copied before returning.
+   * @param intrinsics intrinsics of the camera image, as returned by {@link
+   *     com.google.ar.core.Camera#getImageIntrinsics()}.
+   */
+  public synchronized void record(Image image, CameraIntrinsics intrinsics) {
+    if (file == null) {
+      return;
+    }
+    if (image.getFormat() != ImageFormat.YUV_420_888) {
+      throw new IllegalArgumentException(
+          "Expected image in YUV_420_888 format, got format " + image.getFormat());
+    }
+
+    Image.Plane[] planes = image.getPlanes();
+    int frameSize = YuvRecordingFormat.FRAME_HEADER_SIZE;
+    for (int i = 0; i < YuvRecordingFormat.PLANE_COUNT; i++) {
+      frameSize += planes[i].getBuffer().remaining();
+    }
+
+    try {
+      if (chunk.remaining() < frameSize) {
+        chunkOffset += chunk.position();
+        startChunk(Math.max(CHUNK_SIZE, YuvRecordingFormat.CHUNK_HEADER_SIZE + frameSize));
+      }
+    } catch (IOException e) {
+      Log.e(TAG, "Failed to extend the recording, stopping", e);
+      closeQuietly();
+      return;
+    }
+
+    float[] focalLength = intrinsics.getFocalLength();
+    float[] principalPoint = intrinsics.getPrincipalPoint();
+    int[] imageDimensions = intrinsics.getImageDimensions();
+
+    chunk.putInt(frameSize);
+    chunk.putLong(image.getTimestamp());
+    chunk.putInt(image.getWidth());
+    chunk.putInt(image.getHeight());
+    chunk.putFloat(focalLength[0]);
+    chunk.putFloat(focalLength[1]);
+    chunk.putFloat(principalPoint[0]);
+    chunk.putFloat(principalPoint[1]);
+    chunk.putInt(imageDimensions[0]);
+    chunk.putInt(imageDimensions[1]);
+    for (int i = 0; i < YuvRecordingFormat.PLANE_COUNT; i++) {
+      chunk.putInt(planes[i].getRowStride());
+      chunk.putInt(planes[i].getPixelStride());
+      chunk.putInt(planes[i].getBuffer().remaining());
+    }
+    for (int i = 0; i < YuvRecordingFormat.PLANE_COUNT; i++) {
+      ByteBuffer plane = planes[i].getBuffer();
+      int position = plane.position();
+      chunk.put(plane);
+      plane.position(position);
+    }
+
+    // Keep the chunk header up to date after every frame, so that the recording is readable up to
+    // the last frame even if the app is killed before it is closed.
+    chunkFrameCount++;
+    chunk.putInt(YuvRecordingFormat.CHUNK_SIZE_OFFSET, chunk.position());
+    chunk.putInt(YuvRecordingFormat.CHUNK_FRAME_COUNT_OFFSET, chunkFrameCount);
+  }
+
+  /** Maps a new chunk at chunkOffset, growing the file as needed, and writes its header. */
+  private void startChunk(int size) throws IOException {
+    chunk = channel.map(FileChannel.MapMode.READ_WRITE, chunkOffset, size);
+    chunk.order(YuvRecordingFormat.BYTE_ORDER);
+    chunk.putInt(YuvRecordingFormat.CHUNK_MAGIC);
+    chunk.putInt(YuvRecordingFormat.VERSION);
+    chunk.putInt(YuvRecordingFormat.CHUNK_HEADER_SIZE);
+    chunk.putInt(0);
+    chunkFrameCount = 0;
+  }
+
+  private void closeQuietly() {
+    try {
+      if (file != null) {
+        file.close();
+      }
+    } catch (IOException e) {
+      Log.e(TAG, "Failed to close the recording", e);
+    }
+    // Mapped chunks stay valid until they are garbage collected, even after the file is closed.
+    file = null;
+    channel = null;
+    chunk = null;
+  }
+}
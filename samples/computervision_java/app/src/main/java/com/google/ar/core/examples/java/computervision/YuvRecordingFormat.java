@@ -0,0 +1,65 @@
+/*
+ * Copyright 2019 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+import java.nio.ByteOrder;
+
+/**
+ * Layout of the files written by {@link YuvFrameRecorder} and read by {@link YuvFrameReader}.
+ *
+ * <p>A recording is a sequence of chunks, each of which is memory-mapped as a whole. All values are
+ * little endian. Each chunk starts with a header:
+ *
+ * <pre>
+ * int magic          CHUNK_MAGIC
+ * int version        VERSION
+ * int chunkSize      number of bytes in the chunk, including this header
+ * int frameCount     number of frames in the chunk
+ * </pre>
+ *
+ * followed by frameCount frames, each made of a frame header:
+ *
+ * <pre>
+ * int   frameSize    number of bytes in the frame, including this header
+ * long  timestamp    image timestamp, in nanoseconds
+ * int   width        image width, in pixels
+ * int   height       image height, in pixels
+ * float[2]           focal length of the image intrinsics, in pixels
+ * float[2]           principal point of the image intrinsics, in pixels
+ * int[2]             image dimensions of the image intrinsics, in pixels
+ * PLANE_COUNT times:
+ *   int rowStride    bytes per row of the plane
+ *   int pixelStride  bytes per pixel of the plane
+ *   int size         bytes of the plane
+ * </pre>
+ *
+ * followed by the bytes of the Y, U and V planes, as returned by the camera image. A chunk whose
+ * magic is zero marks the end of the recording, which happens when the recorder was not closed.
+ */
+final class YuvRecordingFormat {
+  static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+  static final int CHUNK_MAGIC = 0x43565559; // "YUVC" in little endian.
+  static final int VERSION = 1;
+  static final int PLANE_COUNT = 3;
+
+  static final int CHUNK_HEADER_SIZE = 16;
+  static final int CHUNK_SIZE_OFFSET = 8;
+  static final int CHUNK_FRAME_COUNT_OFFSET = 12;
+
+  static final int FRAME_HEADER_SIZE = 4 + 8 + 4 + 4 + (6 * 4) + (PLANE_COUNT * 3 * 4);
+
+  private YuvRecordingFormat() {}
+}
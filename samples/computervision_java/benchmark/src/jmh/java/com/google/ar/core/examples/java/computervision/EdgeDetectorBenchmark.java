@@ -0,0 +1,132 @@
+/*
+ * Copyright 2019 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures {@link EdgeDetector} on the Y plane of a camera image, for each CPU image resolution
+ * offered by ARCore camera configs and each row layout of the plane. The original per-pixel kernel
+ * in {@link ReferenceEdgeDetector} is measured as a baseline for the sliding row window kernel.
+ *
+ * <p>Besides the time per image, the "pixels" secondary result reports the time per pixel, which
+ * can be compared across resolutions. Output buffers are reused, so the allocation rate reported
+ * by the GC profiler is expected to be close to zero.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class EdgeDetectorBenchmark {
+  /** Row layout of the Y plane. */
+  public enum StrideLayout {
+    /** Rows are packed, the stride equals the width. */
+    PACKED,
+    /**
+     * Rows start at multiples of 256 bytes, as in the buffers of many camera drivers. The last row
+     * is not padded.
+     */
+    ALIGNED_256
+  }
+
+  /** Counts processed pixels, so that JMH also reports the time per pixel. */
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  @State(Scope.Thread)
+  public static class PixelCounter {
+    public long pixels;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      pixels = 0;
+    }
+  }
+
+  @Param({"640x480", "1280x720", "1920x1080"})
+  public String resolution;
+
+  @Param public StrideLayout strideLayout;
+
+  private final EdgeDetector edgeDetector = new EdgeDetector();
+  private final EdgeDetector parallelEdgeDetector = new EdgeDetector(ForkJoinPool.commonPool());
+  private final ReferenceEdgeDetector referenceEdgeDetector = new ReferenceEdgeDetector();
+
+  private int width;
+  private int height;
+  private int stride;
+  private ByteBuffer input;
+  private ByteBuffer output;
+
+  @Setup
+  public void setUp() {
+    String[] size = resolution.split("x");
+    width = Integer.parseInt(size[0]);
+    height = Integer.parseInt(size[1]);
+    switch (strideLayout) {
+      case PACKED:
+        stride = width;
+        break;
+      case ALIGNED_256:
+        stride = (width + 255) & ~255;
+        break;
+    }
+
+    // Camera planes are direct buffers.
+    input = ByteBuffer.allocateDirect((stride * (height - 1)) + width);
+    output = ByteBuffer.allocateDirect(width * height);
+
+    // Smooth gradients with noise on top, so that the image has a realistic mix of edge and
+    // non-edge pixels.
+    Random random = new Random(0);
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        int value = ((x * 255 / width) ^ (y * 255 / height)) + random.nextInt(32);
+        input.put((y * stride) + x, (byte) value);
+      }
+    }
+  }
+
+  @Benchmark
+  public byte[] detectReference(PixelCounter counter) {
+    byte[] result = referenceEdgeDetector.detect(width, height, stride, input);
+    counter.pixels += width * height;
+    return result;
+  }
+
+  @Benchmark
+  public ByteBuffer detect(PixelCounter counter) {
+    edgeDetector.detect(width, height, stride, input, output);
+    counter.pixels += width * height;
+    return output;
+  }
+
+  @Benchmark
+  public ByteBuffer detectParallel(PixelCounter counter) {
+    parallelEdgeDetector.detect(width, height, stride, input, output);
+    counter.pixels += width * height;
+    return output;
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2019 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Replays a recording of camera images through {@link EdgeDetector}, one frame per invocation, so
+ * that the detector is measured on the planes of a real device. Pull a recording made with {@code
+ * RECORD_CPU_IMAGES} in {@link ComputerVisionActivity} from the device and pass its path to the
+ * benchmark jar:
+ *
+ * <pre>
+ *   ./gradlew :benchmark:jmhJar
+ *   java -jar benchmark/build/libs/benchmark-jmh.jar YuvReplayBenchmark \
+ *       -p recording=/path/to/frames.yuv
+ * </pre>
+ *
+ * <p>Without a recording, a synthetic one with padded rows is generated, which only exercises the
+ * replay path.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class YuvReplayBenchmark {
+  private static final int SYNTHETIC_FRAME_COUNT = 30;
+  private static final int SYNTHETIC_WIDTH = 640;
+  private static final int SYNTHETIC_HEIGHT = 480;
+  private static final int SYNTHETIC_ROW_STRIDE = 768;
+
+  /** Counts processed pixels, so that JMH also reports the time per pixel. */
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  @State(Scope.Thread)
+  public static class PixelCounter {
+    public long pixels;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      pixels = 0;
+    }
+  }
+
+  /** Path of the recording to replay, or empty for a synthetic recording. */
+  @Param({""})
+  public String recording;
+
+  private final EdgeDetector edgeDetector = new EdgeDetector();
+
+  private File syntheticRecording;
+  private YuvFrameReader reader;
+  private ByteBuffer output;
+  private int frameIndex;
+
+  @Setup
+  public void setUp() throws IOException {
+    File file;
+    if (recording.isEmpty()) {
+      syntheticRecording = File.createTempFile("replay", ".yuv");
+      writeSyntheticRecording(syntheticRecording);
+      file = syntheticRecording;
+    } else {
+      file = new File(recording);
+    }
+    reader = new YuvFrameReader(file);
+    if (reader.getFrameCount() == 0) {
+      throw new IOException("No frames in " + file);
+    }
+
+    int maxPixels = 0;
+    for (int i = 0; i < reader.getFrameCount(); i++) {
+      YuvFrameReader.RecordedFrame frame = reader.getFrame(i);
+      maxPixels = Math.max(maxPixels, frame.getWidth() * frame.getHeight());
+    }
+    output = ByteBuffer.allocateDirect(maxPixels);
+  }
+
+  @TearDown
+  public void tearDown() {
+    if (syntheticRecording != null) {
+      syntheticRecording.delete();
+    }
+  }
+
+  @Benchmark
+  public ByteBuffer detect(PixelCounter counter) {
+    YuvFrameReader.RecordedFrame frame = reader.getFrame(frameIndex);
+    frameIndex = (frameIndex + 1) % reader.getFrameCount();
+    edgeDetector.detect(
+        frame.getWidth(), frame.getHeight(), frame.getRowStride(0), frame.getPlane(0), output);
+    counter.pixels += frame.getWidth() * frame.getHeight();
+    return output;
+  }
+
+  private static void writeSyntheticRecording(File file) throws IOException {
+    Random random = new Random(0);
+    int width = SYNTHETIC_WIDTH;
+    int height = SYNTHETIC_HEIGHT;
+    int stride = SYNTHETIC_ROW_STRIDE;
+    int chromaSize = (stride * (height / 2 - 1)) + width - 1;
+    try (YuvRecordingWriter writer = new YuvRecordingWriter(file)) {
+      for (int i = 0; i < SYNTHETIC_FRAME_COUNT; i++) {
+        // Moving gradients with noise on top, like in EdgeDetectorBenchmark.
+        byte[] luminance = new byte[(stride * (height - 1)) + width];
+        for (int y = 0; y < height; y++) {
+          for (int x = 0; x < width; x++) {
+            int value = (((x + i) * 255 / width) ^ (y * 255 / height)) + random.nextInt(32);
+            luminance[(y * stride) + x] = (byte) value;
+          }
+        }
+        writer.addFrame(
+            i * 33_333_333L,
+            width,
+            height,
+            new float[] {500, 500},
+            new float[] {width / 2f, height / 2f},
+            new int[] {stride, stride, stride},
+            new int[] {1, 2, 2},
+            new byte[][] {luminance, new byte[chromaSize], new byte[chromaSize]});
+      }
+    }
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2019 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The original per-pixel Sobel kernel of {@link EdgeDetector}, kept as the golden reference for
+ * its tests and as the baseline of its benchmarks.
+ */
+final class ReferenceEdgeDetector {
+  private static final int SOBEL_EDGE_THRESHOLD = 128 * 128;
+
+  private byte[] inputPixels = new byte[0];
+  private byte[] outputPixels = new byte[0];
+
+  /**
+   * Processes a grayscale image with the original kernel.
+   *
+   * @param width image width.
+   * @param height image height.
+   * @param stride image stride (number of bytes per row, equals to width if no row padding).
+   * @param input bytes of the image, from position 0 to its limit. The last row does not need to
+   *     be padded to the full stride.
+   * @return the processed image, width * height bytes. The array is reused by the next call.
+   */
+  byte[] detect(int width, int height, int stride, ByteBuffer input) {
+    if (stride * height > inputPixels.length) {
+      inputPixels = new byte[stride * height];
+    }
+    if (width * height > outputPixels.length) {
+      outputPixels = new byte[width * height];
+    }
+    // The original kernel allocated a new, zeroed output for every image.
+    Arrays.fill(outputPixels, 0, width * height, (byte) 0);
+
+    ByteBuffer source = input.duplicate();
+    source.position(0);
+    source.get(inputPixels, 0, source.remaining());
+
+    for (int j = 1; j < height - 1; j++) {
+      for (int i = 1; i < width - 1; i++) {
+        // Offset of the pixel at [i, j] of the input image.
+        int offset = (j * stride) + i;
+
+        // Neighbour pixels around the pixel at [i, j].
+        int a00 = inputPixels[offset - stride - 1];
+        int a01 = inputPixels[offset - stride];
+        int a02 = inputPixels[offset - stride + 1];
+        int a10 = inputPixels[offset - 1];
+        int a12 = inputPixels[offset + 1];
+        int a20 = inputPixels[offset + stride - 1];
+        int a21 = inputPixels[offset + stride];
+        int a22 = inputPixels[offset + stride + 1];
+
+        int xSum = -a00 - (2 * a10) - a20 + a02 + (2 * a12) + a22;
+        int ySum = a00 + (2 * a01) + a02 - a20 - (2 * a21) - a22;
+
+        if ((xSum * xSum) + (ySum * ySum) > SOBEL_EDGE_THRESHOLD) {
+          outputPixels[(j * width) + i] = (byte) 0xFF;
+        } else {
+          outputPixels[(j * width) + i] = (byte) 0x1F;
+        }
+      }
+    }
+    return outputPixels;
+  }
+}
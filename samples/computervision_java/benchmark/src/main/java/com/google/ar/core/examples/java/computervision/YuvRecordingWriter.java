@@ -0,0 +1,118 @@
+/*
+ * Copyright 2019 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes recordings in the {@link YuvRecordingFormat} layout, like {@link YuvFrameRecorder} does on
+ * a device, so that {@link YuvFrameReader} can be tested and benchmarked without one. Chunk
+ * boundaries are chosen by the caller.
+ */
+final class YuvRecordingWriter implements Closeable {
+  private final FileOutputStream output;
+  private final List<ByteBuffer> chunkFrames = new ArrayList<>();
+
+  YuvRecordingWriter(File file) throws IOException {
+    output = new FileOutputStream(file);
+  }
+
+  /**
+   * Adds a frame to the current chunk. The intrinsics refer to the full image size.
+   *
+   * @param planes the Y, U and V planes, with the given row and pixel strides.
+   */
+  void addFrame(
+      long timestamp,
+      int width,
+      int height,
+      float[] focalLength,
+      float[] principalPoint,
+      int[] rowStrides,
+      int[] pixelStrides,
+      byte[][] planes) {
+    int frameSize = YuvRecordingFormat.FRAME_HEADER_SIZE;
+    for (byte[] plane : planes) {
+      frameSize += plane.length;
+    }
+    ByteBuffer frame = ByteBuffer.allocate(frameSize).order(YuvRecordingFormat.BYTE_ORDER);
+    frame
+        .putInt(frameSize)
+        .putLong(timestamp)
+        .putInt(width)
+        .putInt(height)
+        .putFloat(focalLength[0])
+        .putFloat(focalLength[1])
+        .putFloat(principalPoint[0])
+        .putFloat(principalPoint[1])
+        .putInt(width)
+        .putInt(height);
+    for (int i = 0; i < YuvRecordingFormat.PLANE_COUNT; i++) {
+      frame.putInt(rowStrides[i]).putInt(pixelStrides[i]).putInt(planes[i].length);
+    }
+    for (byte[] plane : planes) {
+      frame.put(plane);
+    }
+    frame.flip();
+    chunkFrames.add(frame);
+  }
+
+  /** Writes the current chunk, if it has frames. Following frames start a new chunk. */
+  void endChunk() throws IOException {
+    if (chunkFrames.isEmpty()) {
+      return;
+    }
+    int chunkSize = YuvRecordingFormat.CHUNK_HEADER_SIZE;
+    for (ByteBuffer frame : chunkFrames) {
+      chunkSize += frame.remaining();
+    }
+    ByteBuffer header =
+        ByteBuffer.allocate(YuvRecordingFormat.CHUNK_HEADER_SIZE)
+            .order(YuvRecordingFormat.BYTE_ORDER)
+            .putInt(YuvRecordingFormat.CHUNK_MAGIC)
+            .putInt(YuvRecordingFormat.VERSION)
+            .putInt(chunkSize)
+            .putInt(chunkFrames.size());
+    output.write(header.array());
+    for (ByteBuffer frame : chunkFrames) {
+      output.write(frame.array(), 0, frame.remaining());
+    }
+    chunkFrames.clear();
+  }
+
+  /**
+   * Ends the current chunk and appends zeros, like the unused end of the last mapped chunk of a
+   * recording whose app was killed before it was closed.
+   */
+  void writeUnusedTail(int size) throws IOException {
+    endChunk();
+    output.write(new byte[size]);
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      endChunk();
+    } finally {
+      output.close();
+    }
+  }
+}
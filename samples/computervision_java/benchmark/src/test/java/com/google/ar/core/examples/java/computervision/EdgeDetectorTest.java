@@ -0,0 +1,121 @@
+/*
+ * Copyright 2019 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.Test;
+
+/**
+ * Golden output tests of {@link EdgeDetector} against the original kernel in {@link
+ * ReferenceEdgeDetector}.
+ */
+public class EdgeDetectorTest {
+  // Width, height and stride of the tested images: odd sizes, padded rows, and sizes above and
+  // below the minimum band height of the parallel detector.
+  private static final int[][] SIZES = {
+    {3, 3, 3},
+    {17, 19, 32},
+    {64, 18, 64},
+    {101, 77, 128},
+    {320, 240, 320},
+    {641, 479, 704},
+  };
+
+  private final ReferenceEdgeDetector referenceDetector = new ReferenceEdgeDetector();
+
+  @Test
+  public void detect_matchesReference() {
+    EdgeDetector edgeDetector = new EdgeDetector();
+    for (int[] size : SIZES) {
+      assertMatchesReference(edgeDetector, size[0], size[1], size[2]);
+    }
+  }
+
+  @Test
+  public void detectParallel_matchesReference() {
+    EdgeDetector edgeDetector = new EdgeDetector(ForkJoinPool.commonPool());
+    for (int[] size : SIZES) {
+      assertMatchesReference(edgeDetector, size[0], size[1], size[2]);
+    }
+    // Row bands are reused for the next image of the same size, and rebuilt for other sizes.
+    for (int[] size : SIZES) {
+      assertMatchesReference(edgeDetector, size[0], size[1], size[2]);
+    }
+  }
+
+  @Test
+  public void detect_imagesWithoutInterior_clearOutput() {
+    EdgeDetector edgeDetector = new EdgeDetector(ForkJoinPool.commonPool());
+    int[][] sizes = {{1, 1}, {1, 5}, {5, 1}, {2, 2}, {2, 40}, {40, 2}};
+    for (int[] size : sizes) {
+      assertMatchesReference(edgeDetector, size[0], size[1], size[0]);
+    }
+  }
+
+  @Test
+  public void detect_keepsBufferPositions() {
+    EdgeDetector edgeDetector = new EdgeDetector();
+    ByteBuffer input = createImage(new Random(0), 32, 16, 40);
+    ByteBuffer output = ByteBuffer.allocateDirect(32 * 16);
+    input.position(3);
+    output.position(5);
+
+    edgeDetector.detect(32, 16, 40, input, output);
+
+    assertEquals(3, input.position());
+    assertEquals(5, output.position());
+  }
+
+  private void assertMatchesReference(
+      EdgeDetector edgeDetector, int width, int height, int stride) {
+    Random random = new Random(width * 31 + height);
+    ByteBuffer input = createImage(random, width, height, stride);
+
+    // Stale values from a previous image must not leak into the output.
+    ByteBuffer output = ByteBuffer.allocateDirect(width * height);
+    for (int i = 0; i < width * height; i++) {
+      output.put(i, (byte) random.nextInt());
+    }
+
+    edgeDetector.detect(width, height, stride, input, output);
+
+    byte[] expected =
+        Arrays.copyOf(referenceDetector.detect(width, height, stride, input), width * height);
+    byte[] actual = new byte[width * height];
+    output.get(actual);
+    assertArrayEquals(width + "x" + height + " stride " + stride, expected, actual);
+  }
+
+  /**
+   * Creates an image of smooth gradients with noise on top, covering all byte values so that the
+   * signed reads of the kernel are exercised. The last row is not padded to the full stride.
+   */
+  private static ByteBuffer createImage(Random random, int width, int height, int stride) {
+    ByteBuffer image = ByteBuffer.allocateDirect((stride * (height - 1)) + width);
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < stride && (y * stride) + x < image.capacity(); x++) {
+        int value = ((x * 255 / width) ^ (y * 255 / height)) + random.nextInt(64);
+        image.put((y * stride) + x, (byte) value);
+      }
+    }
+    return image;
+  }
+}
@@ -0,0 +1,347 @@
+/*
+ * Copyright 2019 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Golden output tests of the {@link ImageProcessors} stages, run through an {@link
+ * ImageProcessingPipeline}. Besides hand-computed images, the stages are compared with a line by
+ * line Java transcription of the fragment shaders of {@link ShaderStages}, which must produce the
+ * same bytes.
+ */
+public class ImageProcessorsTest {
+  // Width and height of the images compared with the shaders, including images with fewer than
+  // three rows or columns, where every pixel is on a border.
+  private static final int[][] SIZES = {{1, 1}, {1, 4}, {4, 1}, {2, 2}, {3, 3}, {17, 5}, {32, 19}};
+
+  /** A fragment shader, called with the input texture and the coordinates of gl_FragCoord. */
+  private interface Shader {
+    int main(Texture texture, int x, int y);
+  }
+
+  /** The input texture of a shader stage, holding unsigned byte values. */
+  private static class Texture {
+    final int width;
+    final int height;
+    final int[] pixels;
+
+    Texture(int width, int height, int[] pixels) {
+      this.width = width;
+      this.height = height;
+      this.pixels = pixels;
+    }
+
+    int texelFetch(int x, int y) {
+      if (x < 0 || y < 0 || x >= width || y >= height) {
+        throw new AssertionError("Fetched outside of the texture: " + x + ", " + y);
+      }
+      return pixels[(y * width) + x];
+    }
+
+    /** The pixel() function of the shaders, clamping neighbours to the nearest image pixel. */
+    int pixel(int x, int y, int dx, int dy) {
+      return texelFetch(clamp(x + dx, 0, width - 1), clamp(y + dy, 0, height - 1));
+    }
+  }
+
+  private static final Shader GAUSSIAN_BLUR_SHADER =
+      (t, x, y) -> {
+        int sum =
+            t.pixel(x, y, -1, -1) + 2 * t.pixel(x, y, 0, -1) + t.pixel(x, y, 1, -1)
+                + 2 * t.pixel(x, y, -1, 0) + 4 * t.pixel(x, y, 0, 0) + 2 * t.pixel(x, y, 1, 0)
+                + t.pixel(x, y, -1, 1) + 2 * t.pixel(x, y, 0, 1) + t.pixel(x, y, 1, 1);
+        return (sum + 8) >> 4;
+      };
+
+  private static final Shader GRADIENT_MAGNITUDE_SHADER =
+      (t, x, y) -> {
+        int xSum = sobelX(t.pixel(x, y, -1, -1), t.pixel(x, y, 1, -1), t.pixel(x, y, -1, 0),
+            t.pixel(x, y, 1, 0), t.pixel(x, y, -1, 1), t.pixel(x, y, 1, 1));
+        int ySum = sobelY(t.pixel(x, y, -1, -1), t.pixel(x, y, 0, -1), t.pixel(x, y, 1, -1),
+            t.pixel(x, y, -1, 1), t.pixel(x, y, 0, 1), t.pixel(x, y, 1, 1));
+        int sumOfSquares = (xSum * xSum) + (ySum * ySum);
+        int magnitude = (int) Math.sqrt((float) sumOfSquares);
+        if (magnitude * magnitude > sumOfSquares) {
+          magnitude--;
+        } else if ((magnitude + 1) * (magnitude + 1) <= sumOfSquares) {
+          magnitude++;
+        }
+        return Math.min(magnitude, 255);
+      };
+
+  private static final Shader SOBEL_SHADER =
+      (t, x, y) -> {
+        if (x == 0 || y == 0 || x == t.width - 1 || y == t.height - 1) {
+          return 0;
+        }
+        // Signed pixel values, without clamping.
+        int[] a = new int[9];
+        for (int k = 0; k < 9; k++) {
+          a[k] = (byte) t.texelFetch(x + (k % 3) - 1, y + (k / 3) - 1);
+        }
+        int xSum = sobelX(a[0], a[2], a[3], a[5], a[6], a[8]);
+        int ySum = sobelY(a[0], a[1], a[2], a[6], a[7], a[8]);
+        int sumOfSquares = (xSum * xSum) + (ySum * ySum);
+        return sumOfSquares > 128 * 128 ? 255 : 31;
+      };
+
+  private static final Shader DILATE_SHADER =
+      (t, x, y) -> {
+        int result = t.pixel(x, y, 0, 0);
+        for (int dy = -1; dy <= 1; dy++) {
+          for (int dx = -1; dx <= 1; dx++) {
+            result = Math.max(result, t.pixel(x, y, dx, dy));
+          }
+        }
+        return result;
+      };
+
+  private static final Shader ERODE_SHADER =
+      (t, x, y) -> {
+        int result = t.pixel(x, y, 0, 0);
+        for (int dy = -1; dy <= 1; dy++) {
+          for (int dx = -1; dx <= 1; dx++) {
+            result = Math.min(result, t.pixel(x, y, dx, dy));
+          }
+        }
+        return result;
+      };
+
+  private static Shader thresholdShader(int level) {
+    return (t, x, y) -> t.pixel(x, y, 0, 0) > level ? 255 : 0;
+  }
+
+  @Test
+  public void gaussianBlur_clampsAtBorders() {
+    // The corner pixel is repeated into the clamped neighbours, with a total weight of 9 / 16 at
+    // the corner, 3 / 16 next to it and 1 / 16 diagonally. Padding with zeros would give 4 / 16.
+    int[] image = {
+      160, 0, 0, 0,
+      0, 0, 0, 0,
+      0, 0, 0, 0
+    };
+    int[] expected = {
+      90, 30, 0, 0,
+      30, 10, 0, 0,
+      0, 0, 0, 0
+    };
+    assertArrayEquals(bytes(expected), process(ImageProcessors.gaussianBlur(), 4, 3, image));
+  }
+
+  @Test
+  public void gaussianBlur_roundsHalfUp() {
+    // In a single row of two pixels, each pixel weighs 12 / 16 and its neighbour 4 / 16. The sums
+    // of 4 and 12 give 0.25 and 0.75, the sums of 8 and 24 give 0.5 and 1.5.
+    assertArrayEquals(bytes(0, 1), process(ImageProcessors.gaussianBlur(), 2, 1, new int[] {0, 1}));
+    assertArrayEquals(bytes(1, 2), process(ImageProcessors.gaussianBlur(), 2, 1, new int[] {0, 2}));
+  }
+
+  @Test
+  public void gradientMagnitude_verticalStep() {
+    // The columns next to the step see it with a Sobel X sum of 4 * 10. The clamped top and
+    // bottom rows repeat the same row, so there is no vertical gradient.
+    int[] image = {
+      0, 0, 10, 10,
+      0, 0, 10, 10,
+      0, 0, 10, 10
+    };
+    int[] expected = {
+      0, 40, 40, 0,
+      0, 40, 40, 0,
+      0, 40, 40, 0
+    };
+    assertArrayEquals(bytes(expected), process(ImageProcessors.gradientMagnitude(), 4, 3, image));
+  }
+
+  @Test
+  public void gradientMagnitude_roundsDownAndClamps() {
+    // Every pixel of the ramp has clamped Sobel sums of 40 and -40: sqrt(3200) = 56.57.
+    int[] ramp = {
+      0, 10,
+      10, 20
+    };
+    assertArrayEquals(
+        bytes(56, 56, 56, 56), process(ImageProcessors.gradientMagnitude(), 2, 2, ramp));
+
+    // A step of 100 has a Sobel X sum of 400, clamped to 255.
+    int[] step = {0, 0, 100, 100};
+    assertArrayEquals(
+        bytes(0, 255, 255, 0), process(ImageProcessors.gradientMagnitude(), 4, 1, step));
+  }
+
+  @Test
+  public void gradientMagnitude_readsUnsignedValues() {
+    // 127 to 128 is a step of 1 in unsigned values, not of 255 as with signed bytes.
+    int[] image = {127, 127, 128, 128};
+    assertArrayEquals(
+        bytes(0, 4, 4, 0), process(ImageProcessors.gradientMagnitude(), 4, 1, image));
+  }
+
+  @Test
+  public void threshold_keepsPixelsAboveLevel() {
+    int[] image = {0, 99, 100, 101, 255};
+    assertArrayEquals(
+        bytes(0, 0, 0, 255, 255), process(ImageProcessors.threshold(100), 5, 1, image));
+    assertArrayEquals(
+        bytes(0, 255, 255, 255, 255), process(ImageProcessors.threshold(0), 5, 1, image));
+    assertArrayEquals(bytes(0, 0, 0, 0, 0), process(ImageProcessors.threshold(255), 5, 1, image));
+  }
+
+  @Test
+  public void dilate_spreadsMaximumAndClampsAtBorders() {
+    int[] image = {
+      160, 0, 0, 0,
+      0, 0, 0, 0,
+      0, 0, 0, 200
+    };
+    int[] expected = {
+      160, 160, 0, 0,
+      160, 160, 200, 200,
+      0, 0, 200, 200
+    };
+    assertArrayEquals(bytes(expected), process(ImageProcessors.dilate(), 4, 3, image));
+  }
+
+  @Test
+  public void erode_spreadsMinimumAndClampsAtBorders() {
+    // Padding with zeros instead of clamping would clear all border pixels.
+    int[] image = {
+      50, 100, 100, 100,
+      100, 100, 100, 100,
+      100, 100, 100, 20
+    };
+    int[] expected = {
+      50, 50, 100, 100,
+      50, 50, 20, 20,
+      100, 100, 20, 20
+    };
+    assertArrayEquals(bytes(expected), process(ImageProcessors.erode(), 4, 3, image));
+  }
+
+  @Test
+  public void stages_matchShaders() {
+    Random random = new Random(0);
+    for (int[] size : SIZES) {
+      int[] image = createImage(random, size[0], size[1]);
+      assertMatchesShader(ImageProcessors.gaussianBlur(), GAUSSIAN_BLUR_SHADER, size, image);
+      assertMatchesShader(
+          ImageProcessors.gradientMagnitude(), GRADIENT_MAGNITUDE_SHADER, size, image);
+      assertMatchesShader(ImageProcessors.sobel(), SOBEL_SHADER, size, image);
+      assertMatchesShader(ImageProcessors.threshold(90), thresholdShader(90), size, image);
+      assertMatchesShader(ImageProcessors.dilate(), DILATE_SHADER, size, image);
+      assertMatchesShader(ImageProcessors.erode(), ERODE_SHADER, size, image);
+    }
+  }
+
+  @Test
+  public void pipeline_matchesShaderPasses() {
+    // Neighbourhood stages stream rows into each other, and the threshold is fused after the
+    // gradient, while the shaders render one full pass per stage.
+    ImageProcessingPipeline pipeline =
+        new ImageProcessingPipeline.Builder()
+            .add(ImageProcessors.gaussianBlur())
+            .add(ImageProcessors.gradientMagnitude())
+            .add(ImageProcessors.threshold(12))
+            .add(ImageProcessors.dilate())
+            .add(ImageProcessors.erode())
+            .build();
+    Shader[] passes = {
+      GAUSSIAN_BLUR_SHADER, GRADIENT_MAGNITUDE_SHADER, thresholdShader(12), DILATE_SHADER,
+      ERODE_SHADER
+    };
+
+    Random random = new Random(1);
+    for (int[] size : SIZES) {
+      int width = size[0];
+      int height = size[1];
+      int[] expected = createImage(random, width, height);
+      ByteBuffer input = ByteBuffer.wrap(bytes(expected));
+      for (Shader pass : passes) {
+        expected = render(pass, width, height, expected);
+      }
+
+      ByteBuffer output = ByteBuffer.allocate(width * height);
+      pipeline.process(width, height, width, input, output);
+      assertArrayEquals(width + "x" + height, bytes(expected), output.array());
+    }
+  }
+
+  private static void assertMatchesShader(
+      ImageProcessor stage, Shader shader, int[] size, int[] image) {
+    int width = size[0];
+    int height = size[1];
+    assertArrayEquals(
+        stage.getClass().getSimpleName() + " " + width + "x" + height,
+        bytes(render(shader, width, height, image)),
+        process(stage, width, height, image));
+  }
+
+  /** Runs a single stage through a pipeline. */
+  private static byte[] process(ImageProcessor stage, int width, int height, int[] image) {
+    ImageProcessingPipeline pipeline = new ImageProcessingPipeline.Builder().add(stage).build();
+    ByteBuffer output = ByteBuffer.allocate(width * height);
+    pipeline.process(width, height, width, ByteBuffer.wrap(bytes(image)), output);
+    return output.array();
+  }
+
+  /** Renders a full-screen pass of a shader, one fragment per pixel. */
+  private static int[] render(Shader shader, int width, int height, int[] image) {
+    Texture texture = new Texture(width, height, image);
+    int[] result = new int[width * height];
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        result[(y * width) + x] = shader.main(texture, x, y);
+      }
+    }
+    return result;
+  }
+
+  /** Creates an image of smooth gradients with noise on top, crossing the signed byte range. */
+  private static int[] createImage(Random random, int width, int height) {
+    int[] image = new int[width * height];
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        int value = (x * 255 / width) + (y * 64 / height) + random.nextInt(48);
+        image[(y * width) + x] = Math.min(255, value);
+      }
+    }
+    return image;
+  }
+
+  private static int sobelX(int a00, int a02, int a10, int a12, int a20, int a22) {
+    return -a00 - (2 * a10) - a20 + a02 + (2 * a12) + a22;
+  }
+
+  private static int sobelY(int a00, int a01, int a02, int a20, int a21, int a22) {
+    return a00 + (2 * a01) + a02 - a20 - (2 * a21) - a22;
+  }
+
+  private static int clamp(int value, int min, int max) {
+    return Math.max(min, Math.min(max, value));
+  }
+
+  private static byte[] bytes(int... values) {
+    byte[] result = new byte[values.length];
+    for (int i = 0; i < values.length; i++) {
+      result[i] = (byte) values[i];
+    }
+    return result;
+  }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2019 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import org.junit.Test;
+
+/** Tests {@link Nv12Converter} against full range BT.601 values computed by hand. */
+public class Nv12ConverterTest {
+  private static final int RED = 0xFF0000;
+  private static final int GREEN = 0x00FF00;
+  private static final int BLUE = 0x0000FF;
+  private static final int AZURE = 0x6496C8;
+
+  @Test
+  public void getNv12Size_evenSize_isOneAndAHalfBytesPerPixel() {
+    assertEquals(6, Nv12Converter.getNv12Size(2, 2));
+    assertEquals(640 * 480 * 3 / 2, Nv12Converter.getNv12Size(640, 480));
+    assertEquals(0, Nv12Converter.getNv12Size(0, 0));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void getNv12Size_oddWidth_throws() {
+    Nv12Converter.getNv12Size(3, 2);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void getNv12Size_oddHeight_throws() {
+    Nv12Converter.getNv12Size(2, 3);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void getNv12Size_oddWidthAndHeight_throws() {
+    // 1 * 1 * 3 / 2 would silently round down to a single byte without chroma.
+    Nv12Converter.getNv12Size(1, 1);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rgbaToNv12_oddSize_throws() {
+    Nv12Converter.rgbaToNv12(3, 3, ByteBuffer.allocate(3 * 3 * 4), ByteBuffer.allocate(64));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rgbaToNv12_outputTooSmall_throws() {
+    Nv12Converter.rgbaToNv12(2, 2, ByteBuffer.allocate(2 * 2 * 4), ByteBuffer.allocate(5));
+  }
+
+  @Test
+  public void rgbaToNv12_uniformBlocks_matchesBt601() {
+    // Y = 0.299 R + 0.587 G + 0.114 B
+    // U = -0.168736 R - 0.331264 G + 0.5 B + 127.5
+    // V = 0.5 R - 0.418688 G - 0.081312 B + 127.5
+    // Red: Y = 76.245, U = 84.472, V = 255.
+    // Green: Y = 149.685, U = 43.028, V = 20.735.
+    // Blue: Y = 29.07, U = 255, V = 106.765.
+    // Azure (100, 150, 200): Y = 140.75, U = 160.937, V = 98.434.
+    int[] colors = {
+      RED, RED, GREEN, GREEN,
+      RED, RED, GREEN, GREEN,
+      BLUE, BLUE, AZURE, AZURE,
+      BLUE, BLUE, AZURE, AZURE
+    };
+
+    byte[] nv12 = convert(4, 4, colors);
+
+    assertArrayEquals(
+        bytes(
+            // Luma rows.
+            76, 76, 150, 150,
+            76, 76, 150, 150,
+            29, 29, 141, 141,
+            29, 29, 141, 141,
+            // Interleaved chroma rows.
+            84, 255, 43, 21,
+            255, 107, 161, 98),
+        nv12);
+  }
+
+  @Test
+  public void rgbaToNv12_mixedBlock_averagesChromaOverBlock() {
+    // The left block is red on top of blue, averaging to (127.5, 0, 127.5):
+    // U = -21.514 + 63.75 + 127.5 = 169.736, V = 63.75 - 10.367 + 127.5 = 180.883.
+    // The right block has a red, a green, a blue and an azure pixel, averaging to
+    // (88.75, 101.25, 113.75): U = -14.975 - 33.541 + 56.875 + 127.5 = 135.859,
+    // V = 44.375 - 42.392 - 9.249 + 127.5 = 120.234.
+    int[] colors = {
+      RED, RED, RED, GREEN,
+      BLUE, BLUE, BLUE, AZURE
+    };
+
+    byte[] nv12 = convert(4, 2, colors);
+
+    assertArrayEquals(
+        bytes(
+            76, 76, 76, 150,
+            29, 29, 29, 141,
+            170, 181, 136, 120),
+        nv12);
+  }
+
+  @Test
+  public void rgbaToNv12_ignoresAlpha() {
+    ByteBuffer rgba = ByteBuffer.allocate(2 * 2 * 4);
+    for (int i = 0; i < 4; i++) {
+      rgba.put((byte) 0x64).put((byte) 0x96).put((byte) 0xC8).put((byte) (i * 0x55));
+    }
+    ByteBuffer nv12 = ByteBuffer.allocate(Nv12Converter.getNv12Size(2, 2));
+
+    Nv12Converter.rgbaToNv12(2, 2, rgba, nv12);
+
+    assertArrayEquals(bytes(141, 141, 141, 141, 161, 98), nv12.array());
+  }
+
+  /** Converts an image given as 0xRRGGBB colors, with an opaque alpha channel. */
+  private static byte[] convert(int width, int height, int[] colors) {
+    ByteBuffer rgba = ByteBuffer.allocate(width * height * 4);
+    for (int color : colors) {
+      rgba.put((byte) (color >> 16)).put((byte) (color >> 8)).put((byte) color).put((byte) 0xFF);
+    }
+    ByteBuffer nv12 = ByteBuffer.allocate(Nv12Converter.getNv12Size(width, height));
+    Nv12Converter.rgbaToNv12(width, height, rgba, nv12);
+    return nv12.array();
+  }
+
+  private static byte[] bytes(int... values) {
+    byte[] result = new byte[values.length];
+    for (int i = 0; i < values.length; i++) {
+      result[i] = (byte) values[i];
+    }
+    return result;
+  }
+}
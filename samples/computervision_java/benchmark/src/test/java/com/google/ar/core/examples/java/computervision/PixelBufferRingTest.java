@@ -0,0 +1,168 @@
+/*
+ * Copyright 2019 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.Test;
+
+/** Tests {@link PixelBufferRing} against a fake OpenGL whose fences are signaled by the test. */
+public class PixelBufferRingTest {
+  private static final int[] BUFFERS = {11, 12, 13};
+  private static final int BUFFER_SIZE = 64;
+
+  /** Records the calls of the ring. Fences only signal when the test says so. */
+  private static class FakeGl implements PixelBufferRing.Gl {
+    private long nextSync = 1;
+    final Set<Long> liveSyncs = new HashSet<>();
+    final Set<Long> signaledSyncs = new HashSet<>();
+    final List<Integer> mappedBuffers = new ArrayList<>();
+    final List<Integer> unmappedBuffers = new ArrayList<>();
+    int lastMappedSize;
+
+    @Override
+    public long fenceSync() {
+      long sync = nextSync++;
+      liveSyncs.add(sync);
+      return sync;
+    }
+
+    @Override
+    public boolean isSignaled(long sync) {
+      assertTrue("Fence " + sync + " was deleted.", liveSyncs.contains(sync));
+      return signaledSyncs.contains(sync);
+    }
+
+    @Override
+    public void deleteSync(long sync) {
+      assertTrue("Fence " + sync + " was deleted twice.", liveSyncs.remove(sync));
+    }
+
+    @Override
+    public ByteBuffer mapBuffer(int buffer, int size) {
+      mappedBuffers.add(buffer);
+      lastMappedSize = size;
+      return ByteBuffer.allocate(size);
+    }
+
+    @Override
+    public void unmapBuffer(int buffer) {
+      unmappedBuffers.add(buffer);
+    }
+
+    /** Signals all fences inserted so far, as if the GPU caught up. */
+    void signalAll() {
+      signaledSyncs.addAll(liveSyncs);
+    }
+  }
+
+  private final FakeGl gl = new FakeGl();
+  private final PixelBufferRing ring = new PixelBufferRing(gl, BUFFERS, BUFFER_SIZE);
+
+  @Test
+  public void buffer_goesFromFreeToPendingToReadyToMapped() {
+    int index = ring.findFreeBuffer();
+    assertFalse(ring.isInUse(index));
+
+    ring.submit(index, 48);
+    assertTrue(ring.isInUse(index));
+    assertEquals(1, gl.liveSyncs.size());
+
+    // Pending until the fence signals.
+    assertEquals(-1, ring.pollReadyBuffer());
+
+    gl.signalAll();
+    assertEquals(index, ring.pollReadyBuffer());
+    assertTrue("The fence of a ready buffer is deleted.", gl.liveSyncs.isEmpty());
+
+    ByteBuffer pixels = ring.map(index);
+    assertEquals(48, pixels.capacity());
+    assertEquals(BUFFERS[index], (int) gl.mappedBuffers.get(0));
+    assertEquals(48, gl.lastMappedSize);
+
+    // A mapped buffer belongs to the caller, and is not returned again.
+    assertEquals(-1, ring.pollReadyBuffer());
+    assertTrue(ring.isInUse(index));
+
+    ring.release(index);
+    assertFalse(ring.isInUse(index));
+    assertEquals(BUFFERS[index], (int) gl.unmappedBuffers.get(0));
+  }
+
+  @Test
+  public void pollReadyBuffer_returnsLatestCompletedAndFreesOlderOnes() {
+    ring.submit(0, BUFFER_SIZE);
+    ring.submit(1, BUFFER_SIZE);
+    gl.signalAll();
+    ring.submit(2, BUFFER_SIZE);
+
+    assertEquals(1, ring.pollReadyBuffer());
+
+    // The older completed read is stale and was released, the newer one is still pending.
+    assertFalse(ring.isInUse(0));
+    assertTrue(ring.isInUse(1));
+    assertTrue(ring.isInUse(2));
+    assertEquals(0, ring.findFreeBuffer());
+    assertEquals(1, gl.liveSyncs.size());
+  }
+
+  @Test
+  public void pollReadyBuffer_withUnsignaledFences_doesNotWaitOrMap() {
+    for (int i = 0; i < BUFFERS.length; i++) {
+      ring.submit(ring.findFreeBuffer(), BUFFER_SIZE);
+    }
+    assertEquals(-1, ring.findFreeBuffer());
+
+    for (int frame = 0; frame < 10; frame++) {
+      assertEquals(-1, ring.pollReadyBuffer());
+    }
+    assertTrue(gl.mappedBuffers.isEmpty());
+    assertEquals(BUFFERS.length, gl.liveSyncs.size());
+    for (int i = 0; i < BUFFERS.length; i++) {
+      assertTrue(ring.isInUse(i));
+    }
+  }
+
+  @Test
+  public void releaseAll_deletesPendingFencesAndUnmapsMappedBuffers() {
+    ring.submit(0, BUFFER_SIZE);
+    gl.signalAll();
+    assertEquals(0, ring.pollReadyBuffer());
+    ring.map(0);
+    ring.submit(1, BUFFER_SIZE);
+
+    ring.releaseAll();
+
+    assertTrue(gl.liveSyncs.isEmpty());
+    assertEquals(BUFFERS[0], (int) gl.unmappedBuffers.get(0));
+    assertEquals(1, gl.unmappedBuffers.size());
+    for (int i = 0; i < BUFFERS.length; i++) {
+      assertFalse(ring.isInUse(i));
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void submit_bufferInUse_throws() {
+    ring.submit(0, BUFFER_SIZE);
+    ring.submit(0, BUFFER_SIZE);
+  }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2019 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+/** Round-trip tests of {@link YuvFrameReader} on recordings in the {@link YuvRecordingFormat}. */
+public class YuvFrameReaderTest {
+  /** A frame as written to a recording. */
+  private static class Frame {
+    long timestamp;
+    int width;
+    int height;
+    float[] focalLength;
+    float[] principalPoint;
+    int[] rowStrides;
+    int[] pixelStrides;
+    byte[][] planes;
+  }
+
+  private final Random random = new Random(0);
+
+  @Test
+  public void read_severalChunks_returnsAllFramesInOrder() throws IOException {
+    File file = createTempFile();
+    List<Frame> frames = new ArrayList<>();
+    try (YuvRecordingWriter writer = new YuvRecordingWriter(file)) {
+      int[] chunkFrameCounts = {2, 3, 1};
+      for (int chunkFrameCount : chunkFrameCounts) {
+        for (int i = 0; i < chunkFrameCount; i++) {
+          frames.add(addFrame(writer, 32 + (frames.size() * 2), 24, 64));
+        }
+        writer.endChunk();
+      }
+    }
+
+    assertFramesEqual(frames, new YuvFrameReader(file));
+  }
+
+  @Test
+  public void read_frameInChunkOfItsOwn() throws IOException {
+    // The recorder starts a chunk of the size of a frame that does not fit into a regular chunk.
+    File file = createTempFile();
+    List<Frame> frames = new ArrayList<>();
+    try (YuvRecordingWriter writer = new YuvRecordingWriter(file)) {
+      frames.add(addFrame(writer, 16, 8, 16));
+      frames.add(addFrame(writer, 16, 8, 16));
+      writer.endChunk();
+      frames.add(addFrame(writer, 640, 480, 768));
+      writer.endChunk();
+      frames.add(addFrame(writer, 16, 8, 16));
+    }
+
+    assertFramesEqual(frames, new YuvFrameReader(file));
+  }
+
+  @Test
+  public void read_unusedTailOfKilledRecording_isIgnored() throws IOException {
+    File file = createTempFile();
+    List<Frame> frames = new ArrayList<>();
+    try (YuvRecordingWriter writer = new YuvRecordingWriter(file)) {
+      frames.add(addFrame(writer, 20, 10, 32));
+      writer.endChunk();
+      frames.add(addFrame(writer, 20, 10, 32));
+      frames.add(addFrame(writer, 20, 10, 32));
+      writer.writeUnusedTail(64 * 1024);
+    }
+
+    assertFramesEqual(frames, new YuvFrameReader(file));
+  }
+
+  @Test
+  public void read_emptyRecording_hasNoFrames() throws IOException {
+    assertEquals(0, new YuvFrameReader(createTempFile()).getFrameCount());
+  }
+
+  @Test(expected = IOException.class)
+  public void read_invalidMagic_throws() throws IOException {
+    File file = createTempFile();
+    try (YuvRecordingWriter writer = new YuvRecordingWriter(file)) {
+      addFrame(writer, 8, 8, 8);
+    }
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+      randomAccessFile.write(new byte[] {'N', 'O', 'P', 'E'});
+    }
+    new YuvFrameReader(file);
+  }
+
+  @Test(expected = IOException.class)
+  public void read_truncatedChunk_throws() throws IOException {
+    File file = createTempFile();
+    try (YuvRecordingWriter writer = new YuvRecordingWriter(file)) {
+      addFrame(writer, 8, 8, 8);
+    }
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+      randomAccessFile.setLength(randomAccessFile.length() - 1);
+    }
+    new YuvFrameReader(file);
+  }
+
+  /**
+   * Adds a frame with a Y plane and interleaved U and V planes, laid out like the planes of a
+   * YUV_420_888 camera image. The last rows of the planes are not padded.
+   */
+  private Frame addFrame(YuvRecordingWriter writer, int width, int height, int rowStride) {
+    Frame frame = new Frame();
+    frame.timestamp = random.nextLong();
+    frame.width = width;
+    frame.height = height;
+    frame.focalLength = new float[] {random.nextFloat() * 1000, random.nextFloat() * 1000};
+    frame.principalPoint = new float[] {width / 2f, height / 2f};
+    frame.rowStrides = new int[] {rowStride, rowStride, rowStride};
+    frame.pixelStrides = new int[] {1, 2, 2};
+    int chromaSize = (rowStride * (height / 2 - 1)) + width - 1;
+    frame.planes =
+        new byte[][] {
+          new byte[(rowStride * (height - 1)) + width], new byte[chromaSize], new byte[chromaSize]
+        };
+    for (byte[] plane : frame.planes) {
+      random.nextBytes(plane);
+    }
+    writer.addFrame(
+        frame.timestamp,
+        width,
+        height,
+        frame.focalLength,
+        frame.principalPoint,
+        frame.rowStrides,
+        frame.pixelStrides,
+        frame.planes);
+    return frame;
+  }
+
+  private static void assertFramesEqual(List<Frame> expected, YuvFrameReader reader) {
+    assertEquals(expected.size(), reader.getFrameCount());
+    for (int i = 0; i < expected.size(); i++) {
+      Frame frame = expected.get(i);
+      YuvFrameReader.RecordedFrame recorded = reader.getFrame(i);
+      assertEquals(frame.timestamp, recorded.getTimestamp());
+      assertEquals(frame.width, recorded.getWidth());
+      assertEquals(frame.height, recorded.getHeight());
+      assertEquals(frame.focalLength[0], recorded.getFocalLengthX(), 0);
+      assertEquals(frame.focalLength[1], recorded.getFocalLengthY(), 0);
+      assertEquals(frame.principalPoint[0], recorded.getPrincipalPointX(), 0);
+      assertEquals(frame.principalPoint[1], recorded.getPrincipalPointY(), 0);
+      assertEquals(frame.width, recorded.getIntrinsicsWidth());
+      assertEquals(frame.height, recorded.getIntrinsicsHeight());
+      for (int plane = 0; plane < YuvRecordingFormat.PLANE_COUNT; plane++) {
+        assertEquals(frame.rowStrides[plane], recorded.getRowStride(plane));
+        assertEquals(frame.pixelStrides[plane], recorded.getPixelStride(plane));
+        ByteBuffer buffer = recorded.getPlane(plane);
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        assertArrayEquals("Frame " + i + " plane " + plane, frame.planes[plane], bytes);
+      }
+    }
+  }
+
+  private static File createTempFile() throws IOException {
+    File file = File.createTempFile("recording", ".yuv");
+    file.deleteOnExit();
+    return file;
+  }
+}
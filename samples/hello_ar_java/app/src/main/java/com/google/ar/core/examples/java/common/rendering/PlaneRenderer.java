@@ -25,6 +25,7 @@ import com.google.ar.core.Camera;
 import com.google.ar.core.Plane;
 import com.google.ar.core.Pose;
 import com.google.ar.core.TrackingState;
+import com.google.ar.core.examples.java.common.helpers.FrameTracer;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
@@ -295,113 +296,118 @@ public class PlaneRenderer {
    *     Camera#getProjectionMatrix(float[], int, float, float)}
    */
   public void drawPlanes(Collection<Plane> allPlanes, Pose cameraPose, float[] cameraPerspective) {
-    // Planes must be sorted by distance from camera so that we draw closer planes first, and
-    // they occlude the farther planes.
-    List<SortablePlane> sortedPlanes = new ArrayList<>();
-
-    for (Plane plane : allPlanes) {
-      if (plane.getTrackingState() != TrackingState.TRACKING || plane.getSubsumedBy() != null) {
-        continue;
+    FrameTracer.beginSection("PlaneRenderer.drawPlanes");
+    try {
+      // Planes must be sorted by distance from camera so that we draw closer planes first, and
+      // they occlude the farther planes.
+      List<SortablePlane> sortedPlanes = new ArrayList<>();
+
+      for (Plane plane : allPlanes) {
+        if (plane.getTrackingState() != TrackingState.TRACKING || plane.getSubsumedBy() != null) {
+          continue;
+        }
+
+        float distance = calculateDistanceToPlane(plane.getCenterPose(), cameraPose);
+        if (distance < 0) { // Plane is back-facing.
+          continue;
+        }
+        sortedPlanes.add(new SortablePlane(distance, plane));
       }
-
-      float distance = calculateDistanceToPlane(plane.getCenterPose(), cameraPose);
-      if (distance < 0) { // Plane is back-facing.
-        continue;
+      Collections.sort(
+          sortedPlanes,
+          new Comparator<SortablePlane>() {
+            @Override
+            public int compare(SortablePlane a, SortablePlane b) {
+              return Float.compare(a.distance, b.distance);
+            }
+          });
+
+      float[] cameraView = new float[16];
+      cameraPose.inverse().toMatrix(cameraView, 0);
+
+      // Planes are drawn with additive blending, masked by the alpha channel for occlusion.
+
+      // Start by clearing the alpha channel of the color buffer to 1.0.
+      GLES20.glClearColor(1, 1, 1, 1);
+      GLES20.glColorMask(false, false, false, true);
+      GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+      GLES20.glColorMask(true, true, true, true);
+
+      // Disable depth write.
+      GLES20.glDepthMask(false);
+
+      // Additive blending, masked by alpha channel, clearing alpha channel.
+      GLES20.glEnable(GLES20.GL_BLEND);
+      GLES20.glBlendFuncSeparate(
+          GLES20.GL_DST_ALPHA, GLES20.GL_ONE, // RGB (src, dest)
+          GLES20.GL_ZERO, GLES20.GL_ONE_MINUS_SRC_ALPHA); // ALPHA (src, dest)
+
+      // Set up the shader.
+      GLES20.glUseProgram(planeProgram);
+
+      // Attach the texture.
+      GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+      GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textures[0]);
+      GLES20.glUniform1i(textureUniform, 0);
+
+      // Shared fragment uniforms.
+      GLES20.glUniform4fv(gridControlUniform, 1, GRID_CONTROL, 0);
+
+      // Enable vertex arrays
+      GLES20.glEnableVertexAttribArray(planeXZPositionAlphaAttribute);
+
+      ShaderUtil.checkGLError(TAG, "Setting up to draw planes");
+
+      for (SortablePlane sortedPlane : sortedPlanes) {
+        Plane plane = sortedPlane.plane;
+        float[] planeMatrix = new float[16];
+        plane.getCenterPose().toMatrix(planeMatrix, 0);
+
+        float[] normal = new float[3];
+        // Get transformed Y axis of plane's coordinate system.
+        plane.getCenterPose().getTransformedAxis(1, 1.0f, normal, 0);
+
+        updatePlaneParameters(
+            planeMatrix, plane.getExtentX(), plane.getExtentZ(), plane.getPolygon());
+
+        // Get plane index. Keep a map to assign same indices to same planes.
+        Integer planeIndex = planeIndexMap.get(plane);
+        if (planeIndex == null) {
+          planeIndex = planeIndexMap.size();
+          planeIndexMap.put(plane, planeIndex);
+        }
+
+        // Set plane color. Computed deterministically from the Plane index.
+        int colorIndex = planeIndex % PLANE_COLORS_RGBA.length;
+        colorRgbaToFloat(planeColor, PLANE_COLORS_RGBA[colorIndex]);
+        GLES20.glUniform4fv(lineColorUniform, 1, planeColor, 0);
+        GLES20.glUniform4fv(dotColorUniform, 1, planeColor, 0);
+
+        // Each plane will have its own angle offset from others, to make them easier to
+        // distinguish. Compute a 2x2 rotation matrix from the angle.
+        float angleRadians = planeIndex * 0.144f;
+        float uScale = DOTS_PER_METER;
+        float vScale = DOTS_PER_METER * EQUILATERAL_TRIANGLE_SCALE;
+        planeAngleUvMatrix[0] = +(float) Math.cos(angleRadians) * uScale;
+        planeAngleUvMatrix[1] = -(float) Math.sin(angleRadians) * vScale;
+        planeAngleUvMatrix[2] = +(float) Math.sin(angleRadians) * uScale;
+        planeAngleUvMatrix[3] = +(float) Math.cos(angleRadians) * vScale;
+        GLES20.glUniformMatrix2fv(planeUvMatrixUniform, 1, false, planeAngleUvMatrix, 0);
+
+        draw(cameraView, cameraPerspective, normal);
       }
-      sortedPlanes.add(new SortablePlane(distance, plane));
-    }
-    Collections.sort(
-        sortedPlanes,
-        new Comparator<SortablePlane>() {
-          @Override
-          public int compare(SortablePlane a, SortablePlane b) {
-            return Float.compare(a.distance, b.distance);
-          }
-        });
-
-    float[] cameraView = new float[16];
-    cameraPose.inverse().toMatrix(cameraView, 0);
-
-    // Planes are drawn with additive blending, masked by the alpha channel for occlusion.
-
-    // Start by clearing the alpha channel of the color buffer to 1.0.
-    GLES20.glClearColor(1, 1, 1, 1);
-    GLES20.glColorMask(false, false, false, true);
-    GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
-    GLES20.glColorMask(true, true, true, true);
-
-    // Disable depth write.
-    GLES20.glDepthMask(false);
-
-    // Additive blending, masked by alpha channel, clearing alpha channel.
-    GLES20.glEnable(GLES20.GL_BLEND);
-    GLES20.glBlendFuncSeparate(
-        GLES20.GL_DST_ALPHA, GLES20.GL_ONE, // RGB (src, dest)
-        GLES20.GL_ZERO, GLES20.GL_ONE_MINUS_SRC_ALPHA); // ALPHA (src, dest)
-
-    // Set up the shader.
-    GLES20.glUseProgram(planeProgram);
-
-    // Attach the texture.
-    GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-    GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textures[0]);
-    GLES20.glUniform1i(textureUniform, 0);
-
-    // Shared fragment uniforms.
-    GLES20.glUniform4fv(gridControlUniform, 1, GRID_CONTROL, 0);
-
-    // Enable vertex arrays
-    GLES20.glEnableVertexAttribArray(planeXZPositionAlphaAttribute);
 
-    ShaderUtil.checkGLError(TAG, "Setting up to draw planes");
+      // Clean up the state we set
+      GLES20.glDisableVertexAttribArray(planeXZPositionAlphaAttribute);
+      GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+      GLES20.glDisable(GLES20.GL_BLEND);
+      GLES20.glDepthMask(true);
+      GLES20.glClearColor(0.1f, 0.1f, 0.1f, 1.0f);
 
-    for (SortablePlane sortedPlane : sortedPlanes) {
-      Plane plane = sortedPlane.plane;
-      float[] planeMatrix = new float[16];
-      plane.getCenterPose().toMatrix(planeMatrix, 0);
-
-      float[] normal = new float[3];
-      // Get transformed Y axis of plane's coordinate system.
-      plane.getCenterPose().getTransformedAxis(1, 1.0f, normal, 0);
-
-      updatePlaneParameters(
-          planeMatrix, plane.getExtentX(), plane.getExtentZ(), plane.getPolygon());
-
-      // Get plane index. Keep a map to assign same indices to same planes.
-      Integer planeIndex = planeIndexMap.get(plane);
-      if (planeIndex == null) {
-        planeIndex = planeIndexMap.size();
-        planeIndexMap.put(plane, planeIndex);
-      }
-
-      // Set plane color. Computed deterministically from the Plane index.
-      int colorIndex = planeIndex % PLANE_COLORS_RGBA.length;
-      colorRgbaToFloat(planeColor, PLANE_COLORS_RGBA[colorIndex]);
-      GLES20.glUniform4fv(lineColorUniform, 1, planeColor, 0);
-      GLES20.glUniform4fv(dotColorUniform, 1, planeColor, 0);
-
-      // Each plane will have its own angle offset from others, to make them easier to
-      // distinguish. Compute a 2x2 rotation matrix from the angle.
-      float angleRadians = planeIndex * 0.144f;
-      float uScale = DOTS_PER_METER;
-      float vScale = DOTS_PER_METER * EQUILATERAL_TRIANGLE_SCALE;
-      planeAngleUvMatrix[0] = +(float) Math.cos(angleRadians) * uScale;
-      planeAngleUvMatrix[1] = -(float) Math.sin(angleRadians) * vScale;
-      planeAngleUvMatrix[2] = +(float) Math.sin(angleRadians) * uScale;
-      planeAngleUvMatrix[3] = +(float) Math.cos(angleRadians) * vScale;
-      GLES20.glUniformMatrix2fv(planeUvMatrixUniform, 1, false, planeAngleUvMatrix, 0);
-
-      draw(cameraView, cameraPerspective, normal);
+      ShaderUtil.checkGLError(TAG, "Cleaning up after drawing planes");
+    } finally {
+      FrameTracer.endSection();
     }
-
-    // Clean up the state we set
-    GLES20.glDisableVertexAttribArray(planeXZPositionAlphaAttribute);
-    GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
-    GLES20.glDisable(GLES20.GL_BLEND);
-    GLES20.glDepthMask(true);
-    GLES20.glClearColor(0.1f, 0.1f, 0.1f, 1.0f);
-
-    ShaderUtil.checkGLError(TAG, "Cleaning up after drawing planes");
   }
 
   // Calculate the normal distance to plane from cameraPose, the given planePose should have y axis
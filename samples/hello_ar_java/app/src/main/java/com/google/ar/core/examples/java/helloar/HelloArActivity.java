@@ -37,7 +37,9 @@ import com.google.ar.core.Trackable;
 import com.google.ar.core.TrackingState;
 import com.google.ar.core.examples.java.common.helpers.CameraPermissionHelper;
 import com.google.ar.core.examples.java.common.helpers.DisplayRotationHelper;
+import com.google.ar.core.examples.java.common.helpers.FrameTracer;
 import com.google.ar.core.examples.java.common.helpers.FullScreenHelper;
+import com.google.ar.core.examples.java.common.helpers.LatencyRecorder;
 import com.google.ar.core.examples.java.common.helpers.SnackbarHelper;
 import com.google.ar.core.examples.java.common.helpers.TapHelper;
 import com.google.ar.core.examples.java.common.rendering.BackgroundRenderer;
@@ -64,6 +66,17 @@ import javax.microedition.khronos.opengles.GL10;
 public class HelloArActivity extends AppCompatActivity implements GLSurfaceView.Renderer {
   private static final String TAG = HelloArActivity.class.getSimpleName();
 
+  // Set to true to trace the time spent in each part of onDrawFrame(). The trace is written to the
+  // app's external files directory whenever the app is paused, and can be opened in
+  // chrome://tracing or ui.perfetto.dev.
+  private static final boolean TRACE_FRAMES = false;
+
+  // Latency of session.update() and time between rendered frames, logged once per second.
+  private static final int RENDER_FRAME_STAGE = 0;
+  private static final int SESSION_UPDATE_STAGE = 1;
+  private final LatencyRecorder latencyRecorder =
+      new LatencyRecorder(/*windowMillis=*/ 1000, "Render frame", "session.update");
+
   // Rendering. The Renderers are created here, and initialized when the GL surface is created.
   private GLSurfaceView surfaceView;
 
@@ -80,8 +93,13 @@ public class HelloArActivity extends AppCompatActivity implements GLSurfaceView.
   private final PlaneRenderer planeRenderer = new PlaneRenderer();
   private final PointCloudRenderer pointCloudRenderer = new PointCloudRenderer();
 
-  // Temporary matrix allocated here to reduce number of allocations for each frame.
-  private final float[] anchorMatrix = new float[16];
+  // Maximum number of objects placed by tapping. This avoids overloading ARCore with anchors.
+  private static final int MAX_ANCHORS = 20;
+
+  // Model matrices and colors of the visible objects, allocated here to reduce number of
+  // allocations for each frame. All objects are drawn with a single instanced draw call.
+  private final float[] anchorMatrices = new float[MAX_ANCHORS * 16];
+  private final float[] anchorColors = new float[MAX_ANCHORS * 4];
   private static final float[] DEFAULT_COLOR = new float[] {0f, 0f, 0f, 0f};
 
   private static final String SEARCHING_PLANE_MESSAGE = "Searching for surfaces...";
@@ -112,11 +130,13 @@ public class HelloArActivity extends AppCompatActivity implements GLSurfaceView.
 
     // Set up renderer.
     surfaceView.setPreserveEGLContextOnPause(true);
-    surfaceView.setEGLContextClientVersion(2);
+    surfaceView.setEGLContextClientVersion(3);
     surfaceView.setEGLConfigChooser(8, 8, 8, 8, 16, 0); // Alpha used for plane blending.
     surfaceView.setRenderer(this);
     surfaceView.setRenderMode(GLSurfaceView.RENDERMODE_CONTINUOUSLY);
     surfaceView.setWillNotDraw(false);
+    FrameTracer.setEnabled(TRACE_FRAMES);
+    getLifecycle().addObserver(latencyRecorder);
 
     installRequested = false;
   }
@@ -197,6 +217,7 @@ public class HelloArActivity extends AppCompatActivity implements GLSurfaceView.
       // still call session.update() and get a SessionPausedException.
       displayRotationHelper.onPause();
       surfaceView.onPause();
+      FrameTracer.writeTraceIfEnabled(getExternalFilesDir(/*type=*/ null));
       session.pause();
     }
   }
@@ -231,11 +252,12 @@ public class HelloArActivity extends AppCompatActivity implements GLSurfaceView.
       planeRenderer.createOnGlThread(/*context=*/ this, "models/trigrid.png");
       pointCloudRenderer.createOnGlThread(/*context=*/ this);
 
-      virtualObject.createOnGlThread(/*context=*/ this, "models/andy.obj", "models/andy.png");
+      virtualObject.createOnGlThread(
+          /*context=*/ this, "models/andy.mesh", "models/andy.png", MAX_ANCHORS);
       virtualObject.setMaterialProperties(0.0f, 2.0f, 0.5f, 6.0f);
 
       virtualObjectShadow.createOnGlThread(
-          /*context=*/ this, "models/andy_shadow.obj", "models/andy_shadow.png");
+          /*context=*/ this, "models/andy_shadow.mesh", "models/andy_shadow.png", MAX_ANCHORS);
       virtualObjectShadow.setBlendMode(BlendMode.Shadow);
       virtualObjectShadow.setMaterialProperties(1.0f, 0.0f, 0.0f, 1.0f);
 
@@ -262,13 +284,28 @@ public class HelloArActivity extends AppCompatActivity implements GLSurfaceView.
     // the video background can be properly adjusted.
     displayRotationHelper.updateSessionIfNeeded(session);
 
+    FrameTracer.beginSection("onDrawFrame");
     try {
       session.setCameraTextureName(backgroundRenderer.getTextureId());
 
       // Obtain the current frame from ARSession. When the configuration is set to
       // UpdateMode.BLOCKING (it is by default), this will throttle the rendering to the
       // camera framerate.
-      Frame frame = session.update();
+      long updateStart = latencyRecorder.start();
+      FrameTracer.beginSection("session.update");
+      Frame frame;
+      try {
+        frame = session.update();
+      } finally {
+        FrameTracer.endSection();
+      }
+      latencyRecorder.record(SESSION_UPDATE_STAGE, updateStart);
+
+      latencyRecorder.recordInterval(RENDER_FRAME_STAGE);
+      if (latencyRecorder.updateWindow()) {
+        latencyRecorder.logWindows(TAG);
+      }
+
       Camera camera = frame.getCamera();
 
       // Handle one tap per frame.
@@ -318,25 +355,29 @@ public class HelloArActivity extends AppCompatActivity implements GLSurfaceView.
           session.getAllTrackables(Plane.class), camera.getDisplayOrientedPose(), projmtx);
 
       // Visualize anchors created by touch.
-      float scaleFactor = 1.0f;
+      int objectCount = 0;
       for (ColoredAnchor coloredAnchor : anchors) {
         if (coloredAnchor.anchor.getTrackingState() != TrackingState.TRACKING) {
           continue;
         }
         // Get the current pose of an Anchor in world space. The Anchor pose is updated
         // during calls to session.update() as ARCore refines its estimate of the world.
-        coloredAnchor.anchor.getPose().toMatrix(anchorMatrix, 0);
-
-        // Update and draw the model and its shadow.
-        virtualObject.updateModelMatrix(anchorMatrix, scaleFactor);
-        virtualObjectShadow.updateModelMatrix(anchorMatrix, scaleFactor);
-        virtualObject.draw(viewmtx, projmtx, colorCorrectionRgba, coloredAnchor.color);
-        virtualObjectShadow.draw(viewmtx, projmtx, colorCorrectionRgba, coloredAnchor.color);
+        coloredAnchor.anchor.getPose().toMatrix(anchorMatrices, objectCount * 16);
+        System.arraycopy(coloredAnchor.color, 0, anchorColors, objectCount * 4, 4);
+        objectCount++;
       }
 
+      // Draw all the models, then all their shadows.
+      virtualObject.drawInstances(
+          viewmtx, projmtx, colorCorrectionRgba, anchorMatrices, anchorColors, objectCount);
+      virtualObjectShadow.drawInstances(
+          viewmtx, projmtx, colorCorrectionRgba, anchorMatrices, anchorColors, objectCount);
+
     } catch (Throwable t) {
       // Avoid crashing the application due to unhandled exceptions.
       Log.e(TAG, "Exception on the OpenGL thread", t);
+    } finally {
+      FrameTracer.endSection();
     }
   }
 
@@ -357,7 +398,7 @@ public class HelloArActivity extends AppCompatActivity implements GLSurfaceView.
           // Hits are sorted by depth. Consider only closest hit on a plane or oriented point.
           // Cap the number of objects created. This avoids overloading both the
           // rendering system and ARCore.
-          if (anchors.size() >= 20) {
+          if (anchors.size() >= MAX_ANCHORS) {
             anchors.get(0).anchor.detach();
             anchors.remove(0);
           }
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2019 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.rendering;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures {@link MeshSimplifier} building levels of detail for a torus, the way MeshConverter
+ * does: each level has half the triangles of the previous one.
+ *
+ * <p>The torus is a closed mesh, so no vertex is locked and every level can be reached.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+public class MeshSimplifierBenchmark {
+  private static final int LEVEL_COUNT = 4;
+
+  /** Number of rings of the torus. Each ring has twice as many vertices, and two triangles each. */
+  @Param({"40", "100", "320"})
+  public int rings;
+
+  private float[] positions;
+  private int[] indices;
+
+  @Setup
+  public void setUp() {
+    int segments = rings * 2;
+    positions = new float[rings * segments * 3];
+    for (int i = 0; i < rings; i++) {
+      for (int j = 0; j < segments; j++) {
+        double u = 2 * Math.PI * i / rings;
+        double v = 2 * Math.PI * j / segments;
+        int vertex = (i * segments + j) * 3;
+        positions[vertex] = (float) ((1 + 0.4 * Math.cos(u)) * Math.cos(v));
+        positions[vertex + 1] = (float) ((1 + 0.4 * Math.cos(u)) * Math.sin(v));
+        positions[vertex + 2] = (float) (0.4 * Math.sin(u));
+      }
+    }
+
+    indices = new int[rings * segments * 6];
+    int index = 0;
+    for (int i = 0; i < rings; i++) {
+      for (int j = 0; j < segments; j++) {
+        int nextI = (i + 1) % rings;
+        int nextJ = (j + 1) % segments;
+        int v00 = i * segments + j;
+        int v10 = nextI * segments + j;
+        int v01 = i * segments + nextJ;
+        int v11 = nextI * segments + nextJ;
+        indices[index++] = v00;
+        indices[index++] = v10;
+        indices[index++] = v11;
+        indices[index++] = v00;
+        indices[index++] = v11;
+        indices[index++] = v01;
+      }
+    }
+  }
+
+  @Benchmark
+  public int[] simplify() {
+    MeshSimplifier simplifier = new MeshSimplifier(positions, indices);
+    int[] levelIndices = indices;
+    for (int level = 1; level < LEVEL_COUNT; level++) {
+      levelIndices = simplifier.simplify(levelIndices.length / 6 * 3);
+    }
+    return levelIndices;
+  }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright 2019 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.rendering;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.Random;
+import org.junit.Test;
+
+/** Tests of writing, reading and splitting {@link MeshFile}s. */
+public class MeshFileTest {
+  private static final int FLOATS_PER_VERTEX = MeshFile.FLOAT_VERTEX_STRIDE / 4;
+
+  @Test
+  public void writeRead_floatFormat_roundTripsAllLevels() throws IOException {
+    Random random = new Random(0);
+    float[] vertexData = createVertexData(random, 100);
+    int[][] levelIndexData = {
+      createIndexData(random, 100, 60),
+      createIndexData(random, 100, 30),
+      createIndexData(random, 100, 9),
+    };
+    float[] levelErrors = {0, 0.01f, 0.05f};
+
+    MeshFile mesh =
+        MeshFile.read(
+            MeshFile.write(vertexData, levelIndexData, levelErrors, MeshFile.VERTEX_FORMAT_FLOAT));
+
+    assertEquals(MeshFile.VERTEX_FORMAT_FLOAT, mesh.vertexFormat);
+    assertEquals(MeshFile.FLOAT_VERTEX_STRIDE, mesh.vertexStride);
+    assertEquals(100, mesh.vertexCount);
+    assertEquals(2, mesh.indexSize);
+    assertEquals(60 + 30 + 9, mesh.indexCount);
+    assertEquals(3, mesh.levelCount);
+    assertArrayEquals(new int[] {0, 60, 90}, mesh.levelFirstIndices);
+    assertArrayEquals(new int[] {60, 30, 9}, mesh.levelIndexCounts);
+    assertArrayEquals(levelErrors, mesh.levelErrors, 0);
+    assertArrayEquals(vertexData, readFloats(mesh.vertices), 0);
+    for (int level = 0; level < mesh.levelCount; level++) {
+      MeshFile levelMesh = mesh.getLevel(level);
+      assertEquals(1, levelMesh.levelCount);
+      assertArrayEquals(levelIndexData[level], readIndices(levelMesh));
+      assertEquals(levelErrors[level], levelMesh.levelErrors[0], 0);
+    }
+  }
+
+  @Test
+  public void writeRead_quantizedFormat_keepsPositionsAndApproximatesAttributes()
+      throws IOException {
+    Random random = new Random(1);
+    float[] vertexData = createVertexData(random, 50);
+    int[] indexData = createIndexData(random, 50, 90);
+
+    MeshFile mesh =
+        MeshFile.read(MeshFile.write(vertexData, indexData, MeshFile.VERTEX_FORMAT_QUANTIZED));
+
+    assertEquals(MeshFile.QUANTIZED_VERTEX_STRIDE, mesh.vertexStride);
+    assertEquals(MeshFile.QUANTIZED_TEX_COORD_OFFSET, mesh.texCoordOffset);
+    assertArrayEquals(indexData, readIndices(mesh));
+    ByteBuffer vertices = mesh.vertices.duplicate().order(mesh.vertices.order());
+    for (int vertex = 0; vertex < mesh.vertexCount; vertex++) {
+      int source = vertex * FLOATS_PER_VERTEX;
+      int start = vertex * mesh.vertexStride;
+      for (int axis = 0; axis < 3; axis++) {
+        assertEquals(vertexData[source + axis], vertices.getFloat(start + axis * 4), 0);
+      }
+      int normal = vertices.getInt(start + MeshFile.NORMAL_OFFSET);
+      for (int axis = 0; axis < 3; axis++) {
+        // Sign-extend each 10-bit component.
+        float component = ((normal << (22 - axis * 10)) >> 22) / 511f;
+        assertEquals(vertexData[source + 3 + axis], component, 1 / 511f);
+      }
+      for (int axis = 0; axis < 2; axis++) {
+        int texCoordStart = start + MeshFile.QUANTIZED_TEX_COORD_OFFSET + axis * 2;
+        float texCoord = fromHalfFloat(vertices.getShort(texCoordStart));
+        assertEquals(vertexData[source + 6 + axis], texCoord, 1 / 1024f);
+      }
+    }
+  }
+
+  @Test
+  public void writeRead_bounds() throws IOException {
+    float[] vertexData = new float[3 * FLOATS_PER_VERTEX];
+    float[][] positions = {{-1, 2, 3}, {4, -5, 6}, {1, 1, -2}};
+    for (int vertex = 0; vertex < positions.length; vertex++) {
+      System.arraycopy(positions[vertex], 0, vertexData, vertex * FLOATS_PER_VERTEX, 3);
+    }
+
+    MeshFile mesh =
+        MeshFile.read(
+            MeshFile.write(vertexData, new int[] {0, 1, 2}, MeshFile.VERTEX_FORMAT_FLOAT));
+
+    assertArrayEquals(new float[] {-1, -5, -2}, mesh.boundsMin, 0);
+    assertArrayEquals(new float[] {4, 2, 6}, mesh.boundsMax, 0);
+    // The farthest vertex from the center (1.5, -1.5, 2) is (4, -5, 6).
+    assertEquals((float) Math.sqrt(2.5 * 2.5 + 3.5 * 3.5 + 4 * 4), mesh.boundingRadius, 1e-6f);
+  }
+
+  @Test(expected = IOException.class)
+  public void read_truncatedFile_throws() throws IOException {
+    Random random = new Random(2);
+    ByteBuffer file =
+        MeshFile.write(
+            createVertexData(random, 10),
+            createIndexData(random, 10, 9),
+            MeshFile.VERTEX_FORMAT_FLOAT);
+    file.limit(file.limit() - 8);
+    MeshFile.read(file);
+  }
+
+  @Test
+  public void splitForShortIndices_reproducesSourceTriangles() throws IOException {
+    // More vertices than 16-bit indices can address, with triangles spread over all of them so
+    // that the parts share vertices.
+    int vertexCount = 150000;
+    float[] vertexData = new float[vertexCount * FLOATS_PER_VERTEX];
+    for (int vertex = 0; vertex < vertexCount; vertex++) {
+      // Identify each vertex by its exact x coordinate.
+      vertexData[vertex * FLOATS_PER_VERTEX] = vertex;
+    }
+    Random random = new Random(3);
+    int[] indexData = new int[90000 * 3];
+    for (int i = 0; i < indexData.length; i++) {
+      int triangle = i / 3;
+      indexData[i] =
+          random.nextInt(4) == 0 ? random.nextInt(vertexCount) : (triangle + i % 3) % vertexCount;
+    }
+
+    MeshFile mesh =
+        MeshFile.read(MeshFile.write(vertexData, indexData, MeshFile.VERTEX_FORMAT_FLOAT));
+    assertEquals(4, mesh.indexSize);
+    MeshFile[] parts = mesh.splitForShortIndices();
+
+    assertTrue("Expected several parts", parts.length > 1);
+    int index = 0;
+    for (MeshFile part : parts) {
+      assertEquals(2, part.indexSize);
+      assertTrue(part.vertexCount <= 1 << 16);
+      assertArrayEquals(mesh.boundsMin, part.boundsMin, 0);
+      assertArrayEquals(mesh.boundsMax, part.boundsMax, 0);
+      int[] partIndices = readIndices(part);
+      float[] partVertices = readFloats(part.vertices);
+      for (int partIndex : partIndices) {
+        assertTrue(partIndex < part.vertexCount);
+        assertEquals(
+            "Index " + index,
+            indexData[index++],
+            (int) partVertices[partIndex * FLOATS_PER_VERTEX]);
+      }
+    }
+    assertEquals(indexData.length, index);
+  }
+
+  @Test
+  public void splitForShortIndices_shortIndices_returnsSameMesh() throws IOException {
+    Random random = new Random(4);
+    MeshFile mesh =
+        MeshFile.read(
+            MeshFile.write(
+                createVertexData(random, 10),
+                createIndexData(random, 10, 9),
+                MeshFile.VERTEX_FORMAT_FLOAT));
+
+    MeshFile[] parts = mesh.splitForShortIndices();
+
+    assertEquals(1, parts.length);
+    assertTrue(parts[0] == mesh);
+  }
+
+  /** Random positions, unit normals and texture coordinates in [0, 1]. */
+  private static float[] createVertexData(Random random, int vertexCount) {
+    float[] vertexData = new float[vertexCount * FLOATS_PER_VERTEX];
+    for (int vertex = 0; vertex < vertexCount; vertex++) {
+      int start = vertex * FLOATS_PER_VERTEX;
+      float[] normal = new float[3];
+      float length = 0;
+      for (int axis = 0; axis < 3; axis++) {
+        vertexData[start + axis] = random.nextFloat() * 10 - 5;
+        normal[axis] = random.nextFloat() * 2 - 1;
+        length += normal[axis] * normal[axis];
+      }
+      length = (float) Math.sqrt(length);
+      for (int axis = 0; axis < 3; axis++) {
+        vertexData[start + 3 + axis] = normal[axis] / length;
+      }
+      vertexData[start + 6] = random.nextFloat();
+      vertexData[start + 7] = random.nextFloat();
+    }
+    return vertexData;
+  }
+
+  private static int[] createIndexData(Random random, int vertexCount, int indexCount) {
+    int[] indexData = new int[indexCount];
+    for (int i = 0; i < indexCount; i++) {
+      indexData[i] = random.nextInt(vertexCount);
+    }
+    return indexData;
+  }
+
+  private static float[] readFloats(ByteBuffer buffer) {
+    FloatBuffer floats = buffer.duplicate().order(buffer.order()).asFloatBuffer();
+    float[] values = new float[floats.remaining()];
+    floats.get(values);
+    return values;
+  }
+
+  /** Returns the indices of the first level of a mesh. */
+  private static int[] readIndices(MeshFile mesh) {
+    ByteBuffer indices = mesh.indices.duplicate().order(mesh.indices.order());
+    int[] values = new int[mesh.levelIndexCounts[0]];
+    int first = mesh.levelFirstIndices[0];
+    for (int i = 0; i < values.length; i++) {
+      values[i] =
+          mesh.indexSize == 2
+              ? indices.getShort((first + i) * 2) & 0xFFFF
+              : indices.getInt((first + i) * 4);
+    }
+    return values;
+  }
+
+  /** Converts the bits of a half-float to a float, for normal and zero values. */
+  private static float fromHalfFloat(short half) {
+    int exponent = (half >> 10) & 0x1F;
+    float mantissa = half & 0x3FF;
+    float magnitude =
+        exponent == 0
+            ? mantissa / (1 << 24)
+            : (1 + mantissa / 1024) * (float) Math.pow(2, exponent - 15);
+    return (half & 0x8000) != 0 ? -magnitude : magnitude;
+  }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2019 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.rendering;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/** Tests of {@link MeshSimplifier} on generated grids and tori. */
+public class MeshSimplifierTest {
+  private static final int LEVEL_COUNT = 4;
+
+  @Test
+  public void simplify_openGrid_keepsBorderVertices() {
+    int size = 12;
+    float[] positions = createGridPositions(size);
+    int[] indices = createGridIndices(size, size, /*wrapRows=*/ false, /*wrapColumns=*/ false);
+
+    MeshSimplifier simplifier = new MeshSimplifier(positions, indices);
+    int[] simplified = simplifier.simplify(indices.length / 8);
+
+    assertTrue("Nothing was simplified", simplified.length < indices.length);
+    boolean[] used = getUsedVertices(positions.length / 3, simplified);
+    for (int i = 0; i < size; i++) {
+      for (int j = 0; j < size; j++) {
+        if (i == 0 || j == 0 || i == size - 1 || j == size - 1) {
+          assertTrue("Border vertex " + i + "," + j + " was moved", used[i * size + j]);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void simplify_torusWithSeam_keepsSeamVertices() {
+    // A torus whose first ring of vertices is duplicated, like vertices split by their texture
+    // coordinates: the last triangles use the copies, so the seam is open on both sides.
+    int rings = 24;
+    int segments = 48;
+    float[] torus = createTorusPositions(rings, segments);
+    float[] positions = new float[(rings + 1) * segments * 3];
+    System.arraycopy(torus, 0, positions, 0, torus.length);
+    System.arraycopy(torus, 0, positions, torus.length, segments * 3);
+    int[] indices =
+        createGridIndices(rings + 1, segments, /*wrapRows=*/ false, /*wrapColumns=*/ true);
+
+    MeshSimplifier simplifier = new MeshSimplifier(positions, indices);
+    int[] simplified = simplifier.simplify(indices.length / 8);
+
+    assertTrue("Nothing was simplified", simplified.length < indices.length);
+    boolean[] used = getUsedVertices(positions.length / 3, simplified);
+    for (int j = 0; j < segments; j++) {
+      assertTrue("Seam vertex " + j + " was moved", used[j]);
+      assertTrue("Seam copy " + j + " was moved", used[rings * segments + j]);
+    }
+  }
+
+  @Test
+  public void simplify_levels_halveTrianglesWithIncreasingError() {
+    int rings = 40;
+    int segments = 80;
+    float[] positions = createTorusPositions(rings, segments);
+    int[] indices = createGridIndices(rings, segments, /*wrapRows=*/ true, /*wrapColumns=*/ true);
+
+    MeshSimplifier simplifier = new MeshSimplifier(positions, indices);
+    int[] levelIndices = indices;
+    float previousError = 0;
+    for (int level = 1; level < LEVEL_COUNT; level++) {
+      int target = levelIndices.length / 6 * 3;
+      levelIndices = simplifier.simplify(target);
+
+      // Each collapse of the closed torus removes two triangles, so the target is met exactly or
+      // undershot by one triangle.
+      assertTrue("Level " + level + " above its target", levelIndices.length <= target);
+      assertTrue("Level " + level + " stopped early", levelIndices.length > target - 6);
+      assertEquals(0, levelIndices.length % 3);
+      for (int index : levelIndices) {
+        assertTrue(index >= 0 && index < positions.length / 3);
+      }
+
+      float error = simplifier.getError();
+      assertTrue("Level " + level + " has no error", error > 0);
+      assertTrue("Level " + level + " error decreased", error >= previousError);
+      previousError = error;
+    }
+  }
+
+  @Test
+  public void simplify_flatGrid_hasNoError() {
+    int size = 10;
+    float[] positions = createGridPositions(size);
+    for (int i = 1; i < positions.length; i += 3) {
+      positions[i] = 0;
+    }
+    int[] indices = createGridIndices(size, size, /*wrapRows=*/ false, /*wrapColumns=*/ false);
+
+    MeshSimplifier simplifier = new MeshSimplifier(positions, indices);
+    int[] simplified = simplifier.simplify(0);
+
+    assertTrue("Nothing was simplified", simplified.length < indices.length);
+    assertEquals(0, simplifier.getError(), 1e-6f);
+  }
+
+  /** A size x size grid in the xz plane, with a bump in the middle. */
+  private static float[] createGridPositions(int size) {
+    float[] positions = new float[size * size * 3];
+    for (int i = 0; i < size; i++) {
+      for (int j = 0; j < size; j++) {
+        float x = (float) i / (size - 1);
+        float z = (float) j / (size - 1);
+        int vertex = (i * size + j) * 3;
+        positions[vertex] = x;
+        positions[vertex + 1] = (float) (0.2 * Math.sin(Math.PI * x) * Math.sin(Math.PI * z));
+        positions[vertex + 2] = z;
+      }
+    }
+    return positions;
+  }
+
+  private static float[] createTorusPositions(int rings, int segments) {
+    float[] positions = new float[rings * segments * 3];
+    for (int i = 0; i < rings; i++) {
+      for (int j = 0; j < segments; j++) {
+        double u = 2 * Math.PI * i / rings;
+        double v = 2 * Math.PI * j / segments;
+        int vertex = (i * segments + j) * 3;
+        positions[vertex] = (float) ((1 + 0.4 * Math.cos(u)) * Math.cos(v));
+        positions[vertex + 1] = (float) ((1 + 0.4 * Math.cos(u)) * Math.sin(v));
+        positions[vertex + 2] = (float) (0.4 * Math.sin(u));
+      }
+    }
+    return positions;
+  }
+
+  /**
+   * Two triangles per cell of a rows x columns grid of vertices. Wrapped rows or columns connect
+   * the last one back to the first one.
+   */
+  private static int[] createGridIndices(
+      int rows, int columns, boolean wrapRows, boolean wrapColumns) {
+    int cellRows = wrapRows ? rows : rows - 1;
+    int cellColumns = wrapColumns ? columns : columns - 1;
+    int[] indices = new int[cellRows * cellColumns * 6];
+    int index = 0;
+    for (int i = 0; i < cellRows; i++) {
+      for (int j = 0; j < cellColumns; j++) {
+        int nextI = (i + 1) % rows;
+        int nextJ = (j + 1) % columns;
+        int v00 = i * columns + j;
+        int v10 = nextI * columns + j;
+        int v01 = i * columns + nextJ;
+        int v11 = nextI * columns + nextJ;
+        indices[index++] = v00;
+        indices[index++] = v10;
+        indices[index++] = v11;
+        indices[index++] = v00;
+        indices[index++] = v11;
+        indices[index++] = v01;
+      }
+    }
+    return indices;
+  }
+
+  private static boolean[] getUsedVertices(int vertexCount, int[] indices) {
+    boolean[] used = new boolean[vertexCount];
+    for (int index : indices) {
+      used[index] = true;
+    }
+    return used;
+  }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright 2019 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.helpers;
+
+import android.os.Process;
+import android.util.Log;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Records nested begin/end spans, e.g. around session.update() and each renderer, and writes them
+ * to a trace-event JSON file that can be opened in chrome://tracing or ui.perfetto.dev.
+ *
+ * <p>Each thread records into a ring buffer of its own that is preallocated on its first span, so
+ * recording a span takes two System.nanoTime() calls and a few array writes, without locking or
+ * allocating. Once a ring is full, the oldest events are overwritten. Span names must be constant
+ * strings, since only their references are stored.
+ *
+ * <p>Spans must be ended even if the code they measure throws, otherwise every later span of the
+ * thread is nested in the wrong parent:
+ *
+ * <pre>
+ * FrameTracer.beginSection("session.update");
+ * Frame frame;
+ * try {
+ *   frame = session.update();
+ * } finally {
+ *   FrameTracer.endSection();
+ * }
+ * </pre>
+ *
+ * <p>Tracing is disabled by default, in which case spans are not recorded.
+ */
+public final class FrameTracer {
+  private static final String TAG = FrameTracer.class.getSimpleName();
+
+  // Number of events kept per thread, must be a power of two.
+  private static final int EVENTS_PER_THREAD = 1 << 14;
+
+  /** The events of one thread. Only written by that thread. */
+  private static final class ThreadEvents {
+    private final Thread thread = Thread.currentThread();
+    private final int threadId = Process.myTid();
+    private final String threadName = thread.getName();
+
+    // Name of each event, or null for the end of a span.
+    private final String[] names = new String[EVENTS_PER_THREAD];
+    private final long[] timestamps = new long[EVENTS_PER_THREAD];
+
+    // Number of events recorded so far. Written after the event, so a reader that sees the count
+    // also sees the event.
+    private volatile long count;
+
+    private void record(String name) {
+      long index = count;
+      int slot = (int) (index & (EVENTS_PER_THREAD - 1));
+      names[slot] = name;
+      timestamps[slot] = System.nanoTime();
+      count = index + 1;
+    }
+  }
+
+  private static volatile boolean enabled;
+
+  // Events of all threads that recorded a span, until they are written after the thread ended.
+  // Guarded by itself.
+  private static final List<ThreadEvents> allThreadEvents = new ArrayList<>();
+
+  private static final ThreadLocal<ThreadEvents> threadEvents =
+      new ThreadLocal<ThreadEvents>() {
+        @Override
+        protected ThreadEvents initialValue() {
+          ThreadEvents events = new ThreadEvents();
+          synchronized (allThreadEvents) {
+            allThreadEvents.add(events);
+          }
+          return events;
+        }
+      };
+
+  private FrameTracer() {}
+
+  /** Enables or disables recording of spans. Spans already recorded are kept. */
+  public static void setEnabled(boolean enabled) {
+    FrameTracer.enabled = enabled;
+  }
+
+  /** Returns whether spans are being recorded. */
+  public static boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Begins a span on the calling thread. Must be matched by a call to {@link #endSection()} on the
+   * same thread.
+   *
+   * @param name the name of the span, which should be a constant string.
+   */
+  public static void beginSection(String name) {
+    if (enabled) {
+      threadEvents.get().record(name);
+    }
+  }
+
+  /** Ends the span most recently begun on the calling thread. */
+  public static void endSection() {
+    if (enabled) {
+      threadEvents.get().record(null);
+    }
+  }
+
+  /**
+   * Writes the recorded spans of all threads to a trace-event JSON file. Events recorded while the
+   * file is written may be missing from it, but recording does not need to be stopped.
+   *
+   * <p>The events of threads that have ended are written one last time, and then dropped, so that
+   * threads started and stopped repeatedly, e.g. image processing workers, do not keep their ring
+   * buffers alive.
+   *
+   * @param file the file to write, which is overwritten if it exists.
+   */
+  public static void writeTrace(File file) throws IOException {
+    List<ThreadEvents> snapshot;
+    synchronized (allThreadEvents) {
+      snapshot = new ArrayList<>(allThreadEvents);
+      for (Iterator<ThreadEvents> it = allThreadEvents.iterator(); it.hasNext(); ) {
+        if (!it.next().thread.isAlive()) {
+          it.remove();
+        }
+      }
+    }
+
+    int processId = Process.myPid();
+    String[] names = new String[EVENTS_PER_THREAD];
+    long[] timestamps = new long[EVENTS_PER_THREAD];
+    try (Writer writer =
+        new BufferedWriter(
+            new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+      writer.write("{\"traceEvents\":[");
+      boolean first = true;
+      for (ThreadEvents events : snapshot) {
+        // Copy the ring, then drop the events that were overwritten while copying.
+        long end = events.count;
+        long start = Math.max(0, end - EVENTS_PER_THREAD);
+        for (long i = start; i < end; i++) {
+          int slot = (int) (i & (EVENTS_PER_THREAD - 1));
+          names[slot] = events.names[slot];
+          timestamps[slot] = events.timestamps[slot];
+        }
+        start = Math.max(start, events.count - EVENTS_PER_THREAD);
+
+        StringBuilder event = new StringBuilder();
+        appendEventPrefix(event, first, "M", processId, events.threadId);
+        event.append(",\"name\":\"thread_name\",\"args\":{\"name\":");
+        appendString(event, events.threadName);
+        event.append("}}");
+        writer.write(event.toString());
+        first = false;
+
+        for (long i = start; i < end; i++) {
+          int slot = (int) (i & (EVENTS_PER_THREAD - 1));
+          event.setLength(0);
+          appendEventPrefix(
+              event, /*first=*/ false, names[slot] != null ? "B" : "E", processId, events.threadId);
+          // Timestamps are in microseconds.
+          event.append(",\"ts\":").append(timestamps[slot] / 1000).append('.');
+          long fraction = timestamps[slot] % 1000;
+          event.append(fraction < 100 ? (fraction < 10 ? "00" : "0") : "").append(fraction);
+          if (names[slot] != null) {
+            event.append(",\"name\":");
+            appendString(event, names[slot]);
+          }
+          event.append('}');
+          writer.write(event.toString());
+        }
+      }
+      writer.write("]}\n");
+    }
+  }
+
+  /**
+   * Writes the recorded spans to a new file in a directory if tracing is enabled. Failures are
+   * logged, so this can be called unconditionally, e.g. when the app is paused.
+   *
+   * @param directory directory receiving the trace, one file per call.
+   */
+  public static void writeTraceIfEnabled(File directory) {
+    if (!enabled) {
+      return;
+    }
+    File trace = new File(directory, "trace-" + System.currentTimeMillis() + ".json");
+    try {
+      writeTrace(trace);
+      Log.i(TAG, "Wrote frame trace to " + trace);
+    } catch (IOException e) {
+      Log.e(TAG, "Failed to write frame trace to " + trace, e);
+    }
+  }
+
+  private static void appendEventPrefix(
+      StringBuilder event, boolean first, String phase, int processId, int threadId) {
+    if (!first) {
+      event.append(",\n");
+    }
+    event
+        .append("{\"ph\":\"")
+        .append(phase)
+        .append("\",\"pid\":")
+        .append(processId)
+        .append(",\"tid\":")
+        .append(threadId);
+  }
+
+  private static void appendString(StringBuilder builder, String value) {
+    builder.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        builder.append('\\').append(c);
+      } else if (c < 0x20) {
+        builder.append(String.format("\\u%04x", (int) c));
+      } else {
+        builder.append(c);
+      }
+    }
+    builder.append('"');
+  }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2019 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.helpers;
+
+import android.widget.TextView;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Publishes statistics text, e.g. frame times, from a rendering or camera thread to a {@link
+ * TextView} at a limited rate.
+ *
+ * <p>The text is formatted into a reused StringBuilder and handed to the UI thread through reused
+ * char buffers and a single Runnable, so publishing does not allocate once the buffers have grown
+ * to the size of the text. Numbers should be appended with the StringBuilder methods and {@link
+ * #appendFixed(StringBuilder, double, int)} rather than String.format().
+ *
+ * <pre>
+ * if (statsPublisher.isUpdateDue()) {
+ *   StringBuilder text = statsPublisher.beginUpdate();
+ *   text.append("CPU images processed: ").append(cpuImagesProcessed);
+ *   statsPublisher.endUpdate();
+ * }
+ * </pre>
+ *
+ * <p>Updates must always be made on the same thread.
+ */
+public class StatsPublisher {
+  private static final long[] POWERS_OF_TEN = {
+    1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L
+  };
+
+  private final TextView textView;
+  private final long updateIntervalNanos;
+
+  // Only accessed by the updating thread.
+  private final StringBuilder text = new StringBuilder();
+  private long lastUpdateTime;
+  private boolean updateInProgress;
+
+  // Text handed to the UI thread. Guarded by lock.
+  private final Object lock = new Object();
+  private char[] publishedText = new char[0];
+  private int publishedLength;
+
+  // Only accessed by the UI thread.
+  private char[] displayedText = new char[0];
+
+  // Whether publishRunnable is posted and has not run yet.
+  private final AtomicBoolean publishPending = new AtomicBoolean();
+  private final Runnable publishRunnable = this::display;
+
+  /**
+   * Creates a publisher.
+   *
+   * @param textView the view displaying the text.
+   * @param updatesPerSecond the maximum rate at which the text is updated.
+   */
+  public StatsPublisher(TextView textView, float updatesPerSecond) {
+    if (!(updatesPerSecond > 0)) {
+      throw new IllegalArgumentException("Invalid update rate: " + updatesPerSecond);
+    }
+    this.textView = textView;
+    this.updateIntervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / updatesPerSecond);
+    lastUpdateTime = System.nanoTime() - updateIntervalNanos;
+  }
+
+  /** Returns whether enough time has passed since the last update to start a new one. */
+  public boolean isUpdateDue() {
+    return System.nanoTime() - lastUpdateTime >= updateIntervalNanos;
+  }
+
+  /**
+   * Starts an update, and returns the empty builder to append the new text to. Must be followed by
+   * {@link #endUpdate()}.
+   */
+  public StringBuilder beginUpdate() {
+    if (updateInProgress) {
+      throw new IllegalStateException("An update is already in progress.");
+    }
+    updateInProgress = true;
+    lastUpdateTime = System.nanoTime();
+    text.setLength(0);
+    return text;
+  }
+
+  /** Publishes the text appended since {@link #beginUpdate()} to the view. */
+  public void endUpdate() {
+    if (!updateInProgress) {
+      throw new IllegalStateException("No update is in progress.");
+    }
+    updateInProgress = false;
+    synchronized (lock) {
+      if (publishedText.length < text.length()) {
+        publishedText = new char[text.length()];
+      }
+      text.getChars(0, text.length(), publishedText, 0);
+      publishedLength = text.length();
+    }
+    // If the previous text has not been displayed yet, it is simply replaced.
+    if (!publishPending.getAndSet(true)) {
+      textView.post(publishRunnable);
+    }
+  }
+
+  /**
+   * Appends a number with a fixed number of decimals, like String.format("%.2f") in the root
+   * locale, without allocating. Numbers that round to zero are appended without a sign.
+   *
+   * @param builder the builder to append to.
+   * @param value the number to append.
+   * @param decimals number of decimals, from 0 to 9.
+   * @return the builder.
+   */
+  public static StringBuilder appendFixed(StringBuilder builder, double value, int decimals) {
+    if (decimals < 0 || decimals >= POWERS_OF_TEN.length) {
+      throw new IllegalArgumentException("Unsupported number of decimals: " + decimals);
+    }
+    long scale = POWERS_OF_TEN[decimals];
+    if (Double.isNaN(value)
+        || Double.isInfinite(value)
+        || Math.abs(value) >= Long.MAX_VALUE / scale) {
+      return builder.append(value);
+    }
+    long scaled = Math.round(Math.abs(value) * scale);
+    if (value < 0 && scaled != 0) {
+      builder.append('-');
+    }
+    builder.append(scaled / scale);
+    if (decimals > 0) {
+      builder.append('.');
+      long fraction = scaled % scale;
+      for (long digit = scale / 10; digit > fraction && digit > 1; digit /= 10) {
+        builder.append('0');
+      }
+      builder.append(fraction);
+    }
+    return builder;
+  }
+
+  private void display() {
+    publishPending.set(false);
+    int length;
+    synchronized (lock) {
+      if (displayedText.length < publishedLength) {
+        displayedText = new char[publishedLength];
+      }
+      System.arraycopy(publishedText, 0, displayedText, 0, publishedLength);
+      length = publishedLength;
+    }
+    textView.setText(displayedText, 0, length);
+  }
+}
@@ -21,6 +21,7 @@ import android.opengl.GLSurfaceView;
 import android.support.annotation.NonNull;
 import com.google.ar.core.Coordinates2d;
 import com.google.ar.core.Frame;
+import com.google.ar.core.examples.java.common.helpers.FrameTracer;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
@@ -192,41 +193,46 @@ public class BackgroundRenderer {
    * BackgroundRenderer#quadTexCoords} image texture coordinates.
    */
   private void draw() {
-    // Ensure position is rewound before use.
-    quadTexCoords.position(0);
+    FrameTracer.beginSection("BackgroundRenderer.draw");
+    try {
+      // Ensure position is rewound before use.
+      quadTexCoords.position(0);
 
-    // No need to test or write depth, the screen quad has arbitrary depth, and is expected
-    // to be drawn first.
-    GLES20.glDisable(GLES20.GL_DEPTH_TEST);
-    GLES20.glDepthMask(false);
+      // No need to test or write depth, the screen quad has arbitrary depth, and is expected
+      // to be drawn first.
+      GLES20.glDisable(GLES20.GL_DEPTH_TEST);
+      GLES20.glDepthMask(false);
 
-    GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, textureId);
+      GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, textureId);
 
-    GLES20.glUseProgram(quadProgram);
+      GLES20.glUseProgram(quadProgram);
 
-    // Set the vertex positions.
-    GLES20.glVertexAttribPointer(
-        quadPositionParam, COORDS_PER_VERTEX, GLES20.GL_FLOAT, false, 0, quadCoords);
+      // Set the vertex positions.
+      GLES20.glVertexAttribPointer(
+          quadPositionParam, COORDS_PER_VERTEX, GLES20.GL_FLOAT, false, 0, quadCoords);
 
-    // Set the texture coordinates.
-    GLES20.glVertexAttribPointer(
-        quadTexCoordParam, TEXCOORDS_PER_VERTEX, GLES20.GL_FLOAT, false, 0, quadTexCoords);
+      // Set the texture coordinates.
+      GLES20.glVertexAttribPointer(
+          quadTexCoordParam, TEXCOORDS_PER_VERTEX, GLES20.GL_FLOAT, false, 0, quadTexCoords);
 
-    // Enable vertex arrays
-    GLES20.glEnableVertexAttribArray(quadPositionParam);
-    GLES20.glEnableVertexAttribArray(quadTexCoordParam);
+      // Enable vertex arrays
+      GLES20.glEnableVertexAttribArray(quadPositionParam);
+      GLES20.glEnableVertexAttribArray(quadTexCoordParam);
 
-    GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+      GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
 
-    // Disable vertex arrays
-    GLES20.glDisableVertexAttribArray(quadPositionParam);
-    GLES20.glDisableVertexAttribArray(quadTexCoordParam);
+      // Disable vertex arrays
+      GLES20.glDisableVertexAttribArray(quadPositionParam);
+      GLES20.glDisableVertexAttribArray(quadTexCoordParam);
 
-    // Restore the depth state for further drawing.
-    GLES20.glDepthMask(true);
-    GLES20.glEnable(GLES20.GL_DEPTH_TEST);
+      // Restore the depth state for further drawing.
+      GLES20.glDepthMask(true);
+      GLES20.glEnable(GLES20.GL_DEPTH_TEST);
 
-    ShaderUtil.checkGLError(TAG, "BackgroundRendererDraw");
+      ShaderUtil.checkGLError(TAG, "BackgroundRendererDraw");
+    } finally {
+      FrameTracer.endSection();
+    }
   }
 
   private static final float[] QUAD_COORDS =
@@ -0,0 +1,438 @@
+/*
+ * Copyright 2019 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.rendering;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+/**
+ * Simplifies triangle meshes by collapsing edges in the order of their quadric error, as described
+ * in "Surface Simplification Using Quadric Error Metrics" by Garland and Heckbert.
+ *
+ * <p>Each collapse moves a vertex onto one of its neighbors, so the simplified meshes only use
+ * vertices of the original mesh, and can share its vertex buffer. Vertices on the borders of the
+ * mesh, which include the seams where vertices are split by their normals or texture coordinates,
+ * are never moved, so that the simplified meshes do not open holes or tear their textures.
+ *
+ * <p>Simplification is progressive: each call to {@link #simplify(int)} continues from the result
+ * of the previous one, so that levels of detail are built in a single pass.
+ *
+ * <pre>
+ * MeshSimplifier simplifier = new MeshSimplifier(positions, indices);
+ * int[] halfIndices = simplifier.simplify(indices.length / 2);
+ * float halfError = simplifier.getError();
+ * int[] quarterIndices = simplifier.simplify(indices.length / 4);
+ * </pre>
+ *
+ * <p>This class only depends on the Java standard library, so that it can be used by the build
+ * step that converts OBJ models.
+ */
+public class MeshSimplifier {
+  // Number of coefficients of a symmetric 4x4 quadric matrix.
+  private static final int QUADRIC_SIZE = 10;
+
+  // Collapses that turn the normal of a triangle by more than about 75 degrees are rejected.
+  private static final double MIN_NORMAL_COSINE = 0.25;
+
+  private final float[] positions;
+  private final int vertexCount;
+
+  // Current vertices of each triangle, and whether it still exists.
+  private final int[] triangles;
+  private final boolean[] triangleAlive;
+  private int aliveTriangleCount;
+
+  // Triangles around each vertex. May contain removed triangles, which are skipped.
+  private final int[][] vertexTriangles;
+  private final int[] vertexTriangleCounts;
+
+  // Area-weighted sum of the plane quadrics of the triangles merged into each vertex, and the sum
+  // of their areas.
+  private final double[] quadrics;
+  private final double[] quadricWeights;
+
+  private final boolean[] vertexAlive;
+  private final boolean[] vertexLocked;
+
+  // Candidate collapses, at most one valid candidate per vertex. A candidate is stale if the
+  // version of its vertex changed since it was queued.
+  private final PriorityQueue<Collapse> collapses = new PriorityQueue<>();
+  private final int[] vertexVersions;
+
+  // Marks the vertices visited by the current collapse, to queue each of them once.
+  private final int[] vertexMarks;
+  private int mark;
+
+  // Temporary normals allocated here to reduce number of allocations for each collapse.
+  private final double[] oldNormal = new double[3];
+  private final double[] newNormal = new double[3];
+
+  private float error;
+
+  /** Moves vertex {@link #from} onto vertex {@link #to}. */
+  private static class Collapse implements Comparable<Collapse> {
+    final int from;
+    final int to;
+    final double cost;
+    final int version;
+
+    Collapse(int from, int to, double cost, int version) {
+      this.from = from;
+      this.to = to;
+      this.cost = cost;
+      this.version = version;
+    }
+
+    @Override
+    public int compareTo(Collapse other) {
+      return Double.compare(cost, other.cost);
+    }
+  }
+
+  /**
+   * Prepares a mesh for simplification.
+   *
+   * @param positions the vertex positions, 3 floats per vertex.
+   * @param indices the triangle indices.
+   */
+  public MeshSimplifier(float[] positions, int[] indices) {
+    if (positions.length % 3 != 0 || indices.length % 3 != 0) {
+      throw new IllegalArgumentException("Incomplete vertex or triangle.");
+    }
+    this.positions = positions;
+    vertexCount = positions.length / 3;
+    int triangleCount = indices.length / 3;
+
+    triangles = indices.clone();
+    triangleAlive = new boolean[triangleCount];
+    vertexTriangleCounts = new int[vertexCount];
+    for (int index : triangles) {
+      if (index < 0 || index >= vertexCount) {
+        throw new IllegalArgumentException("Index out of range: " + index);
+      }
+      vertexTriangleCounts[index]++;
+    }
+    vertexTriangles = new int[vertexCount][];
+    for (int vertex = 0; vertex < vertexCount; vertex++) {
+      vertexTriangles[vertex] = new int[vertexTriangleCounts[vertex]];
+      vertexTriangleCounts[vertex] = 0;
+    }
+
+    quadrics = new double[vertexCount * QUADRIC_SIZE];
+    quadricWeights = new double[vertexCount];
+    double[] normal = new double[3];
+    for (int triangle = 0; triangle < triangleCount; triangle++) {
+      int a = triangles[triangle * 3];
+      int b = triangles[triangle * 3 + 1];
+      int c = triangles[triangle * 3 + 2];
+      if (a == b || b == c || c == a) {
+        continue;
+      }
+      triangleAlive[triangle] = true;
+      aliveTriangleCount++;
+      for (int i = 0; i < 3; i++) {
+        int vertex = triangles[triangle * 3 + i];
+        vertexTriangles[vertex][vertexTriangleCounts[vertex]++] = triangle;
+      }
+
+      // The plane of the triangle, weighted by its area.
+      double area = computeNormal(a, b, c, normal) / 2;
+      if (area == 0) {
+        continue;
+      }
+      for (int i = 0; i < 3; i++) {
+        normal[i] /= area * 2;
+      }
+      double distance =
+          -(normal[0] * positions[a * 3]
+              + normal[1] * positions[a * 3 + 1]
+              + normal[2] * positions[a * 3 + 2]);
+      for (int i = 0; i < 3; i++) {
+        int vertex = triangles[triangle * 3 + i];
+        addPlaneQuadric(vertex, normal, distance, area);
+      }
+    }
+
+    vertexAlive = new boolean[vertexCount];
+    Arrays.fill(vertexAlive, true);
+    vertexLocked = new boolean[vertexCount];
+    lockBorderVertices();
+
+    vertexVersions = new int[vertexCount];
+    vertexMarks = new int[vertexCount];
+    for (int vertex = 0; vertex < vertexCount; vertex++) {
+      queueBestCollapse(vertex);
+    }
+  }
+
+  /**
+   * Collapses edges until the mesh has at most the given number of indices, or no edge can be
+   * collapsed anymore.
+   *
+   * @param targetIndexCount the maximum number of indices, three per triangle.
+   * @return the indices of the remaining triangles, in their original order.
+   */
+  public int[] simplify(int targetIndexCount) {
+    while (aliveTriangleCount * 3 > targetIndexCount && !collapses.isEmpty()) {
+      Collapse collapse = collapses.poll();
+      if (collapse.version != vertexVersions[collapse.from]) {
+        continue;
+      }
+      // Collapses around the target may have removed the edge, or made the collapse flip a
+      // triangle, without changing the neighborhood of the collapsed vertex.
+      if (!vertexAlive[collapse.to]
+          || !isNeighbor(collapse.from, collapse.to)
+          || flipsTriangles(collapse.from, collapse.to)) {
+        queueBestCollapse(collapse.from);
+        continue;
+      }
+      collapse(collapse.from, collapse.to);
+      error = Math.max(error, (float) Math.sqrt(collapse.cost));
+    }
+
+    int[] indices = new int[aliveTriangleCount * 3];
+    int index = 0;
+    for (int triangle = 0; triangle < triangleAlive.length; triangle++) {
+      if (triangleAlive[triangle]) {
+        System.arraycopy(triangles, triangle * 3, indices, index, 3);
+        index += 3;
+      }
+    }
+    return indices;
+  }
+
+  /**
+   * Returns the error of the mesh returned by the last call to {@link #simplify(int)}: the largest
+   * root mean square distance between a moved vertex and the planes of the original triangles
+   * merged into it, in the units of the positions.
+   */
+  public float getError() {
+    return error;
+  }
+
+  // Locks the vertices of edges that are not shared by exactly two triangles.
+  private void lockBorderVertices() {
+    long[] edges = new long[aliveTriangleCount * 3];
+    int edgeCount = 0;
+    for (int triangle = 0; triangle < triangleAlive.length; triangle++) {
+      if (!triangleAlive[triangle]) {
+        continue;
+      }
+      for (int i = 0; i < 3; i++) {
+        int a = triangles[triangle * 3 + i];
+        int b = triangles[triangle * 3 + (i + 1) % 3];
+        edges[edgeCount++] = (long) Math.min(a, b) << 32 | Math.max(a, b);
+      }
+    }
+    Arrays.sort(edges, 0, edgeCount);
+    for (int start = 0, end; start < edgeCount; start = end) {
+      for (end = start + 1; end < edgeCount && edges[end] == edges[start]; end++) {}
+      if (end - start != 2) {
+        vertexLocked[(int) (edges[start] >>> 32)] = true;
+        vertexLocked[(int) edges[start]] = true;
+      }
+    }
+  }
+
+  private void collapse(int from, int to) {
+    for (int i = 0; i < QUADRIC_SIZE; i++) {
+      quadrics[to * QUADRIC_SIZE + i] += quadrics[from * QUADRIC_SIZE + i];
+    }
+    quadricWeights[to] += quadricWeights[from];
+
+    for (int i = 0; i < vertexTriangleCounts[from]; i++) {
+      int triangle = vertexTriangles[from][i];
+      if (!triangleAlive[triangle]) {
+        continue;
+      }
+      if (triangleContains(triangle, to)) {
+        triangleAlive[triangle] = false;
+        aliveTriangleCount--;
+      } else {
+        for (int j = triangle * 3; j < triangle * 3 + 3; j++) {
+          if (triangles[j] == from) {
+            triangles[j] = to;
+          }
+        }
+        addVertexTriangle(to, triangle);
+      }
+    }
+    vertexAlive[from] = false;
+    vertexTriangleCounts[from] = 0;
+    vertexVersions[from]++;
+
+    // The collapse changed the quadric of the target, and the neighborhood of its neighbors.
+    compactVertexTriangles(to);
+    queueBestCollapse(to);
+    mark++;
+    vertexMarks[to] = mark;
+    for (int i = 0; i < vertexTriangleCounts[to]; i++) {
+      int triangle = vertexTriangles[to][i];
+      for (int j = triangle * 3; j < triangle * 3 + 3; j++) {
+        if (vertexMarks[triangles[j]] != mark) {
+          vertexMarks[triangles[j]] = mark;
+          queueBestCollapse(triangles[j]);
+        }
+      }
+    }
+  }
+
+  // Queues the cheapest valid collapse of a vertex onto one of its neighbors, if there is one.
+  private void queueBestCollapse(int from) {
+    int version = ++vertexVersions[from];
+    if (!vertexAlive[from] || vertexLocked[from]) {
+      return;
+    }
+    int bestTo = -1;
+    double bestCost = Double.MAX_VALUE;
+    for (int i = 0; i < vertexTriangleCounts[from]; i++) {
+      int triangle = vertexTriangles[from][i];
+      if (!triangleAlive[triangle]) {
+        continue;
+      }
+      for (int j = triangle * 3; j < triangle * 3 + 3; j++) {
+        int to = triangles[j];
+        if (to == from || to == bestTo) {
+          continue;
+        }
+        double cost = computeCost(from, to);
+        if (cost < bestCost && !flipsTriangles(from, to)) {
+          bestTo = to;
+          bestCost = cost;
+        }
+      }
+    }
+    if (bestTo != -1) {
+      collapses.add(new Collapse(from, bestTo, bestCost, version));
+    }
+  }
+
+  // Mean squared distance between the position of "to" and the planes merged into both vertices.
+  private double computeCost(int from, int to) {
+    double weight = quadricWeights[from] + quadricWeights[to];
+    if (weight == 0) {
+      return 0;
+    }
+    double x = positions[to * 3];
+    double y = positions[to * 3 + 1];
+    double z = positions[to * 3 + 2];
+    int f = from * QUADRIC_SIZE;
+    int t = to * QUADRIC_SIZE;
+    double[] q = quadrics;
+    double cost =
+        (q[f] + q[t]) * x * x
+            + 2 * (q[f + 1] + q[t + 1]) * x * y
+            + 2 * (q[f + 2] + q[t + 2]) * x * z
+            + 2 * (q[f + 3] + q[t + 3]) * x
+            + (q[f + 4] + q[t + 4]) * y * y
+            + 2 * (q[f + 5] + q[t + 5]) * y * z
+            + 2 * (q[f + 6] + q[t + 6]) * y
+            + (q[f + 7] + q[t + 7]) * z * z
+            + 2 * (q[f + 8] + q[t + 8]) * z
+            + (q[f + 9] + q[t + 9]);
+    return Math.max(0, cost / weight);
+  }
+
+  private boolean isNeighbor(int from, int to) {
+    for (int i = 0; i < vertexTriangleCounts[from]; i++) {
+      int triangle = vertexTriangles[from][i];
+      if (triangleAlive[triangle] && triangleContains(triangle, to)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // Whether moving "from" onto "to" would flip or degenerate one of the remaining triangles.
+  private boolean flipsTriangles(int from, int to) {
+    for (int i = 0; i < vertexTriangleCounts[from]; i++) {
+      int triangle = vertexTriangles[from][i];
+      if (!triangleAlive[triangle] || triangleContains(triangle, to)) {
+        continue;
+      }
+      int a = triangles[triangle * 3];
+      int b = triangles[triangle * 3 + 1];
+      int c = triangles[triangle * 3 + 2];
+      double oldLength = computeNormal(a, b, c, oldNormal);
+      double newLength =
+          computeNormal(a == from ? to : a, b == from ? to : b, c == from ? to : c, newNormal);
+      double dot =
+          oldNormal[0] * newNormal[0] + oldNormal[1] * newNormal[1] + oldNormal[2] * newNormal[2];
+      if (newLength == 0 || dot < MIN_NORMAL_COSINE * oldLength * newLength) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // Computes the unnormalized normal of a triangle, and returns its length, twice the area.
+  private double computeNormal(int a, int b, int c, double[] normal) {
+    double abX = positions[b * 3] - positions[a * 3];
+    double abY = positions[b * 3 + 1] - positions[a * 3 + 1];
+    double abZ = positions[b * 3 + 2] - positions[a * 3 + 2];
+    double acX = positions[c * 3] - positions[a * 3];
+    double acY = positions[c * 3 + 1] - positions[a * 3 + 1];
+    double acZ = positions[c * 3 + 2] - positions[a * 3 + 2];
+    normal[0] = abY * acZ - abZ * acY;
+    normal[1] = abZ * acX - abX * acZ;
+    normal[2] = abX * acY - abY * acX;
+    return Math.sqrt(normal[0] * normal[0] + normal[1] * normal[1] + normal[2] * normal[2]);
+  }
+
+  private void addPlaneQuadric(int vertex, double[] normal, double distance, double weight) {
+    double a = normal[0];
+    double b = normal[1];
+    double c = normal[2];
+    double d = distance;
+    int q = vertex * QUADRIC_SIZE;
+    quadrics[q] += weight * a * a;
+    quadrics[q + 1] += weight * a * b;
+    quadrics[q + 2] += weight * a * c;
+    quadrics[q + 3] += weight * a * d;
+    quadrics[q + 4] += weight * b * b;
+    quadrics[q + 5] += weight * b * c;
+    quadrics[q + 6] += weight * b * d;
+    quadrics[q + 7] += weight * c * c;
+    quadrics[q + 8] += weight * c * d;
+    quadrics[q + 9] += weight * d * d;
+    quadricWeights[vertex] += weight;
+  }
+
+  private boolean triangleContains(int triangle, int vertex) {
+    return triangles[triangle * 3] == vertex
+        || triangles[triangle * 3 + 1] == vertex
+        || triangles[triangle * 3 + 2] == vertex;
+  }
+
+  private void addVertexTriangle(int vertex, int triangle) {
+    if (vertexTriangleCounts[vertex] == vertexTriangles[vertex].length) {
+      vertexTriangles[vertex] =
+          Arrays.copyOf(vertexTriangles[vertex], vertexTriangles[vertex].length * 2 + 4);
+    }
+    vertexTriangles[vertex][vertexTriangleCounts[vertex]++] = triangle;
+  }
+
+  // Removes the removed triangles from the triangles around a vertex.
+  private void compactVertexTriangles(int vertex) {
+    int count = 0;
+    for (int i = 0; i < vertexTriangleCounts[vertex]; i++) {
+      int triangle = vertexTriangles[vertex][i];
+      if (triangleAlive[triangle]) {
+        vertexTriangles[vertex][count++] = triangle;
+      }
+    }
+    vertexTriangleCounts[vertex] = count;
+  }
+}
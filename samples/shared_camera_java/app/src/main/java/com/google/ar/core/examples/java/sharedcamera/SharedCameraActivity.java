@@ -62,8 +62,11 @@ import com.google.ar.core.Trackable;
 import com.google.ar.core.TrackingState;
 import com.google.ar.core.examples.java.common.helpers.CameraPermissionHelper;
 import com.google.ar.core.examples.java.common.helpers.DisplayRotationHelper;
+import com.google.ar.core.examples.java.common.helpers.FrameTracer;
 import com.google.ar.core.examples.java.common.helpers.FullScreenHelper;
+import com.google.ar.core.examples.java.common.helpers.LatencyRecorder;
 import com.google.ar.core.examples.java.common.helpers.SnackbarHelper;
+import com.google.ar.core.examples.java.common.helpers.StatsPublisher;
 import com.google.ar.core.examples.java.common.helpers.TapHelper;
 import com.google.ar.core.examples.java.common.rendering.BackgroundRenderer;
 import com.google.ar.core.examples.java.common.rendering.ObjectRenderer;
@@ -102,6 +105,20 @@ public class SharedCameraActivity extends AppCompatActivity
         SurfaceTexture.OnFrameAvailableListener {
   private static final String TAG = SharedCameraActivity.class.getSimpleName();
 
+  // Set to true to trace the time spent in each part of onDrawFrame(). The trace is written to the
+  // app's external files directory whenever the app is paused, and can be opened in
+  // chrome://tracing or ui.perfetto.dev.
+  private static final boolean TRACE_FRAMES = false;
+
+  // Latency of session.update() and time between rendered frames, logged once per second.
+  private static final int RENDER_FRAME_STAGE = 0;
+  private static final int SESSION_UPDATE_STAGE = 1;
+  private final LatencyRecorder latencyRecorder =
+      new LatencyRecorder(/*windowMillis=*/ 1000, "Render frame", "session.update");
+
+  // Maximum rate at which the status text is updated.
+  private static final float STATUS_UPDATES_PER_SECOND = 4;
+
   // Whether the app is currently in AR mode. Initial value determines initial state.
   private boolean arMode = false;
 
@@ -113,6 +130,7 @@ public class SharedCameraActivity extends AppCompatActivity
 
   // Text view for displaying on screen status message.
   private TextView statusTextView;
+  private StatsPublisher statusPublisher;
 
   // Linear layout that contains preview image and status text.
   private LinearLayout imageTextLinearLayout;
@@ -348,10 +366,12 @@ public class SharedCameraActivity extends AppCompatActivity
     // GL surface view that renders camera preview image.
     surfaceView = findViewById(R.id.glsurfaceview);
     surfaceView.setPreserveEGLContextOnPause(true);
-    surfaceView.setEGLContextClientVersion(2);
+    surfaceView.setEGLContextClientVersion(3);
     surfaceView.setEGLConfigChooser(8, 8, 8, 8, 16, 0);
     surfaceView.setRenderer(this);
     surfaceView.setRenderMode(GLSurfaceView.RENDERMODE_CONTINUOUSLY);
+    FrameTracer.setEnabled(TRACE_FRAMES);
+    getLifecycle().addObserver(latencyRecorder);
 
     // Helpers, see hello_ar_java sample to learn more.
     displayRotationHelper = new DisplayRotationHelper(this);
@@ -360,6 +380,7 @@ public class SharedCameraActivity extends AppCompatActivity
 
     imageTextLinearLayout = findViewById(R.id.image_text_layout);
     statusTextView = findViewById(R.id.text_view);
+    statusPublisher = new StatsPublisher(statusTextView, STATUS_UPDATES_PER_SECOND);
     arcoreSwitch = findViewById(R.id.arcore_switch);
 
     // Ensure initial switch position is set based on initial value of `arMode` variable.
@@ -412,6 +433,7 @@ public class SharedCameraActivity extends AppCompatActivity
   @Override
   public void onPause() {
     surfaceView.onPause();
+    FrameTracer.writeTraceIfEnabled(getExternalFilesDir(/*type=*/ null));
     waitUntilCameraCaptureSesssionIsActive();
     displayRotationHelper.onPause();
     if (arMode) {
@@ -696,18 +718,15 @@ public class SharedCameraActivity extends AppCompatActivity
     cpuImagesProcessed++;
 
     // Reduce the screen update to once every two seconds with 30fps if running as automated test.
-    if (!automatorRun.get() || (automatorRun.get() && cpuImagesProcessed % 60 == 0)) {
-      runOnUiThread(
-          () ->
-              statusTextView.setText(
-                  "CPU images processed: "
-                      + cpuImagesProcessed
-                      + "\n\nMode: "
-                      + (arMode ? "AR" : "non-AR")
-                      + " \nARCore active: "
-                      + arcoreActive
-                      + " \nShould update surface texture: "
-                      + shouldUpdateSurfaceTexture.get()));
+    boolean updateDue =
+        automatorRun.get() ? cpuImagesProcessed % 60 == 0 : statusPublisher.isUpdateDue();
+    if (updateDue) {
+      StringBuilder text = statusPublisher.beginUpdate();
+      text.append("CPU images processed: ").append(cpuImagesProcessed);
+      text.append("\n\nMode: ").append(arMode ? "AR" : "non-AR");
+      text.append(" \nARCore active: ").append(arcoreActive);
+      text.append(" \nShould update surface texture: ").append(shouldUpdateSurfaceTexture.get());
+      statusPublisher.endUpdate();
     }
   }
 
@@ -750,11 +769,11 @@ public class SharedCameraActivity extends AppCompatActivity
       planeRenderer.createOnGlThread(this, "models/trigrid.png");
       pointCloudRenderer.createOnGlThread(this);
 
-      virtualObject.createOnGlThread(this, "models/andy.obj", "models/andy.png");
+      virtualObject.createOnGlThread(this, "models/andy.mesh", "models/andy.png");
       virtualObject.setMaterialProperties(0.0f, 2.0f, 0.5f, 6.0f);
 
       virtualObjectShadow.createOnGlThread(
-          this, "models/andy_shadow.obj", "models/andy_shadow.png");
+          this, "models/andy_shadow.mesh", "models/andy_shadow.png");
       virtualObjectShadow.setBlendMode(BlendMode.Shadow);
       virtualObjectShadow.setMaterialProperties(1.0f, 0.0f, 0.0f, 1.0f);
 
@@ -792,6 +811,7 @@ public class SharedCameraActivity extends AppCompatActivity
     // Handle display rotations.
     displayRotationHelper.updateSessionIfNeeded(sharedSession);
 
+    FrameTracer.beginSection("onDrawFrame");
     try {
       if (arMode) {
         onDrawFrameARCore();
@@ -801,6 +821,8 @@ public class SharedCameraActivity extends AppCompatActivity
     } catch (Throwable t) {
       // Avoid crashing the application due to unhandled exceptions.
       Log.e(TAG, "Exception on the OpenGL thread", t);
+    } finally {
+      FrameTracer.endSection();
     }
   }
 
@@ -840,7 +862,21 @@ public class SharedCameraActivity extends AppCompatActivity
     }
 
     // Perform ARCore per-frame update.
-    Frame frame = sharedSession.update();
+    long updateStart = latencyRecorder.start();
+    FrameTracer.beginSection("session.update");
+    Frame frame;
+    try {
+      frame = sharedSession.update();
+    } finally {
+      FrameTracer.endSection();
+    }
+    latencyRecorder.record(SESSION_UPDATE_STAGE, updateStart);
+
+    latencyRecorder.recordInterval(RENDER_FRAME_STAGE);
+    if (latencyRecorder.updateWindow()) {
+      latencyRecorder.logWindows(TAG);
+    }
+
     Camera camera = frame.getCamera();
 
     // ARCore attached the surface to GL context using the texture ID we provided